@@ -0,0 +1,98 @@
+package com.lfcounago.javablockchain.benchmark;
+
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lfcounago.javablockchain.commons.estructuras.Bloque;
+import com.lfcounago.javablockchain.commons.estructuras.Transaccion;
+import com.lfcounago.javablockchain.commons.utilidades.CodecBinario;
+import com.lfcounago.javablockchain.commons.utilidades.UtilidadesFirma;
+
+/**
+ * Coste de serializar y deserializar un bloque en JSON (Jackson) y en el
+ * formato binario que usan los nodos entre sí.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({ "10", "1000" })
+    public int numeroTransacciones;
+
+    // configurado como el de Spring Boot, que ignora las propiedades desconocidas
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private Bloque bloque;
+    private byte[] json;
+    private byte[] binario;
+
+    @Setup
+    public void preparar() throws Exception {
+        // pocas cuentas que envían muchas transacciones, como en la red real
+        List<KeyPair> cuentas = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            cuentas.add(UtilidadesFirma.generarParClaves());
+        }
+
+        List<Transaccion> transacciones = new ArrayList<>();
+        transacciones.add(new Transaccion(cuentas.get(0).getPublic().getEncoded()));
+        for (int i = 1; i < numeroTransacciones; i++) {
+            KeyPair emisor = cuentas.get(i % cuentas.size());
+            KeyPair destinatario = cuentas.get((i + 1) % cuentas.size());
+            Transaccion transaccion = new Transaccion();
+            transaccion.setEmisor(emisor.getPublic().getEncoded());
+            transaccion.setDestinatario(destinatario.getPublic().getEncoded());
+            transaccion.setCantidad(i);
+            transaccion.setTimestamp(System.currentTimeMillis());
+            transaccion.setFirma(UtilidadesFirma.firmar(transaccion.getContenidoTransaccion(),
+                    emisor.getPrivate().getEncoded()));
+            transaccion.setHash(transaccion.calcularHashTransaccion());
+            transacciones.add(transaccion);
+        }
+        bloque = new Bloque(new byte[32], transacciones, 1);
+
+        json = mapper.writeValueAsBytes(bloque);
+        binario = CodecBinario.codificarBloque(bloque);
+    }
+
+    @Benchmark
+    public byte[] codificarJson() throws Exception {
+        return mapper.writeValueAsBytes(bloque);
+    }
+
+    @Benchmark
+    public byte[] codificarBinario() {
+        return CodecBinario.codificarBloque(bloque);
+    }
+
+    @Benchmark
+    public Bloque decodificarJson() throws Exception {
+        return mapper.readValue(json, Bloque.class);
+    }
+
+    @Benchmark
+    public Bloque decodificarBinario() throws Exception {
+        return CodecBinario.decodificarBloque(binario);
+    }
+}
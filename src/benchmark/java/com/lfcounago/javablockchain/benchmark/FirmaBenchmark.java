@@ -0,0 +1,55 @@
+package com.lfcounago.javablockchain.benchmark;
+
+import java.security.KeyPair;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lfcounago.javablockchain.commons.utilidades.UtilidadesFirma;
+
+/**
+ * Coste de firmar y validar el contenido de una transacción con DSA.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FirmaBenchmark {
+
+    private byte[] datos;
+    private byte[] clavePublica;
+    private byte[] clavePrivada;
+    private byte[] firma;
+
+    @Setup
+    public void preparar() throws Exception {
+        KeyPair claves = UtilidadesFirma.generarParClaves();
+        clavePublica = claves.getPublic().getEncoded();
+        clavePrivada = claves.getPrivate().getEncoded();
+        datos = new byte[1000];
+        new Random(3).nextBytes(datos);
+        firma = UtilidadesFirma.firmar(datos, clavePrivada);
+    }
+
+    @Benchmark
+    public byte[] firmar() throws Exception {
+        return UtilidadesFirma.firmar(datos, clavePrivada);
+    }
+
+    @Benchmark
+    public boolean validarFirma() {
+        return UtilidadesFirma.validarFirma(datos, firma, clavePublica);
+    }
+}
@@ -0,0 +1,69 @@
+package com.lfcounago.javablockchain.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lfcounago.javablockchain.commons.estructuras.Bloque;
+import com.lfcounago.javablockchain.commons.estructuras.Transaccion;
+import com.lfcounago.javablockchain.commons.utilidades.CalculadorHashCabecera;
+
+/**
+ * Coste del hash de la cabecera de un bloque: el cálculo que hace la validación
+ * (Bloque.calcularHash) y el que hace el bucle de minado con midstate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashBloqueBenchmark {
+
+    private Bloque bloque;
+    private CalculadorHashCabecera calculador;
+    private long nonce;
+
+    @Setup
+    public void preparar() {
+        Random random = new Random(1);
+        byte[] hashAnterior = new byte[32];
+        random.nextBytes(hashAnterior);
+
+        List<Transaccion> transacciones = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Transaccion transaccion = new Transaccion();
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+            transaccion.setHash(hash);
+            transacciones.add(transaccion);
+        }
+        bloque = new Bloque(hashAnterior, transacciones, 1);
+        calculador = new CalculadorHashCabecera(bloque.getHashBloqueAnterior(), bloque.getRaizArbolMerkle());
+        calculador.setTimestamp(bloque.getTimestamp());
+    }
+
+    @Benchmark
+    public byte[] calcularHash() {
+        bloque.setNonce(++nonce);
+        return bloque.calcularHash();
+    }
+
+    @Benchmark
+    public byte[] calcularHashMinado() {
+        calculador.setNonce(++nonce);
+        return calculador.calcular();
+    }
+}
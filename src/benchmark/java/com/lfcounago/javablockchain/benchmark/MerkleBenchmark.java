@@ -0,0 +1,59 @@
+package com.lfcounago.javablockchain.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lfcounago.javablockchain.commons.estructuras.Bloque;
+import com.lfcounago.javablockchain.commons.estructuras.Transaccion;
+
+/**
+ * Coste de calcular la raíz del árbol de Merkle según el número de
+ * transacciones del bloque.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MerkleBenchmark {
+
+    @Param({ "10", "1000", "100000" })
+    private int numeroTransacciones;
+
+    private Bloque bloque;
+
+    @Setup
+    public void preparar() {
+        Random random = new Random(2);
+        List<Transaccion> transacciones = new ArrayList<>(numeroTransacciones);
+        for (int i = 0; i < numeroTransacciones; i++) {
+            Transaccion transaccion = new Transaccion();
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+            transaccion.setHash(hash);
+            transacciones.add(transaccion);
+        }
+        bloque = new Bloque();
+        bloque.setTransactions(transacciones);
+    }
+
+    @Benchmark
+    public byte[] calcularRaizArbolMerkle() {
+        return bloque.calcularRaizArbolMerkle();
+    }
+}
@@ -0,0 +1,82 @@
+package com.lfcounago.javablockchain.benchmark;
+
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lfcounago.javablockchain.commons.estructuras.PoolTransacciones;
+import com.lfcounago.javablockchain.commons.estructuras.Transaccion;
+import com.lfcounago.javablockchain.commons.utilidades.UtilidadesFirma;
+
+/**
+ * Añadir y eliminar transacciones del pool desde varios hilos a la vez, como
+ * ocurre entre las peticiones REST y el hilo de minado. Añadir incluye la
+ * validación completa de la transacción.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PoolTransaccionesBenchmark {
+
+    private static final int NUMERO_TRANSACCIONES = 4096;
+
+    private PoolTransacciones pool;
+    private Transaccion[] transacciones;
+    private final AtomicInteger siguienteAñadir = new AtomicInteger();
+    private final AtomicInteger siguienteEliminar = new AtomicInteger();
+
+    @Setup
+    public void preparar() throws Exception {
+        KeyPair emisor = UtilidadesFirma.generarParClaves();
+        KeyPair destinatario = UtilidadesFirma.generarParClaves();
+
+        transacciones = new Transaccion[NUMERO_TRANSACCIONES];
+        for (int i = 0; i < NUMERO_TRANSACCIONES; i++) {
+            Transaccion transaccion = new Transaccion();
+            transaccion.setEmisor(emisor.getPublic().getEncoded());
+            transaccion.setDestinatario(destinatario.getPublic().getEncoded());
+            transaccion.setCantidad(1);
+            transaccion.setTimestamp(i);
+            transaccion.setFirma(UtilidadesFirma.firmar(transaccion.getContenidoTransaccion(),
+                    emisor.getPrivate().getEncoded()));
+            transaccion.setHash(transaccion.calcularHashTransaccion());
+            transacciones[i] = transaccion;
+        }
+        pool = new PoolTransacciones();
+    }
+
+    @Benchmark
+    @Group("contencion")
+    @GroupThreads(2)
+    public void añadir() {
+        Transaccion transaccion = transacciones[siguienteAñadir.getAndIncrement() & (NUMERO_TRANSACCIONES - 1)];
+        try {
+            pool.añadirTransaccion(transaccion);
+        } catch (Exception e) {
+            // transacción rechazada por el pool
+        }
+    }
+
+    @Benchmark
+    @Group("contencion")
+    @GroupThreads(2)
+    public void eliminar() {
+        pool.eliminarTransaccion(transacciones[siguienteEliminar.getAndIncrement() & (NUMERO_TRANSACCIONES - 1)]);
+    }
+}
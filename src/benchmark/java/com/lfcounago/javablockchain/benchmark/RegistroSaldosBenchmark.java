@@ -0,0 +1,63 @@
+package com.lfcounago.javablockchain.benchmark;
+
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lfcounago.javablockchain.commons.estructuras.Cantidad;
+import com.lfcounago.javablockchain.commons.estructuras.RegistroSaldos;
+import com.lfcounago.javablockchain.commons.estructuras.Transaccion;
+import com.lfcounago.javablockchain.commons.utilidades.UtilidadesFirma;
+
+/**
+ * Coste de liquidar una transacción contra el registro de saldos.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegistroSaldosBenchmark {
+
+    private RegistroSaldos saldos;
+    private Transaccion ida;
+    private Transaccion vuelta;
+
+    @Setup
+    public void preparar() throws Exception {
+        KeyPair emisor = UtilidadesFirma.generarParClaves();
+        KeyPair destinatario = UtilidadesFirma.generarParClaves();
+
+        ida = new Transaccion();
+        ida.setEmisor(emisor.getPublic().getEncoded());
+        ida.setDestinatario(destinatario.getPublic().getEncoded());
+        ida.setCantidad(1);
+
+        vuelta = new Transaccion();
+        vuelta.setEmisor(destinatario.getPublic().getEncoded());
+        vuelta.setDestinatario(emisor.getPublic().getEncoded());
+        vuelta.setCantidad(1);
+
+        saldos = new RegistroSaldos();
+        saldos.añadeSaldoACuenta(ida.getEmisor(), 10 * Cantidad.UNIDADES_POR_MONEDA);
+    }
+
+    @Benchmark
+    public RegistroSaldos liquidarTransaccion() throws Exception {
+        // ida y vuelta para que los saldos no se agoten
+        saldos.liquidarTransaccion(ida);
+        saldos.liquidarTransaccion(vuelta);
+        return saldos;
+    }
+}
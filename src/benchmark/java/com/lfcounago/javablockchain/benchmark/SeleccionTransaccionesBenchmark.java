@@ -0,0 +1,66 @@
+package com.lfcounago.javablockchain.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lfcounago.javablockchain.commons.estructuras.PoolTransacciones;
+import com.lfcounago.javablockchain.commons.estructuras.Transaccion;
+
+/**
+ * Selección de las transacciones de un bloque de 1000 transacciones en pools
+ * de distintos tamaños. El coste debe depender del tamaño del bloque y no del
+ * pool. Las transacciones no se firman porque el pool no vuelve a validarlas.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SeleccionTransaccionesBenchmark {
+
+    private static final int TRANSACCIONES_BLOQUE = 1000;
+
+    @Param({ "10000", "300000" })
+    public int tamañoPool;
+
+    private PoolTransacciones pool;
+
+    @Setup
+    public void preparar() {
+        Random aleatorio = new Random(3);
+        byte[] destinatario = new byte[32];
+        List<Transaccion> transacciones = new ArrayList<>(tamañoPool);
+        for (int i = 0; i < tamañoPool; i++) {
+            // unos 20 emisores por cada 100 transacciones
+            byte[] emisor = new byte[32];
+            emisor[0] = (byte) aleatorio.nextInt(256);
+            emisor[1] = (byte) (i % 64);
+            emisor[2] = (byte) (i / 64 / 5);
+            Transaccion transaccion = new Transaccion(emisor, destinatario, 1000, aleatorio.nextInt(100), null);
+            transaccion.setTimestamp(i);
+            transaccion.setHash(transaccion.calcularHashTransaccion());
+            transacciones.add(transaccion);
+        }
+        pool = new PoolTransacciones(transacciones);
+    }
+
+    @Benchmark
+    public List<Transaccion> seleccionar() {
+        return pool.seleccionarTransacciones(TRANSACCIONES_BLOQUE, transaccion -> true);
+    }
+}
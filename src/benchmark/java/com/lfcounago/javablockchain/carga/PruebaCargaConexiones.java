@@ -0,0 +1,130 @@
+package com.lfcounago.javablockchain.carga;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prueba de carga de las conexiones que atiende un nodo a la vez. Abre muchas
+ * conexiones lentas, que envían el cuerpo de un POST /transaccion a razón de
+ * un byte cada medio segundo y mantienen ocupado el hilo que las atiende,
+ * como haría un nodo con una red lenta. Mientras tanto se mide cuánto tarda un
+ * GET /nodo/ip.
+ *
+ * Con los hilos de plataforma de Tomcat (200 por defecto) las consultas dejan
+ * de responder cuando las conexiones lentas ocupan todos los hilos; con hilos
+ * virtuales (perfil java21) siguen respondiendo.
+ *
+ * Uso, con el nodo arrancado:
+ *
+ * mvn -P benchmark test-compile
+ * java -cp target/test-classes com.lfcounago.javablockchain.carga.PruebaCargaConexiones [url] [conexiones] [segundos]
+ */
+public class PruebaCargaConexiones {
+
+    private static final int TAMAÑO_CUERPO = 100_000;
+    private static final int TIMEOUT_CONSULTA_MS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        URL urlNodo = new URL(args.length > 0 ? args[0] : "http://localhost:9080");
+        int numeroConexiones = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+        int segundos = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        List<Socket> conexiones = new ArrayList<>(numeroConexiones);
+        try {
+            for (int i = 0; i < numeroConexiones; i++) {
+                conexiones.add(abrirConexionLenta(urlNodo));
+            }
+            Thread goteo = new Thread(() -> gotear(conexiones), "goteo");
+            goteo.setDaemon(true);
+            goteo.start();
+            // margen para que Tomcat asigne un hilo a cada conexión
+            Thread.sleep(1000);
+
+            List<Long> latencias = new ArrayList<>();
+            int fallidas = 0;
+            long fin = System.nanoTime() + TimeUnit.SECONDS.toNanos(segundos);
+            while (System.nanoTime() < fin) {
+                long inicio = System.nanoTime();
+                if (consultar(urlNodo)) {
+                    latencias.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio));
+                } else {
+                    fallidas++;
+                }
+                Thread.sleep(200);
+            }
+            goteo.interrupt();
+
+            Collections.sort(latencias);
+            System.out.println("Conexiones lentas: " + numeroConexiones);
+            System.out.println("Consultas respondidas: " + latencias.size() + ", sin respuesta en "
+                    + TIMEOUT_CONSULTA_MS + " ms: " + fallidas);
+            if (!latencias.isEmpty()) {
+                System.out.println("Latencia (ms): mediana " + latencias.get(latencias.size() / 2) + ", p99 "
+                        + latencias.get((int) (latencias.size() * 0.99)) + ", máxima "
+                        + latencias.get(latencias.size() - 1));
+            }
+        } finally {
+            for (Socket conexion : conexiones) {
+                conexion.close();
+            }
+        }
+    }
+
+    /**
+     * Abre una conexión y envía las cabeceras de un POST cuyo cuerpo se enviará
+     * poco a poco.
+     */
+    private static Socket abrirConexionLenta(URL urlNodo) throws IOException {
+        Socket conexion = new Socket(urlNodo.getHost(), urlNodo.getPort());
+        String cabeceras = "POST /transaccion HTTP/1.1\r\n" + "Host: " + urlNodo.getHost() + "\r\n"
+                + "Content-Type: application/json\r\n" + "Content-Length: " + TAMAÑO_CUERPO + "\r\n\r\n";
+        OutputStream salida = conexion.getOutputStream();
+        salida.write(cabeceras.getBytes(StandardCharsets.US_ASCII));
+        salida.flush();
+        return conexion;
+    }
+
+    /**
+     * Envía un espacio por cada conexión cada medio segundo. Los espacios al
+     * principio de un JSON son válidos, así que el servidor sigue esperando el
+     * resto del cuerpo.
+     */
+    private static void gotear(List<Socket> conexiones) {
+        while (!Thread.currentThread().isInterrupted()) {
+            for (Socket conexion : conexiones) {
+                try {
+                    conexion.getOutputStream().write(' ');
+                    conexion.getOutputStream().flush();
+                } catch (IOException e) {
+                    // el servidor ha cerrado la conexión
+                }
+            }
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static boolean consultar(URL urlNodo) {
+        try {
+            HttpURLConnection conexion = (HttpURLConnection) new URL(urlNodo, "/nodo/ip").openConnection();
+            conexion.setConnectTimeout(TIMEOUT_CONSULTA_MS);
+            conexion.setReadTimeout(TIMEOUT_CONSULTA_MS);
+            conexion.getInputStream().readAllBytes();
+            conexion.disconnect();
+            return conexion.getResponseCode() == 200;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -3,6 +3,8 @@ package com.lfcounago.javablockchain;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.XMLConfiguration;
 
+import com.lfcounago.javablockchain.commons.estructuras.Cantidad;
+
 public final class Configuracion {
 
     private XMLConfiguration xmlConfiguracion = null;
@@ -78,12 +80,258 @@ public final class Configuracion {
     }
 
     /**
-     * Obtiene la cantidad de criptomoneda a minar según la configuración.
+     * Obtiene la cantidad de criptomoneda a minar según la configuración. En el
+     * fichero se expresa en monedas (por ejemplo 10 o 12.5).
+     *
+     * @return La cantidad de criptomoneda a minar, en unidades mínimas.
+     */
+    public long getCantidadCoinbase() {
+        return Cantidad.parsear(configuracion.xmlConfiguracion.getString("cantidadCoinbase"));
+    }
+
+    /**
+     * Obtiene el número de hilos que se usan para resolver la prueba de trabajo.
+     * Si no está configurado o es menor que 1 se usa un hilo por procesador.
+     *
+     * @return El número de hilos de minado.
+     */
+    public int getHilosMinado() {
+        int hilos = configuracion.xmlConfiguracion.getInt("hilosMinado", 0);
+        return hilos > 0 ? hilos : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Obtiene el número máximo de claves públicas decodificadas que se guardan en
+     * la caché de validación de firmas.
+     *
+     * @return El tamaño máximo de la caché de claves públicas.
+     */
+    public int getMaxClavesCache() {
+        return configuracion.xmlConfiguracion.getInt("maxClavesCache", 10000);
+    }
+
+    /**
+     * Obtiene el número de hilos que validan en paralelo las transacciones de un
+     * bloque o de un lote. Si no está configurado o es menor que 1 se usa un hilo
+     * por procesador.
+     *
+     * @return El número de hilos de validación.
+     */
+    public int getHilosValidacion() {
+        int hilos = configuracion.xmlConfiguracion.getInt("hilosValidacion", 0);
+        return hilos > 0 ? hilos : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Indica si la cadena de bloques se guarda en disco. Si no, los bloques solo
+     * se mantienen en memoria y se pierden al parar el nodo.
+     *
+     * @return true si la persistencia está activada.
+     */
+    public boolean getPersistencia() {
+        return configuracion.xmlConfiguracion.getBoolean("persistencia", false);
+    }
+
+    /**
+     * Obtiene el directorio en el que se guardan los datos del nodo cuando la
+     * persistencia está activada.
+     *
+     * @return La ruta del directorio de datos.
+     */
+    public String getDirectorioDatos() {
+        return configuracion.xmlConfiguracion.getString("directorioDatos", "datos");
+    }
+
+    /**
+     * Obtiene el número máximo de bloques leídos de disco que se mantienen en
+     * memoria.
+     *
+     * @return El tamaño máximo de la caché de bloques.
+     */
+    public int getMaxBloquesCache() {
+        return configuracion.xmlConfiguracion.getInt("maxBloquesCache", 1000);
+    }
+
+    /**
+     * Obtiene cada cuántos bloques se guarda un checkpoint de los saldos cuando
+     * la persistencia está activada.
+     *
+     * @return El número de bloques entre checkpoints.
+     */
+    public int getIntervaloCheckpoint() {
+        return Math.max(1, configuracion.xmlConfiguracion.getInt("intervaloCheckpoint", 1000));
+    }
+
+    /**
+     * Obtiene el número máximo de bloques que se devuelven en cada petición de un
+     * rango de la cadena. Los nodos que se unen descargan la cadena en lotes de
+     * este tamaño.
+     *
+     * @return El número máximo de bloques por petición.
+     */
+    public int getMaxBloquesPorPeticion() {
+        return Math.max(1, configuracion.xmlConfiguracion.getInt("maxBloquesPorPeticion", 500));
+    }
+
+    /**
+     * Obtiene el número máximo de cabeceras que se devuelven en cada petición de
+     * la cadena de cabeceras.
+     *
+     * @return El número máximo de cabeceras por petición.
+     */
+    public int getMaxCabecerasPorPeticion() {
+        return Math.max(1, configuracion.xmlConfiguracion.getInt("maxCabecerasPorPeticion", 2000));
+    }
+
+    /**
+     * Indica si al unirse a la red se descargan primero las cabeceras del nodo
+     * master y después los bloques de todos los nodos vecinos en paralelo. Si no,
+     * los bloques se descargan por lotes solo del nodo master.
+     *
+     * @return true si se sincroniza primero por cabeceras.
+     */
+    public boolean getSincronizacionPorCabeceras() {
+        return configuracion.xmlConfiguracion.getBoolean("sincronizacionPorCabeceras", true);
+    }
+
+    /**
+     * Obtiene el número máximo de peticiones pendientes de enviar a cada nodo
+     * vecino. Si se supera se descartan las más antiguas.
+     *
+     * @return El tamaño de la cola de envíos de cada nodo.
+     */
+    public int getMaxEnviosPendientesPorNodo() {
+        return Math.max(1, configuracion.xmlConfiguracion.getInt("maxEnviosPendientesPorNodo", 1000));
+    }
+
+    /**
+     * Obtiene el tiempo máximo de conexión y de espera de respuesta de las
+     * peticiones a los nodos vecinos.
+     *
+     * @return El timeout en milisegundos.
+     */
+    public int getTimeoutPeticionMs() {
+        return configuracion.xmlConfiguracion.getInt("timeoutPeticionMs", 5000);
+    }
+
+    /**
+     * Obtiene el número de veces que se reintenta una petición a un nodo vecino
+     * que falla.
+     *
+     * @return El número de reintentos.
+     */
+    public int getReintentosEnvio() {
+        return Math.max(0, configuracion.xmlConfiguracion.getInt("reintentosEnvio", 3));
+    }
+
+    /**
+     * Obtiene el tiempo que puede estar pendiente una petición a un nodo vecino
+     * antes de descartarla.
+     *
+     * @return El tiempo máximo en milisegundos.
+     */
+    public long getCaducidadEnvioMs() {
+        return configuracion.xmlConfiguracion.getLong("caducidadEnvioMs", 30000);
+    }
+
+    /**
+     * Obtiene el número máximo de hashes que se recuerdan como conocidos por cada
+     * nodo vecino, para no anunciarle lo que ya tiene.
+     *
+     * @return El número máximo de hashes por vecino.
+     */
+    public int getMaxHashesVistosPorNodo() {
+        return Math.max(1, configuracion.xmlConfiguracion.getInt("maxHashesVistosPorNodo", 10000));
+    }
+
+    /**
+     * Obtiene el número máximo de hashes de bloques y transacciones aceptados que
+     * se recuerdan para no volver a pedirlos.
+     *
+     * @return El número máximo de hashes conocidos.
+     */
+    public int getMaxHashesConocidos() {
+        return Math.max(1, configuracion.xmlConfiguracion.getInt("maxHashesConocidos", 100000));
+    }
+
+    /**
+     * Obtiene el número máximo de peticiones de bloques y transacciones
+     * anunciados que pueden estar pendientes a la vez. Los anuncios que llegan
+     * con el máximo alcanzado se descartan.
+     *
+     * @return El número máximo de peticiones pendientes.
+     */
+    public int getMaxPedidosInventarioPendientes() {
+        return Math.max(1, configuracion.xmlConfiguracion.getInt("maxPedidosInventarioPendientes", 1000));
+    }
+
+    /**
+     * Obtiene el número máximo de transacciones en el pool. Si se supera se
+     * expulsan las de menor prioridad.
+     *
+     * @return El número máximo de transacciones pendientes.
+     */
+    public int getMaxTransaccionesPool() {
+        return Math.max(1, configuracion.xmlConfiguracion.getInt("maxTransaccionesPool", 300000));
+    }
+
+    /**
+     * Obtiene la memoria máxima estimada que puede ocupar el pool de
+     * transacciones.
+     *
+     * @return El máximo en bytes.
+     */
+    public long getMaxBytesPool() {
+        return Math.max(1, configuracion.xmlConfiguracion.getLong("maxBytesPool", 256L * 1024 * 1024));
+    }
+
+    /**
+     * Obtiene el tiempo que puede estar una transacción en el pool sin minarse
+     * antes de descartarla.
+     *
+     * @return El tiempo máximo en milisegundos.
+     */
+    public long getCaducidadTransaccionPoolMs() {
+        return configuracion.xmlConfiguracion.getLong("caducidadTransaccionPoolMs", 24L * 60 * 60 * 1000);
+    }
+
+    /**
+     * Obtiene el número máximo de bloques que se pueden deshacer al cambiar a una
+     * rama más pesada. Las ramas que se separan de la cadena antes de esa
+     * profundidad se rechazan.
+     *
+     * @return La profundidad máxima de una reorganización.
+     */
+    public int getMaxProfundidadReorganizacion() {
+        return configuracion.xmlConfiguracion.getInt("maxProfundidadReorganizacion", 100);
+    }
+
+    /**
+     * Obtiene el número máximo de bloques recibidos antes que su bloque anterior
+     * que se guardan a la espera de que llegue.
      *
-     * @return La cantidad de criptomoneda a minar.
+     * @return El número máximo de bloques huérfanos.
      */
-    public double getCantidadCoinbase() {
-        return configuracion.xmlConfiguracion.getDouble("cantidadCoinbase");
+    public int getMaxBloquesHuerfanos() {
+        return configuracion.xmlConfiguracion.getInt("maxBloquesHuerfanos", 200);
     }
 
+    /**
+     * Obtiene el tiempo que se guarda un bloque huérfano antes de descartarlo.
+     *
+     * @return El tiempo máximo en milisegundos.
+     */
+    public long getCaducidadBloqueHuerfanoMs() {
+        return configuracion.xmlConfiguracion.getLong("caducidadBloqueHuerfanoMs", 10L * 60 * 1000);
+    }
+
+    /**
+     * Obtiene el número máximo de transacciones que se devuelven en cada página
+     * del historial de una cuenta o en cada búsqueda de transacciones anunciadas.
+     *
+     * @return El número máximo de transacciones por petición.
+     */
+    public int getMaxTransaccionesPorPeticion() {
+        return Math.max(1, configuracion.xmlConfiguracion.getInt("maxTransaccionesPorPeticion", 100));
+    }
 }
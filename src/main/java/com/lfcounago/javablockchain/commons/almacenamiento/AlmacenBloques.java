@@ -0,0 +1,72 @@
+package com.lfcounago.javablockchain.commons.almacenamiento;
+
+import java.io.IOException;
+
+import com.lfcounago.javablockchain.commons.estructuras.Bloque;
+
+/**
+ * Almacén de los bloques de la cadena, ordenados por altura.
+ */
+public interface AlmacenBloques {
+
+    /**
+     * Obtiene el número de bloques guardados.
+     *
+     * @return El número de bloques.
+     */
+    int getNumeroBloques();
+
+    /**
+     * Obtiene el último bloque añadido. Devuelve siempre la misma instancia
+     * mientras no se añada otro bloque.
+     *
+     * @return El último bloque, o null si no hay bloques.
+     */
+    Bloque getUltimoBloque();
+
+    /**
+     * Obtiene el bloque a una altura dada.
+     *
+     * @param altura La altura del bloque (0 es el génesis).
+     * @return El bloque.
+     * @throws IndexOutOfBoundsException Si no hay bloque a esa altura.
+     */
+    Bloque obtenerBloque(int altura);
+
+    /**
+     * Busca la altura de un bloque a partir de su hash.
+     *
+     * @param hash El hash del bloque.
+     * @return La altura del bloque, o -1 si no está guardado.
+     */
+    int obtenerAltura(byte[] hash);
+
+    /**
+     * Añade un bloque al final.
+     *
+     * @param bloque El bloque a añadir.
+     * @throws IOException Si no se puede guardar el bloque.
+     */
+    void añadirBloque(Bloque bloque) throws IOException;
+
+    /**
+     * Elimina los bloques del final hasta dejar el número dado. El coste depende
+     * del número de bloques eliminados y no de la longitud de la cadena.
+     *
+     * @param numeroBloques El número de bloques que quedan.
+     * @throws IOException Si no se pueden eliminar.
+     */
+    void truncar(int numeroBloques) throws IOException;
+
+    /**
+     * Elimina todos los bloques.
+     *
+     * @throws IOException Si no se pueden eliminar.
+     */
+    void vaciar() throws IOException;
+
+    /**
+     * Libera los recursos del almacén.
+     */
+    void cerrar();
+}
@@ -0,0 +1,293 @@
+package com.lfcounago.javablockchain.commons.almacenamiento;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.lfcounago.javablockchain.commons.estructuras.Bloque;
+import com.lfcounago.javablockchain.commons.utilidades.CodecBinario;
+import com.lfcounago.javablockchain.commons.utilidades.UtilidadesHash;
+
+/**
+ * Almacén de bloques en disco. Está formado por tres ficheros en el directorio
+ * de datos:
+ * - bloques.dat: fichero de solo añadir con los bloques codificados con
+ * CodecBinario. Cada registro es longitud (4 bytes) | hash (32) | bloque. Solo
+ * se recorta por el final, al deshacer bloques en una reorganización.
+ * - alturas.idx: número de bloques (8 bytes) seguido de la posición en
+ * bloques.dat de cada altura (8 bytes por bloque), mapeado en memoria.
+ * - hashes.idx: tabla hash mapeada en memoria de hash de bloque a altura (ver
+ * IndiceHashes).
+ *
+ * Los bloques se leen de disco cuando se piden y se guardan en una caché LRU
+ * acotada, así que la memoria usada depende del número de bloques que se
+ * consultan y no de la longitud de la cadena. Al abrir el almacén solo se
+ * mapean los índices; si el último registro quedó a medias (por ejemplo por
+ * un corte de luz) se descarta, y si el índice de hashes no coincide con el de
+ * alturas se reconstruye a partir de los registros.
+ */
+public class AlmacenBloquesFichero implements AlmacenBloques {
+
+    private static final String FICHERO_BLOQUES = "bloques.dat";
+    private static final String FICHERO_ALTURAS = "alturas.idx";
+    private static final String FICHERO_HASHES = "hashes.idx";
+
+    // Cabecera de bloques.dat: "JBLQ" y versión del formato
+    private static final int MAGICO = 0x4A424C51;
+    private static final int VERSION = 1;
+    private static final int CABECERA_BLOQUES = 8;
+
+    // Cabecera de alturas.idx: número de bloques
+    private static final int CABECERA_ALTURAS = 8;
+    private static final int CAPACIDAD_INICIAL_ALTURAS = 1024;
+
+    // Longitud y hash al principio de cada registro
+    private static final int CABECERA_REGISTRO = 4 + UtilidadesHash.LONGITUD_HASH;
+
+    private final FileChannel canalBloques;
+    private final FileChannel canalAlturas;
+    private volatile MappedByteBuffer indiceAlturas;
+    private final IndiceHashes indiceHashes;
+
+    private final Cache<Integer, Bloque> cache;
+
+    private volatile int numeroBloques;
+    private volatile Bloque ultimoBloque;
+    // Posición en bloques.dat en la que se escribe el siguiente registro
+    private long finBloques;
+
+    /**
+     * Abre (o crea) el almacén en un directorio.
+     *
+     * @param directorio      Directorio de los ficheros del almacén.
+     * @param maxBloquesCache Número máximo de bloques leídos que se guardan en
+     *                        memoria.
+     * @throws IOException Si no se pueden abrir los ficheros o no tienen un
+     *                     formato válido.
+     */
+    public AlmacenBloquesFichero(Path directorio, int maxBloquesCache) throws IOException {
+        Files.createDirectories(directorio);
+        this.cache = CacheBuilder.newBuilder().maximumSize(maxBloquesCache).build();
+
+        this.canalBloques = FileChannel.open(directorio.resolve(FICHERO_BLOQUES), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (canalBloques.size() < CABECERA_BLOQUES) {
+            ByteBuffer cabecera = ByteBuffer.allocate(CABECERA_BLOQUES).putInt(MAGICO).putInt(VERSION).flip();
+            escribir(cabecera, 0);
+        } else {
+            ByteBuffer cabecera = leer(0, CABECERA_BLOQUES);
+            if (cabecera.getInt() != MAGICO || cabecera.getInt() != VERSION) {
+                throw new IOException("Formato de " + FICHERO_BLOQUES + " desconocido");
+            }
+        }
+
+        this.canalAlturas = FileChannel.open(directorio.resolve(FICHERO_ALTURAS), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long capacidad = Math.max(CAPACIDAD_INICIAL_ALTURAS, (canalAlturas.size() - CABECERA_ALTURAS) / 8);
+        this.indiceAlturas = canalAlturas.map(FileChannel.MapMode.READ_WRITE, 0, CABECERA_ALTURAS + capacidad * 8);
+
+        recuperar();
+
+        this.indiceHashes = new IndiceHashes(directorio.resolve(FICHERO_HASHES));
+        if (indiceHashes.getEntradas() != numeroBloques) {
+            System.out.println("Reconstruyendo índice de hashes de bloques...");
+            indiceHashes.vaciar();
+            for (int altura = 0; altura < numeroBloques; altura++) {
+                indiceHashes.insertar(leerHash(altura), altura);
+            }
+        }
+
+        this.ultimoBloque = numeroBloques > 0 ? leerBloque(numeroBloques - 1) : null;
+    }
+
+    @Override
+    public int getNumeroBloques() {
+        return numeroBloques;
+    }
+
+    @Override
+    public Bloque getUltimoBloque() {
+        return ultimoBloque;
+    }
+
+    @Override
+    public Bloque obtenerBloque(int altura) {
+        if (altura < 0 || altura >= numeroBloques) {
+            throw new IndexOutOfBoundsException("Altura " + altura + " fuera de la cadena");
+        }
+        try {
+            return cache.get(altura, () -> leerBloque(altura));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("No se puede leer el bloque " + altura, e.getCause());
+        }
+    }
+
+    @Override
+    public int obtenerAltura(byte[] hash) {
+        int altura = indiceHashes.buscar(hash);
+        return altura < numeroBloques ? altura : -1;
+    }
+
+    @Override
+    public synchronized void añadirBloque(Bloque bloque) throws IOException {
+        byte[] hash = bloque.getHash();
+        if (hash == null || hash.length != UtilidadesHash.LONGITUD_HASH) {
+            throw new IOException("Hash de bloque inválido");
+        }
+
+        byte[] codificado = CodecBinario.codificarBloque(bloque);
+        ByteBuffer registro = ByteBuffer.allocate(CABECERA_REGISTRO + codificado.length);
+        registro.putInt(codificado.length).put(hash).put(codificado).flip();
+        escribir(registro, finBloques);
+
+        int altura = numeroBloques;
+        asegurarCapacidadAlturas(altura + 1);
+        indiceAlturas.putLong(CABECERA_ALTURAS + altura * 8, finBloques);
+        indiceHashes.insertar(hash, altura);
+        finBloques += CABECERA_REGISTRO + codificado.length;
+
+        cache.put(altura, bloque);
+        indiceAlturas.putLong(0, altura + 1);
+        numeroBloques = altura + 1;
+        ultimoBloque = bloque;
+    }
+
+    /**
+     * Elimina los bloques del final. Primero se acorta el índice de alturas: si
+     * el nodo se para antes de terminar, al abrir el almacén se descartan los
+     * registros sobrantes y se reconstruye el índice de hashes.
+     */
+    @Override
+    public synchronized void truncar(int numero) throws IOException {
+        if (numero < 0 || numero > numeroBloques) {
+            throw new IndexOutOfBoundsException("Altura " + numero + " fuera de la cadena");
+        }
+        int anterior = numeroBloques;
+        if (numero == anterior) {
+            return;
+        }
+        long fin = posicion(numero);
+        indiceAlturas.putLong(0, numero);
+        numeroBloques = numero;
+        ultimoBloque = numero > 0 ? obtenerBloque(numero - 1) : null;
+
+        for (int altura = numero; altura < anterior; altura++) {
+            indiceHashes.eliminar(leerHash(altura));
+            cache.invalidate(altura);
+        }
+        canalBloques.truncate(fin);
+        finBloques = fin;
+    }
+
+    @Override
+    public synchronized void vaciar() throws IOException {
+        numeroBloques = 0;
+        ultimoBloque = null;
+        indiceAlturas.putLong(0, 0);
+        canalBloques.truncate(CABECERA_BLOQUES);
+        finBloques = CABECERA_BLOQUES;
+        indiceHashes.vaciar();
+        cache.invalidateAll();
+    }
+
+    @Override
+    public synchronized void cerrar() {
+        try {
+            canalBloques.force(false);
+            indiceAlturas.force();
+            indiceHashes.cerrar();
+            canalBloques.close();
+            canalAlturas.close();
+        } catch (IOException e) {
+            System.out.println("Error al cerrar el almacén de bloques: " + e);
+        }
+    }
+
+    /**
+     * Descarta los registros del final de bloques.dat que no están completos o
+     * que no llegaron a indexarse, y deja finBloques al final del último
+     * registro válido.
+     */
+    private void recuperar() throws IOException {
+        long tamaño = canalBloques.size();
+        int numero = (int) Math.min(indiceAlturas.getLong(0), (indiceAlturas.capacity() - CABECERA_ALTURAS) / 8);
+        long fin = CABECERA_BLOQUES;
+        while (numero > 0) {
+            long inicio = posicion(numero - 1);
+            if (inicio >= CABECERA_BLOQUES && inicio + CABECERA_REGISTRO <= tamaño) {
+                long finRegistro = inicio + CABECERA_REGISTRO + leer(inicio, 4).getInt();
+                if (finRegistro <= tamaño) {
+                    fin = finRegistro;
+                    break;
+                }
+            }
+            numero--;
+        }
+        if (numero != indiceAlturas.getLong(0)) {
+            System.out.println("Descartados bloques incompletos; la cadena en disco tiene " + numero + " bloques.");
+        }
+        if (tamaño > fin) {
+            canalBloques.truncate(fin);
+        }
+        indiceAlturas.putLong(0, numero);
+        this.numeroBloques = numero;
+        this.finBloques = fin;
+    }
+
+    private Bloque leerBloque(int altura) throws IOException {
+        long inicio = posicion(altura);
+        int longitud = leer(inicio, 4).getInt();
+        ByteBuffer datos = leer(inicio + CABECERA_REGISTRO, longitud);
+        return CodecBinario.decodificarBloque(datos.array());
+    }
+
+    private byte[] leerHash(int altura) throws IOException {
+        ByteBuffer cabecera = leer(posicion(altura), CABECERA_REGISTRO);
+        byte[] hash = new byte[UtilidadesHash.LONGITUD_HASH];
+        cabecera.position(4);
+        cabecera.get(hash);
+        return hash;
+    }
+
+    private long posicion(int altura) {
+        return indiceAlturas.getLong(CABECERA_ALTURAS + altura * 8);
+    }
+
+    /**
+     * Amplía el mapa de alturas al doble cuando no caben más bloques. Los
+     * lectores que tengan el mapa anterior siguen viendo las alturas que ya
+     * había.
+     */
+    private void asegurarCapacidadAlturas(int bloques) throws IOException {
+        MappedByteBuffer actual = indiceAlturas;
+        long capacidad = (actual.capacity() - CABECERA_ALTURAS) / 8;
+        if (bloques > capacidad) {
+            actual.force();
+            indiceAlturas = canalAlturas.map(FileChannel.MapMode.READ_WRITE, 0, CABECERA_ALTURAS + capacidad * 16);
+        }
+    }
+
+    private ByteBuffer leer(long posicion, int longitud) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(longitud);
+        while (buffer.hasRemaining()) {
+            if (canalBloques.read(buffer, posicion + buffer.position()) < 0) {
+                throw new EOFException("Fin de " + FICHERO_BLOQUES + " en la posición " + posicion);
+            }
+        }
+        return buffer.flip();
+    }
+
+    private void escribir(ByteBuffer datos, long posicion) throws IOException {
+        while (datos.hasRemaining()) {
+            canalBloques.write(datos, posicion + datos.position());
+        }
+    }
+}
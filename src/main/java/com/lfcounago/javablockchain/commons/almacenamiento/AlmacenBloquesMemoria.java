@@ -0,0 +1,62 @@
+package com.lfcounago.javablockchain.commons.almacenamiento;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.lfcounago.javablockchain.commons.estructuras.Bloque;
+import com.lfcounago.javablockchain.commons.estructuras.IdHash;
+
+/**
+ * Almacén que mantiene todos los bloques en memoria. Es el que se usa cuando
+ * la persistencia está desactivada.
+ */
+public class AlmacenBloquesMemoria implements AlmacenBloques {
+
+    private final List<Bloque> bloques = new ArrayList<Bloque>();
+    private final Map<IdHash, Integer> alturas = new ConcurrentHashMap<>();
+
+    @Override
+    public int getNumeroBloques() {
+        return bloques.size();
+    }
+
+    @Override
+    public Bloque getUltimoBloque() {
+        return bloques.isEmpty() ? null : bloques.get(bloques.size() - 1);
+    }
+
+    @Override
+    public Bloque obtenerBloque(int altura) {
+        return bloques.get(altura);
+    }
+
+    @Override
+    public int obtenerAltura(byte[] hash) {
+        return alturas.getOrDefault(IdHash.de(hash), -1);
+    }
+
+    @Override
+    public synchronized void añadirBloque(Bloque bloque) {
+        alturas.put(IdHash.de(bloque.getHash()), bloques.size());
+        bloques.add(bloque);
+    }
+
+    @Override
+    public synchronized void truncar(int numeroBloques) {
+        for (int altura = bloques.size() - 1; altura >= numeroBloques; altura--) {
+            alturas.remove(IdHash.de(bloques.remove(altura).getHash()));
+        }
+    }
+
+    @Override
+    public synchronized void vaciar() {
+        bloques.clear();
+        alturas.clear();
+    }
+
+    @Override
+    public void cerrar() {
+    }
+}
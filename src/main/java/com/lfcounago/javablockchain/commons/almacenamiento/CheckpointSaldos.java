@@ -0,0 +1,188 @@
+package com.lfcounago.javablockchain.commons.almacenamiento;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import com.lfcounago.javablockchain.commons.estructuras.IndiceTransacciones;
+import com.lfcounago.javablockchain.commons.estructuras.RegistroSaldos;
+import com.lfcounago.javablockchain.commons.utilidades.UtilidadesHash;
+
+/**
+ * Copia de los saldos de todas las cuentas y del índice de transacciones tras
+ * un número de bloques de la cadena. Al arrancar se carga el último checkpoint
+ * y solo se leen y liquidan los bloques posteriores, en lugar de toda la
+ * cadena.
+ *
+ * Formato del fichero: "JSAL" (4 bytes) | versión (4) | número de bloques (4)
+ * | hash del último bloque (32) | saldos (ver RegistroSaldos.escribirSaldos) |
+ * hay índice (1) | índice, si lo hay (ver IndiceTransacciones.escribirIndice)
+ * | CRC32 de todo lo anterior (4). Se escribe en un fichero temporal que
+ * sustituye al anterior de forma atómica, y el checkpoint previo se conserva
+ * con la extensión ".anterior".
+ *
+ * Los ficheros de versiones anteriores no se leen: la versión 1 no tenía índice
+ * y la 2 no guardaba la clave pública de cada cuenta, sin la que los saldos no
+ * se pueden mostrar por clave. Con uno de esos ficheros la cadena se vuelve a
+ * liquidar entera al arrancar, y al cerrarla se guarda en la versión actual.
+ */
+public class CheckpointSaldos {
+
+    // Nombre del fichero de checkpoint dentro del directorio de datos
+    public static final String FICHERO = "saldos.chk";
+
+    private static final int MAGICO = 0x4A53414C;
+    private static final int VERSION = 3;
+
+    private final int numeroBloques;
+    private final byte[] hashUltimoBloque;
+    private final RegistroSaldos saldos;
+    private final IndiceTransacciones indiceTransacciones;
+
+    public CheckpointSaldos(int numeroBloques, byte[] hashUltimoBloque, RegistroSaldos saldos) {
+        this(numeroBloques, hashUltimoBloque, saldos, null);
+    }
+
+    /**
+     * Crea un checkpoint.
+     *
+     * @param numeroBloques       Número de bloques liquidados en los saldos.
+     * @param hashUltimoBloque    Hash del último de esos bloques.
+     * @param saldos              Saldos tras liquidar esos bloques.
+     * @param indiceTransacciones Índice de la cadena, o null si no se guarda. Si
+     *                            tiene bloques posteriores, solo se guarda la
+     *                            parte de los numeroBloques primeros.
+     */
+    public CheckpointSaldos(int numeroBloques, byte[] hashUltimoBloque, RegistroSaldos saldos,
+            IndiceTransacciones indiceTransacciones) {
+        this.numeroBloques = numeroBloques;
+        this.hashUltimoBloque = hashUltimoBloque;
+        this.saldos = saldos;
+        this.indiceTransacciones = indiceTransacciones;
+    }
+
+    public int getNumeroBloques() {
+        return numeroBloques;
+    }
+
+    public byte[] getHashUltimoBloque() {
+        return hashUltimoBloque;
+    }
+
+    public RegistroSaldos getSaldos() {
+        return saldos;
+    }
+
+    /**
+     * Obtiene el índice de transacciones de los bloques del checkpoint.
+     *
+     * @return El índice, o null si el checkpoint no lo tiene.
+     */
+    public IndiceTransacciones getIndiceTransacciones() {
+        return indiceTransacciones;
+    }
+
+    /**
+     * Obtiene la ruta del checkpoint previo al guardado en un fichero.
+     *
+     * @param fichero El fichero del checkpoint.
+     * @return El fichero del checkpoint anterior.
+     */
+    public static Path anterior(Path fichero) {
+        return fichero.resolveSibling(fichero.getFileName() + ".anterior");
+    }
+
+    /**
+     * Guarda el checkpoint en un fichero. Los saldos y el índice se escriben
+     * mientras se mantienen sus cerrojos, así que conviene que sean copias de los
+     * de la cadena para no bloquearla durante la escritura.
+     *
+     * @param fichero El fichero de destino.
+     * @throws IOException Si no se puede escribir.
+     */
+    public void guardar(Path fichero) throws IOException {
+        Path temporal = fichero.resolveSibling(fichero.getFileName() + ".tmp");
+        try (FileOutputStream salidaFichero = new FileOutputStream(temporal.toFile())) {
+            CRC32 crc = new CRC32();
+            DataOutputStream salida = new DataOutputStream(
+                    new BufferedOutputStream(new CheckedOutputStream(salidaFichero, crc), 64 * 1024));
+            salida.writeInt(MAGICO);
+            salida.writeInt(VERSION);
+            salida.writeInt(numeroBloques);
+            salida.write(hashUltimoBloque);
+            saldos.escribirSaldos(salida);
+            salida.writeBoolean(indiceTransacciones != null);
+            if (indiceTransacciones != null) {
+                indiceTransacciones.escribirIndice(salida, numeroBloques);
+            }
+            salida.flush();
+            salidaFichero.write(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array());
+            salidaFichero.getFD().sync();
+        }
+
+        if (Files.exists(fichero)) {
+            Files.move(fichero, anterior(fichero), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.move(temporal, fichero, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Lee un checkpoint de un fichero. El fichero se lee por partes a medida que
+     * se interpreta, calculando a la vez el CRC, que se comprueba al final.
+     *
+     * @param fichero El fichero del checkpoint.
+     * @return El checkpoint, o null si el fichero no existe.
+     * @throws IOException Si el fichero está dañado o no tiene un formato válido.
+     */
+    public static CheckpointSaldos leer(Path fichero) throws IOException {
+        if (!Files.exists(fichero)) {
+            return null;
+        }
+
+        try (BufferedInputStream entradaFichero = new BufferedInputStream(Files.newInputStream(fichero),
+                64 * 1024)) {
+            CRC32 crc = new CRC32();
+            DataInputStream entrada = new DataInputStream(new CheckedInputStream(entradaFichero, crc));
+            CheckpointSaldos checkpoint = leerContenido(entrada);
+
+            // el CRC va detrás del contenido y no forma parte de él
+            DataInputStream entradaCrc = new DataInputStream(entradaFichero);
+            if (entradaCrc.readInt() != (int) crc.getValue() || entradaFichero.read() != -1) {
+                throw new IOException("CRC del checkpoint incorrecto");
+            }
+            return checkpoint;
+        } catch (EOFException e) {
+            // con los datos dañados también se puede llegar antes al final
+            throw new IOException("Checkpoint incompleto", e);
+        }
+    }
+
+    private static CheckpointSaldos leerContenido(DataInputStream entrada) throws IOException {
+        int version = entrada.readInt() == MAGICO ? entrada.readInt() : -1;
+        if (version > 0 && version < VERSION) {
+            throw new IOException("Checkpoint de la versión " + version + ", anterior a la actual");
+        }
+        if (version != VERSION) {
+            throw new IOException("Formato de checkpoint desconocido");
+        }
+        int numeroBloques = entrada.readInt();
+        byte[] hashUltimoBloque = new byte[UtilidadesHash.LONGITUD_HASH];
+        entrada.readFully(hashUltimoBloque);
+        RegistroSaldos saldos = RegistroSaldos.leerSaldos(entrada);
+        IndiceTransacciones indiceTransacciones = entrada.readBoolean() ? IndiceTransacciones.leerIndice(entrada)
+                : null;
+        return new CheckpointSaldos(numeroBloques, hashUltimoBloque, saldos, indiceTransacciones);
+    }
+}
@@ -0,0 +1,252 @@
+package com.lfcounago.javablockchain.commons.almacenamiento;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import com.lfcounago.javablockchain.commons.utilidades.UtilidadesHash;
+
+/**
+ * Tabla hash en disco, mapeada en memoria, que relaciona el hash de un bloque
+ * con su altura. Usa direccionamiento abierto con sondeo lineal: cada ranura
+ * guarda el hash (32 bytes) y la altura + 1 (8 bytes, 0 si está libre). La
+ * posición inicial se toma de los primeros bytes del hash, que ya están
+ * uniformemente distribuidos. Cuando se supera la mitad de ocupación se
+ * reconstruye con el doble de ranuras en un fichero nuevo que sustituye al
+ * anterior.
+ *
+ * Las escrituras deben estar sincronizadas externamente; las lecturas pueden
+ * hacerse en paralelo con ellas.
+ */
+class IndiceHashes {
+
+    // Cabecera: número de entradas (8 bytes) y 8 bytes reservados
+    private static final int CABECERA = 16;
+    private static final int LONGITUD_RANURA = UtilidadesHash.LONGITUD_HASH + 8;
+    private static final int RANURAS_INICIALES = 1024;
+
+    private final Path fichero;
+    private FileChannel canal;
+    private volatile MappedByteBuffer mapa;
+    private int entradas;
+
+    IndiceHashes(Path fichero) throws IOException {
+        this.fichero = fichero;
+        boolean existe = Files.exists(fichero) && Files.size(fichero) > CABECERA;
+        this.canal = FileChannel.open(fichero, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (existe && Integer.bitCount(numeroRanuras(canal.size())) == 1) {
+            this.mapa = canal.map(FileChannel.MapMode.READ_WRITE, 0, canal.size());
+            this.entradas = (int) mapa.getLong(0);
+        } else {
+            canal.truncate(0);
+            this.mapa = mapear(canal, RANURAS_INICIALES);
+            this.entradas = 0;
+        }
+    }
+
+    /**
+     * Número de hashes guardados.
+     */
+    int getEntradas() {
+        return entradas;
+    }
+
+    /**
+     * Busca la altura de un bloque.
+     *
+     * @param hash El hash del bloque.
+     * @return La altura, o -1 si no está en el índice.
+     */
+    int buscar(byte[] hash) {
+        if (hash == null || hash.length != UtilidadesHash.LONGITUD_HASH) {
+            return -1;
+        }
+        MappedByteBuffer actual = mapa;
+        int mascara = numeroRanuras(actual) - 1;
+        for (int ranura = ranuraInicial(hash) & mascara;; ranura = (ranura + 1) & mascara) {
+            int posicion = CABECERA + ranura * LONGITUD_RANURA;
+            long valor = actual.getLong(posicion + UtilidadesHash.LONGITUD_HASH);
+            if (valor == 0) {
+                return -1;
+            }
+            if (coincide(actual, posicion, hash)) {
+                return (int) (valor - 1);
+            }
+        }
+    }
+
+    /**
+     * Guarda la altura de un bloque. Si el hash ya estaba se sobrescribe.
+     *
+     * @param hash   El hash del bloque.
+     * @param altura La altura del bloque.
+     * @throws IOException Si no se puede ampliar el índice.
+     */
+    void insertar(byte[] hash, int altura) throws IOException {
+        if (2 * (entradas + 1) > numeroRanuras(mapa)) {
+            crecer();
+        }
+        if (escribir(mapa, hash, altura)) {
+            entradas++;
+            mapa.putLong(0, entradas);
+        }
+    }
+
+    /**
+     * Elimina la entrada de un hash. Las entradas siguientes del mismo grupo se
+     * desplazan hacia atrás para no dejar huecos en el sondeo, así que una
+     * lectura en paralelo puede no encontrar momentáneamente una de ellas.
+     *
+     * @param hash El hash del bloque.
+     */
+    void eliminar(byte[] hash) {
+        MappedByteBuffer actual = mapa;
+        int mascara = numeroRanuras(actual) - 1;
+        int hueco = ranuraInicial(hash) & mascara;
+        while (true) {
+            int posicion = CABECERA + hueco * LONGITUD_RANURA;
+            if (actual.getLong(posicion + UtilidadesHash.LONGITUD_HASH) == 0) {
+                return;
+            }
+            if (coincide(actual, posicion, hash)) {
+                break;
+            }
+            hueco = (hueco + 1) & mascara;
+        }
+
+        byte[] otro = new byte[UtilidadesHash.LONGITUD_HASH];
+        for (int ranura = (hueco + 1) & mascara;; ranura = (ranura + 1) & mascara) {
+            int posicion = CABECERA + ranura * LONGITUD_RANURA;
+            long valor = actual.getLong(posicion + UtilidadesHash.LONGITUD_HASH);
+            if (valor == 0) {
+                break;
+            }
+            // la entrada puede ocupar el hueco si su ranura inicial no está entre
+            // el hueco y ella
+            actual.get(posicion, otro);
+            int inicial = ranuraInicial(otro) & mascara;
+            if (((ranura - inicial) & mascara) >= ((ranura - hueco) & mascara)) {
+                int posicionHueco = CABECERA + hueco * LONGITUD_RANURA;
+                actual.put(posicionHueco, otro);
+                actual.putLong(posicionHueco + UtilidadesHash.LONGITUD_HASH, valor);
+                hueco = ranura;
+            }
+        }
+        actual.putLong(CABECERA + hueco * LONGITUD_RANURA + UtilidadesHash.LONGITUD_HASH, 0);
+        entradas--;
+        actual.putLong(0, entradas);
+    }
+
+    /**
+     * Elimina todas las entradas.
+     *
+     * @throws IOException Si no se puede recrear el fichero.
+     */
+    void vaciar() throws IOException {
+        reemplazar(RANURAS_INICIALES, null);
+    }
+
+    /**
+     * Escribe en disco los cambios pendientes.
+     */
+    void forzar() {
+        mapa.force();
+    }
+
+    void cerrar() throws IOException {
+        forzar();
+        canal.close();
+    }
+
+    /**
+     * Duplica el número de ranuras y vuelve a insertar todas las entradas.
+     */
+    private void crecer() throws IOException {
+        reemplazar(numeroRanuras(mapa) * 2, mapa);
+    }
+
+    /**
+     * Crea la tabla en un fichero temporal con las entradas del mapa anterior (si
+     * lo hay) y lo mueve sobre el fichero del índice. Los lectores que aún usen
+     * el mapa anterior siguen viendo datos válidos hasta que lean el nuevo.
+     */
+    private void reemplazar(int ranuras, MappedByteBuffer anterior) throws IOException {
+        Path temporal = fichero.resolveSibling(fichero.getFileName() + ".tmp");
+        Files.deleteIfExists(temporal);
+        FileChannel nuevoCanal = FileChannel.open(temporal, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        MappedByteBuffer nuevo = mapear(nuevoCanal, ranuras);
+
+        int nuevasEntradas = 0;
+        if (anterior != null) {
+            byte[] hash = new byte[UtilidadesHash.LONGITUD_HASH];
+            for (int ranura = 0; ranura < numeroRanuras(anterior); ranura++) {
+                int posicion = CABECERA + ranura * LONGITUD_RANURA;
+                long valor = anterior.getLong(posicion + UtilidadesHash.LONGITUD_HASH);
+                if (valor != 0) {
+                    anterior.get(posicion, hash);
+                    escribir(nuevo, hash, (int) (valor - 1));
+                    nuevasEntradas++;
+                }
+            }
+        }
+        nuevo.putLong(0, nuevasEntradas);
+        nuevo.force();
+
+        Files.move(temporal, fichero, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        FileChannel canalAnterior = canal;
+        canal = nuevoCanal;
+        mapa = nuevo;
+        entradas = nuevasEntradas;
+        canalAnterior.close();
+    }
+
+    /**
+     * Escribe una entrada en la primera ranura libre o en la del mismo hash.
+     *
+     * @return true si la entrada es nueva.
+     */
+    private static boolean escribir(MappedByteBuffer destino, byte[] hash, int altura) {
+        int mascara = numeroRanuras(destino) - 1;
+        for (int ranura = ranuraInicial(hash) & mascara;; ranura = (ranura + 1) & mascara) {
+            int posicion = CABECERA + ranura * LONGITUD_RANURA;
+            long valor = destino.getLong(posicion + UtilidadesHash.LONGITUD_HASH);
+            if (valor == 0 || coincide(destino, posicion, hash)) {
+                destino.put(posicion, hash);
+                destino.putLong(posicion + UtilidadesHash.LONGITUD_HASH, altura + 1L);
+                return valor == 0;
+            }
+        }
+    }
+
+    private static MappedByteBuffer mapear(FileChannel canal, int ranuras) throws IOException {
+        return canal.map(FileChannel.MapMode.READ_WRITE, 0, CABECERA + (long) ranuras * LONGITUD_RANURA);
+    }
+
+    private static int numeroRanuras(ByteBuffer mapa) {
+        return numeroRanuras(mapa.capacity());
+    }
+
+    private static int numeroRanuras(long tamaño) {
+        return (int) ((tamaño - CABECERA) / LONGITUD_RANURA);
+    }
+
+    private static int ranuraInicial(byte[] hash) {
+        return ((hash[0] & 0xff) << 24) | ((hash[1] & 0xff) << 16) | ((hash[2] & 0xff) << 8) | (hash[3] & 0xff);
+    }
+
+    private static boolean coincide(ByteBuffer mapa, int posicion, byte[] hash) {
+        for (int i = 0; i < hash.length; i++) {
+            if (mapa.get(posicion + i) != hash[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
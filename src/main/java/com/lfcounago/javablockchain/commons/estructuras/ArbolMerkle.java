@@ -0,0 +1,95 @@
+package com.lfcounago.javablockchain.commons.estructuras;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.lfcounago.javablockchain.commons.utilidades.UtilidadesHash;
+import com.lfcounago.javablockchain.commons.utilidades.UtilidadesMerkle;
+
+public class ArbolMerkle {
+
+    private static final int LONGITUD_HASH = UtilidadesHash.LONGITUD_HASH;
+
+    // Niveles del árbol desde las hojas (nivel 0) hasta la raíz, 32 bytes por nodo
+    private final byte[][] niveles;
+    private final int numeroHojas;
+
+    /**
+     * Construye el árbol de Merkle completo de una lista de transacciones.
+     *
+     * @param transacciones Transacciones del bloque, en orden.
+     * @throws IllegalArgumentException si la lista está vacía o alguna transacción
+     *                                  no tiene un hash válido.
+     */
+    public ArbolMerkle(List<Transaccion> transacciones) {
+        if (transacciones == null || transacciones.isEmpty()) {
+            throw new IllegalArgumentException("Árbol de Merkle sin transacciones");
+        }
+        this.numeroHojas = transacciones.size();
+        byte[] hojas = new byte[numeroHojas * LONGITUD_HASH];
+        for (int i = 0; i < numeroHojas; i++) {
+            byte[] hash = transacciones.get(i).getHash();
+            if (hash == null || hash.length != LONGITUD_HASH) {
+                throw new IllegalArgumentException("Hash de transacción inválido");
+            }
+            System.arraycopy(hash, 0, hojas, i * LONGITUD_HASH, LONGITUD_HASH);
+        }
+        this.niveles = UtilidadesMerkle.calcularNiveles(hojas, numeroHojas);
+    }
+
+    /**
+     * Obtiene la raíz del árbol.
+     *
+     * @return Hash SHA-256 de la raíz.
+     */
+    public byte[] getRaiz() {
+        return Arrays.copyOf(niveles[niveles.length - 1], LONGITUD_HASH);
+    }
+
+    public int getNumeroHojas() {
+        return numeroHojas;
+    }
+
+    /**
+     * Busca la posición de una hoja a partir de su hash.
+     *
+     * @param hashHoja Hash de la transacción.
+     * @return La posición de la hoja, o -1 si no está en el árbol.
+     */
+    public int indiceDe(byte[] hashHoja) {
+        if (hashHoja == null || hashHoja.length != LONGITUD_HASH) {
+            return -1;
+        }
+        byte[] hojas = niveles[0];
+        for (int i = 0; i < numeroHojas; i++) {
+            if (Arrays.equals(hojas, i * LONGITUD_HASH, (i + 1) * LONGITUD_HASH, hashHoja, 0, LONGITUD_HASH)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Obtiene los hashes hermanos de una hoja desde las hojas hasta la raíz. En
+     * los niveles en los que el nodo sube sin pareja no se añade ningún hermano.
+     *
+     * @param indice Posición de la hoja.
+     * @return Lista de hashes hermanos.
+     */
+    public List<byte[]> getHermanos(int indice) {
+        List<byte[]> hermanos = new ArrayList<>();
+        int nodos = numeroHojas;
+        for (int k = 0; k < niveles.length - 1; k++) {
+            boolean promocionado = (nodos & 1) == 1 && indice == nodos - 1;
+            if (!promocionado) {
+                int hermano = indice ^ 1;
+                hermanos.add(Arrays.copyOfRange(niveles[k], hermano * LONGITUD_HASH, (hermano + 1) * LONGITUD_HASH));
+            }
+            indice /= 2;
+            nodos = (nodos + 1) / 2;
+        }
+        return hermanos;
+    }
+
+}
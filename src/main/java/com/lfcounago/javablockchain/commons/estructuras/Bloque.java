@@ -1,17 +1,16 @@
 package com.lfcounago.javablockchain.commons.estructuras;
 
-import com.google.common.primitives.Longs;
-
 import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.lang3.ArrayUtils;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import com.lfcounago.javablockchain.Configuracion;
+import com.lfcounago.javablockchain.commons.utilidades.UtilidadesHash;
+import com.lfcounago.javablockchain.commons.utilidades.UtilidadesMerkle;
 
 import java.util.Arrays;
 import java.util.Date;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
-import java.util.stream.Collectors;
 
 public class Bloque {
 	// Hash del bloque e identificador único de éste. Usado para enlazar bloques.
@@ -33,6 +32,9 @@ public class Bloque {
 	// Lista de transacciones incluidas en este bloque
 	private List<Transaccion> transacciones;
 
+	// Árbol de Merkle completo, calculado al pedir la primera prueba de inclusión
+	private volatile ArbolMerkle arbolMerkle;
+
 	public Bloque() {
 	}
 
@@ -45,6 +47,26 @@ public class Bloque {
 		this.hash = calcularHash();
 	}
 
+	/**
+	 * Crea un bloque a partir de una raíz de Merkle ya calculada. Se utiliza en el
+	 * minado para no recalcular el árbol de Merkle en cada nonce.
+	 *
+	 * @param hashBloqueAnterior Hash del bloque anterior.
+	 * @param transacciones      Transacciones incluidas en el bloque.
+	 * @param raizArbolMerkle    Raíz del árbol de Merkle de las transacciones.
+	 * @param nonce              Nonce inicial.
+	 * @param timestamp          Marca temporal del bloque.
+	 */
+	public Bloque(byte[] hashBloqueAnterior, List<Transaccion> transacciones, byte[] raizArbolMerkle, long nonce,
+			long timestamp) {
+		this.hashBloqueAnterior = hashBloqueAnterior;
+		this.transacciones = transacciones;
+		this.raizArbolMerkle = raizArbolMerkle;
+		this.nonce = nonce;
+		this.timestamp = timestamp;
+		this.hash = calcularHash();
+	}
+
 	public byte[] getHash() {
 		return hash;
 	}
@@ -67,6 +89,24 @@ public class Bloque {
 
 	public void setTransactions(List<Transaccion> transacciones) {
 		this.transacciones = transacciones;
+		this.arbolMerkle = null;
+	}
+
+	/**
+	 * Obtiene el árbol de Merkle completo de las transacciones del bloque. Se
+	 * calcula la primera vez y queda guardado para las siguientes pruebas de
+	 * inclusión.
+	 *
+	 * @return El árbol de Merkle del bloque.
+	 */
+	@JsonIgnore
+	public ArbolMerkle getArbolMerkle() {
+		ArbolMerkle arbol = arbolMerkle;
+		if (arbol == null) {
+			arbol = new ArbolMerkle(transacciones);
+			arbolMerkle = arbol;
+		}
+		return arbol;
 	}
 
 	public byte[] getRaizArbolMerkle() {
@@ -100,28 +140,28 @@ public class Bloque {
 	 * @return Hash SHA256
 	 */
 	public byte[] calcularHash() {
-		byte[] hashableData = ArrayUtils.addAll(hashBloqueAnterior, raizArbolMerkle);
-		hashableData = ArrayUtils.addAll(hashableData, Longs.toByteArray(nonce));
-		hashableData = ArrayUtils.addAll(hashableData, Longs.toByteArray(timestamp));
-		return DigestUtils.sha256(hashableData);
+		return UtilidadesHash.hashCabecera(hashBloqueAnterior, raizArbolMerkle, nonce, timestamp);
 	}
 
 	/**
-	 * Calcular la raiz del arbol de merkle formado con las transacciones
+	 * Calcular la raiz del arbol de merkle formado con las transacciones. Si un
+	 * nivel tiene un número impar de nodos, el último pasa sin cambios al nivel
+	 * siguiente.
 	 * https://en.wikipedia.org/wiki/Merkle_tree
 	 * 
-	 * @return Hash SHA256
+	 * @return Hash SHA256, o null si alguna transacción no tiene un hash válido
 	 */
 	public byte[] calcularRaizArbolMerkle() {
-		Queue<byte[]> colaHashes = new LinkedList<>(
-				transacciones.stream().map(Transaccion::getHash).collect(Collectors.toList()));
-		while (colaHashes.size() > 1) {
-			// calcular hash a partir de dos hashes previos
-			byte[] info = ArrayUtils.addAll(colaHashes.poll(), colaHashes.poll());
-			// añadir a la cola
-			colaHashes.add(DigestUtils.sha256(info));
+		byte[] hojas = new byte[transacciones.size() * UtilidadesHash.LONGITUD_HASH];
+		for (int i = 0; i < transacciones.size(); i++) {
+			byte[] hashTransaccion = transacciones.get(i).getHash();
+			if (hashTransaccion == null || hashTransaccion.length != UtilidadesHash.LONGITUD_HASH) {
+				return null;
+			}
+			System.arraycopy(hashTransaccion, 0, hojas, i * UtilidadesHash.LONGITUD_HASH,
+					UtilidadesHash.LONGITUD_HASH);
 		}
-		return colaHashes.poll();
+		return UtilidadesMerkle.calcularRaiz(hojas, transacciones.size());
 	}
 
 	/**
@@ -130,12 +170,7 @@ public class Bloque {
 	 * @return int number of leading zeros
 	 */
 	public int getNumeroDeCerosHash() {
-		for (int i = 0; i < getHash().length; i++) {
-			if (getHash()[i] != 0) {
-				return i;
-			}
-		}
-		return getHash().length;
+		return UtilidadesHash.contarCerosIniciales(getHash());
 	}
 
 	/**
@@ -170,6 +205,12 @@ public class Bloque {
 			return false;
 		}
 
+		// la coinbase es la recompensa más las comisiones del resto de transacciones
+		if (!esCorrectaCoinbase()) {
+			System.out.println("Cantidad coinbase inválida");
+			return false;
+		}
+
 		// la raiz del arbol de Merkle coincide
 		if (!Arrays.equals(getRaizArbolMerkle(), calcularRaizArbolMerkle())) {
 			System.out.println("Raiz Merkle inválida");
@@ -185,6 +226,38 @@ public class Bloque {
 		return true;
 	}
 
+	/**
+	 * Suma las comisiones de las transacciones del bloque.
+	 *
+	 * @return La suma de las comisiones en unidades mínimas.
+	 * @throws ArithmeticException Si la suma desborda.
+	 */
+	public long calcularComisiones() {
+		long comisiones = 0;
+		for (Transaccion transaccion : transacciones) {
+			comisiones = Math.addExact(comisiones, transaccion.getComision());
+		}
+		return comisiones;
+	}
+
+	/**
+	 * Comprueba que solo la primera transacción es coinbase y que su cantidad es
+	 * la recompensa configurada más las comisiones del bloque.
+	 */
+	private boolean esCorrectaCoinbase() {
+		for (int i = 1; i < transacciones.size(); i++) {
+			if (transacciones.get(i).getEsCoinbase()) {
+				return false;
+			}
+		}
+		try {
+			long esperada = Math.addExact(Configuracion.getInstancia().getCantidadCoinbase(), calcularComisiones());
+			return transacciones.get(0).getCantidad() == esperada;
+		} catch (ArithmeticException e) {
+			return false;
+		}
+	}
+
 	/**
 	 * Compara este bloque con el objeto especificado.a
 	 *
@@ -0,0 +1,110 @@
+package com.lfcounago.javablockchain.commons.estructuras;
+
+import java.util.Arrays;
+
+import com.lfcounago.javablockchain.commons.utilidades.UtilidadesHash;
+
+/**
+ * Cabecera de un bloque: los campos que forman su hash, sin las
+ * transacciones. Un nodo que se une a la red descarga primero la cadena de
+ * cabeceras, que ocupa poco, y comprueba el enlace entre bloques y la prueba
+ * de trabajo antes de pedir los bloques completos.
+ */
+public class CabeceraBloque {
+
+	private byte[] hash;
+	private byte[] hashBloqueAnterior;
+	private byte[] raizArbolMerkle;
+	private long nonce;
+	private long timestamp;
+
+	public CabeceraBloque() {
+	}
+
+	public CabeceraBloque(Bloque bloque) {
+		this.hash = bloque.getHash();
+		this.hashBloqueAnterior = bloque.getHashBloqueAnterior();
+		this.raizArbolMerkle = bloque.getRaizArbolMerkle();
+		this.nonce = bloque.getNonce();
+		this.timestamp = bloque.getTimestamp();
+	}
+
+	public byte[] getHash() {
+		return hash;
+	}
+
+	public void setHash(byte[] hash) {
+		this.hash = hash;
+	}
+
+	public byte[] getHashBloqueAnterior() {
+		return hashBloqueAnterior;
+	}
+
+	public void setHashBloqueAnterior(byte[] hashBloqueAnterior) {
+		this.hashBloqueAnterior = hashBloqueAnterior;
+	}
+
+	public byte[] getRaizArbolMerkle() {
+		return raizArbolMerkle;
+	}
+
+	public void setRaizArbolMerkle(byte[] raizArbolMerkle) {
+		this.raizArbolMerkle = raizArbolMerkle;
+	}
+
+	public long getNonce() {
+		return nonce;
+	}
+
+	public void setNonce(long nonce) {
+		this.nonce = nonce;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * Numero de ceros al principio del hash del bloque
+	 *
+	 * @return int number of leading zeros
+	 */
+	public int getNumeroDeCerosHash() {
+		return UtilidadesHash.contarCerosIniciales(hash);
+	}
+
+	/**
+	 * Comprueba que la cabecera está completa y que su hash coincide con el
+	 * calculado a partir de sus campos.
+	 *
+	 * @return true si la cabecera es válida
+	 */
+	public boolean esValida() {
+		if (hash == null || raizArbolMerkle == null) {
+			return false;
+		}
+		if (hashBloqueAnterior != null && nonce <= 0) {
+			return false;
+		}
+		return Arrays.equals(hash,
+				UtilidadesHash.hashCabecera(hashBloqueAnterior, raizArbolMerkle, nonce, timestamp));
+	}
+
+	/**
+	 * Comprueba que un bloque completo corresponde a esta cabecera: mismo hash y
+	 * misma raíz de Merkle, calculada de nuevo a partir de sus transacciones.
+	 *
+	 * @param bloque El bloque descargado.
+	 * @return true si el bloque corresponde a la cabecera.
+	 */
+	public boolean corresponde(Bloque bloque) {
+		return Arrays.equals(hash, bloque.getHash()) && Arrays.equals(raizArbolMerkle, bloque.getRaizArbolMerkle())
+				&& bloque.getTransacciones() != null
+				&& Arrays.equals(raizArbolMerkle, bloque.calcularRaizArbolMerkle());
+	}
+}
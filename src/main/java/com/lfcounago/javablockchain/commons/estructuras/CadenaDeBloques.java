@@ -1,42 +1,200 @@
 package com.lfcounago.javablockchain.commons.estructuras;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
-import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.lfcounago.javablockchain.commons.almacenamiento.AlmacenBloques;
+import com.lfcounago.javablockchain.commons.almacenamiento.AlmacenBloquesMemoria;
+import com.lfcounago.javablockchain.commons.almacenamiento.CheckpointSaldos;
 
 public class CadenaDeBloques {
 
-	// Lista de bloques en la cadena ordenados por altura
-	private List<Bloque> bloques = new ArrayList<Bloque>();
+	// Número de bloques que se pueden deshacer si no se indica otro
+	private static final int MAX_BLOQUES_DESHACER = 100;
+
+	// Almacén de los bloques en la cadena ordenados por altura
+	private final AlmacenBloques almacen;
+	// Vista de solo lectura de los bloques del almacén
+	private final List<Bloque> bloques = new AbstractList<Bloque>() {
+		@Override
+		public Bloque get(int altura) {
+			return almacen.obtenerBloque(altura);
+		}
+
+		@Override
+		public int size() {
+			return almacen.getNumeroBloques();
+		}
+	};
 	// Saldos actuales de las cuentas
 	private RegistroSaldos saldos = new RegistroSaldos();
+	// Datos para deshacer la liquidación de los últimos bloques, el más reciente
+	// al principio
+	private final Deque<RegistroSaldos.Deshacer> deshacer = new ArrayDeque<>();
+	private int maxBloquesDeshacer = MAX_BLOQUES_DESHACER;
+	// Ubicación de las transacciones de la cadena por hash y por cuenta
+	private IndiceTransacciones indiceTransacciones = new IndiceTransacciones();
+	// Último bloque publicado y a quién avisar cuando cambia
+	private volatile PuntaCadena punta;
+	private final List<Consumer<PuntaCadena>> oyentesPunta = new CopyOnWriteArrayList<>();
+
+	// Fichero en el que se guardan checkpoints de los saldos (null si no se
+	// guardan) y cada cuántos bloques se guarda uno
+	private final Path ficheroCheckpoint;
+	private final int intervaloCheckpoint;
+	// Número de bloques liquidados en el último checkpoint guardado o cargado
+	private volatile int numeroBloquesCheckpoint;
+	// Hilo que escribe los checkpoints y el último que espera a escribirse
+	private final ExecutorService escritorCheckpoint;
+	private final AtomicReference<CheckpointSaldos> checkpointPendiente = new AtomicReference<>();
 
 	public CadenaDeBloques() {
+		this.almacen = new AlmacenBloquesMemoria();
+		this.ficheroCheckpoint = null;
+		this.intervaloCheckpoint = 0;
+		this.escritorCheckpoint = null;
+		this.punta = new PuntaCadena(null, 0, 0);
 	}
 
 	public CadenaDeBloques(CadenaDeBloques cadena) throws Exception {
+		this();
 		this.setBloques(cadena.getBloques());
 	}
 
+	/**
+	 * Crea una cadena sobre un almacén que puede tener ya bloques guardados, y
+	 * calcula los saldos liquidando sus transacciones en orden.
+	 *
+	 * @param almacen El almacén de bloques.
+	 * @throws Exception Si alguna transacción guardada no se puede liquidar.
+	 */
+	public CadenaDeBloques(AlmacenBloques almacen) throws Exception {
+		this(almacen, null, 0);
+	}
+
+	public CadenaDeBloques(AlmacenBloques almacen, Path ficheroCheckpoint, int intervaloCheckpoint)
+			throws Exception {
+		this(almacen, ficheroCheckpoint, intervaloCheckpoint, MAX_BLOQUES_DESHACER);
+	}
+
+	/**
+	 * Crea una cadena sobre un almacén que puede tener ya bloques guardados. Los
+	 * saldos y el índice de transacciones se toman del último checkpoint que
+	 * coincida con los bloques del almacén, y solo se leen y liquidan los bloques
+	 * posteriores a él. Después se guarda un checkpoint cada intervaloCheckpoint
+	 * bloques y al cerrar la cadena.
+	 *
+	 * Al añadir bloques, el checkpoint se copia en el momento y se escribe en un
+	 * hilo aparte, para no retrasar al que añade el bloque. Si al terminar la
+	 * escritura hay otra copia esperando, se escribe solo la última.
+	 *
+	 * Los checkpoints se guardan tantos bloques por detrás del último como datos
+	 * para deshacer hay, de forma que al arrancar se vuelven a liquidar esos
+	 * bloques y se pueden deshacer igual que antes de parar el nodo. Si el
+	 * checkpoint se guardó sin índice, el índice se construye leyendo todos los
+	 * bloques del almacén.
+	 *
+	 * @param almacen             El almacén de bloques.
+	 * @param ficheroCheckpoint   Fichero de los checkpoints de saldos.
+	 * @param intervaloCheckpoint Número de bloques entre checkpoints.
+	 * @param maxBloquesDeshacer  Número de bloques que se pueden deshacer.
+	 * @throws Exception Si alguna transacción guardada no se puede liquidar.
+	 */
+	public CadenaDeBloques(AlmacenBloques almacen, Path ficheroCheckpoint, int intervaloCheckpoint,
+			int maxBloquesDeshacer) throws Exception {
+		this.almacen = almacen;
+		this.ficheroCheckpoint = ficheroCheckpoint;
+		this.intervaloCheckpoint = intervaloCheckpoint;
+		this.maxBloquesDeshacer = maxBloquesDeshacer;
+		this.escritorCheckpoint = ficheroCheckpoint != null ? Executors.newSingleThreadExecutor(tarea -> {
+			Thread hilo = new Thread(tarea, "checkpoint");
+			hilo.setDaemon(true);
+			return hilo;
+		}) : null;
+
+		CheckpointSaldos checkpoint = ficheroCheckpoint != null ? cargarCheckpoint() : null;
+		int desde = 0;
+		int desdeIndice = 0;
+		if (checkpoint != null) {
+			this.saldos = checkpoint.getSaldos();
+			desde = checkpoint.getNumeroBloques();
+			// sin índice no se da por guardado, para que al cerrar se guarde con él
+			if (checkpoint.getIndiceTransacciones() != null) {
+				this.indiceTransacciones = checkpoint.getIndiceTransacciones();
+				desdeIndice = desde;
+				this.numeroBloquesCheckpoint = desde;
+			}
+		}
+		for (int altura = desdeIndice; altura < almacen.getNumeroBloques(); altura++) {
+			Bloque bloque = almacen.obtenerBloque(altura);
+			if (altura >= desde) {
+				guardarDeshacer(saldos.liquidarTransacciones(bloque.getTransacciones()));
+			}
+			indiceTransacciones.añadirBloque(bloque, altura);
+		}
+		this.punta = new PuntaCadena(almacen.getUltimoBloque(), almacen.getNumeroBloques(), 0);
+	}
+
+	/**
+	 * Obtiene los bloques de la cadena. La lista es una vista del almacén: en el
+	 * almacén en disco cada bloque se lee cuando se pide.
+	 *
+	 * @return Los bloques ordenados por altura.
+	 */
 	public List<Bloque> getBloques() {
 		return bloques;
 	}
 
+	/**
+	 * Sustituye todos los bloques de la cadena por los dados, recalculando los
+	 * saldos.
+	 *
+	 * @param bloques Los nuevos bloques.
+	 * @throws Exception Si alguna transacción no se puede liquidar.
+	 */
 	public void setBloques(List<Bloque> bloques) throws Exception {
-		this.bloques = new ArrayList<Bloque>();
+		this.almacen.vaciar();
+		this.saldos = new RegistroSaldos();
+		this.deshacer.clear();
+		this.indiceTransacciones.vaciar();
+		publicarPunta();
 		for (Bloque bloque : bloques) {
 			this.añadirBloque(bloque);
 		}
 	}
 
 	public boolean estaVacia() {
-		return this.bloques == null || this.bloques.isEmpty();
+		return this.almacen.getNumeroBloques() == 0;
 	}
 
 	public RegistroSaldos getSaldos() {
 		return this.saldos;
 	}
 
+	/**
+	 * Obtiene el índice de las transacciones de la cadena. Se puede consultar
+	 * desde cualquier hilo; las ubicaciones que devuelve pueden quedar obsoletas si
+	 * la cadena se reorganiza mientras tanto.
+	 *
+	 * @return El índice de transacciones.
+	 */
+	@JsonIgnore
+	public IndiceTransacciones getIndiceTransacciones() {
+		return this.indiceTransacciones;
+	}
+
 	/**
 	 * Este método se utiliza para obtener el último bloque de la cadena de bloques.
 	 *
@@ -44,14 +202,96 @@ public class CadenaDeBloques {
 	 *         bloques está vacía.
 	 */
 	public Bloque getUltimoBloque() {
-		if (estaVacia()) {
-			return null;
+		return this.punta.getBloque();
+	}
+
+	/**
+	 * Cambia el número de bloques cuya liquidación se guarda para poder
+	 * deshacerlos.
+	 *
+	 * @param maxBloquesDeshacer El número máximo de bloques.
+	 */
+	public void setMaxBloquesDeshacer(int maxBloquesDeshacer) {
+		this.maxBloquesDeshacer = maxBloquesDeshacer;
+		while (this.deshacer.size() > maxBloquesDeshacer) {
+			this.deshacer.removeLast();
 		}
-		return this.bloques.get(this.bloques.size() - 1);
+	}
+
+	/**
+	 * Obtiene el último bloque publicado de la cadena junto con su versión. Se
+	 * puede leer desde cualquier hilo sin sincronización.
+	 *
+	 * @return La punta de la cadena.
+	 */
+	@JsonIgnore
+	public PuntaCadena getPunta() {
+		return this.punta;
+	}
+
+	/**
+	 * Registra un oyente al que se avisa cada vez que cambia el último bloque de
+	 * la cadena. Se le llama desde el hilo que modifica la cadena, así que no debe
+	 * bloquearse.
+	 *
+	 * @param oyente El oyente, que recibe la nueva punta.
+	 */
+	public void añadirOyentePunta(Consumer<PuntaCadena> oyente) {
+		this.oyentesPunta.add(oyente);
+	}
+
+	public void eliminarOyentePunta(Consumer<PuntaCadena> oyente) {
+		this.oyentesPunta.remove(oyente);
 	}
 
 	public int getNumeroBloques() {
-		return (estaVacia() ? 0 : this.bloques.size());
+		return this.almacen.getNumeroBloques();
+	}
+
+	/**
+	 * Obtiene la altura de un bloque de la cadena.
+	 *
+	 * @param hash El hash del bloque.
+	 * @return La altura del bloque, o -1 si no está en la cadena.
+	 */
+	public int getAltura(byte[] hash) {
+		return this.almacen.obtenerAltura(hash);
+	}
+
+	/**
+	 * Busca un bloque de la cadena por su hash.
+	 *
+	 * @param hash El hash del bloque.
+	 * @return El bloque, o null si no está en la cadena.
+	 */
+	public Bloque getBloque(byte[] hash) {
+		int altura = this.almacen.obtenerAltura(hash);
+		return altura >= 0 ? this.almacen.obtenerBloque(altura) : null;
+	}
+
+	/**
+	 * Espera a que se escriba el checkpoint pendiente, guarda otro si ha cambiado
+	 * desde el último y cierra el almacén de bloques.
+	 */
+	public void cerrar() {
+		if (this.ficheroCheckpoint != null) {
+			this.escritorCheckpoint.shutdown();
+			boolean terminado = false;
+			try {
+				terminado = this.escritorCheckpoint.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (!terminado) {
+				System.out.println("No terminó de escribirse el checkpoint de saldos pendiente.");
+			} else if (getNumeroBloques() - this.deshacer.size() != numeroBloquesCheckpoint) {
+				CheckpointSaldos checkpoint = copiarCheckpoint();
+				if (checkpoint != null) {
+					escribirCheckpoint(checkpoint);
+				}
+			}
+		}
+		this.almacen.cerrar();
 	}
 
 	/**
@@ -61,21 +301,161 @@ public class CadenaDeBloques {
 	 */
 	public void añadirBloque(Bloque bloque) throws Exception {
 
-		// iteramos y procesamos las transacciones. Si todo es correcto lo añadimos a la
-		// cadena
-		Iterator<Transaccion> itr = bloque.getTransacciones().iterator();
-
-		while (itr.hasNext()) {
-			Transaccion transaccion = (Transaccion) itr.next();
-			// actualizar saldos
-			saldos.liquidarTransaccion(transaccion);
+		// procesamos las transacciones. Si todo es correcto lo añadimos a la cadena
+		RegistroSaldos.Deshacer deshacerBloque = saldos.liquidarTransacciones(bloque.getTransacciones());
+		try {
+			this.almacen.añadirBloque(bloque);
+		} catch (IOException e) {
+			saldos.deshacer(deshacerBloque);
+			throw e;
 		}
+		guardarDeshacer(deshacerBloque);
+		indiceTransacciones.añadirBloque(bloque, getNumeroBloques() - 1);
+		publicarPunta();
 
-		this.bloques.add(bloque);
+		if (this.ficheroCheckpoint != null && getNumeroBloques() % this.intervaloCheckpoint == 0) {
+			guardarCheckpoint();
+		}
 
 		System.out.println(saldos.toString() + "\n");
 	}
 
+	/**
+	 * Quita el último bloque de la cadena y deshace su liquidación. Si no se
+	 * guardaron los datos para deshacerlo (el bloque es más antiguo que los
+	 * últimos maxBloquesDeshacer), los saldos se recalculan desde el principio de
+	 * la cadena.
+	 *
+	 * @return El bloque quitado.
+	 * @throws Exception Si la cadena está vacía o no se puede modificar el
+	 *                   almacén.
+	 */
+	public Bloque desconectarUltimoBloque() throws Exception {
+		Bloque ultimo = getUltimoBloque();
+		if (ultimo == null) {
+			throw new Exception("La cadena está vacía");
+		}
+		int numeroBloques = getNumeroBloques();
+		this.almacen.truncar(numeroBloques - 1);
+		indiceTransacciones.quitarBloque(ultimo, numeroBloques - 1);
+		if (!this.deshacer.isEmpty()) {
+			saldos.deshacer(this.deshacer.removeFirst());
+		} else {
+			System.out.println("Sin datos para deshacer el bloque " + (numeroBloques - 1)
+					+ ". Se recalculan los saldos.");
+			RegistroSaldos recalculados = new RegistroSaldos();
+			for (int altura = 0; altura < numeroBloques - 1; altura++) {
+				recalculados.liquidarTransacciones(this.almacen.obtenerBloque(altura).getTransacciones());
+			}
+			this.saldos = recalculados;
+		}
+		publicarPunta();
+		return ultimo;
+	}
+
+	private void guardarDeshacer(RegistroSaldos.Deshacer deshacerBloque) {
+		if (this.maxBloquesDeshacer > 0) {
+			this.deshacer.addFirst(deshacerBloque);
+			if (this.deshacer.size() > this.maxBloquesDeshacer) {
+				this.deshacer.removeLast();
+			}
+		}
+	}
+
+	/**
+	 * Publica el último bloque del almacén como nueva punta de la cadena y avisa
+	 * a los oyentes.
+	 */
+	private void publicarPunta() {
+		PuntaCadena nueva;
+		synchronized (this.oyentesPunta) {
+			nueva = new PuntaCadena(this.almacen.getUltimoBloque(), this.almacen.getNumeroBloques(),
+					this.punta.getVersion() + 1);
+			this.punta = nueva;
+		}
+		for (Consumer<PuntaCadena> oyente : this.oyentesPunta) {
+			oyente.accept(nueva);
+		}
+	}
+
+	/**
+	 * Lee el checkpoint más reciente que corresponda a bloques del almacén. Si el
+	 * último checkpoint no es válido (por ejemplo porque la cadena guardada se
+	 * sustituyó) se prueba con el anterior.
+	 *
+	 * @return El checkpoint, o null si no hay ninguno válido.
+	 */
+	private CheckpointSaldos cargarCheckpoint() {
+		for (Path fichero : new Path[] { ficheroCheckpoint, CheckpointSaldos.anterior(ficheroCheckpoint) }) {
+			try {
+				CheckpointSaldos checkpoint = CheckpointSaldos.leer(fichero);
+				int numero = checkpoint != null ? checkpoint.getNumeroBloques() : 0;
+				if (numero > 0 && numero <= almacen.getNumeroBloques() && Arrays
+						.equals(almacen.obtenerBloque(numero - 1).getHash(), checkpoint.getHashUltimoBloque())) {
+					System.out.println("Cargados saldos" + (checkpoint.getIndiceTransacciones() != null
+							? " e índice de transacciones"
+							: "") + " del checkpoint del bloque " + numero + ".");
+					return checkpoint;
+				}
+			} catch (IOException e) {
+				System.out.println("Checkpoint de saldos inválido " + fichero + ": " + e.getMessage());
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Copia el checkpoint actual y lo deja para que lo escriba el hilo de los
+	 * checkpoints. Si todavía hay otro esperando, se sustituye por este.
+	 */
+	private void guardarCheckpoint() {
+		CheckpointSaldos checkpoint = copiarCheckpoint();
+		if (checkpoint != null && this.checkpointPendiente.getAndSet(checkpoint) == null) {
+			this.escritorCheckpoint.execute(() -> {
+				CheckpointSaldos pendiente = this.checkpointPendiente.getAndSet(null);
+				if (pendiente != null) {
+					escribirCheckpoint(pendiente);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Copia los saldos y el índice de transacciones anteriores al bloque más
+	 * antiguo que se puede deshacer. Los saldos se obtienen deshaciendo sobre una
+	 * copia de los actuales, y del índice solo se copian las transacciones de los
+	 * bloques anteriores. Si se pueden deshacer todos los bloques no hay
+	 * checkpoint: al arrancar se lee la cadena entera, que no es más larga que
+	 * maxBloquesDeshacer.
+	 *
+	 * @return El checkpoint, o null si no hay que guardar ninguno.
+	 */
+	private CheckpointSaldos copiarCheckpoint() {
+		int numeroBloques = getNumeroBloques() - this.deshacer.size();
+		if (numeroBloques <= 0) {
+			return null;
+		}
+		RegistroSaldos saldosCheckpoint = new RegistroSaldos(saldos);
+		for (RegistroSaldos.Deshacer deshacerBloque : this.deshacer) {
+			saldosCheckpoint.deshacer(deshacerBloque);
+		}
+		return new CheckpointSaldos(numeroBloques, this.almacen.obtenerBloque(numeroBloques - 1).getHash(),
+				saldosCheckpoint, indiceTransacciones.copiar(numeroBloques));
+	}
+
+	/**
+	 * Escribe un checkpoint en el fichero. Un fallo al guardarlo no impide añadir
+	 * bloques; solo hace que el siguiente arranque sea más lento.
+	 */
+	private void escribirCheckpoint(CheckpointSaldos checkpoint) {
+		try {
+			checkpoint.guardar(ficheroCheckpoint);
+			this.numeroBloquesCheckpoint = checkpoint.getNumeroBloques();
+		} catch (IOException e) {
+			System.out.println("No se pudo guardar el checkpoint de saldos: " + e);
+		}
+	}
+
 	/**
 	 * Compara esta cadena de bloques con el objeto especificado.
 	 *
@@ -96,7 +476,7 @@ public class CadenaDeBloques {
 			return false;
 
 		for (int i = 0; i < bloques.size(); i++) {
-			if (bloques.get(i) != cadena.getBloques().get(i))
+			if (!bloques.get(i).equals(cadena.getBloques().get(i)))
 				return false;
 		}
 
@@ -0,0 +1,90 @@
+package com.lfcounago.javablockchain.commons.estructuras;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.exc.InvalidFormatException;
+
+/**
+ * Las cantidades se representan como long en unidades mínimas (1 moneda =
+ * 10^8 unidades), de forma que los saldos se calculan con aritmética entera
+ * exacta. En el JSON de la API se siguen escribiendo en monedas, con
+ * decimales, y se convierten a unidades mínimas sin pasar por coma flotante.
+ */
+public final class Cantidad {
+
+    // Número de decimales de una moneda
+    public static final int DECIMALES = 8;
+
+    // Unidades mínimas en una moneda
+    public static final long UNIDADES_POR_MONEDA = 100_000_000L;
+
+    private Cantidad() {
+    }
+
+    /**
+     * Convierte una cantidad en monedas escrita en decimal (por ejemplo "10.5") a
+     * unidades mínimas sin pasar por coma flotante.
+     *
+     * @param monedas La cantidad en monedas.
+     * @return La cantidad en unidades mínimas.
+     * @throws IllegalArgumentException si la cantidad no es un número, tiene más
+     *                                  de 8 decimales o no cabe en un long.
+     */
+    public static long parsear(String monedas) {
+        try {
+            return new BigDecimal(monedas.trim()).movePointRight(DECIMALES).longValueExact();
+        } catch (NumberFormatException | ArithmeticException | NullPointerException e) {
+            throw new IllegalArgumentException("Cantidad inválida: " + monedas, e);
+        }
+    }
+
+    /**
+     * Formatea una cantidad en unidades mínimas como monedas con decimales.
+     *
+     * @param unidades La cantidad en unidades mínimas.
+     * @return La cantidad en monedas, por ejemplo "10.5".
+     */
+    public static String formatear(long unidades) {
+        return BigDecimal.valueOf(unidades, DECIMALES).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * Escribe en JSON una cantidad en unidades mínimas como número de monedas.
+     */
+    public static final class SerializadorMonedas extends JsonSerializer<Long> {
+
+        @Override
+        public void serialize(Long unidades, JsonGenerator generador, SerializerProvider proveedor)
+                throws IOException {
+            generador.writeNumber(BigDecimal.valueOf(unidades, DECIMALES).stripTrailingZeros());
+        }
+    }
+
+    /**
+     * Lee de JSON un número de monedas, o un texto con él, como cantidad en
+     * unidades mínimas. Se rechazan las cantidades con más de 8 decimales.
+     */
+    public static final class DeserializadorMonedas extends JsonDeserializer<Long> {
+
+        @Override
+        public Long deserialize(JsonParser parser, DeserializationContext contexto) throws IOException {
+            try {
+                if (parser.currentToken() == JsonToken.VALUE_NUMBER_INT
+                        || parser.currentToken() == JsonToken.VALUE_NUMBER_FLOAT) {
+                    return parser.getDecimalValue().movePointRight(DECIMALES).longValueExact();
+                }
+                return parsear(parser.getText());
+            } catch (ArithmeticException | IllegalArgumentException e) {
+                throw InvalidFormatException.from(parser, "Cantidad inválida", parser.getText(), Long.class);
+            }
+        }
+    }
+}
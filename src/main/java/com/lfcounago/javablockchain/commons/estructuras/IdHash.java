@@ -0,0 +1,73 @@
+package com.lfcounago.javablockchain.commons.estructuras;
+
+import java.util.Arrays;
+
+import org.apache.commons.codec.binary.Base64;
+
+import com.lfcounago.javablockchain.commons.utilidades.UtilidadesHash;
+
+/**
+ * Identificador de 32 bytes (un hash SHA-256) usable como clave en mapas. Se
+ * usa para identificar cuentas por el hash de su clave pública, de forma que
+ * no haya que codificar la clave completa en cada consulta.
+ */
+public final class IdHash {
+
+    private final byte[] hash;
+    private final int hashCode;
+
+    private IdHash(byte[] hash) {
+        this.hash = hash;
+        this.hashCode = Arrays.hashCode(hash);
+    }
+
+    /**
+     * Crea un identificador a partir de un hash. El array no se copia, por lo que
+     * no debe modificarse después.
+     *
+     * @param hash El hash.
+     * @return El identificador del hash.
+     */
+    public static IdHash de(byte[] hash) {
+        return new IdHash(hash);
+    }
+
+    /**
+     * Crea el identificador de una cuenta a partir de su clave pública.
+     *
+     * @param clavePublica La clave pública codificada de la cuenta.
+     * @return El hash SHA-256 de la clave como identificador.
+     */
+    public static IdHash deClavePublica(byte[] clavePublica) {
+        return new IdHash(UtilidadesHash.sha256(clavePublica));
+    }
+
+    public byte[] getBytes() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+
+        return Arrays.equals(hash, ((IdHash) o).hash);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    /**
+     * Devuelve el identificador codificado en Base64.
+     *
+     * @return El identificador en Base64.
+     */
+    @Override
+    public String toString() {
+        return Base64.encodeBase64String(hash);
+    }
+}
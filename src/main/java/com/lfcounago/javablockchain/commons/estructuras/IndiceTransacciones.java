@@ -0,0 +1,272 @@
+package com.lfcounago.javablockchain.commons.estructuras;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.lfcounago.javablockchain.commons.utilidades.UtilidadesHash;
+
+/**
+ * Índice de las transacciones de la cadena: de cada transacción guarda el
+ * bloque y la posición en que está, y de cada cuenta las ubicaciones de sus
+ * transacciones, enviadas o recibidas, en el orden de la cadena. Así se busca
+ * una transacción o el historial de una cuenta sin recorrer los bloques.
+ *
+ * Los bloques se añaden y se quitan por el final de la cadena, de forma que las
+ * ubicaciones de cada cuenta se mantienen ordenadas añadiendo y quitando por el
+ * final de su lista.
+ *
+ * El índice se guarda en los checkpoints de saldos, de forma que al arrancar
+ * solo se leen los bloques posteriores al checkpoint.
+ */
+public class IndiceTransacciones {
+
+    private final Map<IdHash, Ubicacion> porHash = new HashMap<>();
+    private final Map<IdHash, List<Ubicacion>> porCuenta = new HashMap<>();
+
+    /**
+     * Añade las transacciones de un bloque que se acaba de poner al final de la
+     * cadena.
+     *
+     * @param bloque El bloque.
+     * @param altura Su altura en la cadena.
+     */
+    public synchronized void añadirBloque(Bloque bloque, int altura) {
+        List<Transaccion> transacciones = bloque.getTransacciones();
+        for (int posicion = 0; posicion < transacciones.size(); posicion++) {
+            Transaccion transaccion = transacciones.get(posicion);
+            Ubicacion ubicacion = new Ubicacion(altura, posicion);
+            porHash.put(IdHash.de(transaccion.getHash()), ubicacion);
+            IdHash emisor = transaccion.getIdEmisor();
+            IdHash destinatario = transaccion.getIdDestinatario();
+            if (emisor != null) {
+                porCuenta.computeIfAbsent(emisor, cuenta -> new ArrayList<>()).add(ubicacion);
+            }
+            if (destinatario != null && !destinatario.equals(emisor)) {
+                porCuenta.computeIfAbsent(destinatario, cuenta -> new ArrayList<>()).add(ubicacion);
+            }
+        }
+    }
+
+    /**
+     * Quita las transacciones del último bloque de la cadena.
+     *
+     * @param bloque El bloque que se quita.
+     * @param altura La altura que tenía en la cadena.
+     */
+    public synchronized void quitarBloque(Bloque bloque, int altura) {
+        for (Transaccion transaccion : bloque.getTransacciones()) {
+            IdHash id = IdHash.de(transaccion.getHash());
+            Ubicacion ubicacion = porHash.get(id);
+            if (ubicacion != null && ubicacion.altura == altura) {
+                porHash.remove(id);
+            }
+            quitarDeCuenta(transaccion.getIdEmisor(), altura);
+            quitarDeCuenta(transaccion.getIdDestinatario(), altura);
+        }
+    }
+
+    public synchronized void vaciar() {
+        porHash.clear();
+        porCuenta.clear();
+    }
+
+    /**
+     * Busca dónde está una transacción.
+     *
+     * @param hash El hash de la transacción.
+     * @return Su ubicación, o null si no está en la cadena.
+     */
+    public synchronized Ubicacion obtener(byte[] hash) {
+        return porHash.get(IdHash.de(hash));
+    }
+
+    /**
+     * Obtiene una página del historial de una cuenta, de la transacción más
+     * reciente a la más antigua.
+     *
+     * @param cuenta El identificador de la cuenta.
+     * @param desde  Número de transacciones recientes que se saltan.
+     * @param limite Número máximo de ubicaciones que se devuelven.
+     * @return Las ubicaciones de la página.
+     */
+    public synchronized List<Ubicacion> obtenerDeCuenta(IdHash cuenta, int desde, int limite) {
+        List<Ubicacion> ubicaciones = porCuenta.get(cuenta);
+        if (ubicaciones == null || desde < 0 || desde >= ubicaciones.size() || limite <= 0) {
+            return Collections.emptyList();
+        }
+        int primera = ubicaciones.size() - 1 - desde;
+        int ultima = Math.max(-1, primera - limite);
+        List<Ubicacion> pagina = new ArrayList<>(primera - ultima);
+        for (int i = primera; i > ultima; i--) {
+            pagina.add(ubicaciones.get(i));
+        }
+        return pagina;
+    }
+
+    public synchronized int getNumeroTransacciones(IdHash cuenta) {
+        List<Ubicacion> ubicaciones = porCuenta.get(cuenta);
+        return ubicaciones != null ? ubicaciones.size() : 0;
+    }
+
+    public synchronized int getNumeroTransacciones() {
+        return porHash.size();
+    }
+
+    /**
+     * Escribe en formato binario la parte del índice de los primeros bloques de
+     * la cadena: número de transacciones (4 bytes) y, por cada una, su hash (32),
+     * altura (4) y posición (4); después, número de cuentas (4) y, por cada una,
+     * su identificador (32), número de ubicaciones (4) y la altura (4) y posición
+     * (4) de cada ubicación.
+     *
+     * @param salida        Destino de los datos.
+     * @param numeroBloques Número de bloques de la cadena cuyas transacciones se
+     *                      escriben.
+     * @throws IOException Si falla la escritura.
+     */
+    public synchronized void escribirIndice(DataOutput salida, int numeroBloques) throws IOException {
+        List<Map.Entry<IdHash, Ubicacion>> transacciones = new ArrayList<>(porHash.size());
+        for (Map.Entry<IdHash, Ubicacion> entrada : porHash.entrySet()) {
+            if (entrada.getValue().altura < numeroBloques) {
+                transacciones.add(entrada);
+            }
+        }
+        salida.writeInt(transacciones.size());
+        for (Map.Entry<IdHash, Ubicacion> entrada : transacciones) {
+            salida.write(entrada.getKey().getBytes());
+            salida.writeInt(entrada.getValue().altura);
+            salida.writeInt(entrada.getValue().posicion);
+        }
+
+        // las ubicaciones de cada cuenta están ordenadas por altura
+        Map<IdHash, Integer> numeroUbicaciones = new HashMap<>();
+        for (Map.Entry<IdHash, List<Ubicacion>> entrada : porCuenta.entrySet()) {
+            List<Ubicacion> ubicaciones = entrada.getValue();
+            int numero = ubicaciones.size();
+            while (numero > 0 && ubicaciones.get(numero - 1).altura >= numeroBloques) {
+                numero--;
+            }
+            if (numero > 0) {
+                numeroUbicaciones.put(entrada.getKey(), numero);
+            }
+        }
+        salida.writeInt(numeroUbicaciones.size());
+        for (Map.Entry<IdHash, Integer> entrada : numeroUbicaciones.entrySet()) {
+            salida.write(entrada.getKey().getBytes());
+            salida.writeInt(entrada.getValue());
+            for (Ubicacion ubicacion : porCuenta.get(entrada.getKey()).subList(0, entrada.getValue())) {
+                salida.writeInt(ubicacion.altura);
+                salida.writeInt(ubicacion.posicion);
+            }
+        }
+    }
+
+    /**
+     * Copia la parte del índice de los primeros bloques de la cadena. La copia no
+     * comparte listas con el índice, así que se puede escribir con escribirIndice
+     * mientras se siguen añadiendo y quitando bloques del original.
+     *
+     * @param numeroBloques Número de bloques de la cadena cuyas transacciones se
+     *                      copian.
+     * @return La copia.
+     */
+    public synchronized IndiceTransacciones copiar(int numeroBloques) {
+        IndiceTransacciones copia = new IndiceTransacciones();
+        for (Map.Entry<IdHash, Ubicacion> entrada : porHash.entrySet()) {
+            if (entrada.getValue().altura < numeroBloques) {
+                copia.porHash.put(entrada.getKey(), entrada.getValue());
+            }
+        }
+        for (Map.Entry<IdHash, List<Ubicacion>> entrada : porCuenta.entrySet()) {
+            List<Ubicacion> ubicaciones = entrada.getValue();
+            int numero = ubicaciones.size();
+            while (numero > 0 && ubicaciones.get(numero - 1).altura >= numeroBloques) {
+                numero--;
+            }
+            if (numero > 0) {
+                copia.porCuenta.put(entrada.getKey(), new ArrayList<>(ubicaciones.subList(0, numero)));
+            }
+        }
+        return copia;
+    }
+
+    /**
+     * Lee un índice escrito con escribirIndice.
+     *
+     * @param entrada Origen de los datos.
+     * @return El índice leído.
+     * @throws IOException Si los datos no son válidos.
+     */
+    public static IndiceTransacciones leerIndice(DataInput entrada) throws IOException {
+        IndiceTransacciones indice = new IndiceTransacciones();
+        int numeroTransacciones = leerNumero(entrada);
+        for (int i = 0; i < numeroTransacciones; i++) {
+            byte[] hash = new byte[UtilidadesHash.LONGITUD_HASH];
+            entrada.readFully(hash);
+            indice.porHash.put(IdHash.de(hash), new Ubicacion(entrada.readInt(), entrada.readInt()));
+        }
+        int numeroCuentas = leerNumero(entrada);
+        for (int i = 0; i < numeroCuentas; i++) {
+            byte[] cuenta = new byte[UtilidadesHash.LONGITUD_HASH];
+            entrada.readFully(cuenta);
+            int numero = leerNumero(entrada);
+            // el CRC del checkpoint se comprueba después de leerlo: con un número
+            // dañado no se reserva de golpe más de lo que se ha leído
+            List<Ubicacion> ubicaciones = new ArrayList<>(Math.min(numero, 1024));
+            for (int j = 0; j < numero; j++) {
+                ubicaciones.add(new Ubicacion(entrada.readInt(), entrada.readInt()));
+            }
+            indice.porCuenta.put(IdHash.de(cuenta), ubicaciones);
+        }
+        return indice;
+    }
+
+    private static int leerNumero(DataInput entrada) throws IOException {
+        int numero = entrada.readInt();
+        if (numero < 0) {
+            throw new IOException("Número de entradas del índice inválido: " + numero);
+        }
+        return numero;
+    }
+
+    private void quitarDeCuenta(IdHash cuenta, int altura) {
+        List<Ubicacion> ubicaciones = cuenta != null ? porCuenta.get(cuenta) : null;
+        if (ubicaciones == null) {
+            return;
+        }
+        while (!ubicaciones.isEmpty() && ubicaciones.get(ubicaciones.size() - 1).altura == altura) {
+            ubicaciones.remove(ubicaciones.size() - 1);
+        }
+        if (ubicaciones.isEmpty()) {
+            porCuenta.remove(cuenta);
+        }
+    }
+
+    /**
+     * Altura del bloque que contiene una transacción y su posición en él.
+     */
+    public static final class Ubicacion {
+
+        private final int altura;
+        private final int posicion;
+
+        Ubicacion(int altura, int posicion) {
+            this.altura = altura;
+            this.posicion = posicion;
+        }
+
+        public int getAltura() {
+            return altura;
+        }
+
+        public int getPosicion() {
+            return posicion;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.lfcounago.javablockchain.commons.estructuras;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Anuncio de los bloques y transacciones que tiene un nodo, identificados por
+ * su hash. Los nodos se envían inventarios en lugar de los bloques y
+ * transacciones completos, y quien recibe un inventario solo pide al nodo de
+ * origen los que todavía no conoce.
+ *
+ * Las listas nunca son null: un inventario recibido con "bloques" o
+ * "transacciones" a null se trata como si no anunciara ninguno.
+ */
+public class Inventario {
+
+	// URL del nodo que anuncia los hashes, al que se piden los datos
+	private URL origen;
+
+	// Hashes de bloques
+	private List<byte[]> bloques = new ArrayList<>();
+
+	// Hashes de transacciones
+	private List<byte[]> transacciones = new ArrayList<>();
+
+	public Inventario() {
+	}
+
+	public Inventario(URL origen) {
+		this.origen = origen;
+	}
+
+	public URL getOrigen() {
+		return origen;
+	}
+
+	public void setOrigen(URL origen) {
+		this.origen = origen;
+	}
+
+	public List<byte[]> getBloques() {
+		return bloques;
+	}
+
+	public void setBloques(List<byte[]> bloques) {
+		this.bloques = bloques != null ? bloques : new ArrayList<>();
+	}
+
+	public List<byte[]> getTransacciones() {
+		return transacciones;
+	}
+
+	public void setTransacciones(List<byte[]> transacciones) {
+		this.transacciones = transacciones != null ? transacciones : new ArrayList<>();
+	}
+
+	public boolean estaVacio() {
+		return bloques.isEmpty() && transacciones.isEmpty();
+	}
+}
@@ -0,0 +1,168 @@
+package com.lfcounago.javablockchain.commons.estructuras;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bloques recibidos antes que su bloque anterior. Se indexan por su hash y por
+ * el hash del bloque que les falta, de forma que cuando llega un bloque se
+ * obtienen directamente los huérfanos que cuelgan de él.
+ *
+ * El pool está acotado en número de bloques y en tiempo: al superar el máximo
+ * se expulsa el huérfano más antiguo, y los que llevan más de caducidadMs sin
+ * conectarse se descartan.
+ */
+public class PoolHuerfanos {
+
+    private final int maxBloques;
+    private final long caducidadMs;
+
+    // Huérfanos por su hash, en orden de llegada
+    private final LinkedHashMap<IdHash, Huerfano> porHash = new LinkedHashMap<>();
+    // Huérfanos por el hash del bloque anterior que les falta
+    private final Map<IdHash, List<Huerfano>> porAnterior = new HashMap<>();
+
+    private long expulsados;
+    private long caducados;
+
+    /**
+     * Crea un pool vacío.
+     *
+     * @param maxBloques  Número máximo de huérfanos.
+     * @param caducidadMs Tiempo máximo que se guarda un huérfano, en
+     *                    milisegundos.
+     */
+    public PoolHuerfanos(int maxBloques, long caducidadMs) {
+        this.maxBloques = maxBloques;
+        this.caducidadMs = caducidadMs;
+    }
+
+    /**
+     * Guarda un bloque huérfano. Si el pool está lleno se expulsa el más antiguo.
+     *
+     * @param bloque El bloque, cuyo anterior no se conoce.
+     * @return false si el bloque ya estaba en el pool.
+     */
+    public synchronized boolean añadir(Bloque bloque) {
+        long ahora = System.currentTimeMillis();
+        eliminarCaducados(ahora);
+        IdHash id = IdHash.de(bloque.getHash());
+        if (porHash.containsKey(id) || maxBloques <= 0) {
+            return false;
+        }
+        Huerfano huerfano = new Huerfano(bloque, id, IdHash.de(bloque.getHashBloqueAnterior()), ahora);
+        porHash.put(id, huerfano);
+        porAnterior.computeIfAbsent(huerfano.anterior, anterior -> new ArrayList<>(1)).add(huerfano);
+        while (porHash.size() > maxBloques) {
+            quitar(porHash.values().iterator().next());
+            expulsados++;
+        }
+        return true;
+    }
+
+    public synchronized boolean contiene(byte[] hash) {
+        return hash != null && porHash.containsKey(IdHash.de(hash));
+    }
+
+    /**
+     * Saca del pool los huérfanos cuyo bloque anterior es el dado.
+     *
+     * @param hashAnterior El hash del bloque que acaba de añadirse.
+     * @return Los huérfanos que cuelgan de él, en orden de llegada.
+     */
+    public synchronized List<Bloque> extraerSiguientes(byte[] hashAnterior) {
+        List<Huerfano> siguientes = porAnterior.remove(IdHash.de(hashAnterior));
+        if (siguientes == null) {
+            return Collections.emptyList();
+        }
+        List<Bloque> bloques = new ArrayList<>(siguientes.size());
+        for (Huerfano huerfano : siguientes) {
+            porHash.remove(huerfano.id);
+            bloques.add(huerfano.bloque);
+        }
+        return bloques;
+    }
+
+    /**
+     * Sigue los bloques anteriores desde un hash mientras estén en el pool y
+     * devuelve el primero que falta, que es el que hay que pedir para conectar
+     * la rama de huérfanos.
+     *
+     * @param hashAnterior El hash del bloque anterior de un huérfano.
+     * @return El hash del bloque que falta.
+     */
+    public synchronized byte[] obtenerAnteriorQueFalta(byte[] hashAnterior) {
+        byte[] hash = hashAnterior;
+        for (int pasos = 0; pasos <= porHash.size(); pasos++) {
+            Huerfano huerfano = porHash.get(IdHash.de(hash));
+            if (huerfano == null || huerfano.bloque.getHashBloqueAnterior() == null) {
+                break;
+            }
+            hash = huerfano.bloque.getHashBloqueAnterior();
+        }
+        return hash;
+    }
+
+    public synchronized int getNumeroBloques() {
+        return porHash.size();
+    }
+
+    public synchronized long getExpulsados() {
+        return expulsados;
+    }
+
+    public synchronized long getCaducados() {
+        return caducados;
+    }
+
+    /**
+     * Descarta los huérfanos que llevan más de caducidadMs en el pool. Como se
+     * guardan en orden de llegada basta con mirar los primeros.
+     */
+    private void eliminarCaducados(long ahora) {
+        for (Iterator<Huerfano> it = porHash.values().iterator(); it.hasNext();) {
+            Huerfano huerfano = it.next();
+            if (ahora - huerfano.llegadaMs <= caducidadMs) {
+                break;
+            }
+            it.remove();
+            quitarDeAnterior(huerfano);
+            caducados++;
+        }
+    }
+
+    private void quitar(Huerfano huerfano) {
+        porHash.remove(huerfano.id);
+        quitarDeAnterior(huerfano);
+    }
+
+    private void quitarDeAnterior(Huerfano huerfano) {
+        List<Huerfano> hermanos = porAnterior.get(huerfano.anterior);
+        if (hermanos != null) {
+            hermanos.remove(huerfano);
+            if (hermanos.isEmpty()) {
+                porAnterior.remove(huerfano.anterior);
+            }
+        }
+    }
+
+    private static final class Huerfano {
+
+        private final Bloque bloque;
+        private final IdHash id;
+        private final IdHash anterior;
+        private final long llegadaMs;
+
+        Huerfano(Bloque bloque, IdHash id, IdHash anterior, long llegadaMs) {
+            this.bloque = bloque;
+            this.id = id;
+            this.anterior = anterior;
+            this.llegadaMs = llegadaMs;
+        }
+    }
+}
@@ -1,28 +1,178 @@
 package com.lfcounago.javablockchain.commons.estructuras;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.lfcounago.javablockchain.Configuracion;
+
+/**
+ * Transacciones pendientes de incluir en un bloque. Además del índice por hash
+ * se mantienen las transacciones de cada emisor en el orden en que las creó, y
+ * un índice de prioridad con la primera transacción pendiente de cada emisor
+ * ordenada por comisión (de mayor a menor) y por orden de llegada. Añadir y
+ * eliminar cuestan O(log n), y seleccionar las transacciones de un bloque
+ * cuesta en proporción al tamaño del bloque y no al del pool.
+ *
+ * El pool está acotado por número de transacciones y por memoria estimada: al
+ * superar alguno de los límites se expulsan las transacciones de menor
+ * prioridad de todo el pool. Las transacciones que llevan demasiado tiempo sin
+ * minarse también se descartan.
+ */
 public class PoolTransacciones {
 
-    private Set<Transaccion> pool = new HashSet<>();
+    // Orden del índice de prioridad: mayor comisión primero y, a igual comisión,
+    // la que llegó antes
+    private static final Comparator<Entrada> POR_PRIORIDAD = Comparator
+            .comparingLong((Entrada entrada) -> -entrada.transaccion.getComision())
+            .thenComparingLong(entrada -> entrada.llegada);
 
-    public PoolTransacciones() {
+    // Memoria estimada de una transacción en el pool sin contar sus arrays de
+    // bytes: el objeto Transaccion, su entrada y los nodos de los índices
+    private static final int BYTES_FIJOS_ENTRADA = 400;
+
+    // Orden de las transacciones de un emisor: por timestamp y, si coincide, por
+    // orden de llegada
+    private static final Comparator<Entrada> POR_EMISOR = Comparator
+            .comparingLong((Entrada entrada) -> entrada.transaccion.getTimestamp())
+            .thenComparingLong(entrada -> entrada.llegada);
+
+    // En orden de llegada, para descartar primero las más antiguas
+    private final Map<IdHash, Entrada> porHash = new LinkedHashMap<>();
+    private final Map<IdHash, NavigableSet<Entrada>> porEmisor = new HashMap<>();
+    // Primera transacción pendiente de cada emisor
+    private final NavigableSet<Entrada> prioridad = new TreeSet<>(POR_PRIORIDAD);
+    // Todas las transacciones por prioridad; las últimas son las que se expulsan
+    private final NavigableSet<Entrada> expulsables = new TreeSet<>(POR_PRIORIDAD);
+
+    private final int maxTransacciones;
+    private final long maxBytes;
+    private final long caducidadMs;
+
+    // Memoria estimada de las transacciones del pool
+    private long bytes;
+
+    // Contadores para las estadísticas del nodo
+    private long expulsadas;
+    private long caducadas;
+
+    // Se avisa cada vez que cambian las transacciones del pool
+    private volatile Runnable oyenteCambios;
 
+    // Número de orden de la siguiente transacción que llegue
+    private long siguienteLlegada;
+
+    public PoolTransacciones() {
+        Configuracion configuracion = Configuracion.getInstancia();
+        this.maxTransacciones = configuracion.getMaxTransaccionesPool();
+        this.maxBytes = configuracion.getMaxBytesPool();
+        this.caducidadMs = configuracion.getCaducidadTransaccionPoolMs();
     }
 
     public PoolTransacciones(List<Transaccion> transacciones) {
-        this.pool.addAll(transacciones);
+        this();
+        añadirTransaccionesValidadas(transacciones);
+    }
+
+    /**
+     * Crea un pool con los límites dados.
+     *
+     * @param maxTransacciones Número máximo de transacciones.
+     * @param maxBytes         Memoria máxima estimada en bytes.
+     * @param caducidadMs      Tiempo máximo en el pool en milisegundos.
+     */
+    public PoolTransacciones(int maxTransacciones, long maxBytes, long caducidadMs) {
+        this.maxTransacciones = maxTransacciones;
+        this.maxBytes = maxBytes;
+        this.caducidadMs = caducidadMs;
     }
 
-    public Set<Transaccion> getPool() {
-        return this.pool;
+    /**
+     * Obtiene una copia de las transacciones del pool.
+     *
+     * @return Las transacciones pendientes.
+     */
+    public synchronized List<Transaccion> getPool() {
+        List<Transaccion> transacciones = new ArrayList<>(porHash.size());
+        for (Entrada entrada : porHash.values()) {
+            transacciones.add(entrada.transaccion);
+        }
+        return transacciones;
     }
 
-    public void setPool(Set<Transaccion> pool) {
-        this.pool = pool;
+    /**
+     * Sustituye el contenido del pool (lo usa Jackson al leer el pool de otro
+     * nodo).
+     *
+     * @param pool Las transacciones del pool.
+     */
+    public synchronized void setPool(List<Transaccion> pool) {
+        porHash.clear();
+        porEmisor.clear();
+        prioridad.clear();
+        expulsables.clear();
+        bytes = 0;
+        añadirTransaccionesValidadas(pool);
+    }
+
+    /**
+     * Número de transacciones en el pool.
+     *
+     * @return El número de transacciones.
+     */
+    @JsonIgnore
+    public synchronized int getNumeroTransacciones() {
+        return porHash.size();
+    }
+
+    /**
+     * Memoria estimada que ocupan las transacciones del pool.
+     *
+     * @return Los bytes estimados.
+     */
+    @JsonIgnore
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Número de transacciones expulsadas (o no admitidas) por superar los límites
+     * del pool.
+     */
+    @JsonIgnore
+    public synchronized long getExpulsadas() {
+        return expulsadas;
+    }
+
+    /**
+     * Número de transacciones descartadas por llevar demasiado tiempo en el pool.
+     */
+    @JsonIgnore
+    public synchronized long getCaducadas() {
+        return caducadas;
+    }
+
+    /**
+     * Registra una tarea que se ejecuta cada vez que se añaden o eliminan
+     * transacciones. Se ejecuta con el cerrojo del pool, así que debe ser breve
+     * (por ejemplo, programar un trabajo en otro hilo).
+     *
+     * @param oyenteCambios La tarea, o null para no avisar.
+     */
+    public void setOyenteCambios(Runnable oyenteCambios) {
+        this.oyenteCambios = oyenteCambios;
     }
 
     /**
@@ -30,14 +180,54 @@ public class PoolTransacciones {
      *
      * @param transaccion La transacción que se va a añadir al pool.
      * @throws Exception Si la transacción no es válida, se lanza una excepción con
-     *                   el mensaje "Transacción inválida".
+     *                   el mensaje "Transacción inválida"; si el pool está lleno
+     *                   de transacciones con más prioridad, "Pool de transacciones
+     *                   lleno".
      */
     public synchronized void añadirTransaccion(Transaccion transaccion) throws Exception {
-        if (transaccion.esValida()) {
-            pool.add(transaccion);
-        } else {
+        if (!transaccion.esValida() || transaccion.getEsCoinbase()) {
             throw new Exception("Transacción inválida");
         }
+        eliminarCaducadas();
+        añadir(transaccion);
+        boolean admitida = respetarLimites(transaccion);
+        avisarCambio();
+        if (!admitida) {
+            throw new Exception("Pool de transacciones lleno");
+        }
+    }
+
+    /**
+     * Añade al pool un lote de transacciones que ya han sido validadas. Las
+     * transacciones coinbase no se añaden: solo pueden ir en el bloque de quien
+     * las crea.
+     *
+     * @param transacciones Las transacciones validadas que se van a añadir.
+     * @return Las transacciones del lote que no estaban en el pool y siguen en
+     *         él tras respetar los límites; no incluye las coinbase, las
+     *         repetidas ni las expulsadas por falta de sitio.
+     */
+    public synchronized List<Transaccion> añadirTransaccionesValidadas(Collection<Transaccion> transacciones) {
+        eliminarCaducadas();
+        List<Entrada> nuevas = new ArrayList<>();
+        for (Transaccion transaccion : transacciones) {
+            if (!transaccion.getEsCoinbase()) {
+                Entrada entrada = añadir(transaccion);
+                if (entrada != null) {
+                    nuevas.add(entrada);
+                }
+            }
+        }
+        respetarLimites(null);
+        avisarCambio();
+
+        List<Transaccion> añadidas = new ArrayList<>(nuevas.size());
+        for (Entrada entrada : nuevas) {
+            if (porHash.get(IdHash.de(entrada.transaccion.getHash())) == entrada) {
+                añadidas.add(entrada.transaccion);
+            }
+        }
+        return añadidas;
     }
 
     /**
@@ -45,8 +235,53 @@ public class PoolTransacciones {
      *
      * @param transaccion La transacción que se va a eliminar del pool.
      */
-    public void eliminarTransaccion(Transaccion transaccion) {
-        pool.remove(transaccion);
+    public synchronized void eliminarTransaccion(Transaccion transaccion) {
+        Entrada entrada = porHash.remove(IdHash.de(transaccion.getHash()));
+        if (entrada != null) {
+            quitar(entrada);
+            avisarCambio();
+        }
+    }
+
+    /**
+     * Quita una entrada, ya eliminada del índice por hash, del resto de índices.
+     * Si era la primera de su emisor, la siguiente pasa al índice de prioridad.
+     */
+    private void quitar(Entrada entrada) {
+        expulsables.remove(entrada);
+        bytes -= entrada.bytes;
+        NavigableSet<Entrada> delEmisor = porEmisor.get(entrada.emisor);
+        boolean eraPrimera = delEmisor.first() == entrada;
+        delEmisor.remove(entrada);
+        if (eraPrimera) {
+            prioridad.remove(entrada);
+            if (delEmisor.isEmpty()) {
+                porEmisor.remove(entrada.emisor);
+            } else {
+                prioridad.add(delEmisor.first());
+            }
+        }
+    }
+
+    /**
+     * Busca una transacción del pool por su hash.
+     *
+     * @param hash El hash de la transacción.
+     * @return La transacción, o null si no está en el pool.
+     */
+    public synchronized Transaccion obtenerTransaccion(byte[] hash) {
+        Entrada entrada = porHash.get(IdHash.de(hash));
+        return entrada != null ? entrada.transaccion : null;
+    }
+
+    /**
+     * Comprueba si una transacción está en el pool.
+     *
+     * @param hash El hash de la transacción.
+     * @return true si la transacción está en el pool.
+     */
+    public synchronized boolean contieneTransaccion(byte[] hash) {
+        return porHash.containsKey(IdHash.de(hash));
     }
 
     /**
@@ -57,16 +292,193 @@ public class PoolTransacciones {
      * @return true si todas las transacciones de la colección están en el pool,
      *         false en caso contrario.
      */
-    public boolean contieneTransacciones(Collection<Transaccion> transacciones) {
-        return pool.containsAll(transacciones);
+    public synchronized boolean contieneTransacciones(Collection<Transaccion> transacciones) {
+        for (Transaccion transaccion : transacciones) {
+            if (!porHash.containsKey(IdHash.de(transaccion.getHash()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Selecciona las transacciones de un bloque por orden de prioridad,
+     * respetando el orden de las transacciones de cada emisor. Se recorre el
+     * índice de prioridad y, cada vez que se elige una transacción, la siguiente
+     * del mismo emisor pasa a competir con el resto. Si una transacción no se
+     * acepta (por ejemplo por falta de saldo) se descartan también las
+     * posteriores de su emisor.
+     *
+     * @param maximo  Número máximo de transacciones a seleccionar.
+     * @param aceptar Decide si una transacción se incluye en el bloque.
+     * @return Las transacciones seleccionadas, en el orden en que se eligieron.
+     */
+    public List<Transaccion> seleccionarTransacciones(int maximo, Predicate<Transaccion> aceptar) {
+        return seleccionarTransacciones(maximo, Collections.emptySet(), aceptar);
+    }
+
+    /**
+     * Selecciona las transacciones de un bloque como seleccionarTransacciones,
+     * saltándose las excluidas (por ejemplo, las que ya están en el bloque
+     * anterior que se está minando) sin descartar las posteriores de su emisor.
+     *
+     * @param maximo    Número máximo de transacciones a seleccionar.
+     * @param excluidas Hashes de las transacciones que no se seleccionan.
+     * @param aceptar   Decide si una transacción se incluye en el bloque.
+     * @return Las transacciones seleccionadas, en el orden en que se eligieron.
+     */
+    public synchronized List<Transaccion> seleccionarTransacciones(int maximo, Set<IdHash> excluidas,
+            Predicate<Transaccion> aceptar) {
+        if (eliminarCaducadas()) {
+            avisarCambio();
+        }
+        List<Transaccion> seleccionadas = new ArrayList<>(Math.min(maximo, porHash.size()));
+        Iterator<Entrada> primeras = prioridad.iterator();
+        Entrada siguientePrimera = primeras.hasNext() ? primeras.next() : null;
+        // transacciones que siguen a las ya elegidas de cada emisor
+        PriorityQueue<Entrada> siguientes = new PriorityQueue<>(POR_PRIORIDAD);
+
+        while (seleccionadas.size() < maximo) {
+            Entrada entrada;
+            if (siguientePrimera != null
+                    && (siguientes.isEmpty() || POR_PRIORIDAD.compare(siguientePrimera, siguientes.peek()) < 0)) {
+                entrada = siguientePrimera;
+                siguientePrimera = primeras.hasNext() ? primeras.next() : null;
+            } else if (!siguientes.isEmpty()) {
+                entrada = siguientes.poll();
+            } else {
+                break;
+            }
+
+            boolean excluida = excluidas.contains(IdHash.de(entrada.transaccion.getHash()));
+            if (excluida || aceptar.test(entrada.transaccion)) {
+                if (!excluida) {
+                    seleccionadas.add(entrada.transaccion);
+                }
+                Entrada siguiente = porEmisor.get(entrada.emisor).higher(entrada);
+                if (siguiente != null) {
+                    siguientes.add(siguiente);
+                }
+            }
+        }
+        return seleccionadas;
     }
 
     /**
      * Comprueba si el pool está vacío.
      *
-     * @return true si el pool es nulo o está vacío, false si contiene elementos.
+     * @return true si el pool no contiene transacciones.
+     */
+    public synchronized boolean estaVacio() {
+        return porHash.isEmpty();
+    }
+
+    private void avisarCambio() {
+        Runnable oyente = oyenteCambios;
+        if (oyente != null) {
+            oyente.run();
+        }
+    }
+
+    /**
+     * Añade una transacción a los índices si no estaba. Debe llamarse con el
+     * cerrojo del pool.
+     *
+     * @return La entrada creada, o null si la transacción ya estaba.
      */
-    public boolean estaVacio() {
-        return this.pool == null || this.pool.isEmpty();
+    private Entrada añadir(Transaccion transaccion) {
+        IdHash id = IdHash.de(transaccion.getHash());
+        if (porHash.containsKey(id)) {
+            return null;
+        }
+        Entrada entrada = new Entrada(transaccion, siguienteLlegada++);
+        porHash.put(id, entrada);
+        expulsables.add(entrada);
+        bytes += entrada.bytes;
+        NavigableSet<Entrada> delEmisor = porEmisor.computeIfAbsent(entrada.emisor,
+                emisor -> new TreeSet<>(POR_EMISOR));
+        Entrada primeraAnterior = delEmisor.isEmpty() ? null : delEmisor.first();
+        delEmisor.add(entrada);
+        if (delEmisor.first() == entrada) {
+            if (primeraAnterior != null) {
+                prioridad.remove(primeraAnterior);
+            }
+            prioridad.add(entrada);
+        }
+        return entrada;
+    }
+
+    /**
+     * Expulsa las transacciones de menor prioridad hasta que el pool cumple los
+     * límites. Debe llamarse con el cerrojo del pool.
+     *
+     * @param nueva La transacción recién añadida, o null.
+     * @return false si se ha expulsado la transacción nueva.
+     */
+    private boolean respetarLimites(Transaccion nueva) {
+        boolean admitida = true;
+        while (porHash.size() > maxTransacciones || bytes > maxBytes) {
+            Entrada ultima = expulsables.last();
+            porHash.remove(IdHash.de(ultima.transaccion.getHash()));
+            quitar(ultima);
+            expulsadas++;
+            if (ultima.transaccion == nueva) {
+                admitida = false;
+            }
+        }
+        return admitida;
+    }
+
+    /**
+     * Descarta las transacciones que llevan en el pool más tiempo del permitido.
+     * Como el índice por hash está en orden de llegada, solo se recorren las que
+     * se descartan. Debe llamarse con el cerrojo del pool.
+     *
+     * No avisa del cambio: quien la llama avisa una sola vez por barrido, no una
+     * por cada transacción descartada.
+     *
+     * @return true si se ha descartado alguna transacción.
+     */
+    private boolean eliminarCaducadas() {
+        long limite = System.currentTimeMillis() - caducidadMs;
+        Iterator<Entrada> entradas = porHash.values().iterator();
+        boolean descartadas = false;
+        while (entradas.hasNext()) {
+            Entrada entrada = entradas.next();
+            if (entrada.llegadaMs >= limite) {
+                break;
+            }
+            entradas.remove();
+            quitar(entrada);
+            caducadas++;
+            descartadas = true;
+        }
+        return descartadas;
+    }
+
+    /**
+     * Transacción del pool junto con su orden y momento de llegada, la cuenta
+     * del emisor y la memoria que se estima que ocupa.
+     */
+    private static final class Entrada {
+
+        private final Transaccion transaccion;
+        private final long llegada;
+        private final long llegadaMs;
+        private final IdHash emisor;
+        private final long bytes;
+
+        Entrada(Transaccion transaccion, long llegada) {
+            this.transaccion = transaccion;
+            this.llegada = llegada;
+            this.llegadaMs = System.currentTimeMillis();
+            this.emisor = transaccion.getIdEmisor();
+            this.bytes = BYTES_FIJOS_ENTRADA + longitud(transaccion.getHash()) + longitud(transaccion.getEmisor())
+                    + longitud(transaccion.getDestinatario()) + longitud(transaccion.getFirma());
+        }
+
+        private static int longitud(byte[] datos) {
+            return datos != null ? datos.length : 0;
+        }
     }
 }
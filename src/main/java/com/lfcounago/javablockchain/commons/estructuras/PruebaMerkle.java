@@ -0,0 +1,107 @@
+package com.lfcounago.javablockchain.commons.estructuras;
+
+import java.util.List;
+
+import com.lfcounago.javablockchain.commons.utilidades.UtilidadesMerkle;
+
+public class PruebaMerkle {
+
+    // Hash de la transacción cuya inclusión se prueba
+    private byte[] hashTransaccion;
+
+    // Hash y altura del bloque que contiene la transacción
+    private byte[] hashBloque;
+    private int alturaBloque;
+
+    // Raíz del árbol de Merkle del bloque
+    private byte[] raizArbolMerkle;
+
+    // Posición de la transacción en el bloque y número de transacciones
+    private int indice;
+    private int numeroTransacciones;
+
+    // Hashes hermanos desde las hojas hasta la raíz
+    private List<byte[]> hermanos;
+
+    public PruebaMerkle() {
+    }
+
+    public PruebaMerkle(byte[] hashTransaccion, Bloque bloque, int alturaBloque, int indice) {
+        this.hashTransaccion = hashTransaccion;
+        this.hashBloque = bloque.getHash();
+        this.alturaBloque = alturaBloque;
+        this.raizArbolMerkle = bloque.getRaizArbolMerkle();
+        this.indice = indice;
+        this.numeroTransacciones = bloque.getTransacciones().size();
+        this.hermanos = bloque.getArbolMerkle().getHermanos(indice);
+    }
+
+    public byte[] getHashTransaccion() {
+        return hashTransaccion;
+    }
+
+    public void setHashTransaccion(byte[] hashTransaccion) {
+        this.hashTransaccion = hashTransaccion;
+    }
+
+    public byte[] getHashBloque() {
+        return hashBloque;
+    }
+
+    public void setHashBloque(byte[] hashBloque) {
+        this.hashBloque = hashBloque;
+    }
+
+    public int getAlturaBloque() {
+        return alturaBloque;
+    }
+
+    public void setAlturaBloque(int alturaBloque) {
+        this.alturaBloque = alturaBloque;
+    }
+
+    public byte[] getRaizArbolMerkle() {
+        return raizArbolMerkle;
+    }
+
+    public void setRaizArbolMerkle(byte[] raizArbolMerkle) {
+        this.raizArbolMerkle = raizArbolMerkle;
+    }
+
+    public int getIndice() {
+        return indice;
+    }
+
+    public void setIndice(int indice) {
+        this.indice = indice;
+    }
+
+    public int getNumeroTransacciones() {
+        return numeroTransacciones;
+    }
+
+    public void setNumeroTransacciones(int numeroTransacciones) {
+        this.numeroTransacciones = numeroTransacciones;
+    }
+
+    public List<byte[]> getHermanos() {
+        return hermanos;
+    }
+
+    public void setHermanos(List<byte[]> hermanos) {
+        this.hermanos = hermanos;
+    }
+
+    /**
+     * Verifica la prueba contra la raíz de Merkle que contiene. El cliente debe
+     * comprobar además que esa raíz pertenece a la cabecera de un bloque de la
+     * cadena.
+     *
+     * @return true si la transacción pertenece al árbol con esa raíz.
+     */
+    public boolean esValida() {
+        return UtilidadesMerkle.verificarPrueba(hashTransaccion, indice, numeroTransacciones, hermanos,
+                raizArbolMerkle);
+    }
+
+}
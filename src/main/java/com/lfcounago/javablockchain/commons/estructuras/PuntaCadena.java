@@ -0,0 +1,37 @@
+package com.lfcounago.javablockchain.commons.estructuras;
+
+/**
+ * Último bloque de la cadena en un momento dado. Es inmutable, de forma que un
+ * hilo que lo lee ve el bloque y la altura tal como se publicaron. La versión
+ * aumenta con cada cambio de la cadena, también cuando se vacía, así que basta
+ * compararla para saber si la cadena ha cambiado.
+ */
+public final class PuntaCadena {
+
+    private final Bloque bloque;
+    private final int numeroBloques;
+    private final long version;
+
+    PuntaCadena(Bloque bloque, int numeroBloques, long version) {
+        this.bloque = bloque;
+        this.numeroBloques = numeroBloques;
+        this.version = version;
+    }
+
+    /**
+     * Obtiene el último bloque de la cadena.
+     *
+     * @return El bloque, o null si la cadena está vacía.
+     */
+    public Bloque getBloque() {
+        return bloque;
+    }
+
+    public int getNumeroBloques() {
+        return numeroBloques;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,117 @@
+package com.lfcounago.javablockchain.commons.estructuras;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bloques válidos que no están en la cadena principal, indexados por su hash.
+ * Cada uno cuelga de un bloque de la cadena o de otro bloque de las ramas, y
+ * guarda su altura y el trabajo acumulado desde el génesis, de forma que se
+ * puede comparar una rama con la cadena sin recorrerla.
+ *
+ * Las búsquedas pueden hacerse desde cualquier hilo; las modificaciones deben
+ * estar sincronizadas externamente.
+ */
+public class RamasLaterales {
+
+    private final Map<IdHash, Nodo> nodos = new ConcurrentHashMap<>();
+
+    /**
+     * Añade un bloque a las ramas.
+     *
+     * @param bloque  El bloque.
+     * @param altura  La altura que tendría en la cadena.
+     * @param trabajo El trabajo acumulado hasta el bloque, incluido.
+     * @return El nodo del bloque.
+     */
+    public Nodo añadir(Bloque bloque, int altura, BigInteger trabajo) {
+        Nodo nodo = new Nodo(bloque, altura, trabajo);
+        nodos.put(IdHash.de(bloque.getHash()), nodo);
+        return nodo;
+    }
+
+    /**
+     * Busca un bloque de las ramas por su hash.
+     *
+     * @param hash El hash del bloque.
+     * @return El nodo del bloque, o null si no está.
+     */
+    public Nodo obtener(byte[] hash) {
+        return hash != null ? nodos.get(IdHash.de(hash)) : null;
+    }
+
+    public void eliminar(Bloque bloque) {
+        nodos.remove(IdHash.de(bloque.getHash()));
+    }
+
+    public int getNumeroBloques() {
+        return nodos.size();
+    }
+
+    /**
+     * Obtiene los bloques de la rama que acaba en un nodo, desde el primero que
+     * cuelga de la cadena principal.
+     *
+     * @param punta El último nodo de la rama.
+     * @return Los bloques ordenados por altura.
+     */
+    public List<Bloque> obtenerRama(Nodo punta) {
+        List<Bloque> rama = new ArrayList<>();
+        for (Nodo nodo = punta; nodo != null; nodo = obtener(nodo.bloque.getHashBloqueAnterior())) {
+            rama.add(nodo.bloque);
+        }
+        Collections.reverse(rama);
+        return rama;
+    }
+
+    /**
+     * Elimina los bloques por debajo de una altura, que ya no pueden llegar a
+     * formar parte de la cadena.
+     *
+     * @param alturaMinima La altura del bloque más bajo que se conserva.
+     * @return El número de bloques eliminados.
+     */
+    public int podar(int alturaMinima) {
+        int eliminados = 0;
+        for (Iterator<Nodo> it = nodos.values().iterator(); it.hasNext();) {
+            if (it.next().altura < alturaMinima) {
+                it.remove();
+                eliminados++;
+            }
+        }
+        return eliminados;
+    }
+
+    /**
+     * Bloque de una rama con su altura y su trabajo acumulado.
+     */
+    public static final class Nodo {
+
+        private final Bloque bloque;
+        private final int altura;
+        private final BigInteger trabajo;
+
+        Nodo(Bloque bloque, int altura, BigInteger trabajo) {
+            this.bloque = bloque;
+            this.altura = altura;
+            this.trabajo = trabajo;
+        }
+
+        public Bloque getBloque() {
+            return bloque;
+        }
+
+        public int getAltura() {
+            return altura;
+        }
+
+        public BigInteger getTrabajo() {
+            return trabajo;
+        }
+    }
+}
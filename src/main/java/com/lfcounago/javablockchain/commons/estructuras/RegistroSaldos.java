@@ -1,34 +1,108 @@
 package com.lfcounago.javablockchain.commons.estructuras;
 
-import java.util.Enumeration;
-import java.util.Hashtable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.codec.binary.Base64;
 
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.lfcounago.javablockchain.commons.utilidades.UtilidadesHash;
+
 public class RegistroSaldos {
 
-    // Registro de saldos <encoded public key, saldo>
-    private Hashtable<String, Double> saldos = new Hashtable<String, Double>();
+    // Longitud máxima de una clave pública al leer los saldos de un fichero
+    private static final int MAX_LONGITUD_CLAVE = 64 * 1024;
+
+    // Registro de saldos <hash de la clave pública, saldo en unidades mínimas>.
+    // El saldo se guarda en un long[1] para actualizarlo sin crear objetos.
+    private final Map<IdHash, long[]> saldos = new HashMap<>();
+    // Clave pública de cada cuenta, para mostrar los saldos por clave. Falta en
+    // las cuentas cuyo saldo se fija solo con el hash
+    private final Map<IdHash, byte[]> claves = new HashMap<>();
+
+    // Las lecturas (consultas de saldo) pueden ir en paralelo; las
+    // actualizaciones son exclusivas
+    private final ReentrantReadWriteLock cerrojo = new ReentrantReadWriteLock();
 
     public RegistroSaldos() {
     }
 
-    public Hashtable<String, Double> getSaldos() {
-        return saldos;
+    /**
+     * Crea una copia independiente de un registro de saldos.
+     *
+     * @param registro El registro que se va a copiar.
+     */
+    public RegistroSaldos(RegistroSaldos registro) {
+        registro.cerrojo.readLock().lock();
+        try {
+            registro.saldos.forEach((cuenta, saldo) -> this.saldos.put(cuenta, new long[] { saldo[0] }));
+            this.claves.putAll(registro.claves);
+        } finally {
+            registro.cerrojo.readLock().unlock();
+        }
+    }
+
+    /**
+     * Obtiene una copia de los saldos con la clave pública de cada cuenta
+     * codificada en Base64. Las cuentas de las que no se conoce la clave, porque
+     * su saldo se fijó solo con el hash, aparecen con el hash en Base64.
+     *
+     * @return Mapa <clave pública en Base64, saldo en unidades mínimas>. En JSON
+     *         los saldos se escriben en monedas.
+     */
+    @JsonSerialize(contentUsing = Cantidad.SerializadorMonedas.class)
+    public Map<String, Long> getSaldos() {
+        cerrojo.readLock().lock();
+        try {
+            Map<String, Long> copia = new LinkedHashMap<>();
+            saldos.forEach((cuenta, saldo) -> {
+                byte[] clave = claves.get(cuenta);
+                copia.put(clave != null ? Base64.encodeBase64String(clave) : cuenta.toString(), saldo[0]);
+            });
+            return copia;
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    public long getSaldoCuenta(byte[] clavePublica) {
+        return getSaldoCuenta(IdHash.deClavePublica(clavePublica));
     }
 
-    public void setSaldos(Hashtable<String, Double> saldos) {
-        this.saldos = saldos;
+    public long getSaldoCuenta(IdHash cuenta) {
+        cerrojo.readLock().lock();
+        try {
+            long[] saldo = this.saldos.get(cuenta);
+            return saldo != null ? saldo[0] : 0;
+        } finally {
+            cerrojo.readLock().unlock();
+        }
     }
 
-    public Double getSaldoCuenta(byte[] clavePublica) {
-        return (this.saldos.containsKey(convertirClaveAString(clavePublica))
-                ? this.saldos.get(convertirClaveAString(clavePublica))
-                : 0.0);
+    public void setSaldoCuenta(byte[] clavePublica, long saldo) {
+        IdHash cuenta = IdHash.deClavePublica(clavePublica);
+        cerrojo.writeLock().lock();
+        try {
+            this.saldos.put(cuenta, new long[] { saldo });
+            this.claves.put(cuenta, clavePublica);
+        } finally {
+            cerrojo.writeLock().unlock();
+        }
     }
 
-    public void setSaldoCuenta(byte[] clavePublica, Double saldo) {
-        this.saldos.put(convertirClaveAString(clavePublica), saldo);
+    public void setSaldoCuenta(IdHash cuenta, long saldo) {
+        cerrojo.writeLock().lock();
+        try {
+            this.saldos.put(cuenta, new long[] { saldo });
+        } finally {
+            cerrojo.writeLock().unlock();
+        }
     }
 
     /**
@@ -36,29 +110,74 @@ public class RegistroSaldos {
      * sincronizada.
      *
      * @param clavePublica La clave pública que identifica la cuenta.
-     * @param saldo        El saldo que se va a añadir a la cuenta.
+     * @param saldo        El saldo en unidades mínimas que se va a añadir a la
+     *                     cuenta.
      */
-    public void añadeSaldoACuenta(byte[] clavePublica, Double saldo) {
-        this.saldos.put(convertirClaveAString(clavePublica), getSaldoCuenta(clavePublica) + saldo);
+    public void añadeSaldoACuenta(byte[] clavePublica, long saldo) {
+        cerrojo.writeLock().lock();
+        try {
+            sumar(IdHash.deClavePublica(clavePublica), clavePublica, saldo);
+        } finally {
+            cerrojo.writeLock().unlock();
+        }
     }
 
     /**
      * Liquida una transacción, actualizando los saldos de las cuentas involucradas.
+     * Al emisor se le descuenta la cantidad más la comisión; la comisión la
+     * recibe el minero con la transacción coinbase.
      *
      * @param transaccion La transacción que se va a liquidar.
      * @throws Exception Si la transacción es inválida o si no hay suficiente saldo
      *                   en la cuenta del emisor.
      */
     public void liquidarTransaccion(Transaccion transaccion) throws Exception {
-        if (transaccion.getEsCoinbase()) {
-            this.añadeSaldoACuenta(transaccion.getDestinatario(), transaccion.getCantidad());
-        } else {
-            if (getSaldoCuenta(transaccion.getEmisor()) >= transaccion.getCantidad()) {
-                this.añadeSaldoACuenta(transaccion.getEmisor(), -transaccion.getCantidad());
-                this.añadeSaldoACuenta(transaccion.getDestinatario(), transaccion.getCantidad());
-            } else {
-                throw new Exception("No hay suficiente saldo en cuenta emisor.");
+        cerrojo.writeLock().lock();
+        try {
+            liquidar(transaccion, null);
+        } finally {
+            cerrojo.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Liquida en orden las transacciones de un bloque. Si alguna no se puede
+     * liquidar, los saldos quedan como estaban antes de la primera.
+     *
+     * @param transacciones Las transacciones del bloque.
+     * @return Los datos para deshacer la liquidación.
+     * @throws Exception Si alguna transacción es inválida o no hay suficiente
+     *                   saldo en la cuenta del emisor.
+     */
+    public Deshacer liquidarTransacciones(List<Transaccion> transacciones) throws Exception {
+        Deshacer deshacer = new Deshacer();
+        cerrojo.writeLock().lock();
+        try {
+            for (Transaccion transaccion : transacciones) {
+                liquidar(transaccion, deshacer);
             }
+            return deshacer;
+        } catch (Exception e) {
+            restaurar(deshacer);
+            throw e;
+        } finally {
+            cerrojo.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Deshace la liquidación de un bloque, devolviendo cada cuenta que tocó al
+     * saldo que tenía antes. Las liquidaciones posteriores deben haberse
+     * deshecho ya.
+     *
+     * @param deshacer Los datos devueltos por liquidarTransacciones.
+     */
+    public void deshacer(Deshacer deshacer) {
+        cerrojo.writeLock().lock();
+        try {
+            restaurar(deshacer);
+        } finally {
+            cerrojo.writeLock().unlock();
         }
     }
 
@@ -70,7 +189,73 @@ public class RegistroSaldos {
      *         contrario.
      */
     public boolean existeCuenta(byte[] cuenta) {
-        return this.saldos.containsKey(convertirClaveAString(cuenta));
+        return existeCuenta(IdHash.deClavePublica(cuenta));
+    }
+
+    public boolean existeCuenta(IdHash cuenta) {
+        cerrojo.readLock().lock();
+        try {
+            return this.saldos.containsKey(cuenta);
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    /**
+     * Escribe todos los saldos en formato binario: número de cuentas (4 bytes) y,
+     * por cada cuenta, su identificador (32 bytes), su saldo (8 bytes), la
+     * longitud de su clave pública (4 bytes, 0 si no se conoce) y la clave.
+     *
+     * @param salida Destino de los datos.
+     * @throws IOException Si falla la escritura.
+     */
+    public void escribirSaldos(DataOutput salida) throws IOException {
+        cerrojo.readLock().lock();
+        try {
+            salida.writeInt(saldos.size());
+            for (Map.Entry<IdHash, long[]> entrada : saldos.entrySet()) {
+                salida.write(entrada.getKey().getBytes());
+                salida.writeLong(entrada.getValue()[0]);
+                byte[] clave = claves.get(entrada.getKey());
+                salida.writeInt(clave != null ? clave.length : 0);
+                if (clave != null) {
+                    salida.write(clave);
+                }
+            }
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lee un registro de saldos escrito con escribirSaldos.
+     *
+     * @param entrada Origen de los datos.
+     * @return El registro de saldos leído.
+     * @throws IOException Si los datos no son válidos.
+     */
+    public static RegistroSaldos leerSaldos(DataInput entrada) throws IOException {
+        int numeroCuentas = entrada.readInt();
+        if (numeroCuentas < 0) {
+            throw new IOException("Número de cuentas inválido: " + numeroCuentas);
+        }
+        RegistroSaldos registro = new RegistroSaldos();
+        for (int i = 0; i < numeroCuentas; i++) {
+            byte[] cuenta = new byte[UtilidadesHash.LONGITUD_HASH];
+            entrada.readFully(cuenta);
+            IdHash id = IdHash.de(cuenta);
+            registro.saldos.put(id, new long[] { entrada.readLong() });
+            int longitudClave = entrada.readInt();
+            if (longitudClave < 0 || longitudClave > MAX_LONGITUD_CLAVE) {
+                throw new IOException("Longitud de clave pública inválida: " + longitudClave);
+            }
+            if (longitudClave > 0) {
+                byte[] clave = new byte[longitudClave];
+                entrada.readFully(clave);
+                registro.claves.put(id, clave);
+            }
+        }
+        return registro;
     }
 
     /**
@@ -80,30 +265,98 @@ public class RegistroSaldos {
      */
     @Override
     public String toString() {
-        StringBuffer buf = new StringBuffer();
-        Enumeration<String> cuentas = saldos.keys();
-        buf.append("CLAVE PUBLICA | SALDO\n");
-        buf.append("---------------------\n");
-        while (cuentas.hasMoreElements()) {
-            String cuenta = cuentas.nextElement();
-            buf.append(cuenta.substring(0, 10) + "...");
-            buf.append(" | ");
-            buf.append(saldos.get(cuenta));
-            if (cuentas.hasMoreElements())
+        StringBuilder buf = new StringBuilder();
+        buf.append("CUENTA | SALDO\n");
+        buf.append("--------------");
+        cerrojo.readLock().lock();
+        try {
+            saldos.forEach((cuenta, saldo) -> {
                 buf.append("\n");
+                buf.append(cuenta.toString().substring(0, 10) + "...");
+                buf.append(" | ");
+                buf.append(Cantidad.formatear(saldo[0]));
+            });
+        } finally {
+            cerrojo.readLock().unlock();
         }
         return buf.toString();
     }
 
     /**
-     * Convierte una clave pública representada como un arreglo de bytes a una
-     * cadena Base64.
+     * Liquida una transacción anotando, si se pide, el saldo previo de las
+     * cuentas que modifica. Debe llamarse con el cerrojo de escritura.
+     */
+    private void liquidar(Transaccion transaccion, Deshacer deshacer) throws Exception {
+        long cantidad = transaccion.getCantidad();
+        long total = transaccion.getTotalEmisor();
+        IdHash destinatario = transaccion.getIdDestinatario();
+        if (transaccion.getEsCoinbase()) {
+            anotar(deshacer, destinatario);
+            sumar(destinatario, transaccion.getDestinatario(), cantidad);
+        } else {
+            IdHash emisor = transaccion.getIdEmisor();
+            long[] saldoEmisor = this.saldos.get(emisor);
+            if (saldoEmisor != null && saldoEmisor[0] >= total) {
+                // comprobar el desbordamiento antes de modificar ningún saldo
+                long[] saldoDestinatario = this.saldos.get(destinatario);
+                Math.addExact(saldoDestinatario != null ? saldoDestinatario[0] : 0, cantidad);
+                anotar(deshacer, emisor);
+                anotar(deshacer, destinatario);
+                saldoEmisor[0] -= total;
+                sumar(destinatario, transaccion.getDestinatario(), cantidad);
+            } else {
+                throw new Exception("No hay suficiente saldo en cuenta emisor.");
+            }
+        }
+    }
+
+    private void anotar(Deshacer deshacer, IdHash cuenta) {
+        if (deshacer != null && !deshacer.anteriores.containsKey(cuenta)) {
+            long[] saldo = this.saldos.get(cuenta);
+            deshacer.anteriores.put(cuenta, saldo != null ? saldo[0] : null);
+        }
+    }
+
+    private void restaurar(Deshacer deshacer) {
+        deshacer.anteriores.forEach((cuenta, saldo) -> {
+            if (saldo == null) {
+                this.saldos.remove(cuenta);
+                this.claves.remove(cuenta);
+            } else {
+                this.saldos.put(cuenta, new long[] { saldo });
+            }
+        });
+    }
+
+    /**
+     * Suma una cantidad al saldo de una cuenta, creándola si no existe. Debe
+     * llamarse con el cerrojo de escritura.
      *
-     * @param clave La clave pública que se va a convertir.
-     * @return La representación en cadena de la clave pública en formato Base64.
+     * @param cuenta       La cuenta.
+     * @param clavePublica La clave pública de la cuenta.
+     * @param cantidad     La cantidad en unidades mínimas.
+     */
+    private void sumar(IdHash cuenta, byte[] clavePublica, long cantidad) {
+        long[] saldo = this.saldos.get(cuenta);
+        if (saldo == null) {
+            this.saldos.put(cuenta, new long[] { cantidad });
+            this.claves.put(cuenta, clavePublica);
+        } else {
+            saldo[0] = Math.addExact(saldo[0], cantidad);
+        }
+    }
+
+    /**
+     * Saldos que tenían, antes de liquidar un bloque, las cuentas que este
+     * modificó (null si la cuenta no existía). Ocupa en proporción al número de
+     * transacciones del bloque.
      */
-    private String convertirClaveAString(byte[] clave) {
-        return Base64.encodeBase64String(clave);
+    public static final class Deshacer {
+
+        private final Map<IdHash, Long> anteriores = new HashMap<>();
+
+        Deshacer() {
+        }
     }
 
 }
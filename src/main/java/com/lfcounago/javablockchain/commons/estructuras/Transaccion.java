@@ -1,19 +1,30 @@
 package com.lfcounago.javablockchain.commons.estructuras;
 
-import com.google.common.primitives.Longs;
-
 import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.lang3.ArrayUtils;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.lfcounago.javablockchain.commons.utilidades.UtilidadesFirma;
+import com.lfcounago.javablockchain.commons.utilidades.UtilidadesHash;
 import com.lfcounago.javablockchain.Configuracion;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Date;
 
 public class Transaccion {
 
+    // Versiones de la codificación binaria del contenido de la transacción. Las
+    // transacciones sin comisión se siguen codificando con la versión 1, así que
+    // las firmadas antes de existir las comisiones siguen siendo válidas
+    private static final byte VERSION_CODIFICACION = 1;
+    private static final byte VERSION_CODIFICACION_COMISION = 2;
+
+    // Bytes fijos del contenido: versión, esCoinbase, cantidad, timestamp y las
+    // longitudes del emisor y del destinatario
+    private static final int LONGITUD_FIJA_CONTENIDO = 1 + 1 + 8 + 8 + 4 + 4;
+
     // Hash de la transacción e identificador único de esta
     private byte[] hash;
 
@@ -23,8 +34,13 @@ public class Transaccion {
     // Clave pública del destinatario de la transacción
     private byte[] destinatario;
 
-    // Valor a ser transferido
-    private double cantidad;
+    // Valor a ser transferido, en unidades mínimas (ver Cantidad). En JSON se
+    // escribe en monedas, como la comisión
+    private long cantidad;
+
+    // Comisión que paga el emisor además de la cantidad, en unidades mínimas. Se
+    // la lleva el minero en la transacción coinbase del bloque
+    private long comision;
 
     // Firma con la clave privada para verificar que la transacción fue realmente
     // enviada por el emisor
@@ -35,10 +51,15 @@ public class Transaccion {
 
     private boolean esCoinbase;
 
+    // Identificadores de cuenta del emisor y del destinatario, calculados la
+    // primera vez que se usan
+    private IdHash idEmisor;
+    private IdHash idDestinatario;
+
     public Transaccion() {
     }
 
-    public Transaccion(byte[] emisor, byte[] receptor, double cantidad, byte[] firma) {
+    public Transaccion(byte[] emisor, byte[] receptor, long cantidad, byte[] firma) {
         this.esCoinbase = false;
         this.emisor = emisor;
         this.destinatario = receptor;
@@ -48,6 +69,17 @@ public class Transaccion {
         this.hash = calcularHashTransaccion();
     }
 
+    public Transaccion(byte[] emisor, byte[] receptor, long cantidad, long comision, byte[] firma) {
+        this.esCoinbase = false;
+        this.emisor = emisor;
+        this.destinatario = receptor;
+        this.cantidad = cantidad;
+        this.comision = comision;
+        this.firma = firma;
+        this.timestamp = System.currentTimeMillis();
+        this.hash = calcularHashTransaccion();
+    }
+
     // coinbase
     public Transaccion(byte[] receptor) {
         this.esCoinbase = true;
@@ -71,6 +103,20 @@ public class Transaccion {
 
     public void setEmisor(byte[] emisor) {
         this.emisor = emisor;
+        this.idEmisor = null;
+    }
+
+    /**
+     * Obtiene el identificador de la cuenta del emisor (hash de su clave pública).
+     *
+     * @return El identificador de la cuenta emisora.
+     */
+    @JsonIgnore
+    public IdHash getIdEmisor() {
+        if (idEmisor == null && emisor != null) {
+            idEmisor = IdHash.deClavePublica(emisor);
+        }
+        return idEmisor;
     }
 
     public byte[] getDestinatario() {
@@ -79,16 +125,55 @@ public class Transaccion {
 
     public void setDestinatario(byte[] destinatario) {
         this.destinatario = destinatario;
+        this.idDestinatario = null;
+    }
+
+    /**
+     * Obtiene el identificador de la cuenta del destinatario (hash de su clave
+     * pública).
+     *
+     * @return El identificador de la cuenta destinataria.
+     */
+    @JsonIgnore
+    public IdHash getIdDestinatario() {
+        if (idDestinatario == null && destinatario != null) {
+            idDestinatario = IdHash.deClavePublica(destinatario);
+        }
+        return idDestinatario;
     }
 
-    public double getCantidad() {
+    @JsonSerialize(using = Cantidad.SerializadorMonedas.class)
+    public long getCantidad() {
         return cantidad;
     }
 
-    public void setCantidad(double cantidad) {
+    @JsonDeserialize(using = Cantidad.DeserializadorMonedas.class)
+    public void setCantidad(long cantidad) {
         this.cantidad = cantidad;
     }
 
+    @JsonSerialize(using = Cantidad.SerializadorMonedas.class)
+    public long getComision() {
+        return comision;
+    }
+
+    @JsonDeserialize(using = Cantidad.DeserializadorMonedas.class)
+    public void setComision(long comision) {
+        this.comision = comision;
+    }
+
+    /**
+     * Obtiene lo que se descuenta del saldo del emisor: la cantidad más la
+     * comisión.
+     *
+     * @return El total en unidades mínimas.
+     * @throws ArithmeticException Si la suma desborda.
+     */
+    @JsonIgnore
+    public long getTotalEmisor() {
+        return Math.addExact(cantidad, comision);
+    }
+
     public byte[] getFirma() {
         return firma;
     }
@@ -114,17 +199,40 @@ public class Transaccion {
     }
 
     /**
-     * Obtiene el contenido de la transacción como un arreglo de bytes.
+     * Obtiene el contenido de la transacción como un arreglo de bytes, con una
+     * codificación binaria canónica de ancho fijo que es la que se resume y se
+     * firma:
+     * versión (1) | esCoinbase (1) | cantidad (8) | [comisión (8)] |
+     * timestamp (8) | longitud emisor (4) | emisor | longitud destinatario (4) |
+     * destinatario
+     * La comisión solo se incluye, con la versión 2, si no es 0. Los enteros van
+     * en big-endian y un emisor o destinatario nulo se codifica con longitud 0.
      *
      * @return Un arreglo de bytes que representa el contenido de la transacción,
      *         incluyendo la cantidad, emisor, destinatario y marca de tiempo.
      */
     public byte[] getContenidoTransaccion() {
-        byte[] contenido = ArrayUtils.addAll(String.valueOf(cantidad).getBytes());
-        contenido = ArrayUtils.addAll(contenido, emisor);
-        contenido = ArrayUtils.addAll(contenido, destinatario);
-        contenido = ArrayUtils.addAll(contenido, Longs.toByteArray(timestamp));
-        return contenido;
+        int longitudEmisor = emisor != null ? emisor.length : 0;
+        int longitudDestinatario = destinatario != null ? destinatario.length : 0;
+        int longitudComision = comision != 0 ? 8 : 0;
+        ByteBuffer contenido = ByteBuffer
+                .allocate(LONGITUD_FIJA_CONTENIDO + longitudComision + longitudEmisor + longitudDestinatario);
+        contenido.put(comision != 0 ? VERSION_CODIFICACION_COMISION : VERSION_CODIFICACION);
+        contenido.put((byte) (esCoinbase ? 1 : 0));
+        contenido.putLong(cantidad);
+        if (comision != 0) {
+            contenido.putLong(comision);
+        }
+        contenido.putLong(timestamp);
+        contenido.putInt(longitudEmisor);
+        if (emisor != null) {
+            contenido.put(emisor);
+        }
+        contenido.putInt(longitudDestinatario);
+        if (destinatario != null) {
+            contenido.put(destinatario);
+        }
+        return contenido.array();
     }
 
     /**
@@ -134,7 +242,7 @@ public class Transaccion {
      *         la transacción.
      */
     public byte[] calcularHashTransaccion() {
-        return DigestUtils.sha256(getContenidoTransaccion());
+        return UtilidadesHash.sha256(getContenidoTransaccion());
     }
 
     /**
@@ -151,15 +259,17 @@ public class Transaccion {
             return false;
         }
 
-        if (this.cantidad > 0) {
+        if (this.cantidad <= 0) {
             System.out.println("Cantidad inválida");
             return false;
         }
 
-        if (this.firma == null) {
-            System.out.println("Firma inválida");
+        if (this.comision < 0 || this.comision > Long.MAX_VALUE - this.cantidad
+                || this.esCoinbase && this.comision != 0) {
+            System.out.println("Comisión inválida");
             return false;
         }
+
         // Verificar hash
         if (!Arrays.equals(getHash(), calcularHashTransaccion())) {
             System.out.println("Hash de transacción inválido");
@@ -173,15 +283,21 @@ public class Transaccion {
                 return false;
             }
 
+            if (this.firma == null) {
+                System.out.println("Firma inválida");
+                return false;
+            }
+
             // Verificar firma
             if (!UtilidadesFirma.validarFirma(getContenidoTransaccion(), getFirma(), emisor)) {
                 System.out.println("Firma de transacción inválida");
                 return false;
             }
         }
-        // Coinbase tx
+        // Coinbase tx: la recompensa más las comisiones del bloque, que se
+        // comprueban en Bloque.esValido
         else {
-            if (this.cantidad != Configuracion.getInstancia().getCantidadCoinbase()) {
+            if (this.cantidad < Configuracion.getInstancia().getCantidadCoinbase()) {
                 System.out.println("Cantidad inválida");
                 return false;
             }
@@ -226,7 +342,8 @@ public class Transaccion {
     public String toString() {
         return "{\nHash: " + Base64.encodeBase64String(hash) + ",\nEmisor: " + Base64.encodeBase64String(emisor)
                 + ",\nDestinatario: "
-                + Base64.encodeBase64String(destinatario) + ",\nCantidad: " + cantidad + ",\nFirma: "
+                + Base64.encodeBase64String(destinatario) + ",\nCantidad: " + Cantidad.formatear(cantidad) + ",\nComisión: "
+                + Cantidad.formatear(comision) + ",\nFirma: "
                 + Base64.encodeBase64String(firma)
                 + ",\nTimestamp: " + new Date(timestamp) + "\n}";
     }
@@ -0,0 +1,70 @@
+package com.lfcounago.javablockchain.commons.estructuras;
+
+public class TransaccionConfirmada {
+
+    // La transacción tal como está en el bloque
+    private Transaccion transaccion;
+
+    // Hash y altura del bloque que contiene la transacción
+    private byte[] hashBloque;
+    private int alturaBloque;
+
+    // Posición de la transacción en el bloque
+    private int posicion;
+
+    // Número de bloques de la cadena desde el que contiene la transacción,
+    // incluido
+    private int confirmaciones;
+
+    public TransaccionConfirmada() {
+    }
+
+    public TransaccionConfirmada(Bloque bloque, int alturaBloque, int posicion, int numeroBloques) {
+        this.transaccion = bloque.getTransacciones().get(posicion);
+        this.hashBloque = bloque.getHash();
+        this.alturaBloque = alturaBloque;
+        this.posicion = posicion;
+        this.confirmaciones = numeroBloques - alturaBloque;
+    }
+
+    public Transaccion getTransaccion() {
+        return transaccion;
+    }
+
+    public void setTransaccion(Transaccion transaccion) {
+        this.transaccion = transaccion;
+    }
+
+    public byte[] getHashBloque() {
+        return hashBloque;
+    }
+
+    public void setHashBloque(byte[] hashBloque) {
+        this.hashBloque = hashBloque;
+    }
+
+    public int getAlturaBloque() {
+        return alturaBloque;
+    }
+
+    public void setAlturaBloque(int alturaBloque) {
+        this.alturaBloque = alturaBloque;
+    }
+
+    public int getPosicion() {
+        return posicion;
+    }
+
+    public void setPosicion(int posicion) {
+        this.posicion = posicion;
+    }
+
+    public int getConfirmaciones() {
+        return confirmaciones;
+    }
+
+    public void setConfirmaciones(int confirmaciones) {
+        this.confirmaciones = confirmaciones;
+    }
+
+}
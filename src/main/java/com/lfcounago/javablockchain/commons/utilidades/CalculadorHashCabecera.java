@@ -0,0 +1,128 @@
+package com.lfcounago.javablockchain.commons.utilidades;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+
+/**
+ * Calcula el hash de la cabecera de un bloque en la que solo cambian el nonce y
+ * el timestamp. El estado SHA-256 sobre el prefijo fijo (hashBloqueAnterior |
+ * raizArbolMerkle) se calcula una vez al crear el calculador (midstate), y cada
+ * hash parte de una copia de ese estado y solo procesa el nonce y el timestamp.
+ * Cada instancia reutiliza sus buffers, por lo que debe usarse desde un único
+ * hilo.
+ */
+public class CalculadorHashCabecera {
+
+    // Posiciones del nonce y del timestamp dentro de la parte variable
+    private static final int POSICION_NONCE = 0;
+    private static final int POSICION_TIMESTAMP = 8;
+
+    // Digest con el prefijo ya procesado
+    private final MessageDigest midstate;
+    // Prefijo completo, solo si el proveedor no permite clonar el digest
+    private final byte[] prefijo;
+
+    private final byte[] sufijo = new byte[16];
+    private final byte[] hash = new byte[UtilidadesHash.LONGITUD_HASH];
+
+    /**
+     * Crea el calculador para una cabecera con los campos fijos dados.
+     *
+     * @param hashBloqueAnterior Hash del bloque anterior (null en el génesis).
+     * @param raizArbolMerkle    Raíz del árbol de Merkle de las transacciones.
+     */
+    public CalculadorHashCabecera(byte[] hashBloqueAnterior, byte[] raizArbolMerkle) {
+        MessageDigest digest = UtilidadesHash.nuevoDigestSha256();
+        if (hashBloqueAnterior != null) {
+            digest.update(hashBloqueAnterior);
+        }
+        if (raizArbolMerkle != null) {
+            digest.update(raizArbolMerkle);
+        }
+        if (esClonable(digest)) {
+            this.prefijo = null;
+        } else {
+            // sin midstate: se procesa la cabecera completa en cada hash
+            digest.reset();
+            this.prefijo = concatenar(hashBloqueAnterior, raizArbolMerkle);
+        }
+        this.midstate = digest;
+    }
+
+    /**
+     * Cambia el nonce de la cabecera.
+     *
+     * @param nonce Nuevo nonce.
+     */
+    public void setNonce(long nonce) {
+        UtilidadesHash.escribirLong(sufijo, POSICION_NONCE, nonce);
+    }
+
+    /**
+     * Cambia el timestamp de la cabecera.
+     *
+     * @param timestamp Nuevo timestamp.
+     */
+    public void setTimestamp(long timestamp) {
+        UtilidadesHash.escribirLong(sufijo, POSICION_TIMESTAMP, timestamp);
+    }
+
+    /**
+     * Calcula el hash de la cabecera actual. El array devuelto se reutiliza en
+     * la siguiente llamada, así que hay que copiarlo si se quiere conservar.
+     *
+     * @return Hash SHA-256 de la cabecera.
+     */
+    public byte[] calcular() {
+        try {
+            MessageDigest digest;
+            if (prefijo == null) {
+                digest = (MessageDigest) midstate.clone();
+            } else {
+                digest = midstate;
+                digest.update(prefijo);
+            }
+            digest.update(sufijo, 0, sufijo.length);
+            digest.digest(hash, 0, hash.length);
+        } catch (CloneNotSupportedException | DigestException e) {
+            throw new IllegalStateException(e);
+        }
+        return hash;
+    }
+
+    /**
+     * Comprueba si el proveedor permite clonar el estado del digest.
+     *
+     * @param digest El digest a comprobar.
+     * @return true si el digest se puede clonar.
+     */
+    private static boolean esClonable(MessageDigest digest) {
+        try {
+            digest.clone();
+            return true;
+        } catch (CloneNotSupportedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Concatena los campos fijos de la cabecera.
+     *
+     * @param hashBloqueAnterior Hash del bloque anterior (puede ser null).
+     * @param raizArbolMerkle    Raíz del árbol de Merkle (puede ser null).
+     * @return El prefijo de la cabecera.
+     */
+    private static byte[] concatenar(byte[] hashBloqueAnterior, byte[] raizArbolMerkle) {
+        int longitudAnterior = hashBloqueAnterior != null ? hashBloqueAnterior.length : 0;
+        int longitudMerkle = raizArbolMerkle != null ? raizArbolMerkle.length : 0;
+        byte[] resultado = new byte[longitudAnterior + longitudMerkle];
+        if (hashBloqueAnterior != null) {
+            System.arraycopy(hashBloqueAnterior, 0, resultado, 0, longitudAnterior);
+        }
+        if (raizArbolMerkle != null) {
+            System.arraycopy(raizArbolMerkle, 0, resultado, longitudAnterior, longitudMerkle);
+        }
+        return resultado;
+    }
+
+}
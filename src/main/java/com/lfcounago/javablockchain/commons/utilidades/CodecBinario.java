@@ -0,0 +1,337 @@
+package com.lfcounago.javablockchain.commons.utilidades;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.lfcounago.javablockchain.commons.estructuras.Bloque;
+import com.lfcounago.javablockchain.commons.estructuras.CabeceraBloque;
+import com.lfcounago.javablockchain.commons.estructuras.Transaccion;
+
+/**
+ * Codificación binaria de bloques y transacciones, usada para guardarlos en
+ * disco y para enviarlos entre nodos. Los arrays de bytes se escriben
+ * precedidos de su longitud (-1 si son null) y los enteros en big-endian.
+ * Dentro de un bloque o de un lote de transacciones las claves públicas se
+ * escriben una sola vez en un diccionario al principio, y cada transacción
+ * hace referencia a ellas por su posición, porque la misma clave (por ejemplo
+ * la del coinbase) suele aparecer en muchas transacciones.
+ */
+public class CodecBinario {
+
+    // Versión del formato de un bloque. Los bloques de la versión 1, guardados
+    // antes de existir las comisiones, se siguen pudiendo leer
+    private static final byte VERSION_BLOQUE = 2;
+    private static final byte VERSION_BLOQUE_SIN_COMISION = 1;
+
+    // Límites de lectura para no reservar memoria de más con datos corruptos
+    private static final int MAX_LONGITUD_CAMPO = 64 * 1024;
+    private static final int MAX_ELEMENTOS = 1 << 20;
+
+    /**
+     * Codifica un bloque en un array de bytes.
+     *
+     * @param bloque El bloque a codificar.
+     * @return El bloque codificado.
+     */
+    public static byte[] codificarBloque(Bloque bloque) {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream(256 + 128 * bloque.getTransacciones().size());
+        try {
+            escribirBloque(new DataOutputStream(salida), bloque);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return salida.toByteArray();
+    }
+
+    /**
+     * Decodifica un bloque codificado con codificarBloque.
+     *
+     * @param datos El bloque codificado.
+     * @return El bloque.
+     * @throws IOException Si los datos no son un bloque válido.
+     */
+    public static Bloque decodificarBloque(byte[] datos) throws IOException {
+        return leerBloque(new DataInputStream(new ByteArrayInputStream(datos)));
+    }
+
+    /**
+     * Escribe un bloque: versión, cabecera, diccionario de claves públicas y
+     * transacciones.
+     *
+     * @param salida Destino de los datos.
+     * @param bloque El bloque a escribir.
+     * @throws IOException Si falla la escritura.
+     */
+    public static void escribirBloque(DataOutput salida, Bloque bloque) throws IOException {
+        salida.writeByte(VERSION_BLOQUE);
+        escribirBytes(salida, bloque.getHash());
+        escribirBytes(salida, bloque.getHashBloqueAnterior());
+        escribirBytes(salida, bloque.getRaizArbolMerkle());
+        salida.writeLong(bloque.getNonce());
+        salida.writeLong(bloque.getTimestamp());
+
+        escribirTransacciones(salida, bloque.getTransacciones());
+    }
+
+    /**
+     * Escribe la cabecera de un bloque: hash, hash del bloque anterior, raíz de
+     * Merkle, nonce y timestamp.
+     *
+     * @param salida   Destino de los datos.
+     * @param cabecera La cabecera a escribir.
+     * @throws IOException Si falla la escritura.
+     */
+    public static void escribirCabecera(DataOutput salida, CabeceraBloque cabecera) throws IOException {
+        escribirBytes(salida, cabecera.getHash());
+        escribirBytes(salida, cabecera.getHashBloqueAnterior());
+        escribirBytes(salida, cabecera.getRaizArbolMerkle());
+        salida.writeLong(cabecera.getNonce());
+        salida.writeLong(cabecera.getTimestamp());
+    }
+
+    /**
+     * Escribe una colección de transacciones: diccionario de claves públicas
+     * (número de claves y claves) y transacciones (número de transacciones y, por
+     * cada una, hash, posición del emisor y del destinatario en el diccionario o
+     * -1, cantidad, comisión, firma, timestamp y si es coinbase).
+     *
+     * @param salida        Destino de los datos.
+     * @param transacciones Las transacciones a escribir.
+     * @throws IOException Si falla la escritura.
+     */
+    public static void escribirTransacciones(DataOutput salida, Collection<Transaccion> transacciones)
+            throws IOException {
+        Map<Clave, Integer> posiciones = new HashMap<>();
+        List<byte[]> claves = new ArrayList<>();
+        // posiciones del emisor y del destinatario de cada transacción
+        int[] referencias = new int[2 * transacciones.size()];
+        int i = 0;
+        for (Transaccion transaccion : transacciones) {
+            referencias[i++] = registrarClave(transaccion.getEmisor(), posiciones, claves);
+            referencias[i++] = registrarClave(transaccion.getDestinatario(), posiciones, claves);
+        }
+
+        salida.writeInt(claves.size());
+        for (byte[] clave : claves) {
+            escribirBytes(salida, clave);
+        }
+
+        salida.writeInt(transacciones.size());
+        i = 0;
+        for (Transaccion transaccion : transacciones) {
+            escribirBytes(salida, transaccion.getHash());
+            salida.writeInt(referencias[i++]);
+            salida.writeInt(referencias[i++]);
+            salida.writeLong(transaccion.getCantidad());
+            salida.writeLong(transaccion.getComision());
+            escribirBytes(salida, transaccion.getFirma());
+            salida.writeLong(transaccion.getTimestamp());
+            salida.writeBoolean(transaccion.getEsCoinbase());
+        }
+    }
+
+    /**
+     * Lee un bloque escrito con escribirBloque.
+     *
+     * @param entrada Origen de los datos.
+     * @return El bloque.
+     * @throws IOException Si los datos no son un bloque válido.
+     */
+    public static Bloque leerBloque(DataInput entrada) throws IOException {
+        byte version = entrada.readByte();
+        if (version != VERSION_BLOQUE && version != VERSION_BLOQUE_SIN_COMISION) {
+            throw new IOException("Versión de bloque desconocida: " + version);
+        }
+
+        Bloque bloque = new Bloque();
+        bloque.setHash(leerBytes(entrada));
+        bloque.setHashBloqueAnterior(leerBytes(entrada));
+        bloque.setRaizArbolMerkle(leerBytes(entrada));
+        bloque.setNonce(entrada.readLong());
+        bloque.setTimestamp(entrada.readLong());
+
+        bloque.setTransactions(leerTransacciones(entrada, version != VERSION_BLOQUE_SIN_COMISION));
+        return bloque;
+    }
+
+    /**
+     * Lee una cabecera escrita con escribirCabecera.
+     *
+     * @param entrada Origen de los datos.
+     * @return La cabecera.
+     * @throws IOException Si los datos no son una cabecera válida.
+     */
+    public static CabeceraBloque leerCabecera(DataInput entrada) throws IOException {
+        CabeceraBloque cabecera = new CabeceraBloque();
+        cabecera.setHash(leerBytes(entrada));
+        cabecera.setHashBloqueAnterior(leerBytes(entrada));
+        cabecera.setRaizArbolMerkle(leerBytes(entrada));
+        cabecera.setNonce(entrada.readLong());
+        cabecera.setTimestamp(entrada.readLong());
+        return cabecera;
+    }
+
+    /**
+     * Lee una lista de transacciones escrita con escribirTransacciones. Las
+     * transacciones con la misma clave comparten el mismo array.
+     *
+     * @param entrada Origen de los datos.
+     * @return Las transacciones.
+     * @throws IOException Si los datos no son válidos.
+     */
+    public static List<Transaccion> leerTransacciones(DataInput entrada) throws IOException {
+        return leerTransacciones(entrada, true);
+    }
+
+    /**
+     * Lee una lista de transacciones, con o sin el campo de comisión (que no
+     * tienen los bloques de la versión 1).
+     */
+    private static List<Transaccion> leerTransacciones(DataInput entrada, boolean conComision) throws IOException {
+        byte[][] claves = new byte[leerNumeroElementos(entrada)][];
+        for (int i = 0; i < claves.length; i++) {
+            claves[i] = leerBytes(entrada);
+        }
+
+        int numeroTransacciones = leerNumeroElementos(entrada);
+        List<Transaccion> transacciones = new ArrayList<>(numeroTransacciones);
+        for (int i = 0; i < numeroTransacciones; i++) {
+            Transaccion transaccion = new Transaccion();
+            transaccion.setHash(leerBytes(entrada));
+            transaccion.setEmisor(claveEnPosicion(claves, entrada.readInt()));
+            transaccion.setDestinatario(claveEnPosicion(claves, entrada.readInt()));
+            transaccion.setCantidad(entrada.readLong());
+            if (conComision) {
+                transaccion.setComision(entrada.readLong());
+            }
+            transaccion.setFirma(leerBytes(entrada));
+            transaccion.setTimestamp(entrada.readLong());
+            transaccion.setEsCoinbase(entrada.readBoolean());
+            transacciones.add(transaccion);
+        }
+        return transacciones;
+    }
+
+    /**
+     * Escribe un array de bytes precedido de su longitud, o -1 si es null.
+     *
+     * @param salida Destino de los datos.
+     * @param datos  Los bytes a escribir.
+     * @throws IOException Si falla la escritura.
+     */
+    public static void escribirBytes(DataOutput salida, byte[] datos) throws IOException {
+        if (datos == null) {
+            salida.writeInt(-1);
+        } else {
+            salida.writeInt(datos.length);
+            salida.write(datos);
+        }
+    }
+
+    /**
+     * Lee un array de bytes escrito con escribirBytes.
+     *
+     * @param entrada Origen de los datos.
+     * @return Los bytes leídos, o null.
+     * @throws IOException Si la longitud no es válida o faltan datos.
+     */
+    public static byte[] leerBytes(DataInput entrada) throws IOException {
+        int longitud = entrada.readInt();
+        if (longitud == -1) {
+            return null;
+        }
+        if (longitud < 0 || longitud > MAX_LONGITUD_CAMPO) {
+            throw new IOException("Longitud de campo inválida: " + longitud);
+        }
+        byte[] datos = new byte[longitud];
+        entrada.readFully(datos);
+        return datos;
+    }
+
+    /**
+     * Lee el número de elementos de una lista (escrito con writeInt), comprobando
+     * que es razonable.
+     *
+     * @param entrada Origen de los datos.
+     * @return El número de elementos.
+     * @throws IOException Si el número no es válido.
+     */
+    public static int leerNumeroElementos(DataInput entrada) throws IOException {
+        int numero = entrada.readInt();
+        if (numero < 0 || numero > MAX_ELEMENTOS) {
+            throw new IOException("Número de elementos inválido: " + numero);
+        }
+        return numero;
+    }
+
+    /**
+     * Añade una clave al diccionario si no estaba.
+     *
+     * @return La posición de la clave en el diccionario, o -1 si es null.
+     */
+    private static int registrarClave(byte[] clave, Map<Clave, Integer> posiciones, List<byte[]> claves) {
+        if (clave == null) {
+            return -1;
+        }
+        Integer posicion = posiciones.putIfAbsent(new Clave(clave), claves.size());
+        if (posicion == null) {
+            claves.add(clave);
+            return claves.size() - 1;
+        }
+        return posicion;
+    }
+
+    private static byte[] claveEnPosicion(byte[][] claves, int posicion) throws IOException {
+        if (posicion == -1) {
+            return null;
+        }
+        if (posicion < 0 || posicion >= claves.length) {
+            throw new IOException("Referencia a clave inválida: " + posicion);
+        }
+        return claves[posicion];
+    }
+
+    /**
+     * Clave pública como clave de un mapa. Las claves codificadas comparten el
+     * prefijo (algoritmo y parámetros del grupo DSA) y se diferencian al final,
+     * así que el hashCode se calcula solo con los últimos bytes.
+     */
+    private static final class Clave {
+
+        private static final int BYTES_HASH = 32;
+
+        private final byte[] datos;
+        private final int hashCode;
+
+        Clave(byte[] datos) {
+            this.datos = datos;
+            int hash = datos.length;
+            for (int i = Math.max(0, datos.length - BYTES_HASH); i < datos.length; i++) {
+                hash = 31 * hash + datos[i];
+            }
+            this.hashCode = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Clave otra && Arrays.equals(datos, otra.datos);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.lfcounago.javablockchain.commons.utilidades;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.KeyFactory;
 import java.security.KeyPair;
@@ -15,6 +16,10 @@ import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.lfcounago.javablockchain.Configuracion;
+
 public class UtilidadesFirma {
 
     /**
@@ -23,6 +28,29 @@ public class UtilidadesFirma {
      */
     private static KeyFactory keyFactory = null;
 
+    /**
+     * Caché LRU acotada de claves públicas ya decodificadas, indexada por los
+     * bytes de la clave codificada. Los emisores habituales firman muchas
+     * transacciones y decodificar la clave X.509 es buena parte del coste de
+     * validar una firma.
+     */
+    private static final Cache<ByteBuffer, PublicKey> cacheClavesPublicas = CacheBuilder.newBuilder()
+            .maximumSize(Configuracion.getInstancia().getMaxClavesCache())
+            .recordStats()
+            .build();
+
+    /**
+     * Instancia de Signature por hilo. Signature no se puede compartir entre hilos
+     * y obtenerla del proveedor en cada firma es costoso.
+     */
+    private static final ThreadLocal<Signature> signature = ThreadLocal.withInitial(() -> {
+        try {
+            return getInstanciaSignature();
+        } catch (NoSuchProviderException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
     /**
      * Bloque de inicialización estático que se ejecuta una vaz al cargar la clase
      * para instanciar la KeyFactory con el algoritmo DSA y el proveedor SUN.
@@ -62,15 +90,11 @@ public class UtilidadesFirma {
      *         error durante el proceso de verificación.
      */
     public static boolean validarFirma(byte[] info, byte[] firma, byte[] clavePublica) {
-
-        // crear un objeto PublicKey con la clave publica dada
-        X509EncodedKeySpec keySpec = new X509EncodedKeySpec(clavePublica);
-        PublicKey publicKeyObj;
         try {
-            publicKeyObj = keyFactory.generatePublic(keySpec);
+            PublicKey publicKeyObj = getClavePublica(clavePublica);
 
             // validar firma
-            Signature sig = getInstanciaSignature();
+            Signature sig = signature.get();
             sig.initVerify(publicKeyObj);
             sig.update(info);
             return sig.verify(firma);
@@ -79,6 +103,44 @@ public class UtilidadesFirma {
         }
     }
 
+    /**
+     * Obtiene el objeto PublicKey de una clave codificada, usando la caché de
+     * claves ya decodificadas.
+     *
+     * @param clavePublica La clave pública codificada en X.509.
+     * @return La clave pública decodificada.
+     * @throws InvalidKeySpecException Si la clave no es válida.
+     */
+    private static PublicKey getClavePublica(byte[] clavePublica) throws InvalidKeySpecException {
+        PublicKey publicKeyObj = cacheClavesPublicas.getIfPresent(ByteBuffer.wrap(clavePublica));
+        if (publicKeyObj == null) {
+            publicKeyObj = keyFactory.generatePublic(new X509EncodedKeySpec(clavePublica));
+            // se copia la clave para que la entrada no cambie si el array se modifica
+            cacheClavesPublicas.put(ByteBuffer.wrap(clavePublica.clone()), publicKeyObj);
+        }
+        return publicKeyObj;
+    }
+
+    /**
+     * Obtiene el número de validaciones que encontraron la clave pública en la
+     * caché.
+     *
+     * @return Número de aciertos de la caché de claves públicas.
+     */
+    public static long getAciertosCacheClaves() {
+        return cacheClavesPublicas.stats().hitCount();
+    }
+
+    /**
+     * Obtiene el número de validaciones que tuvieron que decodificar la clave
+     * pública.
+     *
+     * @return Número de fallos de la caché de claves públicas.
+     */
+    public static long getFallosCacheClaves() {
+        return cacheClavesPublicas.stats().missCount();
+    }
+
     /**
      * Firma datos con la clave privada dada.
      *
@@ -94,7 +156,7 @@ public class UtilidadesFirma {
         PrivateKey privateKeyObj = keyFactory.generatePrivate(keySpec);
 
         // firmar
-        Signature sig = getInstanciaSignature();
+        Signature sig = signature.get();
         sig.initSign(privateKeyObj);
         sig.update(datosFirmar);
         return sig.sign();
@@ -0,0 +1,112 @@
+package com.lfcounago.javablockchain.commons.utilidades;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public class UtilidadesHash {
+
+    // Longitud en bytes de un hash SHA-256
+    public static final int LONGITUD_HASH = 32;
+
+    /**
+     * Instancia de MessageDigest SHA-256 por hilo. Crear un MessageDigest en cada
+     * hash es costoso, y una misma instancia no se puede compartir entre hilos.
+     */
+    private static final ThreadLocal<MessageDigest> digestSha256 = ThreadLocal
+            .withInitial(UtilidadesHash::nuevoDigestSha256);
+
+    // Buffer por hilo para codificar el nonce y el timestamp sin reservar memoria
+    private static final ThreadLocal<byte[]> bufferLongs = ThreadLocal.withInitial(() -> new byte[16]);
+
+    /**
+     * Crea una nueva instancia de MessageDigest con el algoritmo SHA-256.
+     *
+     * @return Una nueva instancia de MessageDigest SHA-256.
+     */
+    public static MessageDigest nuevoDigestSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Algoritmo SHA-256 no disponible", e);
+        }
+    }
+
+    /**
+     * Obtiene el MessageDigest SHA-256 del hilo actual, listo para usarse.
+     *
+     * @return El MessageDigest SHA-256 del hilo actual.
+     */
+    public static MessageDigest getDigestSha256() {
+        MessageDigest digest = digestSha256.get();
+        digest.reset();
+        return digest;
+    }
+
+    /**
+     * Calcula el hash SHA-256 de los datos dados con el MessageDigest del hilo.
+     *
+     * @param datos Los datos a resumir.
+     * @return Hash SHA-256 de los datos.
+     */
+    public static byte[] sha256(byte[] datos) {
+        return getDigestSha256().digest(datos);
+    }
+
+    /**
+     * Calcula el hash SHA-256 de la cabecera de un bloque sin concatenar sus
+     * campos en arrays intermedios. El resultado es idéntico al hash de
+     * hashBloqueAnterior | raizArbolMerkle | nonce | timestamp, con los long
+     * codificados en big-endian.
+     *
+     * @param hashBloqueAnterior Hash del bloque anterior (puede ser null).
+     * @param raizArbolMerkle    Raíz del árbol de Merkle (puede ser null).
+     * @param nonce              Nonce del bloque.
+     * @param timestamp          Marca temporal del bloque.
+     * @return Hash SHA-256 de la cabecera.
+     */
+    public static byte[] hashCabecera(byte[] hashBloqueAnterior, byte[] raizArbolMerkle, long nonce,
+            long timestamp) {
+        MessageDigest digest = getDigestSha256();
+        if (hashBloqueAnterior != null) {
+            digest.update(hashBloqueAnterior);
+        }
+        if (raizArbolMerkle != null) {
+            digest.update(raizArbolMerkle);
+        }
+        byte[] buffer = bufferLongs.get();
+        escribirLong(buffer, 0, nonce);
+        escribirLong(buffer, 8, timestamp);
+        digest.update(buffer, 0, 16);
+        return digest.digest();
+    }
+
+    /**
+     * Escribe un long en big-endian en la posición indicada de un array.
+     *
+     * @param destino  Array de destino.
+     * @param posicion Posición del primer byte.
+     * @param valor    Valor a escribir.
+     */
+    public static void escribirLong(byte[] destino, int posicion, long valor) {
+        for (int i = 7; i >= 0; i--) {
+            destino[posicion + i] = (byte) valor;
+            valor >>>= 8;
+        }
+    }
+
+    /**
+     * Cuenta el número de bytes a cero al principio de un hash.
+     *
+     * @param hash El hash a comprobar.
+     * @return Número de bytes a cero iniciales.
+     */
+    public static int contarCerosIniciales(byte[] hash) {
+        for (int i = 0; i < hash.length; i++) {
+            if (hash[i] != 0) {
+                return i;
+            }
+        }
+        return hash.length;
+    }
+
+}
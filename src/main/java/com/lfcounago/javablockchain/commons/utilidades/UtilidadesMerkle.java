@@ -0,0 +1,208 @@
+package com.lfcounago.javablockchain.commons.utilidades;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class UtilidadesMerkle {
+
+    private static final int LONGITUD_HASH = UtilidadesHash.LONGITUD_HASH;
+
+    // A partir de este número de nodos en un nivel se reparte el cálculo entre
+    // los hilos del ForkJoinPool común
+    public static final int UMBRAL_PARALELO = 8192;
+
+    // Número de pares que calcula cada tarea fork-join como mínimo
+    private static final int PARES_POR_TAREA = 1024;
+
+    /**
+     * Calcula la raíz del árbol de Merkle a partir de los hashes de las hojas,
+     * guardados de forma contigua (32 bytes por hoja). Cada nivel se calcula
+     * resumiendo los nodos de dos en dos; si un nivel tiene un número impar de
+     * nodos, el último pasa sin cambios al nivel siguiente.
+     * https://en.wikipedia.org/wiki/Merkle_tree
+     *
+     * El array de hojas se usa como espacio de trabajo y queda modificado.
+     *
+     * @param hojas       Hashes de las hojas concatenados.
+     * @param numeroHojas Número de hojas.
+     * @return Hash SHA-256 de la raíz, o null si no hay hojas.
+     */
+    public static byte[] calcularRaiz(byte[] hojas, int numeroHojas) {
+        if (numeroHojas == 0) {
+            return null;
+        }
+
+        byte[] nivel = hojas;
+        byte[] siguiente = null;
+        int nodos = numeroHojas;
+        while (nodos > 1) {
+            int pares = nodos / 2;
+            if (nodos >= UMBRAL_PARALELO) {
+                // en paralelo no se puede escribir sobre el mismo buffer que se lee
+                if (siguiente == null) {
+                    siguiente = new byte[pares * LONGITUD_HASH + LONGITUD_HASH];
+                }
+                ForkJoinPool.commonPool().invoke(new TareaNivel(nivel, siguiente, 0, pares));
+                promocionarImpar(nivel, siguiente, nodos);
+                byte[] auxiliar = nivel;
+                nivel = siguiente;
+                siguiente = auxiliar;
+            } else {
+                resumirPares(nivel, nivel, 0, pares);
+                promocionarImpar(nivel, nivel, nodos);
+            }
+            nodos = pares + (nodos & 1);
+        }
+
+        byte[] raiz = new byte[LONGITUD_HASH];
+        System.arraycopy(nivel, 0, raiz, 0, LONGITUD_HASH);
+        return raiz;
+    }
+
+    /**
+     * Calcula todos los niveles del árbol de Merkle, desde las hojas hasta la
+     * raíz, con la misma regla para niveles impares que calcularRaiz. Cada nivel
+     * se guarda de forma contigua (32 bytes por nodo).
+     *
+     * @param hojas       Hashes de las hojas concatenados. No se modifica y
+     *                    pasa a ser el nivel 0.
+     * @param numeroHojas Número de hojas (al menos una).
+     * @return Niveles del árbol; el último contiene solo la raíz.
+     */
+    public static byte[][] calcularNiveles(byte[] hojas, int numeroHojas) {
+        int numeroNiveles = 1;
+        for (int nodos = numeroHojas; nodos > 1; nodos = (nodos + 1) / 2) {
+            numeroNiveles++;
+        }
+
+        byte[][] niveles = new byte[numeroNiveles][];
+        niveles[0] = hojas;
+        int nodos = numeroHojas;
+        for (int k = 1; k < numeroNiveles; k++) {
+            int pares = nodos / 2;
+            niveles[k] = new byte[(pares + (nodos & 1)) * LONGITUD_HASH];
+            if (nodos >= UMBRAL_PARALELO) {
+                ForkJoinPool.commonPool().invoke(new TareaNivel(niveles[k - 1], niveles[k], 0, pares));
+            } else {
+                resumirPares(niveles[k - 1], niveles[k], 0, pares);
+            }
+            promocionarImpar(niveles[k - 1], niveles[k], nodos);
+            nodos = pares + (nodos & 1);
+        }
+        return niveles;
+    }
+
+    /**
+     * Verifica una prueba de inclusión de Merkle: recalcula la raíz a partir del
+     * hash de una hoja y de los hashes hermanos de cada nivel, y la compara con la
+     * raíz esperada. En los niveles en los que el nodo es el último de un número
+     * impar de nodos no hay hermano y el nodo sube sin cambios.
+     *
+     * @param hashHoja    Hash de la hoja (transacción) a verificar.
+     * @param indice      Posición de la hoja en el bloque.
+     * @param numeroHojas Número de hojas del árbol.
+     * @param hermanos    Hashes hermanos desde las hojas hacia la raíz.
+     * @param raiz        Raíz del árbol de Merkle esperada.
+     * @return true si la hoja pertenece al árbol con esa raíz.
+     */
+    public static boolean verificarPrueba(byte[] hashHoja, int indice, int numeroHojas, List<byte[]> hermanos,
+            byte[] raiz) {
+        if (hashHoja == null || raiz == null || hermanos == null || indice < 0 || indice >= numeroHojas) {
+            return false;
+        }
+
+        MessageDigest digest = UtilidadesHash.getDigestSha256();
+        byte[] actual = hashHoja;
+        int siguienteHermano = 0;
+        for (int nodos = numeroHojas; nodos > 1; nodos = (nodos + 1) / 2) {
+            boolean promocionado = (nodos & 1) == 1 && indice == nodos - 1;
+            if (!promocionado) {
+                if (siguienteHermano >= hermanos.size()) {
+                    return false;
+                }
+                byte[] hermano = hermanos.get(siguienteHermano++);
+                if ((indice & 1) == 0) {
+                    digest.update(actual);
+                    digest.update(hermano);
+                } else {
+                    digest.update(hermano);
+                    digest.update(actual);
+                }
+                actual = digest.digest();
+            }
+            indice /= 2;
+        }
+        return siguienteHermano == hermanos.size() && Arrays.equals(actual, raiz);
+    }
+
+    /**
+     * Calcula los nodos padre de un rango de pares de un nivel. El nodo i del
+     * nivel siguiente es el hash de los nodos 2i y 2i+1; como i <= 2i, origen y
+     * destino pueden ser el mismo array si el rango se recorre en orden.
+     *
+     * @param origen  Nivel actual.
+     * @param destino Nivel siguiente.
+     * @param desde   Primer par (incluido).
+     * @param hasta   Último par (excluido).
+     */
+    static void resumirPares(byte[] origen, byte[] destino, int desde, int hasta) {
+        MessageDigest digest = UtilidadesHash.getDigestSha256();
+        try {
+            for (int i = desde; i < hasta; i++) {
+                digest.update(origen, 2 * i * LONGITUD_HASH, 2 * LONGITUD_HASH);
+                digest.digest(destino, i * LONGITUD_HASH, LONGITUD_HASH);
+            }
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Si el nivel tiene un número impar de nodos, copia el último al final del
+     * nivel siguiente.
+     *
+     * @param origen  Nivel actual.
+     * @param destino Nivel siguiente.
+     * @param nodos   Número de nodos del nivel actual.
+     */
+    private static void promocionarImpar(byte[] origen, byte[] destino, int nodos) {
+        if ((nodos & 1) == 1) {
+            System.arraycopy(origen, (nodos - 1) * LONGITUD_HASH, destino, (nodos / 2) * LONGITUD_HASH,
+                    LONGITUD_HASH);
+        }
+    }
+
+    /**
+     * Tarea fork-join que reparte el cálculo de los pares de un nivel.
+     */
+    private static class TareaNivel extends RecursiveAction {
+
+        private final byte[] origen;
+        private final byte[] destino;
+        private final int desde;
+        private final int hasta;
+
+        TareaNivel(byte[] origen, byte[] destino, int desde, int hasta) {
+            this.origen = origen;
+            this.destino = destino;
+            this.desde = desde;
+            this.hasta = hasta;
+        }
+
+        @Override
+        protected void compute() {
+            if (hasta - desde <= PARES_POR_TAREA) {
+                resumirPares(origen, destino, desde, hasta);
+            } else {
+                int mitad = (desde + hasta) >>> 1;
+                invokeAll(new TareaNivel(origen, destino, desde, mitad),
+                        new TareaNivel(origen, destino, mitad, hasta));
+            }
+        }
+    }
+
+}
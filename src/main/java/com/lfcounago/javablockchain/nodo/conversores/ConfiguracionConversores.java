@@ -0,0 +1,23 @@
+package com.lfcounago.javablockchain.nodo.conversores;
+
+import java.util.List;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class ConfiguracionConversores implements WebMvcConfigurer {
+
+    /**
+     * Añade el convertidor binario al final de la lista, de forma que solo se use
+     * cuando la petición lo pide expresamente (Content-Type o Accept
+     * application/x-javablockchain) y el resto de clientes sigan recibiendo JSON.
+     *
+     * @param convertidores Los convertidores configurados por Spring.
+     */
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> convertidores) {
+        convertidores.add(new ConvertidorBinario());
+    }
+}
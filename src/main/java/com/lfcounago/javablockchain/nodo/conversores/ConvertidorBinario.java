@@ -0,0 +1,226 @@
+package com.lfcounago.javablockchain.nodo.conversores;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.core.ResolvableType;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractGenericHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+
+import com.lfcounago.javablockchain.commons.estructuras.Bloque;
+import com.lfcounago.javablockchain.commons.estructuras.CabeceraBloque;
+import com.lfcounago.javablockchain.commons.estructuras.CadenaDeBloques;
+import com.lfcounago.javablockchain.commons.estructuras.PoolTransacciones;
+import com.lfcounago.javablockchain.commons.estructuras.Transaccion;
+import com.lfcounago.javablockchain.commons.utilidades.CodecBinario;
+
+/**
+ * Convierte bloques, listas de bloques y de cabeceras, transacciones, lotes de
+ * transacciones, el pool y la cadena de bloques al formato binario de
+ * CodecBinario para el tipo de contenido application/x-javablockchain. Lo usan
+ * los nodos entre sí; los clientes que piden JSON siguen recibiendo JSON.
+ *
+ * Formatos del cuerpo:
+ * - Bloque: el bloque (CodecBinario.escribirBloque).
+ * - Transacción, lote o pool: lista de transacciones
+ * (CodecBinario.escribirTransacciones).
+ * - Cadena de bloques o lista de bloques: número de bloques (4 bytes) seguido
+ * de los bloques.
+ * - Lista de cabeceras: número de cabeceras (4 bytes) seguido de las
+ * cabeceras (CodecBinario.escribirCabecera).
+ */
+public class ConvertidorBinario extends AbstractGenericHttpMessageConverter<Object> {
+
+    public static final MediaType TIPO_BINARIO = new MediaType("application", "x-javablockchain");
+
+    public ConvertidorBinario() {
+        super(TIPO_BINARIO);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clase) {
+        return Bloque.class.isAssignableFrom(clase) || Transaccion.class.isAssignableFrom(clase)
+                || PoolTransacciones.class.isAssignableFrom(clase) || CadenaDeBloques.class.isAssignableFrom(clase)
+                || Collection.class.isAssignableFrom(clase);
+    }
+
+    @Override
+    public boolean canRead(Type tipo, Class<?> claseContexto, MediaType tipoContenido) {
+        return esSoportado(tipo, true) && canRead(tipoContenido);
+    }
+
+    @Override
+    public boolean canWrite(Type tipo, Class<?> clase, MediaType tipoContenido) {
+        return esSoportado(tipo != null ? tipo : clase, false) && canWrite(tipoContenido);
+    }
+
+    @Override
+    public Object read(Type tipo, Class<?> claseContexto, HttpInputMessage entrada)
+            throws IOException, HttpMessageNotReadableException {
+        Class<?> elemento = tipoElemento(tipo);
+        if (Bloque.class.equals(elemento) || CabeceraBloque.class.equals(elemento)) {
+            DataInputStream datos = new DataInputStream(new BufferedInputStream(entrada.getBody(), 64 * 1024));
+            try {
+                return Bloque.class.equals(elemento) ? leerBloques(datos) : leerCabeceras(datos);
+            } catch (IOException e) {
+                throw new HttpMessageNotReadableException("Mensaje binario inválido: " + e.getMessage(), e, entrada);
+            }
+        }
+        return leer(ResolvableType.forType(tipo).resolve(Object.class), entrada);
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clase, HttpInputMessage entrada)
+            throws IOException, HttpMessageNotReadableException {
+        return leer(clase, entrada);
+    }
+
+    @Override
+    protected void writeInternal(Object objeto, Type tipo, HttpOutputMessage salida)
+            throws IOException, HttpMessageNotWritableException {
+        DataOutputStream datos = new DataOutputStream(new BufferedOutputStream(salida.getBody(), 64 * 1024));
+        if (objeto instanceof Bloque bloque) {
+            CodecBinario.escribirBloque(datos, bloque);
+        } else if (objeto instanceof Transaccion transaccion) {
+            CodecBinario.escribirTransacciones(datos, List.of(transaccion));
+        } else if (objeto instanceof PoolTransacciones pool) {
+            CodecBinario.escribirTransacciones(datos, new ArrayList<>(pool.getPool()));
+        } else if (objeto instanceof CadenaDeBloques cadena) {
+            escribirBloques(datos, cadena.getBloques());
+        } else if (objeto instanceof List<?> lista
+                && (Bloque.class.equals(tipoElemento(tipo)) || !lista.isEmpty() && lista.get(0) instanceof Bloque)) {
+            @SuppressWarnings("unchecked")
+            List<Bloque> bloques = (List<Bloque>) lista;
+            escribirBloques(datos, bloques);
+        } else if (objeto instanceof List<?> lista && (CabeceraBloque.class.equals(tipoElemento(tipo))
+                || !lista.isEmpty() && lista.get(0) instanceof CabeceraBloque)) {
+            int numeroCabeceras = lista.size();
+            datos.writeInt(numeroCabeceras);
+            for (int i = 0; i < numeroCabeceras; i++) {
+                CodecBinario.escribirCabecera(datos, (CabeceraBloque) lista.get(i));
+            }
+        } else if (objeto instanceof Collection<?> coleccion) {
+            List<Transaccion> transacciones = new ArrayList<>(coleccion.size());
+            for (Object elemento : coleccion) {
+                if (!(elemento instanceof Transaccion)) {
+                    throw new HttpMessageNotWritableException("Solo se pueden enviar colecciones de transacciones");
+                }
+                transacciones.add((Transaccion) elemento);
+            }
+            CodecBinario.escribirTransacciones(datos, transacciones);
+        } else {
+            throw new HttpMessageNotWritableException("Tipo no soportado: " + objeto.getClass());
+        }
+        datos.flush();
+    }
+
+    /**
+     * Lee el cuerpo de un mensaje como el tipo pedido.
+     */
+    private Object leer(Class<?> clase, HttpInputMessage entrada) throws IOException {
+        DataInputStream datos = new DataInputStream(new BufferedInputStream(entrada.getBody(), 64 * 1024));
+        try {
+            if (Bloque.class.isAssignableFrom(clase)) {
+                return CodecBinario.leerBloque(datos);
+            }
+            if (Transaccion.class.isAssignableFrom(clase)) {
+                List<Transaccion> transacciones = CodecBinario.leerTransacciones(datos);
+                if (transacciones.size() != 1) {
+                    throw new IOException("Se esperaba una transacción y hay " + transacciones.size());
+                }
+                return transacciones.get(0);
+            }
+            if (PoolTransacciones.class.isAssignableFrom(clase)) {
+                return new PoolTransacciones(CodecBinario.leerTransacciones(datos));
+            }
+            if (CadenaDeBloques.class.isAssignableFrom(clase)) {
+                CadenaDeBloques cadena = new CadenaDeBloques();
+                cadena.setBloques(leerBloques(datos));
+                return cadena;
+            }
+            return CodecBinario.leerTransacciones(datos);
+        } catch (IOException e) {
+            throw new HttpMessageNotReadableException("Mensaje binario inválido: " + e.getMessage(), e, entrada);
+        } catch (Exception e) {
+            throw new HttpMessageNotReadableException("Cadena de bloques inválida: " + e.getMessage(), e, entrada);
+        }
+    }
+
+    /**
+     * Escribe una lista de bloques. Los bloques se escriben según se recorren, así
+     * que con el almacén en disco no hace falta tenerlos todos en memoria. El
+     * número de bloques se fija antes de escribir por si se añade otro mientras
+     * tanto.
+     */
+    private static void escribirBloques(DataOutputStream datos, List<Bloque> bloques) throws IOException {
+        int numeroBloques = bloques.size();
+        datos.writeInt(numeroBloques);
+        for (int i = 0; i < numeroBloques; i++) {
+            CodecBinario.escribirBloque(datos, bloques.get(i));
+        }
+    }
+
+    private static List<Bloque> leerBloques(DataInputStream datos) throws IOException {
+        int numeroBloques = CodecBinario.leerNumeroElementos(datos);
+        List<Bloque> bloques = new ArrayList<>(numeroBloques);
+        for (int i = 0; i < numeroBloques; i++) {
+            bloques.add(CodecBinario.leerBloque(datos));
+        }
+        return bloques;
+    }
+
+    private static List<CabeceraBloque> leerCabeceras(DataInputStream datos) throws IOException {
+        int numeroCabeceras = CodecBinario.leerNumeroElementos(datos);
+        List<CabeceraBloque> cabeceras = new ArrayList<>(numeroCabeceras);
+        for (int i = 0; i < numeroCabeceras; i++) {
+            cabeceras.add(CodecBinario.leerCabecera(datos));
+        }
+        return cabeceras;
+    }
+
+    /**
+     * Obtiene el tipo de los elementos de una colección genérica.
+     *
+     * @return El tipo de los elementos, o null si no es una colección genérica.
+     */
+    private static Class<?> tipoElemento(Type tipo) {
+        if (!(tipo instanceof ParameterizedType)) {
+            return null;
+        }
+        return ResolvableType.forType(tipo).asCollection().resolveGeneric(0);
+    }
+
+    /**
+     * Comprueba si un tipo se puede convertir. Las colecciones solo se aceptan si
+     * son de transacciones o listas de bloques o cabeceras; al escribir, una
+     * colección sin tipo de elemento conocido (como el cuerpo de una petición de
+     * RestTemplate) también se acepta y se comprueban sus elementos al
+     * escribirla.
+     */
+    private boolean esSoportado(Type tipo, boolean lectura) {
+        Class<?> clase = ResolvableType.forType(tipo).resolve(Object.class);
+        if (!Collection.class.isAssignableFrom(clase)) {
+            return supports(clase);
+        }
+        if (tipo instanceof ParameterizedType) {
+            Class<?> elemento = tipoElemento(tipo);
+            boolean transacciones = elemento != null && Transaccion.class.isAssignableFrom(elemento);
+            boolean bloques = elemento != null && (Bloque.class.isAssignableFrom(elemento)
+                    || CabeceraBloque.class.isAssignableFrom(elemento)) && List.class.isAssignableFrom(clase);
+            return (transacciones || bloques) && (!lectura || clase.isAssignableFrom(ArrayList.class));
+        }
+        return !lectura;
+    }
+}
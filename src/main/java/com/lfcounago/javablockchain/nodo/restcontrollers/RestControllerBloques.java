@@ -1,10 +1,10 @@
 package com.lfcounago.javablockchain.nodo.restcontrollers;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.commons.codec.binary.Base64;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
@@ -13,8 +13,11 @@ import org.springframework.web.bind.annotation.RestController;
 
 import com.lfcounago.javablockchain.Configuracion;
 import com.lfcounago.javablockchain.commons.estructuras.Bloque;
+import com.lfcounago.javablockchain.commons.estructuras.CabeceraBloque;
 import com.lfcounago.javablockchain.commons.estructuras.CadenaDeBloques;
+import com.lfcounago.javablockchain.commons.estructuras.PruebaMerkle;
 import com.lfcounago.javablockchain.nodo.services.ServiceBloques;
+import com.lfcounago.javablockchain.nodo.services.ServiceInventario;
 import com.lfcounago.javablockchain.nodo.services.ServiceNodo;
 import com.lfcounago.javablockchain.nodo.services.ServiceMinado;
 
@@ -27,8 +30,7 @@ public class RestControllerBloques {
     private final ServiceBloques servicioBloques;
     private final ServiceNodo servicioNodo;
     private final ServiceMinado servicioMinado;
-
-    private List<Bloque> bufferBloques = new ArrayList<Bloque>();
+    private final ServiceInventario servicioInventario;
 
     /**
      * Constructor de la clase RestControllerBloques, utilizado para inyectar
@@ -38,13 +40,16 @@ public class RestControllerBloques {
      *                                cadena de bloques.
      * @param servicioNodo            El servicio que gestiona la lógica del nodo.
      * @param servicioMinado          El servicio que gestiona la lógica de minado.
+     * @param servicioInventario      El servicio que anuncia los bloques nuevos a
+     *                                los nodos vecinos.
      */
     @Autowired
     public RestControllerBloques(ServiceBloques servicioCadenaDeBloques, ServiceNodo servicioNodo,
-            ServiceMinado servicioMinado) {
+            ServiceMinado servicioMinado, ServiceInventario servicioInventario) {
         this.servicioBloques = servicioCadenaDeBloques;
         this.servicioNodo = servicioNodo;
         this.servicioMinado = servicioMinado;
+        this.servicioInventario = servicioInventario;
 
         if (Configuracion.getInstancia().getMinar()) {
             servicioMinado.startMinado();
@@ -63,12 +68,99 @@ public class RestControllerBloques {
         return servicioBloques.getCadenaDeBloques();
     }
 
+    /**
+     * Obtiene un bloque de la cadena por su hash. Es lo que piden los nodos que
+     * reciben el anuncio de un bloque que no conocen.
+     *
+     * @param hash     El hash del bloque en Base64 para URLs.
+     * @param response La respuesta HTTP que se enviará al cliente.
+     * @return El bloque, o null si no está en la cadena.
+     */
+    @RequestMapping(path = "{hash}", method = RequestMethod.GET)
+    Bloque getBloque(@PathVariable String hash, HttpServletResponse response) {
+        Bloque bloque = servicioBloques.obtenerBloque(Base64.decodeBase64(hash));
+        if (bloque == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        }
+        return bloque;
+    }
+
+    /**
+     * Obtiene los bloques de la cadena entre dos alturas, como mucho
+     * maxBloquesPorPeticion. Los bloques se escriben en la respuesta según se leen
+     * de la cadena.
+     *
+     * @param desde Altura del primer bloque.
+     * @param hasta Altura siguiente al último bloque (opcional).
+     * @return Los bloques del rango.
+     */
+    @RequestMapping(path = "rango", method = RequestMethod.GET)
+    List<Bloque> getBloques(@RequestParam int desde, @RequestParam(required = false) Integer hasta) {
+        return servicioBloques.obtenerBloques(desde, hasta != null ? hasta : Integer.MAX_VALUE);
+    }
+
+    /**
+     * Obtiene los bloques que siguen a un bloque conocido, como mucho
+     * maxBloquesPorPeticion. Es lo que piden los nodos que se unen a la red para
+     * descargar la cadena por lotes desde su último bloque.
+     *
+     * @param hash     El hash del bloque en Base64.
+     * @param response La respuesta HTTP que se enviará al cliente.
+     * @return Los bloques siguientes, o null si el bloque no está en la cadena.
+     */
+    @RequestMapping(path = "desde", method = RequestMethod.GET)
+    List<Bloque> getBloquesDesde(@RequestParam String hash, HttpServletResponse response) {
+        List<Bloque> bloques = servicioBloques.obtenerBloquesDesde(Base64.decodeBase64(hash));
+        if (bloques == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        }
+        return bloques;
+    }
+
+    /**
+     * Obtiene las cabeceras de los bloques que siguen a un bloque conocido, o
+     * desde el bloque génesis, como mucho maxCabecerasPorPeticion. Es lo primero
+     * que descargan los nodos que se unen a la red antes de pedir los bloques.
+     *
+     * @param desde    El hash del bloque en Base64 (opcional).
+     * @param response La respuesta HTTP que se enviará al cliente.
+     * @return Las cabeceras siguientes, o null si el bloque no está en la cadena.
+     */
+    @RequestMapping(path = "cabeceras", method = RequestMethod.GET)
+    List<CabeceraBloque> getCabeceras(@RequestParam(required = false) String desde, HttpServletResponse response) {
+        List<CabeceraBloque> cabeceras = servicioBloques
+                .obtenerCabecerasDesde(desde != null ? Base64.decodeBase64(desde) : null);
+        if (cabeceras == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        }
+        return cabeceras;
+    }
+
+    /**
+     * Obtiene la prueba de inclusión de Merkle de una transacción confirmada, de
+     * forma que un cliente ligero pueda comprobar que está en un bloque sin
+     * descargar la cadena.
+     *
+     * @param hashTransaccion El hash de la transacción en Base64.
+     * @param response        La respuesta HTTP que se enviará al cliente.
+     * @return La prueba de inclusión, o null si la transacción no está en la
+     *         cadena.
+     */
+    @RequestMapping(path = "prueba", method = RequestMethod.GET)
+    PruebaMerkle getPruebaMerkle(@RequestParam String hashTransaccion, HttpServletResponse response) {
+        PruebaMerkle prueba = servicioBloques.obtenerPruebaMerkle(Base64.decodeBase64(hashTransaccion));
+        if (prueba == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        }
+        return prueba;
+    }
+
     /**
      * Maneja las solicitudes HTTP POST para añadir un bloque al sistema blockchain.
      *
      * @param bloque   El bloque que se va a añadir, proporcionado en el cuerpo de
      *                 la solicitud.
-     * @param propagar Indica si se debe propagar el bloque a nodos vecinos
+     * @param propagar Indica si se debe anunciar el bloque a nodos vecinos
      *                 (opcional).
      * @param response La respuesta HTTP que se enviará al cliente.
      */
@@ -79,24 +171,19 @@ public class RestControllerBloques {
         System.out.println(bloque);
         System.out.println("\n");
 
-        if (!servicioNodo.inicializado) {
-            this.bufferBloques.add(bloque);
-            System.out.println("Bloque añadido a buffer.\n");
-            response.setStatus(HttpServletResponse.SC_ACCEPTED);
-        }
         try {
-            for (Bloque b : this.bufferBloques) {
-                this.servicioBloques.añadirBloque(b);
-            }
-            this.bufferBloques = new ArrayList<Bloque>();
-
-            servicioBloques.añadirBloque(bloque);
+            byte[] anterior = servicioBloques.añadirBloque(bloque);
             response.setStatus(HttpServletResponse.SC_ACCEPTED);
+            if (anterior != null) {
+                // Se añadirá cuando llegue el bloque anterior
+                servicioInventario.pedirBloqueAnterior(null, anterior);
+                return;
+            }
 
             // servicioMinado.restartMinado();
             if (propagar != null && propagar) {
-                servicioNodo.emitirPeticionPostNodosVecinos("bloque", bloque);
-                System.out.println("Bloque propagado.\n");
+                servicioInventario.anunciarBloque(bloque, null);
+                System.out.println("Bloque anunciado.\n");
             }
         } catch (Exception e) {
             System.out.println("Bloque invalido y no añadido. Error: " + e + "\n");
@@ -0,0 +1,42 @@
+package com.lfcounago.javablockchain.nodo.restcontrollers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.lfcounago.javablockchain.commons.estructuras.Inventario;
+import com.lfcounago.javablockchain.nodo.services.ServiceInventario;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+@RestController
+@RequestMapping("inventario")
+public class RestControllerInventario {
+
+    private final ServiceInventario servicioInventario;
+
+    @Autowired
+    public RestControllerInventario(ServiceInventario servicioInventario) {
+        this.servicioInventario = servicioInventario;
+    }
+
+    /**
+     * Recibe el anuncio de los bloques y transacciones que tiene un nodo vecino.
+     * Los que este nodo no conoce se piden al vecino en segundo plano, así que la
+     * respuesta no espera a que lleguen. Los inventarios de nodos que no son
+     * vecinos se rechazan.
+     *
+     * @param inventario El inventario anunciado.
+     * @param response   La respuesta HTTP que se enviará al cliente.
+     */
+    @RequestMapping(method = RequestMethod.POST)
+    void recibirInventario(@RequestBody Inventario inventario, HttpServletResponse response) {
+        if (servicioInventario.recibirInventario(inventario)) {
+            response.setStatus(HttpServletResponse.SC_ACCEPTED);
+        } else {
+            response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.lfcounago.javablockchain.nodo.restcontrollers;
 
 import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -10,8 +12,16 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.lfcounago.javablockchain.Configuracion;
+import com.lfcounago.javablockchain.commons.estructuras.PoolTransacciones;
+import com.lfcounago.javablockchain.commons.utilidades.UtilidadesFirma;
+import com.lfcounago.javablockchain.nodo.services.ServiceBloques;
+import com.lfcounago.javablockchain.nodo.services.ServiceDifusion;
+import com.lfcounago.javablockchain.nodo.services.ServiceHilos;
+import com.lfcounago.javablockchain.nodo.services.ServiceInventario;
 import com.lfcounago.javablockchain.nodo.services.ServiceMinado;
 import com.lfcounago.javablockchain.nodo.services.ServiceNodo;
+import com.lfcounago.javablockchain.nodo.services.ServicePlantillaBloque;
+import com.lfcounago.javablockchain.nodo.services.ServiceTransacciones;
 
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -21,10 +31,27 @@ import jakarta.servlet.http.HttpServletResponse;
 public class RestControllerNodo {
 
     private final ServiceNodo servicioNodo;
+    private final ServiceDifusion servicioDifusion;
+    private final ServiceInventario servicioInventario;
+    private final ServiceHilos servicioHilos;
+    private final ServiceTransacciones servicioTransacciones;
+    private final ServicePlantillaBloque servicioPlantillas;
+    private final ServiceMinado servicioMinado;
+    private final ServiceBloques servicioBloques;
 
     @Autowired
-    public RestControllerNodo(ServiceNodo servicioNodo) {
+    public RestControllerNodo(ServiceNodo servicioNodo, ServiceDifusion servicioDifusion,
+            ServiceInventario servicioInventario, ServiceHilos servicioHilos,
+            ServiceTransacciones servicioTransacciones, ServicePlantillaBloque servicioPlantillas,
+            ServiceMinado servicioMinado, ServiceBloques servicioBloques) {
         this.servicioNodo = servicioNodo;
+        this.servicioDifusion = servicioDifusion;
+        this.servicioInventario = servicioInventario;
+        this.servicioHilos = servicioHilos;
+        this.servicioTransacciones = servicioTransacciones;
+        this.servicioPlantillas = servicioPlantillas;
+        this.servicioMinado = servicioMinado;
+        this.servicioBloques = servicioBloques;
     }
 
     /**
@@ -76,4 +103,48 @@ public class RestControllerNodo {
         return request.getRemoteAddr();
     }
 
-}
\ No newline at end of file
+    /**
+     * Obtiene las métricas de rendimiento del nodo.
+     *
+     * @return Un mapa con el nombre y el valor de cada métrica.
+     */
+    @RequestMapping(path = "estadisticas", method = RequestMethod.GET)
+    Map<String, Object> getEstadisticas() {
+        Map<String, Object> estadisticas = new LinkedHashMap<>();
+        estadisticas.put("hilosVirtuales", servicioHilos.usaHilosVirtuales());
+        estadisticas.put("aciertosCacheClaves", UtilidadesFirma.getAciertosCacheClaves());
+        estadisticas.put("fallosCacheClaves", UtilidadesFirma.getFallosCacheClaves());
+        PoolTransacciones pool = servicioTransacciones.getPoolTransacciones();
+        estadisticas.put("poolTransacciones", pool.getNumeroTransacciones());
+        estadisticas.put("poolBytes", pool.getBytes());
+        estadisticas.put("poolExpulsadas", pool.getExpulsadas());
+        estadisticas.put("poolCaducadas", pool.getCaducadas());
+        estadisticas.put("plantillasPreparadas", servicioPlantillas.getPlantillasPreparadas());
+        estadisticas.put("plantillasConstruidas", servicioPlantillas.getPlantillasConstruidas());
+        estadisticas.put("plantillaUltimaEsperaUs", servicioPlantillas.getUltimaEsperaUs());
+        estadisticas.put("minadoHashesPorSegundo", Math.round(servicioMinado.getHashesPorSegundo()));
+        estadisticas.put("minadoRondasObsoletas", servicioMinado.getRondasObsoletas());
+        estadisticas.put("minadoTiempoObsoletoUs", servicioMinado.getTiempoObsoletoUs());
+        estadisticas.put("minadoUltimoTiempoObsoletoUs", servicioMinado.getUltimoTiempoObsoletoUs());
+        estadisticas.put("reorganizaciones", servicioBloques.getReorganizaciones());
+        estadisticas.put("reorganizacionBloquesDeshechos", servicioBloques.getBloquesDeshechos());
+        estadisticas.put("bloquesRamasLaterales", servicioBloques.getBloquesRamasLaterales());
+        estadisticas.put("transaccionesIndexadas", servicioBloques.getTransaccionesIndexadas());
+        estadisticas.put("bloquesHuerfanos", servicioBloques.getBloquesHuerfanos());
+        estadisticas.put("huerfanosConectados", servicioBloques.getHuerfanosConectados());
+        estadisticas.put("huerfanosDescartados", servicioBloques.getHuerfanosDescartados());
+        estadisticas.put("difusionPendientes", servicioDifusion.getPendientes());
+        estadisticas.put("difusionEnviados", servicioDifusion.getEnviados());
+        estadisticas.put("difusionRechazados", servicioDifusion.getRechazados());
+        estadisticas.put("difusionFallidos", servicioDifusion.getFallidos());
+        estadisticas.put("difusionDescartados", servicioDifusion.getDescartados());
+        estadisticas.put("difusionCaducados", servicioDifusion.getCaducados());
+        estadisticas.put("inventarioHashesAnunciados", servicioInventario.getHashesAnunciados());
+        estadisticas.put("inventarioHashesRecibidos", servicioInventario.getHashesRecibidos());
+        estadisticas.put("inventarioBloquesPedidos", servicioInventario.getBloquesPedidos());
+        estadisticas.put("inventarioTransaccionesPedidas", servicioInventario.getTransaccionesPedidas());
+        estadisticas.put("inventarioPedidosDescartados", servicioInventario.getPedidosDescartados());
+        return estadisticas;
+    }
+
+}
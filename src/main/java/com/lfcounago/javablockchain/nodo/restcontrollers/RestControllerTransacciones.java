@@ -1,7 +1,13 @@
 package com.lfcounago.javablockchain.nodo.restcontrollers;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import org.apache.commons.codec.binary.Base64;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
@@ -9,10 +15,14 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
 
-import com.lfcounago.javablockchain.commons.estructuras.RegistroSaldos;
+import com.lfcounago.javablockchain.Configuracion;
+import com.lfcounago.javablockchain.commons.estructuras.IdHash;
+import com.lfcounago.javablockchain.commons.estructuras.Inventario;
 import com.lfcounago.javablockchain.commons.estructuras.PoolTransacciones;
 import com.lfcounago.javablockchain.commons.estructuras.Transaccion;
-import com.lfcounago.javablockchain.nodo.services.ServiceNodo;
+import com.lfcounago.javablockchain.commons.estructuras.TransaccionConfirmada;
+import com.lfcounago.javablockchain.nodo.services.ServiceBloques;
+import com.lfcounago.javablockchain.nodo.services.ServiceInventario;
 import com.lfcounago.javablockchain.nodo.services.ServiceTransacciones;
 
 import jakarta.servlet.http.HttpServletResponse;
@@ -22,12 +32,15 @@ import jakarta.servlet.http.HttpServletResponse;
 public class RestControllerTransacciones {
 
     private final ServiceTransacciones servicioTransacciones;
-    private final ServiceNodo servicioNodo;
+    private final ServiceInventario servicioInventario;
+    private final ServiceBloques servicioBloques;
 
     @Autowired
-    public RestControllerTransacciones(ServiceTransacciones servicioTransacciones, ServiceNodo servicioNodo) {
+    public RestControllerTransacciones(ServiceTransacciones servicioTransacciones,
+            ServiceInventario servicioInventario, ServiceBloques servicioBloques) {
         this.servicioTransacciones = servicioTransacciones;
-        this.servicioNodo = servicioNodo;
+        this.servicioInventario = servicioInventario;
+        this.servicioBloques = servicioBloques;
     }
 
     /**
@@ -42,13 +55,89 @@ public class RestControllerTransacciones {
         return servicioTransacciones.getPoolTransacciones();
     }
 
+    /**
+     * Obtiene una transacción del pool por su hash.
+     *
+     * @param hash     El hash de la transacción en Base64 para URLs.
+     * @param response La respuesta HTTP que se enviará al cliente.
+     * @return La transacción, o null si no está en el pool.
+     */
+    @RequestMapping(path = "{hash}", method = RequestMethod.GET)
+    Transaccion getTransaccion(@PathVariable String hash, HttpServletResponse response) {
+        Transaccion transaccion = servicioTransacciones.obtenerTransaccion(Base64.decodeBase64(hash));
+        if (transaccion == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        }
+        return transaccion;
+    }
+
+    /**
+     * Obtiene una transacción confirmada por su hash, junto con el bloque que la
+     * contiene.
+     *
+     * @param hash     El hash de la transacción en Base64 para URLs.
+     * @param response La respuesta HTTP que se enviará al cliente.
+     * @return La transacción confirmada, o null si no está en la cadena.
+     */
+    @RequestMapping(path = "confirmada/{hash}", method = RequestMethod.GET)
+    TransaccionConfirmada getTransaccionConfirmada(@PathVariable String hash, HttpServletResponse response) {
+        TransaccionConfirmada transaccion = servicioBloques.obtenerTransaccionConfirmada(Base64.decodeBase64(hash));
+        if (transaccion == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        }
+        return transaccion;
+    }
+
+    /**
+     * Obtiene el historial de transacciones confirmadas de una cuenta, de la más
+     * reciente a la más antigua, por páginas de como mucho
+     * maxTransaccionesPorPeticion transacciones.
+     *
+     * @param clave  La clave pública de la cuenta en Base64 para URLs.
+     * @param desde  Número de transacciones recientes que se saltan (opcional).
+     * @param limite Número máximo de transacciones de la página (opcional).
+     * @return Las transacciones de la página.
+     */
+    @RequestMapping(path = "cuenta/{clave}", method = RequestMethod.GET)
+    List<TransaccionConfirmada> getTransaccionesCuenta(@PathVariable String clave,
+            @RequestParam(required = false) Integer desde, @RequestParam(required = false) Integer limite) {
+        return servicioBloques.obtenerTransaccionesCuenta(Base64.decodeBase64(clave), desde != null ? desde : 0,
+                limite != null ? limite : Integer.MAX_VALUE);
+    }
+
+    /**
+     * Obtiene las transacciones del pool cuyos hashes se piden en un inventario.
+     * Es lo que piden los nodos que reciben el anuncio de transacciones que no
+     * conocen; las que ya no están en el pool se omiten. Solo se buscan los
+     * primeros maxTransaccionesPorPeticion hashes del pedido.
+     *
+     * @param pedido Inventario con los hashes de las transacciones pedidas.
+     * @return Las transacciones pedidas que están en el pool.
+     */
+    @RequestMapping(path = "buscar", method = RequestMethod.POST)
+    List<Transaccion> buscarTransacciones(@RequestBody Inventario pedido) {
+        List<byte[]> hashes = pedido.getTransacciones();
+        int maximo = Configuracion.getInstancia().getMaxTransaccionesPorPeticion();
+        if (hashes.size() > maximo) {
+            hashes = hashes.subList(0, maximo);
+        }
+        List<Transaccion> transacciones = new ArrayList<>(hashes.size());
+        for (byte[] hash : hashes) {
+            Transaccion transaccion = servicioTransacciones.obtenerTransaccion(hash);
+            if (transaccion != null) {
+                transacciones.add(transaccion);
+            }
+        }
+        return transacciones;
+    }
+
     /**
      * Maneja las solicitudes HTTP POST para añadir una transacción al pool de
      * transacciones del sistema blockchain.
      *
      * @param transaccion La transacción que se va a añadir, proporcionada en el
      *                    cuerpo de la solicitud.
-     * @param propagar    Indica si se debe propagar la transacción a nodos vecinos
+     * @param propagar    Indica si se debe anunciar la transacción a nodos vecinos
      *                    (opcional).
      * @param response    La respuesta HTTP que se enviará al cliente.
      */
@@ -66,13 +155,62 @@ public class RestControllerTransacciones {
             response.setStatus(HttpServletResponse.SC_ACCEPTED);
 
             if (propagar != null && propagar) {
-                servicioNodo.emitirPeticionPostNodosVecinos("transaccion", transaccion);
-                System.out.println("Transacción propagada.\n");
+                servicioInventario.anunciarTransacciones(List.of(transaccion), null);
+                System.out.println("Transacción anunciada.\n");
+            }
+        } catch (Exception ex) {
+            System.out.println(ex.getMessage());
+            response.setStatus(HttpServletResponse.SC_NOT_ACCEPTABLE);
+        }
+    }
+
+    /**
+     * Maneja las solicitudes HTTP POST para añadir un lote de transacciones al
+     * pool. Las transacciones se validan en paralelo y, si alguna es inválida, no
+     * se añade ninguna. Si el lote es válido se responde con los hashes de las
+     * transacciones que no han entrado en el pool (porque ya estaban o porque no
+     * caben por los límites del pool) y solo se anuncian las que han entrado.
+     *
+     * @param transacciones Las transacciones que se van a añadir, proporcionadas
+     *                      en el cuerpo de la solicitud.
+     * @param propagar      Indica si se deben anunciar las transacciones a nodos
+     *                      vecinos (opcional).
+     * @param response      La respuesta HTTP que se enviará al cliente.
+     * @return Los hashes de las transacciones del lote no añadidas, o null si el
+     *         lote es inválido.
+     */
+    @RequestMapping(path = "lote", method = RequestMethod.POST)
+    List<byte[]> añadirTransacciones(@RequestBody List<Transaccion> transacciones,
+            @RequestParam(required = false) Boolean propagar, HttpServletResponse response) {
+        System.out.println("NUEVO LOTE DE " + transacciones.size() + " TRANSACCIONES RECIBIDO\n");
+        try {
+            List<Transaccion> añadidas = servicioTransacciones.añadirTransacciones(transacciones);
+
+            Set<IdHash> idsAñadidas = new HashSet<>();
+            for (Transaccion transaccion : añadidas) {
+                idsAñadidas.add(IdHash.de(transaccion.getHash()));
+            }
+            List<byte[]> noAñadidas = new ArrayList<>();
+            for (Transaccion transaccion : transacciones) {
+                if (!idsAñadidas.contains(IdHash.de(transaccion.getHash()))) {
+                    noAñadidas.add(transaccion.getHash());
+                }
+            }
+
+            System.out.println(añadidas.size() + " transacciones del lote añadidas al pool, "
+                    + noAñadidas.size() + " no añadidas.\n");
+            response.setStatus(HttpServletResponse.SC_ACCEPTED);
+
+            if (propagar != null && propagar && !añadidas.isEmpty()) {
+                servicioInventario.anunciarTransacciones(añadidas, null);
+                System.out.println("Transacciones añadidas del lote anunciadas.\n");
             }
+            return noAñadidas;
         } catch (Exception ex) {
             System.out.println(ex.getMessage());
             response.setStatus(HttpServletResponse.SC_NOT_ACCEPTABLE);
+            return null;
         }
     }
 
-}
\ No newline at end of file
+}
@@ -1,29 +1,116 @@
 package com.lfcounago.javablockchain.nodo.services;
 
+import java.math.BigInteger;
 import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
 
+import org.apache.commons.codec.binary.Base64;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpMethod;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
+import com.lfcounago.javablockchain.commons.almacenamiento.AlmacenBloquesFichero;
+import com.lfcounago.javablockchain.commons.almacenamiento.CheckpointSaldos;
 import com.lfcounago.javablockchain.commons.estructuras.Bloque;
+import com.lfcounago.javablockchain.commons.estructuras.CabeceraBloque;
 import com.lfcounago.javablockchain.commons.estructuras.CadenaDeBloques;
-import com.lfcounago.javablockchain.commons.estructuras.RegistroSaldos;
+import com.lfcounago.javablockchain.commons.estructuras.IdHash;
+import com.lfcounago.javablockchain.commons.estructuras.IndiceTransacciones;
+import com.lfcounago.javablockchain.commons.estructuras.PoolHuerfanos;
+import com.lfcounago.javablockchain.commons.estructuras.PruebaMerkle;
+import com.lfcounago.javablockchain.commons.estructuras.RamasLaterales;
 import com.lfcounago.javablockchain.commons.estructuras.Transaccion;
+import com.lfcounago.javablockchain.commons.estructuras.TransaccionConfirmada;
 import com.lfcounago.javablockchain.Configuracion;
 
+import jakarta.annotation.PreDestroy;
+
 @Service
 public class ServiceBloques {
 
+    private static final ParameterizedTypeReference<List<Bloque>> LISTA_BLOQUES = new ParameterizedTypeReference<List<Bloque>>() {
+    };
+    private static final ParameterizedTypeReference<List<CabeceraBloque>> LISTA_CABECERAS = new ParameterizedTypeReference<List<CabeceraBloque>>() {
+    };
+
+    // Bloques desde el último que se comprueban uno a uno al buscar la
+    // bifurcación con otro nodo, antes de empezar a saltar
+    private static final int BLOQUES_BUSQUEDA_UNO_A_UNO = 10;
+
     private final ServiceTransacciones servicioTransacciones;
+    private final ServiceValidacion servicioValidacion;
+    private final ServiceHilos servicioHilos;
+
+    private final CadenaDeBloques cadenaDeBloques;
+
+    // Bloques válidos fuera de la cadena, por si alguna de sus ramas llega a
+    // tener más trabajo
+    private final RamasLaterales ramasLaterales = new RamasLaterales();
+    private final int maxProfundidadReorganizacion;
+    // Bloques que esperan a que llegue su bloque anterior
+    private final PoolHuerfanos huerfanos;
 
-    private CadenaDeBloques cadenaDeBloques = new CadenaDeBloques();
+    // Contadores para las estadísticas del nodo
+    private final LongAdder reorganizaciones = new LongAdder();
+    private final LongAdder bloquesDeshechos = new LongAdder();
+    private final LongAdder huerfanosConectados = new LongAdder();
 
+    /**
+     * Crea el servicio. Si la persistencia está activada se abre la cadena
+     * guardada en el directorio de datos, partiendo del último checkpoint de
+     * saldos; si no, se empieza con una cadena vacía en memoria.
+     *
+     * @throws Exception Si no se puede abrir la cadena guardada.
+     */
     @Autowired
-    public ServiceBloques(ServiceTransacciones servicioTransacciones) {
+    public ServiceBloques(ServiceTransacciones servicioTransacciones, ServiceValidacion servicioValidacion,
+            ServiceHilos servicioHilos) throws Exception {
         this.servicioTransacciones = servicioTransacciones;
+        this.servicioValidacion = servicioValidacion;
+        this.servicioHilos = servicioHilos;
+
+        Configuracion configuracion = Configuracion.getInstancia();
+        this.maxProfundidadReorganizacion = configuracion.getMaxProfundidadReorganizacion();
+        this.huerfanos = new PoolHuerfanos(configuracion.getMaxBloquesHuerfanos(),
+                configuracion.getCaducidadBloqueHuerfanoMs());
+        if (configuracion.getPersistencia()) {
+            Path directorio = Paths.get(configuracion.getDirectorioDatos());
+            this.cadenaDeBloques = new CadenaDeBloques(
+                    new AlmacenBloquesFichero(directorio, configuracion.getMaxBloquesCache()),
+                    directorio.resolve(CheckpointSaldos.FICHERO), configuracion.getIntervaloCheckpoint(),
+                    maxProfundidadReorganizacion);
+            System.out.println("Cargada cadena de bloques de disco con " + cadenaDeBloques.getNumeroBloques()
+                    + " bloques.\n");
+        } else {
+            this.cadenaDeBloques = new CadenaDeBloques();
+        }
+        this.cadenaDeBloques.setMaxBloquesDeshacer(maxProfundidadReorganizacion);
+    }
+
+    /**
+     * Cierra el almacén de bloques al parar el nodo.
+     */
+    @PreDestroy
+    public void shutdown() {
+        cadenaDeBloques.cerrar();
     }
 
     /**
@@ -37,14 +124,88 @@ public class ServiceBloques {
 
     /**
      * Añade un bloque a la cadena de bloques de manera sincronizada, validando el
-     * bloque antes de agregarlo.
+     * bloque antes de agregarlo. Si el bloque no sigue al último de la cadena pero
+     * sí a otro bloque conocido, se guarda en una rama lateral, y si esa rama
+     * pasa a tener más trabajo que la cadena se cambia a ella.
+     *
+     * Si no se conoce el bloque anterior, el bloque se guarda como huérfano y se
+     * añade cuando llegue ese bloque.
      *
      * @param bloque El bloque que se va a añadir a la cadena de bloques.
+     * @return null si el bloque se ha añadido, o el hash del bloque que falta
+     *         para poder añadirlo si se ha guardado como huérfano.
      * @throws Exception Si el bloque no es válido, se lanza una excepción con el
      *                   mensaje "Bloque inválido".
      */
-    public synchronized void añadirBloque(Bloque bloque) throws Exception {
-        if (validarBloque(bloque)) {
+    public synchronized byte[] añadirBloque(Bloque bloque) throws Exception {
+        byte[] hashAnterior = bloque.getHashBloqueAnterior();
+        if (hashAnterior != null && obtenerBloque(hashAnterior) == null) {
+            if (huerfanos.contiene(bloque.getHash())) {
+                throw new Exception("Bloque ya conocido");
+            }
+            if (!validarContenido(bloque)) {
+                throw new Exception("Bloque inválido");
+            }
+            huerfanos.añadir(bloque);
+            System.out.println("Bloque guardado como huérfano.\n");
+            return huerfanos.obtenerAnteriorQueFalta(hashAnterior);
+        }
+        añadirBloque(bloque, true);
+        return null;
+    }
+
+    /**
+     * Indica si un bloque está en la cadena, en una rama lateral o entre los
+     * huérfanos, para no volver a pedirlo.
+     *
+     * @param hash El hash del bloque.
+     * @return true si el bloque se conoce.
+     */
+    public boolean conoceBloque(byte[] hash) {
+        return obtenerBloque(hash) != null || huerfanos.contiene(hash);
+    }
+
+    /**
+     * Añade un bloque validándolo, y a continuación los huérfanos que esperaban
+     * por él y por cada uno de los que se van añadiendo. Al sincronizar la cadena
+     * con otro nodo no se comprueba que las transacciones estén en el pool,
+     * porque son de bloques ya minados que este nodo no ha visto; tampoco en los
+     * huérfanos, que pueden llevar transacciones que no han llegado al pool. En
+     * todos los casos se rechazan los que repiten transacciones ya confirmadas.
+     */
+    private synchronized void añadirBloque(Bloque bloque, boolean comprobarPool) throws Exception {
+        añadirSinHuerfanos(bloque, comprobarPool);
+
+        Deque<Bloque> añadidos = new ArrayDeque<>();
+        añadidos.add(bloque);
+        while (!añadidos.isEmpty()) {
+            for (Bloque siguiente : huerfanos.extraerSiguientes(añadidos.removeFirst().getHash())) {
+                try {
+                    añadirSinHuerfanos(siguiente, false);
+                    huerfanosConectados.increment();
+                    añadidos.add(siguiente);
+                } catch (Exception e) {
+                    System.out.println("Bloque huérfano inválido y no añadido. Error: " + e + "\n");
+                }
+            }
+        }
+    }
+
+    private void añadirSinHuerfanos(Bloque bloque, boolean comprobarPool) throws Exception {
+        Bloque ultimoBloque = cadenaDeBloques.getUltimoBloque();
+        byte[] hashUltimoBloque = ultimoBloque != null ? ultimoBloque.getHash() : null;
+        if (Arrays.equals(bloque.getHashBloqueAnterior(), hashUltimoBloque)) {
+            conectarBloque(bloque, comprobarPool);
+        } else {
+            añadirARamaLateral(bloque);
+        }
+    }
+
+    /**
+     * Valida un bloque que sigue al último de la cadena y lo añade.
+     */
+    private void conectarBloque(Bloque bloque, boolean comprobarPool) throws Exception {
+        if (validarBloque(bloque, comprobarPool)) {
             this.cadenaDeBloques.añadirBloque(bloque);
 
             // Eliminar transacciones del pool excepto la primera transacción que es la
@@ -59,8 +220,545 @@ public class ServiceBloques {
     }
 
     /**
-     * Obtiene la cadena de bloques desde un nodo remoto utilizando un objeto
-     * RestTemplate.
+     * Guarda en una rama lateral un bloque que sigue a un bloque conocido que no
+     * es el último de la cadena. Los saldos no se comprueban hasta que la rama
+     * pasa a ser la cadena principal.
+     */
+    private void añadirARamaLateral(Bloque bloque) throws Exception {
+        if (obtenerBloque(bloque.getHash()) != null) {
+            throw new Exception("Bloque ya conocido");
+        }
+        int alturaAnterior = cadenaDeBloques.getAltura(bloque.getHashBloqueAnterior());
+        RamasLaterales.Nodo anterior = ramasLaterales.obtener(bloque.getHashBloqueAnterior());
+        int altura;
+        BigInteger trabajoAnterior;
+        if (alturaAnterior >= 0) {
+            altura = alturaAnterior + 1;
+            trabajoAnterior = trabajoCadena(altura);
+        } else if (anterior != null) {
+            altura = anterior.getAltura() + 1;
+            trabajoAnterior = anterior.getTrabajo();
+        } else {
+            throw new Exception("Bloque anterior desconocido");
+        }
+        if (altura < cadenaDeBloques.getNumeroBloques() - maxProfundidadReorganizacion) {
+            throw new Exception("Bifurcación demasiado antigua en la altura " + altura);
+        }
+        if (!validarContenido(bloque)) {
+            throw new Exception("Bloque inválido");
+        }
+
+        RamasLaterales.Nodo nodo = ramasLaterales.añadir(bloque, altura,
+                trabajoAnterior.add(trabajoCadena(1)));
+        System.out.println("Bloque añadido a una rama lateral en la altura " + altura + ".\n");
+        if (nodo.getTrabajo().compareTo(trabajoCadena(cadenaDeBloques.getNumeroBloques())) > 0) {
+            reorganizar(nodo);
+        }
+        ramasLaterales.podar(cadenaDeBloques.getNumeroBloques() - maxProfundidadReorganizacion);
+    }
+
+    /**
+     * Cambia la cadena principal a la rama que acaba en un nodo: deshace los
+     * bloques de la cadena desde la bifurcación y conecta los de la rama. Los
+     * bloques deshechos pasan a las ramas laterales y sus transacciones vuelven
+     * al pool. Si algún bloque de la rama no se puede conectar (por ejemplo por
+     * un doble gasto o por repetir una transacción confirmada antes de la
+     * bifurcación), se vuelve a la cadena anterior y se descarta la rama a partir
+     * de ese bloque. Las transacciones de los bloques deshechos salen del índice
+     * al desconectarlos, así que la rama sí puede volver a incluirlas.
+     *
+     * El coste depende del número de bloques deshechos y conectados, no de la
+     * longitud de la cadena.
+     */
+    private void reorganizar(RamasLaterales.Nodo punta) throws Exception {
+        List<Bloque> rama = ramasLaterales.obtenerRama(punta);
+        int numeroBifurcacion = cadenaDeBloques.getAltura(rama.get(0).getHashBloqueAnterior()) + 1;
+        if (numeroBifurcacion == 0) {
+            // la cadena se sustituyó después de guardar la rama
+            throw new Exception("La rama no sale de la cadena");
+        }
+        int profundidad = cadenaDeBloques.getNumeroBloques() - numeroBifurcacion;
+        System.out.println("Reorganización: se deshacen " + profundidad + " bloques y se conectan " + rama.size()
+                + ".\n");
+
+        List<Bloque> deshechos = new ArrayList<>();
+        int conectados = cambiarDeRama(numeroBifurcacion, rama, deshechos);
+        if (conectados < rama.size()) {
+            for (Bloque bloque : rama.subList(conectados, rama.size())) {
+                ramasLaterales.eliminar(bloque);
+            }
+            throw new Exception("Rama inválida en la altura " + (numeroBifurcacion + conectados));
+        }
+
+        for (Bloque bloque : rama) {
+            ramasLaterales.eliminar(bloque);
+        }
+        for (int i = 0; i < deshechos.size(); i++) {
+            ramasLaterales.añadir(deshechos.get(i), numeroBifurcacion + i, trabajoCadena(numeroBifurcacion + i + 1));
+        }
+        reorganizaciones.increment();
+        bloquesDeshechos.add(profundidad);
+    }
+
+    /**
+     * Sustituye los bloques de la cadena desde una altura por los de una rama. Si
+     * algún bloque de la rama no se puede conectar, se vuelve a dejar la cadena
+     * como estaba: los bloques deshechos se vuelven a añadir sin validarlos, porque
+     * ya se validaron al añadirlos la primera vez y la cadena vuelve a estar como
+     * entonces.
+     *
+     * @param numeroBifurcacion Número de bloques de la cadena que se conservan.
+     * @param rama              Los bloques que siguen a esos, ordenados por
+     *                          altura.
+     * @param deshechos         Lista en la que se dejan los bloques quitados de
+     *                          la cadena.
+     * @return El número de bloques de la rama que se conectaron; si es menor que
+     *         el tamaño de la rama, la cadena ha vuelto a su estado anterior.
+     * @throws Exception Si no se puede modificar el almacén de bloques.
+     */
+    private int cambiarDeRama(int numeroBifurcacion, List<Bloque> rama, List<Bloque> deshechos) throws Exception {
+        deshechos.addAll(desconectarHasta(numeroBifurcacion));
+        int conectados = 0;
+        try {
+            for (Bloque bloque : rama) {
+                conectarBloque(bloque, false);
+                conectados++;
+            }
+        } catch (Exception e) {
+            System.out.println("Rama inválida en la altura " + (numeroBifurcacion + conectados) + ": "
+                    + e.getMessage() + ". Se vuelve a la cadena anterior.");
+            desconectarHasta(numeroBifurcacion);
+            reconectarBloques(deshechos);
+        }
+        return conectados;
+    }
+
+    /**
+     * Vuelve a añadir a la cadena bloques que se acaban de quitar de ella, sin
+     * validarlos otra vez, y quita sus transacciones del pool.
+     *
+     * @param bloques Los bloques ordenados por altura; el primero sigue al último
+     *                de la cadena.
+     * @throws Exception Si no se puede modificar el almacén de bloques.
+     */
+    private void reconectarBloques(List<Bloque> bloques) throws Exception {
+        for (Bloque bloque : bloques) {
+            cadenaDeBloques.añadirBloque(bloque);
+            bloque.getTransacciones().subList(1, bloque.getTransacciones().size())
+                    .forEach(servicioTransacciones::eliminarTransaccion);
+        }
+    }
+
+    /**
+     * Quita bloques del final de la cadena hasta dejar el número dado y devuelve
+     * sus transacciones al pool.
+     *
+     * @return Los bloques quitados, ordenados por altura.
+     */
+    private List<Bloque> desconectarHasta(int numeroBloques) throws Exception {
+        List<Bloque> deshechos = new ArrayList<>();
+        while (cadenaDeBloques.getNumeroBloques() > numeroBloques) {
+            Bloque bloque = cadenaDeBloques.desconectarUltimoBloque();
+            servicioTransacciones.getPoolTransacciones().añadirTransaccionesValidadas(
+                    bloque.getTransacciones().subList(1, bloque.getTransacciones().size()));
+            deshechos.add(bloque);
+        }
+        Collections.reverse(deshechos);
+        return deshechos;
+    }
+
+    /**
+     * Trabajo acumulado de una cadena con el número de bloques dado. Todos los
+     * bloques tienen la misma dificultad, de bytes a cero al principio del hash,
+     * así que cada uno vale 256^dificultad hashes.
+     */
+    private static BigInteger trabajoCadena(int numeroBloques) {
+        return BigInteger.ONE.shiftLeft(8 * Configuracion.getInstancia().getDificultad())
+                .multiply(BigInteger.valueOf(numeroBloques));
+    }
+
+    public long getReorganizaciones() {
+        return reorganizaciones.sum();
+    }
+
+    public long getBloquesDeshechos() {
+        return bloquesDeshechos.sum();
+    }
+
+    public int getBloquesRamasLaterales() {
+        return ramasLaterales.getNumeroBloques();
+    }
+
+    public int getBloquesHuerfanos() {
+        return huerfanos.getNumeroBloques();
+    }
+
+    public long getHuerfanosConectados() {
+        return huerfanosConectados.sum();
+    }
+
+    public long getHuerfanosDescartados() {
+        return huerfanos.getExpulsados() + huerfanos.getCaducados();
+    }
+
+    public int getTransaccionesIndexadas() {
+        return cadenaDeBloques.getIndiceTransacciones().getNumeroTransacciones();
+    }
+
+    /**
+     * Construye la prueba de inclusión de Merkle de una transacción confirmada.
+     * El bloque que la contiene se busca en el índice de transacciones.
+     *
+     * @param hashTransaccion El hash de la transacción.
+     * @return La prueba de inclusión, o null si la transacción no está en la
+     *         cadena.
+     */
+    public PruebaMerkle obtenerPruebaMerkle(byte[] hashTransaccion) {
+        IndiceTransacciones.Ubicacion ubicacion = cadenaDeBloques.getIndiceTransacciones().obtener(hashTransaccion);
+        Bloque bloque = leerBloqueIndexado(ubicacion);
+        if (bloque == null || !Arrays.equals(hashTransaccion,
+                bloque.getTransacciones().get(ubicacion.getPosicion()).getHash())) {
+            return null;
+        }
+        return new PruebaMerkle(hashTransaccion, bloque, ubicacion.getAltura(), ubicacion.getPosicion());
+    }
+
+    /**
+     * Busca una transacción confirmada por su hash.
+     *
+     * @param hashTransaccion El hash de la transacción.
+     * @return La transacción con el bloque que la contiene, o null si no está en
+     *         la cadena.
+     */
+    public TransaccionConfirmada obtenerTransaccionConfirmada(byte[] hashTransaccion) {
+        int numeroBloques = cadenaDeBloques.getNumeroBloques();
+        IndiceTransacciones.Ubicacion ubicacion = cadenaDeBloques.getIndiceTransacciones().obtener(hashTransaccion);
+        Bloque bloque = leerBloqueIndexado(ubicacion);
+        if (bloque == null || !Arrays.equals(hashTransaccion,
+                bloque.getTransacciones().get(ubicacion.getPosicion()).getHash())) {
+            return null;
+        }
+        return new TransaccionConfirmada(bloque, ubicacion.getAltura(), ubicacion.getPosicion(), numeroBloques);
+    }
+
+    /**
+     * Obtiene una página del historial de transacciones confirmadas de una
+     * cuenta, de la más reciente a la más antigua. Se devuelven como mucho
+     * maxTransaccionesPorPeticion transacciones.
+     *
+     * @param clavePublica La clave pública de la cuenta.
+     * @param desde        Número de transacciones recientes que se saltan.
+     * @param limite       Número máximo de transacciones de la página.
+     * @return Las transacciones de la página.
+     */
+    public List<TransaccionConfirmada> obtenerTransaccionesCuenta(byte[] clavePublica, int desde, int limite) {
+        IdHash cuenta = IdHash.deClavePublica(clavePublica);
+        int numeroBloques = cadenaDeBloques.getNumeroBloques();
+        List<IndiceTransacciones.Ubicacion> ubicaciones = cadenaDeBloques.getIndiceTransacciones()
+                .obtenerDeCuenta(cuenta, desde,
+                        Math.min(limite, Configuracion.getInstancia().getMaxTransaccionesPorPeticion()));
+        List<TransaccionConfirmada> transacciones = new ArrayList<>(ubicaciones.size());
+        Bloque bloque = null;
+        int alturaBloque = -1;
+        for (IndiceTransacciones.Ubicacion ubicacion : ubicaciones) {
+            // las transacciones de un mismo bloque van seguidas
+            if (ubicacion.getAltura() != alturaBloque) {
+                bloque = leerBloqueIndexado(ubicacion);
+                alturaBloque = ubicacion.getAltura();
+            }
+            if (bloque == null || ubicacion.getPosicion() >= bloque.getTransacciones().size()) {
+                break;
+            }
+            Transaccion transaccion = bloque.getTransacciones().get(ubicacion.getPosicion());
+            if (cuenta.equals(transaccion.getIdEmisor()) || cuenta.equals(transaccion.getIdDestinatario())) {
+                transacciones.add(new TransaccionConfirmada(bloque, ubicacion.getAltura(), ubicacion.getPosicion(),
+                        numeroBloques));
+            }
+        }
+        return transacciones;
+    }
+
+    /**
+     * Lee el bloque de una ubicación del índice de transacciones. Si la cadena ha
+     * cambiado desde que se consultó el índice, el bloque puede no existir o no
+     * tener la transacción en esa posición.
+     *
+     * @param ubicacion La ubicación, o null.
+     * @return El bloque, o null si no hay bloque con esa posición.
+     */
+    private Bloque leerBloqueIndexado(IndiceTransacciones.Ubicacion ubicacion) {
+        if (ubicacion == null) {
+            return null;
+        }
+        try {
+            Bloque bloque = cadenaDeBloques.getBloques().get(ubicacion.getAltura());
+            return ubicacion.getPosicion() < bloque.getTransacciones().size() ? bloque : null;
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Busca un bloque por su hash en la cadena o en las ramas laterales, para
+     * que los nodos que están en otra rama puedan pedirlo.
+     *
+     * @param hash El hash del bloque.
+     * @return El bloque, o null si no se conoce.
+     */
+    public Bloque obtenerBloque(byte[] hash) {
+        Bloque bloque = cadenaDeBloques.getBloque(hash);
+        if (bloque == null) {
+            RamasLaterales.Nodo nodo = ramasLaterales.obtener(hash);
+            bloque = nodo != null ? nodo.getBloque() : null;
+        }
+        return bloque;
+    }
+
+    /**
+     * Obtiene los bloques de la cadena entre dos alturas. Se devuelven como mucho
+     * maxBloquesPorPeticion bloques; la lista es una vista de la cadena, así que
+     * los bloques se leen del almacén según se van escribiendo en la respuesta.
+     *
+     * @param desde Altura del primer bloque.
+     * @param hasta Altura siguiente al último bloque (exclusiva).
+     * @return Los bloques del rango que hay en la cadena.
+     */
+    public List<Bloque> obtenerBloques(int desde, int hasta) {
+        int inicio = Math.max(0, desde);
+        int numeroBloques = cadenaDeBloques.getNumeroBloques();
+        if (inicio >= numeroBloques || hasta <= inicio) {
+            return Collections.emptyList();
+        }
+        int fin = Math.min(numeroBloques, inicio + Math.min(hasta - inicio,
+                Configuracion.getInstancia().getMaxBloquesPorPeticion()));
+        return cadenaDeBloques.getBloques().subList(inicio, fin);
+    }
+
+    /**
+     * Obtiene los bloques que siguen en la cadena a un bloque dado, como mucho
+     * maxBloquesPorPeticion.
+     *
+     * @param hash El hash del bloque desde el que se piden los siguientes.
+     * @return Los bloques siguientes, o null si el bloque no está en la cadena.
+     */
+    public List<Bloque> obtenerBloquesDesde(byte[] hash) {
+        int altura = cadenaDeBloques.getAltura(hash);
+        if (altura < 0) {
+            return null;
+        }
+        return obtenerBloques(altura + 1, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Obtiene las cabeceras de los bloques que siguen en la cadena a un bloque
+     * dado, como mucho maxCabecerasPorPeticion.
+     *
+     * @param hash El hash del bloque desde el que se piden las siguientes, o null
+     *             para empezar por el bloque génesis.
+     * @return Las cabeceras siguientes, o null si el bloque no está en la cadena.
+     */
+    public List<CabeceraBloque> obtenerCabecerasDesde(byte[] hash) {
+        int altura = hash != null ? cadenaDeBloques.getAltura(hash) : -1;
+        if (hash != null && altura < 0) {
+            return null;
+        }
+        int desde = altura + 1;
+        int numeroBloques = cadenaDeBloques.getNumeroBloques();
+        int numero = Math.max(0,
+                Math.min(numeroBloques - desde, Configuracion.getInstancia().getMaxCabecerasPorPeticion()));
+        List<Bloque> bloques = cadenaDeBloques.getBloques();
+        return new AbstractList<CabeceraBloque>() {
+            @Override
+            public CabeceraBloque get(int indice) {
+                return new CabeceraBloque(bloques.get(desde + indice));
+            }
+
+            @Override
+            public int size() {
+                return numero;
+            }
+        };
+    }
+
+    /**
+     * Sincroniza la cadena de bloques en dos fases. Primero se descargan del nodo
+     * master las cabeceras que siguen al último bloque guardado y se comprueba
+     * que están enlazadas, que su hash es correcto y que cumplen la dificultad.
+     * Después se reparten los bloques en lotes que se piden en paralelo a los
+     * nodos vecinos; cada bloque tiene que coincidir con su cabecera (hash y raíz
+     * de Merkle calculada de sus transacciones), y si un nodo falla o devuelve
+     * otros bloques el lote se pide al siguiente. Los lotes se añaden a la cadena
+     * en orden según llegan, con la validación completa de cada bloque.
+     *
+     * Si el master no tiene el último bloque guardado, se buscan las cabeceras
+     * desde el último bloque en común. Solo si tienen más bloques que la cadena
+     * guardada desde ahí se descargan sus bloques, y se cambia a esa rama cuando
+     * están todos descargados; hasta entonces la cadena guardada no se toca.
+     *
+     * @param urlNodoMaster La URL del nodo master, del que se toman las cabeceras.
+     * @param nodos         Los nodos a los que se piden los bloques. No debe
+     *                      cambiar durante la sincronización.
+     * @param restTemplate  El objeto RestTemplate utilizado para realizar las
+     *                      solicitudes HTTP.
+     */
+    public void sincronizarPorCabeceras(URL urlNodoMaster, Collection<URL> nodos, RestTemplate restTemplate) {
+        try {
+            int numeroComun = cadenaDeBloques.getNumeroBloques();
+            List<CabeceraBloque> cabeceras;
+            try {
+                cabeceras = descargarCabeceras(urlNodoMaster, numeroComun, restTemplate);
+            } catch (HttpClientErrorException.NotFound e) {
+                System.out.println("La cadena guardada no está en el nodo " + urlNodoMaster
+                        + ". Se busca la bifurcación.");
+                numeroComun = buscarBloquesEnComun(urlNodoMaster, restTemplate);
+                cabeceras = descargarCabeceras(urlNodoMaster, numeroComun, restTemplate);
+            }
+            System.out.println("Obtenidas " + cabeceras.size() + " cabeceras de nodo " + urlNodoMaster + ".");
+
+            List<URL> fuentes = new ArrayList<>(nodos);
+            if (fuentes.isEmpty()) {
+                fuentes.add(urlNodoMaster);
+            }
+            if (numeroComun == cadenaDeBloques.getNumeroBloques()) {
+                descargarBloques(cabeceras, fuentes, numeroComun, null, restTemplate);
+            } else if (numeroComun + cabeceras.size() > cadenaDeBloques.getNumeroBloques()) {
+                List<Bloque> rama = new ArrayList<>(cabeceras.size());
+                descargarBloques(cabeceras, fuentes, numeroComun, rama, restTemplate);
+                cambiarARama(numeroComun, rama);
+            } else {
+                System.out.println("La rama del nodo desde la altura " + numeroComun
+                        + " no es más larga que la cadena guardada. Se conserva la guardada.");
+                return;
+            }
+            System.out.println("Obtenidos " + cabeceras.size() + " bloques de " + fuentes.size()
+                    + " nodos. La cadena tiene " + cadenaDeBloques.getNumeroBloques() + " bloques.\n");
+        } catch (Exception e) {
+            System.out.println("Cadena de bloques inválida: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Descarga y comprueba las cabeceras que siguen a un bloque de la cadena
+     * guardada.
+     *
+     * @param numeroComun Número de bloques de la cadena guardada que se
+     *                    conservan; se piden las cabeceras que siguen al último.
+     * @throws HttpClientErrorException.NotFound Si el nodo no tiene ese bloque.
+     */
+    private List<CabeceraBloque> descargarCabeceras(URL urlNodo, int numeroComun, RestTemplate restTemplate)
+            throws Exception {
+        byte[] hashAnterior = numeroComun > 0 ? cadenaDeBloques.getBloques().get(numeroComun - 1).getHash() : null;
+        List<CabeceraBloque> lote = pedirCabeceras(urlNodo, hashAnterior, restTemplate);
+
+        int dificultad = Configuracion.getInstancia().getDificultad();
+        List<CabeceraBloque> cabeceras = new ArrayList<>();
+        while (!lote.isEmpty()) {
+            for (CabeceraBloque cabecera : lote) {
+                if (!Arrays.equals(cabecera.getHashBloqueAnterior(), hashAnterior) || !cabecera.esValida()
+                        || cabecera.getNumeroDeCerosHash() < dificultad) {
+                    throw new Exception("Cabecera inválida en la altura " + (numeroComun + cabeceras.size()));
+                }
+                cabeceras.add(cabecera);
+                hashAnterior = cabecera.getHash();
+            }
+            lote = pedirCabeceras(urlNodo, hashAnterior, restTemplate);
+        }
+        return cabeceras;
+    }
+
+    /**
+     * Descarga los bloques de las cabeceras repartiendo los lotes entre los
+     * nodos. Hay como mucho dos lotes pendientes por nodo, para que la memoria
+     * usada no dependa de la longitud de la cadena.
+     *
+     * @param alturaInicial Altura del bloque de la primera cabecera.
+     * @param rama          Lista en la que se guardan los bloques descargados, o
+     *                      null para añadirlos a la cadena según llegan.
+     */
+    private void descargarBloques(List<CabeceraBloque> cabeceras, List<URL> nodos, int alturaInicial,
+            List<Bloque> rama, RestTemplate restTemplate) throws Exception {
+        int tamañoLote = Configuracion.getInstancia().getMaxBloquesPorPeticion();
+        int numeroLotes = (cabeceras.size() + tamañoLote - 1) / tamañoLote;
+
+        ExecutorService descargas = servicioHilos.crearEjecutor("descarga", nodos.size());
+        try {
+            Deque<Future<List<Bloque>>> pendientes = new ArrayDeque<>();
+            int siguienteLote = 0;
+            for (int lote = 0; lote < numeroLotes; lote++) {
+                while (siguienteLote < numeroLotes && pendientes.size() < 2 * nodos.size()) {
+                    int numeroLote = siguienteLote++;
+                    int desde = numeroLote * tamañoLote;
+                    List<CabeceraBloque> esperadas = cabeceras.subList(desde,
+                            Math.min(cabeceras.size(), desde + tamañoLote));
+                    pendientes.add(descargas.submit(() -> descargarLote(nodos, numeroLote, alturaInicial + desde,
+                            esperadas, restTemplate)));
+                }
+                List<Bloque> bloques = pendientes.removeFirst().get();
+                if (rama != null) {
+                    rama.addAll(bloques);
+                    continue;
+                }
+                for (Bloque bloque : bloques) {
+                    añadirBloque(bloque, false);
+                }
+            }
+        } finally {
+            descargas.shutdownNow();
+        }
+    }
+
+    /**
+     * Descarga un lote de bloques, empezando por un nodo distinto para cada lote
+     * y pasando al siguiente si falla o si los bloques no coinciden con las
+     * cabeceras.
+     */
+    private List<Bloque> descargarLote(List<URL> nodos, int numeroLote, int altura, List<CabeceraBloque> esperadas,
+            RestTemplate restTemplate) throws Exception {
+        for (int intento = 0; intento < nodos.size(); intento++) {
+            URL urlNodo = nodos.get((numeroLote + intento) % nodos.size());
+            try {
+                List<Bloque> bloques = pedirBloques(
+                        urlNodo + "/bloque/rango?desde=" + altura + "&hasta=" + (altura + esperadas.size()),
+                        restTemplate);
+                if (coincidenConCabeceras(bloques, esperadas)) {
+                    return bloques;
+                }
+                System.out.println("Los bloques del nodo " + urlNodo + " desde la altura " + altura
+                        + " no coinciden con las cabeceras.");
+            } catch (RestClientException e) {
+                System.out.println("Error al pedir bloques al nodo " + urlNodo + ": " + e.getMessage());
+            }
+        }
+        throw new Exception("No se pudieron obtener los bloques desde la altura " + altura);
+    }
+
+    private static boolean coincidenConCabeceras(List<Bloque> bloques, List<CabeceraBloque> cabeceras) {
+        if (bloques.size() != cabeceras.size()) {
+            return false;
+        }
+        for (int i = 0; i < bloques.size(); i++) {
+            if (!cabeceras.get(i).corresponde(bloques.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<CabeceraBloque> pedirCabeceras(URL urlNodo, byte[] hash, RestTemplate restTemplate) {
+        String url = urlNodo + "/bloque/cabeceras"
+                + (hash != null ? "?desde=" + Base64.encodeBase64URLSafeString(hash) : "");
+        List<CabeceraBloque> cabeceras = restTemplate.exchange(url, HttpMethod.GET, null, LISTA_CABECERAS).getBody();
+        return cabeceras != null ? cabeceras : Collections.emptyList();
+    }
+
+    /**
+     * Descarga la cadena de bloques de un nodo remoto por lotes. Se piden los
+     * bloques que siguen al último bloque guardado, y cada bloque se valida y se
+     * añade según llega; el siguiente lote se descarga mientras se valida el
+     * actual. Si el nodo remoto no tiene el último bloque guardado, se busca el
+     * último bloque en común, se descarga su rama desde ahí y, si es más larga
+     * que la guardada, se cambia a ella. La cadena guardada no se toca hasta que
+     * la rama está descargada, y si la rama no es válida se conserva.
      *
      * @param urlNodo      La URL del nodo remoto del cual se va a obtener la cadena
      *                     de bloques.
@@ -68,29 +766,146 @@ public class ServiceBloques {
      *                     solicitud HTTP.
      */
     public void obtenerCadenaDeBloques(URL urlNodo, RestTemplate restTemplate) {
-        CadenaDeBloques cadena = restTemplate.getForObject(urlNodo + "/bloque", CadenaDeBloques.class);
-        System.out.println("Obtenida cadena de bloques de nodo " + urlNodo + ".\n");
+        ExecutorService descarga = servicioHilos.crearEjecutor("descarga", 1);
         try {
-            this.cadenaDeBloques = new CadenaDeBloques(cadena);
+            List<Bloque> lote;
+            Bloque ultimoBloque = cadenaDeBloques.getUltimoBloque();
+            if (ultimoBloque == null) {
+                lote = pedirBloques(urlNodo + "/bloque/rango?desde=0", restTemplate);
+            } else {
+                try {
+                    lote = pedirBloquesDesde(urlNodo, ultimoBloque.getHash(), restTemplate);
+                } catch (HttpClientErrorException.NotFound e) {
+                    System.out.println("La cadena guardada no está en el nodo " + urlNodo + ". Se busca la bifurcación.");
+                    if (!cambiarARamaDelNodo(urlNodo, restTemplate)) {
+                        return;
+                    }
+                    lote = pedirBloquesDesde(urlNodo, cadenaDeBloques.getUltimoBloque().getHash(), restTemplate);
+                }
+            }
+
+            int recibidos = 0;
+            while (!lote.isEmpty()) {
+                byte[] hashUltimo = lote.get(lote.size() - 1).getHash();
+                Future<List<Bloque>> siguiente = descarga
+                        .submit(() -> pedirBloquesDesde(urlNodo, hashUltimo, restTemplate));
+                for (Bloque bloque : lote) {
+                    añadirBloque(bloque, false);
+                }
+                recibidos += lote.size();
+                lote = siguiente.get();
+            }
+            System.out.println("Obtenidos " + recibidos + " bloques de nodo " + urlNodo + ". La cadena tiene "
+                    + cadenaDeBloques.getNumeroBloques() + " bloques.\n");
         } catch (Exception e) {
-            System.out.println("Cadena de bloques inválida");
+            System.out.println("Cadena de bloques inválida: " + e.getMessage());
+        } finally {
+            descarga.shutdownNow();
         }
     }
 
     /**
-     * Valida un bloque verificando diversos aspectos, como el formato, el hash del
-     * bloque anterior, el número de transacciones,
-     * la presencia de transacciones en el pool, y la dificultad del bloque.
+     * Descarga la rama de un nodo desde el último bloque en común con la cadena
+     * guardada y cambia a ella si es más larga. Antes de tocar la cadena se
+     * comprueba que los bloques de la rama están enlazados y cumplen la
+     * dificultad; el resto se valida al conectarlos, y si alguno no es válido se
+     * vuelve a la cadena guardada.
      *
-     * @param bloque El bloque que se va a validar.
-     * @return true si el bloque es válido, false de lo contrario.
+     * @return true si se ha cambiado a la rama del nodo.
+     * @throws Exception Si la rama del nodo no es válida.
      */
-    private boolean validarBloque(Bloque bloque) {
-        // Comprobar que el bloque tiene un formato válido
-        if (!bloque.esValido()) {
+    private boolean cambiarARamaDelNodo(URL urlNodo, RestTemplate restTemplate) throws Exception {
+        int numeroComun = buscarBloquesEnComun(urlNodo, restTemplate);
+        byte[] hashAnterior = numeroComun > 0 ? cadenaDeBloques.getBloques().get(numeroComun - 1).getHash() : null;
+        List<Bloque> lote = hashAnterior != null ? pedirBloquesDesde(urlNodo, hashAnterior, restTemplate)
+                : pedirBloques(urlNodo + "/bloque/rango?desde=0", restTemplate);
+        int dificultad = Configuracion.getInstancia().getDificultad();
+        List<Bloque> rama = new ArrayList<>();
+        while (!lote.isEmpty()) {
+            for (Bloque bloque : lote) {
+                if (!Arrays.equals(bloque.getHashBloqueAnterior(), hashAnterior)
+                        || bloque.getNumeroDeCerosHash() < dificultad) {
+                    throw new Exception("Bloque inválido en la altura " + (numeroComun + rama.size()));
+                }
+                rama.add(bloque);
+                hashAnterior = bloque.getHash();
+            }
+            lote = pedirBloquesDesde(urlNodo, hashAnterior, restTemplate);
+        }
+        return cambiarARama(numeroComun, rama);
+    }
+
+    /**
+     * Cambia a una rama descargada de otro nodo si tiene más bloques que la
+     * cadena guardada desde la bifurcación.
+     *
+     * @return true si se ha cambiado a la rama.
+     * @throws Exception Si algún bloque de la rama no es válido.
+     */
+    private synchronized boolean cambiarARama(int numeroComun, List<Bloque> rama) throws Exception {
+        int numeroBloques = cadenaDeBloques.getNumeroBloques();
+        if (numeroComun > numeroBloques || !rama.isEmpty() && !Arrays.equals(rama.get(0).getHashBloqueAnterior(),
+                numeroComun > 0 ? cadenaDeBloques.getBloques().get(numeroComun - 1).getHash() : null)) {
+            throw new Exception("La cadena guardada ha cambiado durante la descarga");
+        }
+        if (numeroComun + rama.size() <= numeroBloques) {
+            System.out.println("La rama del nodo desde la altura " + numeroComun
+                    + " no es más larga que la cadena guardada. Se conserva la guardada.");
             return false;
         }
+        System.out.println("Se cambia a la rama del nodo: se deshacen " + (numeroBloques - numeroComun)
+                + " bloques y se conectan " + rama.size() + ".");
+        if (cambiarDeRama(numeroComun, rama, new ArrayList<>()) < rama.size()) {
+            throw new Exception("Rama del nodo inválida");
+        }
+        return true;
+    }
 
+    /**
+     * Busca hasta dónde coincide la cadena guardada con la de un nodo. Se le
+     * pregunta por bloques cada vez más antiguos: los últimos uno a uno y después
+     * con saltos que se doblan hasta llegar al génesis, de forma que el número de
+     * peticiones crece con el logaritmo de la longitud de la cadena. Puede no dar
+     * el último bloque en común, sino uno anterior.
+     *
+     * @return El número de bloques en común, o 0 si no coincide ni el génesis.
+     */
+    private int buscarBloquesEnComun(URL urlNodo, RestTemplate restTemplate) {
+        int numeroBloques = cadenaDeBloques.getNumeroBloques();
+        int salto = 1;
+        for (int altura = numeroBloques - 1; altura >= 0; altura = altura > 0 ? Math.max(0, altura - salto) : -1) {
+            try {
+                pedirCabeceras(urlNodo, cadenaDeBloques.getBloques().get(altura).getHash(), restTemplate);
+                return altura + 1;
+            } catch (HttpClientErrorException.NotFound e) {
+                // el nodo no tiene este bloque: se prueba con uno anterior
+            }
+            if (numeroBloques - altura >= BLOQUES_BUSQUEDA_UNO_A_UNO) {
+                salto *= 2;
+            }
+        }
+        return 0;
+    }
+
+    private List<Bloque> pedirBloquesDesde(URL urlNodo, byte[] hash, RestTemplate restTemplate) {
+        return pedirBloques(urlNodo + "/bloque/desde?hash=" + Base64.encodeBase64URLSafeString(hash), restTemplate);
+    }
+
+    private List<Bloque> pedirBloques(String url, RestTemplate restTemplate) {
+        List<Bloque> bloques = restTemplate.exchange(url, HttpMethod.GET, null, LISTA_BLOQUES).getBody();
+        return bloques != null ? bloques : Collections.emptyList();
+    }
+
+    /**
+     * Valida un bloque que sigue al último de la cadena: comprueba el hash del
+     * bloque anterior, la presencia de transacciones en el pool, que no repita
+     * transacciones ya confirmadas y el contenido del bloque.
+     *
+     * @param bloque        El bloque que se va a validar.
+     * @param comprobarPool Si se comprueba que las transacciones están en el pool.
+     * @return true si el bloque es válido, false de lo contrario.
+     */
+    private boolean validarBloque(Bloque bloque, boolean comprobarPool) {
         // El hash del bloque anterior hace referencia al último bloque en mi cadena
         if (!cadenaDeBloques.estaVacia()) {
             byte[] hashUltimoBloque = cadenaDeBloques.getUltimoBloque().getHash();
@@ -105,25 +920,75 @@ public class ServiceBloques {
             }
         }
 
-        // Máximo número de transacciones en un bloque
-        if (bloque.getTransacciones().size() > Configuracion.getInstancia().getMaxNumeroTransaccionesEnBloque() + 1) {
-            System.out.println("El número de transacciones supera el límite.");
-            return false;
-        }
-
         // Verificar que todas las transacciones estaban en mi pool
-        if (!servicioTransacciones
+        if (comprobarPool && !servicioTransacciones
                 .contieneTransacciones(bloque.getTransacciones().subList(1, bloque.getTransacciones().size()))) {
             System.out.println("Algunas transacciones no están en el pool");
             return false;
         }
 
+        // Sin la comprobación del pool (huérfanos, ramas y sincronización) es lo
+        // único que impide volver a liquidar una transacción confirmada
+        if (repiteTransacciones(bloque)) {
+            System.out.println("Algunas transacciones ya están en la cadena o repetidas en el bloque");
+            return false;
+        }
+
+        return validarContenido(bloque);
+    }
+
+    /**
+     * Comprueba si alguna transacción del bloque, salvo la coinbase, ya está en la
+     * cadena o aparece dos veces en el bloque.
+     *
+     * @param bloque El bloque que sigue al último de la cadena.
+     * @return true si el bloque repite alguna transacción.
+     */
+    private boolean repiteTransacciones(Bloque bloque) {
+        IndiceTransacciones indice = cadenaDeBloques.getIndiceTransacciones();
+        List<Transaccion> transacciones = bloque.getTransacciones();
+        Set<IdHash> vistas = new HashSet<>();
+        for (Transaccion transaccion : transacciones.subList(1, transacciones.size())) {
+            if (!vistas.add(IdHash.de(transaccion.getHash())) || indice.obtener(transaccion.getHash()) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Valida lo que no depende de la posición del bloque en la cadena: el
+     * formato, el número de transacciones, la dificultad y la validez de cada
+     * transacción.
+     *
+     * @param bloque El bloque que se va a validar.
+     * @return true si el bloque es válido, false de lo contrario.
+     */
+    private boolean validarContenido(Bloque bloque) {
+        // Comprobar que el bloque tiene un formato válido
+        if (!bloque.esValido()) {
+            return false;
+        }
+
+        // Máximo número de transacciones en un bloque
+        if (bloque.getTransacciones().size() > Configuracion.getInstancia().getMaxNumeroTransaccionesEnBloque() + 1) {
+            System.out.println("El número de transacciones supera el límite.");
+            return false;
+        }
+
         // La dificultad coincide
         if (bloque.getNumeroDeCerosHash() < Configuracion.getInstancia().getDificultad()) {
             System.out.println("Bloque con dificultad inválida");
             return false;
         }
 
+        // Hash y firma de todas las transacciones, validadas en paralelo. La
+        // liquidación de saldos se hace después, en orden, al añadir el bloque
+        if (!servicioValidacion.validarTransacciones(bloque.getTransacciones())) {
+            System.out.println("Algunas transacciones del bloque no son válidas");
+            return false;
+        }
+
         return true;
     }
 
@@ -0,0 +1,284 @@
+package com.lfcounago.javablockchain.nodo.services;
+
+import java.net.URL;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import com.lfcounago.javablockchain.Configuracion;
+import com.lfcounago.javablockchain.nodo.conversores.ConvertidorBinario;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Envía peticiones a los nodos vecinos sin bloquear a quien las hace. Cada
+ * nodo tiene su propia cola acotada y un hilo que la vacía, de modo que un
+ * nodo lento o caído solo retrasa sus propios envíos. Si la cola de un nodo se
+ * llena se descarta el envío más antiguo; los envíos que fallan se reintentan
+ * con espera exponencial, y los que llevan demasiado tiempo pendientes se
+ * descartan sin enviar.
+ *
+ * Las colas se crean al dar de alta un nodo vecino y se eliminan al darlo de
+ * baja; los envíos a nodos sin cola se ignoran, de forma que un envío hecho con
+ * una lista de vecinos anterior a una baja no vuelve a crear su cola.
+ */
+@Service
+public class ServiceDifusion {
+
+    // Espera antes del primer reintento; se duplica en cada uno
+    private static final long ESPERA_INICIAL_REINTENTO_MS = 250;
+
+    private final ServiceHilos servicioHilos;
+    private final RestTemplate restTemplate;
+    private final Map<URL, ColaNodo> colas = new ConcurrentHashMap<>();
+
+    private final int maxEnviosPendientes;
+    private final int maxIntentos;
+    private final long caducidadMs;
+
+    // Contadores para las estadísticas del nodo
+    private final LongAdder enviados = new LongAdder();
+    private final LongAdder rechazados = new LongAdder();
+    private final LongAdder fallidos = new LongAdder();
+    private final LongAdder descartados = new LongAdder();
+    private final LongAdder caducados = new LongAdder();
+
+    @Autowired
+    public ServiceDifusion(ServiceHilos servicioHilos) {
+        this.servicioHilos = servicioHilos;
+        Configuracion configuracion = Configuracion.getInstancia();
+        this.maxEnviosPendientes = configuracion.getMaxEnviosPendientesPorNodo();
+        this.maxIntentos = configuracion.getReintentosEnvio() + 1;
+        this.caducidadMs = configuracion.getCaducidadEnvioMs();
+        this.restTemplate = crearRestTemplate();
+    }
+
+    /**
+     * Crea un RestTemplate para las peticiones a otros nodos, con los timeouts
+     * configurados y el formato binario como preferido.
+     *
+     * @return El RestTemplate.
+     */
+    static RestTemplate crearRestTemplate() {
+        int timeout = Configuracion.getInstancia().getTimeoutPeticionMs();
+        SimpleClientHttpRequestFactory fabrica = new SimpleClientHttpRequestFactory();
+        fabrica.setConnectTimeout(timeout);
+        fabrica.setReadTimeout(timeout);
+        RestTemplate restTemplate = new RestTemplate(fabrica);
+        restTemplate.getMessageConverters().add(0, new ConvertidorBinario());
+        return restTemplate;
+    }
+
+    /**
+     * Crea la cola y el hilo de envío de un nodo vecino, si no los tiene ya.
+     *
+     * @param urlNodo La URL del nodo.
+     */
+    public void registrarNodo(URL urlNodo) {
+        colas.computeIfAbsent(urlNodo, ColaNodo::new);
+    }
+
+    /**
+     * Encola una petición para cada uno de los nodos dados y vuelve sin esperar a
+     * que se envíen. Los nodos que no están registrados se omiten.
+     *
+     * @param nodos    Los nodos destino.
+     * @param metodo   El método HTTP de la petición.
+     * @param endpoint El endpoint de la petición, relativo a la URL del nodo.
+     * @param datos    El cuerpo de la petición.
+     */
+    public void difundir(Collection<URL> nodos, HttpMethod metodo, String endpoint, Object datos) {
+        Envio envio = new Envio(metodo, endpoint, datos, System.currentTimeMillis() + caducidadMs);
+        for (URL urlNodo : nodos) {
+            ColaNodo cola = colas.get(urlNodo);
+            if (cola != null) {
+                cola.encolar(envio);
+            }
+        }
+    }
+
+    /**
+     * Deja de enviar peticiones a un nodo y descarta las que tenía pendientes.
+     *
+     * @param urlNodo La URL del nodo.
+     */
+    public void olvidarNodo(URL urlNodo) {
+        ColaNodo cola = colas.remove(urlNodo);
+        if (cola != null) {
+            cola.parar();
+        }
+    }
+
+    /**
+     * Al parar el nodo se da un margen para que se envíen las peticiones
+     * pendientes (por ejemplo la baja del nodo en sus vecinos) y después se paran
+     * los hilos de envío.
+     */
+    @PreDestroy
+    public void shutdown() {
+        long limite = System.currentTimeMillis() + 2000;
+        for (ColaNodo cola : colas.values()) {
+            while (!cola.estaVacia() && System.currentTimeMillis() < limite) {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        colas.values().forEach(ColaNodo::parar);
+        colas.clear();
+    }
+
+    public long getEnviados() {
+        return enviados.sum();
+    }
+
+    public long getRechazados() {
+        return rechazados.sum();
+    }
+
+    public long getFallidos() {
+        return fallidos.sum();
+    }
+
+    public long getDescartados() {
+        return descartados.sum();
+    }
+
+    public long getCaducados() {
+        return caducados.sum();
+    }
+
+    /**
+     * Número de envíos pendientes en todas las colas.
+     */
+    public int getPendientes() {
+        return colas.values().stream().mapToInt(ColaNodo::pendientes).sum();
+    }
+
+    /**
+     * Petición pendiente de enviar. El mismo envío se comparte entre las colas de
+     * todos los nodos destino.
+     */
+    private static final class Envio {
+
+        private final HttpMethod metodo;
+        private final String endpoint;
+        private final Object datos;
+        // Momento a partir del cual el envío ya no se hace
+        private final long caducidad;
+
+        Envio(HttpMethod metodo, String endpoint, Object datos, long caducidad) {
+            this.metodo = metodo;
+            this.endpoint = endpoint;
+            this.datos = datos;
+            this.caducidad = caducidad;
+        }
+    }
+
+    /**
+     * Cola de envíos de un nodo y el hilo que los envía en orden.
+     */
+    private final class ColaNodo implements Runnable {
+
+        private final URL urlNodo;
+        private final BlockingQueue<Envio> cola;
+        private final Thread hilo;
+        // Envío que se está procesando
+        private volatile Envio enCurso;
+        private volatile boolean activa = true;
+
+        ColaNodo(URL urlNodo) {
+            this.urlNodo = urlNodo;
+            this.cola = new ArrayBlockingQueue<>(maxEnviosPendientes);
+            this.hilo = servicioHilos.iniciarHilo("difusion-" + urlNodo.getHost() + ":" + urlNodo.getPort(), this);
+        }
+
+        /**
+         * Añade un envío a la cola, descartando los más antiguos si está llena.
+         */
+        void encolar(Envio envio) {
+            while (!cola.offer(envio)) {
+                if (cola.poll() != null) {
+                    descartados.increment();
+                }
+            }
+        }
+
+        int pendientes() {
+            return cola.size() + (enCurso != null ? 1 : 0);
+        }
+
+        boolean estaVacia() {
+            return pendientes() == 0;
+        }
+
+        void parar() {
+            activa = false;
+            hilo.interrupt();
+        }
+
+        @Override
+        public void run() {
+            while (activa) {
+                try {
+                    Envio envio = cola.poll(1, TimeUnit.SECONDS);
+                    if (envio != null) {
+                        enCurso = envio;
+                        enviar(envio);
+                        enCurso = null;
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Envía una petición, reintentando los errores de red y del servidor del
+         * nodo. Si el nodo rechaza la petición (error 4xx) no se reintenta.
+         */
+        private void enviar(Envio envio) throws InterruptedException {
+            String url = urlNodo + "/" + envio.endpoint;
+            long espera = ESPERA_INICIAL_REINTENTO_MS;
+            for (int intento = 1;; intento++) {
+                if (System.currentTimeMillis() > envio.caducidad) {
+                    caducados.increment();
+                    return;
+                }
+                try {
+                    restTemplate.exchange(url, envio.metodo, new HttpEntity<>(envio.datos), Void.class);
+                    enviados.increment();
+                    return;
+                } catch (HttpClientErrorException e) {
+                    System.out.println("Petición rechazada por " + url + ": " + e.getStatusCode());
+                    rechazados.increment();
+                    return;
+                } catch (RestClientException e) {
+                    if (intento >= maxIntentos) {
+                        System.out.println("No se pudo enviar la petición a " + url + ": " + e.getMessage());
+                        fallidos.increment();
+                        return;
+                    }
+                    Thread.sleep(espera);
+                    espera *= 2;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.lfcounago.javablockchain.nodo.services;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Crea los hilos que hacen peticiones a otros nodos (difusión, inventarios y
+ * descarga de la cadena). Con spring.threads.virtual.enabled=true (perfil
+ * java21 de Maven) y una JVM 21 o superior se usan hilos virtuales, igual que
+ * para atender las peticiones en Tomcat: un hilo bloqueado esperando a un nodo
+ * lento deja de ocupar un hilo del sistema. En otro caso se usan hilos de
+ * plataforma como hasta ahora.
+ *
+ * Los hilos virtuales se crean por reflexión para que el proyecto siga
+ * compilando con Java 17. Los hilos de cálculo (minado y validación) no pasan
+ * por aquí: no hacen E/S y con hilos virtuales no irían más rápido.
+ */
+@Service
+public class ServiceHilos {
+
+    private final boolean virtuales;
+
+    @Autowired
+    public ServiceHilos(@Value("${spring.threads.virtual.enabled:false}") boolean virtualesPedidos) {
+        boolean disponibles = Runtime.version().feature() >= 21;
+        if (virtualesPedidos && !disponibles) {
+            System.out.println("Hilos virtuales no disponibles en Java " + Runtime.version().feature()
+                    + ". Se usan hilos de plataforma.");
+        }
+        this.virtuales = virtualesPedidos && disponibles;
+    }
+
+    /**
+     * Indica si las peticiones a otros nodos se hacen desde hilos virtuales.
+     */
+    public boolean usaHilosVirtuales() {
+        return virtuales;
+    }
+
+    /**
+     * Crea y arranca un hilo.
+     *
+     * @param nombre El nombre del hilo.
+     * @param tarea  La tarea que ejecuta.
+     * @return El hilo arrancado.
+     */
+    public Thread iniciarHilo(String nombre, Runnable tarea) {
+        Thread hilo = crearFabrica(nombre).newThread(tarea);
+        hilo.start();
+        return hilo;
+    }
+
+    /**
+     * Crea un ejecutor para tareas que esperan a otros nodos. Con hilos virtuales
+     * cada tarea tiene su propio hilo; con hilos de plataforma se usa un pool de
+     * tamaño fijo.
+     *
+     * @param nombre          El nombre de los hilos.
+     * @param hilosPlataforma El número de hilos del pool si no se usan hilos
+     *                        virtuales.
+     * @return El ejecutor.
+     */
+    public ExecutorService crearEjecutor(String nombre, int hilosPlataforma) {
+        ThreadFactory fabrica = crearFabrica(nombre);
+        if (!virtuales) {
+            return Executors.newFixedThreadPool(hilosPlataforma, fabrica);
+        }
+        try {
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, fabrica);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No se pudo crear el ejecutor de hilos virtuales", e);
+        }
+    }
+
+    /**
+     * Crea una fábrica de hilos con el nombre dado. Los hilos de plataforma son
+     * daemon para no impedir que se pare el nodo; los virtuales siempre lo son.
+     */
+    private ThreadFactory crearFabrica(String nombre) {
+        if (virtuales) {
+            try {
+                // Thread.ofVirtual().name(nombre + "-", 0).factory()
+                Class<?> tipoConstructor = Class.forName("java.lang.Thread$Builder");
+                Object constructor = Thread.class.getMethod("ofVirtual").invoke(null);
+                constructor = tipoConstructor.getMethod("name", String.class, long.class).invoke(constructor,
+                        nombre + "-", 0L);
+                return (ThreadFactory) tipoConstructor.getMethod("factory").invoke(constructor);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("No se pudo crear la fábrica de hilos virtuales", e);
+            }
+        }
+        AtomicInteger contador = new AtomicInteger();
+        return tarea -> {
+            Thread hilo = new Thread(tarea, nombre + "-" + contador.getAndIncrement());
+            hilo.setDaemon(true);
+            return hilo;
+        };
+    }
+}
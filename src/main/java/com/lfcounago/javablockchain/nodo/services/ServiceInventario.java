@@ -0,0 +1,387 @@
+package com.lfcounago.javablockchain.nodo.services;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.codec.binary.Base64;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import com.lfcounago.javablockchain.Configuracion;
+import com.lfcounago.javablockchain.commons.estructuras.Bloque;
+import com.lfcounago.javablockchain.commons.estructuras.IdHash;
+import com.lfcounago.javablockchain.commons.estructuras.Inventario;
+import com.lfcounago.javablockchain.commons.estructuras.Transaccion;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Propagación de bloques y transacciones por inventarios. En lugar de enviar
+ * los datos completos a todos los vecinos, un nodo les anuncia los hashes de
+ * lo que tiene nuevo y cada vecino pide al nodo de origen solo lo que no
+ * conoce. Después de aceptar un bloque o transacción el nodo lo anuncia a su
+ * vez al resto de vecinos.
+ *
+ * Para no anunciar lo mismo varias veces por el mismo enlace se guarda, por
+ * cada vecino, un conjunto acotado de los hashes que ya se le han anunciado o
+ * que ha anunciado él. Además se guardan los últimos hashes aceptados por este
+ * nodo, para no volver a pedir transacciones que ya han salido del pool al
+ * minarse.
+ *
+ * Las peticiones de lo anunciado se hacen en segundo plano y como mucho puede
+ * haber maxPedidosInventarioPendientes a la vez, entre las que se están
+ * haciendo y las que esperan un hilo. Con el máximo alcanzado los anuncios
+ * nuevos se descartan: lo que no se pide llegará en otro anuncio o con la
+ * sincronización de la cadena.
+ */
+@Service
+public class ServiceInventario {
+
+    private static final ParameterizedTypeReference<List<Transaccion>> LISTA_TRANSACCIONES = new ParameterizedTypeReference<List<Transaccion>>() {
+    };
+
+    private final ServiceNodo servicioNodo;
+    private final ServiceBloques servicioBloques;
+    private final ServiceTransacciones servicioTransacciones;
+    private final ServiceDifusion servicioDifusion;
+
+    private final RestTemplate restTemplate;
+    // Hilos que piden los datos anunciados, para no bloquear al que recibe el
+    // inventario
+    private final ExecutorService pedidos;
+    // Plazas libres para peticiones pendientes
+    private final Semaphore plazasPedidos;
+
+    private final int maxHashesPorNodo;
+    private final int maxTransaccionesPorPeticion;
+    // Hashes conocidos por cada vecino
+    private final Map<URL, Set<IdHash>> vistosPorNodo = new ConcurrentHashMap<>();
+    // Últimos hashes aceptados por este nodo
+    private final Set<IdHash> conocidos;
+    // Hashes que se están pidiendo, para no pedir lo mismo a varios nodos a la vez
+    private final Set<IdHash> enCurso = ConcurrentHashMap.newKeySet();
+
+    // Contadores para las estadísticas del nodo
+    private final LongAdder hashesAnunciados = new LongAdder();
+    private final LongAdder hashesRecibidos = new LongAdder();
+    private final LongAdder bloquesPedidos = new LongAdder();
+    private final LongAdder transaccionesPedidas = new LongAdder();
+    private final LongAdder pedidosDescartados = new LongAdder();
+
+    @Autowired
+    public ServiceInventario(ServiceNodo servicioNodo, ServiceBloques servicioBloques,
+            ServiceTransacciones servicioTransacciones, ServiceDifusion servicioDifusion,
+            ServiceHilos servicioHilos) {
+        this.servicioNodo = servicioNodo;
+        this.servicioBloques = servicioBloques;
+        this.servicioTransacciones = servicioTransacciones;
+        this.servicioDifusion = servicioDifusion;
+
+        Configuracion configuracion = Configuracion.getInstancia();
+        this.maxHashesPorNodo = configuracion.getMaxHashesVistosPorNodo();
+        this.maxTransaccionesPorPeticion = configuracion.getMaxTransaccionesPorPeticion();
+        this.conocidos = conjuntoAcotado(configuracion.getMaxHashesConocidos());
+        this.restTemplate = ServiceDifusion.crearRestTemplate();
+        this.pedidos = servicioHilos.crearEjecutor("inventario", 4);
+        this.plazasPedidos = new Semaphore(configuracion.getMaxPedidosInventarioPendientes());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pedidos.shutdownNow();
+    }
+
+    /**
+     * Anuncia un bloque nuevo a los vecinos que no lo conocen.
+     *
+     * @param bloque El bloque aceptado por este nodo.
+     * @param origen El nodo del que se recibió, al que no se le anuncia (null si
+     *               se ha minado o lo ha enviado un cliente).
+     */
+    public void anunciarBloque(Bloque bloque, URL origen) {
+        IdHash id = IdHash.de(bloque.getHash());
+        conocidos.add(id);
+        anunciar(Collections.singletonList(id), Collections.emptyList(), origen);
+    }
+
+    /**
+     * Anuncia transacciones nuevas a los vecinos que no las conocen.
+     *
+     * @param transacciones Las transacciones aceptadas por este nodo.
+     * @param origen        El nodo del que se recibieron (null si las ha enviado
+     *                      un cliente).
+     */
+    public void anunciarTransacciones(Collection<Transaccion> transacciones, URL origen) {
+        List<IdHash> ids = new ArrayList<>(transacciones.size());
+        for (Transaccion transaccion : transacciones) {
+            IdHash id = IdHash.de(transaccion.getHash());
+            conocidos.add(id);
+            ids.add(id);
+        }
+        anunciar(Collections.emptyList(), ids, origen);
+    }
+
+    /**
+     * Procesa un inventario recibido de un vecino. Los hashes se marcan como
+     * conocidos por el vecino y los bloques y transacciones que este nodo no
+     * tiene se le piden en segundo plano.
+     *
+     * Solo se aceptan inventarios de nodos vecinos: como después se hacen
+     * peticiones a la URL de origen, aceptar cualquiera permitiría a un cliente
+     * hacer que el nodo pida URLs arbitrarias.
+     *
+     * @param inventario El inventario recibido.
+     * @return false si el origen no es un nodo vecino y se ignora el inventario.
+     */
+    public boolean recibirInventario(Inventario inventario) {
+        URL origen = inventario.getOrigen();
+        if (origen == null || !servicioNodo.esNodoVecino(origen)) {
+            return false;
+        }
+        Set<IdHash> vistos = vistos(origen);
+        List<byte[]> bloquesNuevos = new ArrayList<>();
+        List<byte[]> transaccionesNuevas = new ArrayList<>();
+        for (byte[] hash : inventario.getBloques()) {
+            IdHash id = IdHash.de(hash);
+            vistos.add(id);
+            if (!conocidos.contains(id) && !servicioBloques.conoceBloque(hash) && enCurso.add(id)) {
+                bloquesNuevos.add(hash);
+            }
+        }
+        for (byte[] hash : inventario.getTransacciones()) {
+            IdHash id = IdHash.de(hash);
+            vistos.add(id);
+            if (!conocidos.contains(id) && !servicioTransacciones.contieneTransaccion(hash) && enCurso.add(id)) {
+                transaccionesNuevas.add(hash);
+            }
+        }
+        hashesRecibidos.add(inventario.getBloques().size() + inventario.getTransacciones().size());
+
+        // el nodo de origen devuelve como mucho maxTransaccionesPorPeticion
+        // transacciones en cada búsqueda
+        for (int i = 0; i < transaccionesNuevas.size(); i += maxTransaccionesPorPeticion) {
+            List<byte[]> hashes = transaccionesNuevas.subList(i,
+                    Math.min(i + maxTransaccionesPorPeticion, transaccionesNuevas.size()));
+            encolarPedido(hashes, () -> pedirTransacciones(origen, hashes));
+        }
+        for (byte[] hash : bloquesNuevos) {
+            encolarPedido(List.of(hash), () -> pedirBloque(origen, hash));
+        }
+        return true;
+    }
+
+    /**
+     * Pide en segundo plano el bloque que falta para conectar un bloque huérfano.
+     * Se pide al nodo que envió el huérfano o, si no se sabe cuál es, a los
+     * vecinos. Mientras el nodo se inicializa no se pide, porque llegará con la
+     * sincronización de la cadena.
+     *
+     * @param origen El nodo que envió el huérfano, o null si no se sabe.
+     * @param hash   El hash del bloque que falta.
+     */
+    public void pedirBloqueAnterior(URL origen, byte[] hash) {
+        IdHash id = IdHash.de(hash);
+        if (servicioNodo.inicializado && !servicioBloques.conoceBloque(hash) && enCurso.add(id)) {
+            if (origen != null) {
+                encolarPedido(List.of(hash), () -> pedirBloque(origen, hash));
+            } else {
+                encolarPedido(List.of(hash), () -> pedirBloqueAVecinos(hash));
+            }
+        }
+    }
+
+    public long getHashesAnunciados() {
+        return hashesAnunciados.sum();
+    }
+
+    public long getHashesRecibidos() {
+        return hashesRecibidos.sum();
+    }
+
+    public long getBloquesPedidos() {
+        return bloquesPedidos.sum();
+    }
+
+    public long getTransaccionesPedidas() {
+        return transaccionesPedidas.sum();
+    }
+
+    public long getPedidosDescartados() {
+        return pedidosDescartados.sum();
+    }
+
+    /**
+     * Envía a cada vecino (salvo al de origen) un inventario con los hashes que
+     * no conoce todavía.
+     */
+    private void anunciar(List<IdHash> bloques, List<IdHash> transacciones, URL origen) {
+        URL miUrlNodo = servicioNodo.getMiUrlNodo();
+        List<URL> nodos = servicioNodo.copiaNodosVecinos();
+        vistosPorNodo.keySet().retainAll(nodos);
+        for (URL urlNodo : nodos) {
+            if (urlNodo.equals(origen) || urlNodo.equals(miUrlNodo)) {
+                continue;
+            }
+            Set<IdHash> vistos = vistos(urlNodo);
+            Inventario inventario = new Inventario(miUrlNodo);
+            for (IdHash id : bloques) {
+                if (vistos.add(id)) {
+                    inventario.getBloques().add(id.getBytes());
+                }
+            }
+            for (IdHash id : transacciones) {
+                if (vistos.add(id)) {
+                    inventario.getTransacciones().add(id.getBytes());
+                }
+            }
+            if (!inventario.estaVacio()) {
+                hashesAnunciados.add(inventario.getBloques().size() + inventario.getTransacciones().size());
+                servicioDifusion.difundir(Collections.singletonList(urlNodo), HttpMethod.POST, "inventario",
+                        inventario);
+            }
+        }
+    }
+
+    /**
+     * Encarga una petición a los hilos de inventario si queda alguna plaza. Si
+     * no, se descarta y sus hashes dejan de estar en curso, para poder pedirlos
+     * cuando se vuelvan a anunciar.
+     *
+     * @param hashes Los hashes que pide la petición.
+     * @param pedido La petición, que quita los hashes de en curso al terminar.
+     */
+    private void encolarPedido(List<byte[]> hashes, Runnable pedido) {
+        if (plazasPedidos.tryAcquire()) {
+            try {
+                pedidos.execute(() -> {
+                    try {
+                        pedido.run();
+                    } finally {
+                        plazasPedidos.release();
+                    }
+                });
+                return;
+            } catch (RejectedExecutionException e) {
+                // el ejecutor se está parando
+                plazasPedidos.release();
+            }
+        }
+        pedidosDescartados.increment();
+        for (byte[] hash : hashes) {
+            enCurso.remove(IdHash.de(hash));
+        }
+    }
+
+    private void pedirBloque(URL origen, byte[] hash) {
+        try {
+            obtenerBloque(origen, hash);
+        } finally {
+            enCurso.remove(IdHash.de(hash));
+        }
+    }
+
+    private void pedirBloqueAVecinos(byte[] hash) {
+        try {
+            URL miUrlNodo = servicioNodo.getMiUrlNodo();
+            for (URL urlNodo : servicioNodo.copiaNodosVecinos()) {
+                if (!urlNodo.equals(miUrlNodo) && obtenerBloque(urlNodo, hash)) {
+                    break;
+                }
+            }
+        } finally {
+            enCurso.remove(IdHash.de(hash));
+        }
+    }
+
+    /**
+     * Pide un bloque a un nodo y lo añade. Si es huérfano se pide a ese mismo
+     * nodo el bloque que falta; si no, se anuncia al resto de vecinos.
+     *
+     * @return true si el nodo tenía el bloque.
+     */
+    private boolean obtenerBloque(URL origen, byte[] hash) {
+        IdHash id = IdHash.de(hash);
+        try {
+            Bloque bloque = restTemplate.getForObject(
+                    origen + "/bloque/" + Base64.encodeBase64URLSafeString(hash), Bloque.class);
+            bloquesPedidos.increment();
+            if (bloque != null && id.equals(IdHash.de(bloque.getHash()))) {
+                byte[] anterior = servicioBloques.añadirBloque(bloque);
+                if (anterior == null) {
+                    anunciarBloque(bloque, origen);
+                } else {
+                    pedirBloqueAnterior(origen, anterior);
+                }
+                return true;
+            }
+        } catch (RestClientException e) {
+            System.out.println("No se pudo obtener el bloque anunciado por " + origen + ": " + e.getMessage());
+        } catch (Exception e) {
+            System.out.println("Bloque anunciado por " + origen + " inválido y no añadido. Error: " + e);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Pide al nodo de origen las transacciones anunciadas que no se conocen. La
+     * petición es un inventario con los hashes que se quieren.
+     */
+    private void pedirTransacciones(URL origen, List<byte[]> hashes) {
+        try {
+            Inventario pedido = new Inventario(servicioNodo.getMiUrlNodo());
+            pedido.setTransacciones(hashes);
+            List<Transaccion> transacciones = restTemplate.exchange(origen + "/transaccion/buscar", HttpMethod.POST,
+                    new HttpEntity<>(pedido), LISTA_TRANSACCIONES).getBody();
+            if (transacciones != null && !transacciones.isEmpty()) {
+                transaccionesPedidas.add(transacciones.size());
+                List<Transaccion> añadidas = servicioTransacciones.añadirTransacciones(transacciones);
+                if (!añadidas.isEmpty()) {
+                    anunciarTransacciones(añadidas, origen);
+                }
+            }
+        } catch (RestClientException e) {
+            System.out.println("No se pudieron obtener las transacciones anunciadas por " + origen + ": "
+                    + e.getMessage());
+        } catch (Exception e) {
+            System.out.println("Transacciones anunciadas por " + origen + " inválidas y no añadidas. Error: " + e);
+        } finally {
+            for (byte[] hash : hashes) {
+                enCurso.remove(IdHash.de(hash));
+            }
+        }
+    }
+
+    private Set<IdHash> vistos(URL urlNodo) {
+        return vistosPorNodo.computeIfAbsent(urlNodo, url -> conjuntoAcotado(maxHashesPorNodo));
+    }
+
+    /**
+     * Crea un conjunto sincronizado que, al superar el tamaño máximo, descarta los
+     * elementos añadidos hace más tiempo.
+     */
+    private static Set<IdHash> conjuntoAcotado(int maximo) {
+        return Collections.synchronizedSet(Collections.newSetFromMap(new LinkedHashMap<IdHash, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<IdHash, Boolean> entrada) {
+                return size() > maximo;
+            }
+        }));
+    }
+}
@@ -1,40 +1,78 @@
 package com.lfcounago.javablockchain.nodo.services;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
-import org.apache.commons.codec.binary.Base64;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.lfcounago.javablockchain.Configuracion;
 import com.lfcounago.javablockchain.commons.estructuras.Bloque;
-import com.lfcounago.javablockchain.commons.estructuras.RegistroSaldos;
-import com.lfcounago.javablockchain.commons.estructuras.Transaccion;
+import com.lfcounago.javablockchain.commons.estructuras.PuntaCadena;
+import com.lfcounago.javablockchain.commons.utilidades.CalculadorHashCabecera;
+import com.lfcounago.javablockchain.commons.utilidades.UtilidadesHash;
+import com.lfcounago.javablockchain.nodo.services.ServicePlantillaBloque.Plantilla;
+
+import jakarta.annotation.PreDestroy;
 
 @Service
 public class ServiceMinado implements Runnable {
-    private final ServiceTransacciones servicioTransacciones;
     private final ServiceNodo servicioNodo;
     private final ServiceBloques servicioBloques;
+    private final ServiceInventario servicioInventario;
+    private final ServicePlantillaBloque servicioPlantillas;
+
+    // Número de nonces que prueba cada hilo entre actualizaciones del contador
+    // de hashes
+    private static final long NONCES_POR_LOTE = 4096;
 
     private AtomicBoolean runMinado = new AtomicBoolean(false);
 
+    // Hilos que se reparten el espacio de nonces
+    private final int numeroHilos;
+    private final ExecutorService trabajadoresMinado;
+
+    // Hashes por segundo medidos en la última ronda de minado
+    private volatile double hashesPorSegundo;
+
+    // Ronda en curso, a la que se avisa si cambia la punta de la cadena
+    private final AtomicReference<Ronda> rondaActual = new AtomicReference<>();
+    private final Consumer<PuntaCadena> oyentePunta = this::cambioDePunta;
+
+    // Rondas abandonadas por un bloque nuevo y tiempo que tardaron en parar
+    private final LongAdder rondasObsoletas = new LongAdder();
+    private final LongAdder tiempoObsoletoNs = new LongAdder();
+    private volatile long ultimoTiempoObsoletoNs;
+
     /**
      * Constructor del servicio de minado.
      *
-     * @param servicioTransacciones El servicio de transacciones.
-     * @param servicioNodo          El servicio del nodo.
-     * @param servicioBloques       El servicio de bloques.
+     * @param servicioNodo       El servicio del nodo.
+     * @param servicioBloques    El servicio de bloques.
+     * @param servicioInventario El servicio que anuncia los bloques minados.
+     * @param servicioPlantillas El servicio que prepara los bloques a minar.
      */
     @Autowired
-    public ServiceMinado(ServiceTransacciones servicioTransacciones, ServiceNodo servicioNodo,
-            ServiceBloques servicioBloques) {
-        this.servicioTransacciones = servicioTransacciones;
+    public ServiceMinado(ServiceNodo servicioNodo, ServiceBloques servicioBloques,
+            ServiceInventario servicioInventario, ServicePlantillaBloque servicioPlantillas) {
         this.servicioNodo = servicioNodo;
         this.servicioBloques = servicioBloques;
+        this.servicioInventario = servicioInventario;
+        this.servicioPlantillas = servicioPlantillas;
+        this.numeroHilos = Configuracion.getInstancia().getHilosMinado();
+        this.trabajadoresMinado = Executors.newFixedThreadPool(numeroHilos, runnable -> {
+            Thread hilo = new Thread(runnable, "minado");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        servicioBloques.getCadenaDeBloques().añadirOyentePunta(oyentePunta);
     }
 
     /**
@@ -54,6 +92,7 @@ public class ServiceMinado implements Runnable {
     public void pararMinado() {
         System.out.println("Parando minado...");
         runMinado.set(false);
+        terminarRonda();
     }
 
     /**
@@ -77,10 +116,10 @@ public class ServiceMinado implements Runnable {
                 System.out.println(bloque);
                 System.out.println("\n");
 
-                // Añadir el bloque a la cadena y propagarlo
+                // Añadir el bloque a la cadena y anunciarlo
                 try {
                     servicioBloques.añadirBloque(bloque);
-                    servicioNodo.emitirPeticionPostNodosVecinos("bloque", bloque);
+                    servicioInventario.anunciarBloque(bloque, null);
                 } catch (Exception e) {
                     // Bloque inválido
                 }
@@ -89,67 +128,219 @@ public class ServiceMinado implements Runnable {
     }
 
     /**
-     * Itera sobre el nonce hasta encontrar un bloque válido según la dificultad
+     * Construye el bloque a minar y busca un nonce válido según la dificultad
      * configurada.
      *
      * @return El bloque minado.
      */
     private Bloque minarBloque() {
-        long nonce = 0;
-
-        Bloque ultimoBloque = servicioBloques.getCadenaDeBloques().getUltimoBloque();
+        PuntaCadena punta = servicioBloques.getCadenaDeBloques().getPunta();
+        Bloque ultimoBloque = punta.getBloque();
         byte[] hashUltimoBloque = ultimoBloque != null
                 ? ultimoBloque.getHash()
                 : null;
 
-        // Saldos temporales para verificar si una transacción hace doble gasto
-        RegistroSaldos saldosTemporales = new RegistroSaldos();
-        RegistroSaldos saldosActuales = servicioBloques.getCadenaDeBloques().getSaldos();
-        Iterator<Transaccion> it = servicioTransacciones.getPoolTransacciones().getPool().iterator();
-        while (it.hasNext()) {
-            Transaccion transaccion = it.next();
-            if (saldosActuales.existeCuenta(transaccion.getEmisor())) {
-                saldosTemporales.setSaldoCuenta(transaccion.getEmisor(),
-                        saldosActuales.getSaldoCuenta(transaccion.getEmisor()));
-            }
+        // La plantilla suele estar preparada desde que se empezó a minar el
+        // bloque anterior
+        Plantilla plantilla = servicioPlantillas.obtenerPlantilla(ultimoBloque);
+
+        // Buscar la solución repartiendo el espacio de nonces entre los hilos
+        return resolverPruebaDeTrabajo(new Ronda(punta), plantilla.crearBloque(hashUltimoBloque));
+    }
+
+    /**
+     * Resuelve la prueba de trabajo de un bloque repartiendo el espacio de nonces
+     * en tramos contiguos, uno por hilo de minado. Todos los hilos se detienen en
+     * cuanto uno de ellos encuentra la solución, cambia el último bloque de la
+     * cadena o se para el minado.
+     *
+     * @param ronda     La ronda de minado sobre la punta actual de la cadena.
+     * @param plantilla Bloque con las transacciones y la raíz de Merkle ya
+     *                  calculadas.
+     * @return El bloque minado, o null si no se encontró solución.
+     */
+    private Bloque resolverPruebaDeTrabajo(Ronda ronda, Bloque plantilla) {
+        int dificultad = Configuracion.getInstancia().getDificultad();
+        long tamañoTramo = Long.MAX_VALUE / numeroHilos;
+        LongAdder hashes = new LongAdder();
+
+        List<Callable<Void>> tareas = new ArrayList<>();
+        for (int i = 0; i < numeroHilos; i++) {
+            // el nonce 0 queda reservado para el bloque génesis
+            long inicio = 1 + i * tamañoTramo;
+            long fin = inicio + tamañoTramo - 1;
+            tareas.add(() -> {
+                buscarNonce(plantilla, ronda, inicio, fin, dificultad, hashes);
+                return null;
+            });
         }
 
-        List<Transaccion> transaccionesBloque = new ArrayList<>();
-
-        // Iterar sobre las transacciones y añadirlas al bloque si el emisor tiene saldo
-        it = servicioTransacciones.getPoolTransacciones().getPool().iterator();
-        while (transaccionesBloque.size() < Configuracion.getInstancia().getMaxNumeroTransaccionesEnBloque()
-                && it.hasNext()) {
-            Transaccion transaccion = it.next();
-            try {
-                if (saldosTemporales.existeCuenta(transaccion.getEmisor()))
-                    saldosTemporales.liquidarTransaccion(transaccion);
-                else
-                    throw new Exception("La cuenta del emisor " + Base64.encodeBase64String(transaccion.getEmisor())
-                            + " no existe");
-            } catch (Exception e) {
-                // No incluir transacción si hace doble gasto
-                System.out.println("Transacción " + transaccion.getHash() + " no incluida por saldo insuficiente");
-            }
+        // Si la punta cambió mientras se preparaba la plantilla, el aviso ya no
+        // llega a esta ronda
+        rondaActual.set(ronda);
+        cambioDePunta(servicioBloques.getCadenaDeBloques().getPunta());
+        if (!runMinado.get()) {
+            ronda.terminada = true;
+        }
+
+        long comienzo = System.nanoTime();
+        try {
+            trabajadoresMinado.invokeAll(tareas);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            rondaActual.compareAndSet(ronda, null);
         }
+        long finRonda = System.nanoTime();
+        actualizarHashesPorSegundo(hashes.sum(), finRonda - comienzo);
 
-        // Añadir transacción coinbase como recompensa por resolver la prueba de trabajo
-        Transaccion txCoinbase = new Transaccion(Base64.decodeBase64(Configuracion.getInstancia().getCoinbase()));
-        txCoinbase.setTimestamp(System.currentTimeMillis());
-        txCoinbase.setHash(txCoinbase.calcularHashTransaccion());
+        long obsoletaDesde = ronda.obsoletaDesdeNs;
+        if (obsoletaDesde != 0) {
+            rondasObsoletas.increment();
+            tiempoObsoletoNs.add(finRonda - obsoletaDesde);
+            ultimoTiempoObsoletoNs = finRonda - obsoletaDesde;
+        }
 
-        transaccionesBloque.add(0, txCoinbase);
+        return ronda.solucion.get();
+    }
 
-        // Iterar sobre el nonce hasta encontrar la solución
-        while (runMinado.get()) {
-            if (ultimoBloque != servicioBloques.getCadenaDeBloques().getUltimoBloque())
-                return null;
-            Bloque bloque = new Bloque(hashUltimoBloque, transaccionesBloque, nonce);
-            if (bloque.getNumeroDeCerosHash() >= Configuracion.getInstancia().getDificultad()) {
-                return bloque;
+    /**
+     * Prueba los nonces de un tramo sobre un buffer de cabecera propio hasta
+     * encontrar uno que cumpla la dificultad o hasta que termine la ronda.
+     *
+     * @param plantilla  Bloque plantilla a minar.
+     * @param ronda      La ronda de minado.
+     * @param inicio     Primer nonce del tramo.
+     * @param fin        Último nonce del tramo.
+     * @param dificultad Número de bytes a cero requeridos en el hash.
+     * @param hashes     Contador compartido de hashes calculados.
+     */
+    private void buscarNonce(Bloque plantilla, Ronda ronda, long inicio, long fin, int dificultad,
+            LongAdder hashes) {
+        CalculadorHashCabecera calculador = new CalculadorHashCabecera(plantilla.getHashBloqueAnterior(),
+                plantilla.getRaizArbolMerkle());
+        calculador.setTimestamp(plantilla.getTimestamp());
+        long nonce = inicio;
+        long pendientes = 0;
+        while (nonce <= fin && !ronda.terminada) {
+            if (pendientes == NONCES_POR_LOTE) {
+                hashes.add(pendientes);
+                pendientes = 0;
+            }
+            calculador.setNonce(nonce);
+            byte[] hash = calculador.calcular();
+            pendientes++;
+            if (UtilidadesHash.contarCerosIniciales(hash) >= dificultad) {
+                // solo se construye el bloque cuando se encuentra la solución
+                if (ronda.solucion.compareAndSet(null, new Bloque(plantilla.getHashBloqueAnterior(),
+                        plantilla.getTransacciones(), plantilla.getRaizArbolMerkle(), nonce,
+                        plantilla.getTimestamp()))) {
+                    ronda.terminada = true;
+                }
+                break;
             }
             nonce++;
         }
-        return null;
+        hashes.add(pendientes);
+    }
+
+    /**
+     * Avisa a la ronda en curso de que la cadena tiene un nuevo último bloque.
+     * Se llama desde el hilo que añade el bloque.
+     *
+     * @param punta La nueva punta de la cadena.
+     */
+    private void cambioDePunta(PuntaCadena punta) {
+        Ronda ronda = rondaActual.get();
+        if (ronda != null && ronda.punta.getVersion() != punta.getVersion()) {
+            ronda.terminar();
+        }
+    }
+
+    private void terminarRonda() {
+        Ronda ronda = rondaActual.get();
+        if (ronda != null) {
+            ronda.terminada = true;
+        }
+    }
+
+    /**
+     * Actualiza la tasa de hash medida en la última ronda de minado.
+     *
+     * @param hashes     Número de hashes calculados en la ronda.
+     * @param duracionNs Duración de la ronda en nanosegundos.
+     */
+    private void actualizarHashesPorSegundo(long hashes, long duracionNs) {
+        if (duracionNs > 0) {
+            hashesPorSegundo = hashes * 1_000_000_000.0 / duracionNs;
+            System.out.println("Tasa de hash: " + Math.round(hashesPorSegundo) + " H/s (" + numeroHilos + " hilos)");
+        }
+    }
+
+    /**
+     * Obtiene la tasa de hash medida en la última ronda de minado.
+     *
+     * @return Hashes por segundo.
+     */
+    public double getHashesPorSegundo() {
+        return hashesPorSegundo;
+    }
+
+    public long getRondasObsoletas() {
+        return rondasObsoletas.sum();
+    }
+
+    /**
+     * Tiempo total que han seguido minando los hilos sobre un bloque que ya no
+     * era el último de la cadena, desde que se añadió el nuevo hasta que pararon.
+     *
+     * @return El tiempo en microsegundos.
+     */
+    public long getTiempoObsoletoUs() {
+        return tiempoObsoletoNs.sum() / 1000;
+    }
+
+    public long getUltimoTiempoObsoletoUs() {
+        return ultimoTiempoObsoletoNs / 1000;
+    }
+
+    /**
+     * Detiene los hilos de minado al cerrar la aplicación.
+     */
+    @PreDestroy
+    public void shutdown() {
+        runMinado.set(false);
+        terminarRonda();
+        servicioBloques.getCadenaDeBloques().eliminarOyentePunta(oyentePunta);
+        trabajadoresMinado.shutdownNow();
+    }
+
+    /**
+     * Ronda de minado sobre una punta de la cadena. Los hilos paran en cuanto la
+     * ronda se da por terminada: porque uno encuentra la solución, porque cambia
+     * la punta o porque se para el minado.
+     */
+    private static final class Ronda {
+
+        private final PuntaCadena punta;
+        private final AtomicReference<Bloque> solucion = new AtomicReference<>();
+        private volatile boolean terminada;
+        // Momento en que cambió la punta, o 0 si no ha cambiado
+        private volatile long obsoletaDesdeNs;
+
+        Ronda(PuntaCadena punta) {
+            this.punta = punta;
+        }
+
+        /**
+         * Termina la ronda porque la punta de la cadena ha cambiado.
+         */
+        void terminar() {
+            if (!terminada) {
+                obsoletaDesdeNs = System.nanoTime();
+                terminada = true;
+            }
+        }
     }
 }
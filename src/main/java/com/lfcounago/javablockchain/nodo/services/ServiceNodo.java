@@ -3,7 +3,6 @@ package com.lfcounago.javablockchain.nodo.services;
 import java.net.MalformedURLException;
 import java.net.URL;
 
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.ArrayList;
@@ -17,6 +16,7 @@ import org.apache.commons.codec.binary.Base64;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.web.context.WebServerInitializedEvent;
 import org.springframework.context.ApplicationListener;
+import org.springframework.http.HttpMethod;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
@@ -32,6 +32,7 @@ public class ServiceNodo implements ApplicationListener<WebServerInitializedEven
 
     private final ServiceBloques servicioBloques;
     private final ServiceTransacciones servicioTransacciones;
+    private final ServiceDifusion servicioDifusion;
 
     // URL de mi nodo (host + port)
     private URL miUrlNodo;
@@ -39,13 +40,17 @@ public class ServiceNodo implements ApplicationListener<WebServerInitializedEven
     // nodos en la red
     private Set<URL> nodosVecinos = new HashSet<>();
 
-    private RestTemplate restTemplate = new RestTemplate();
+    // con los mismos timeouts que la difusión, para que un nodo que no responde
+    // no bloquee la sincronización
+    private final RestTemplate restTemplate = ServiceDifusion.crearRestTemplate();
     public boolean inicializado = false;
 
     @Autowired
-    public ServiceNodo(ServiceBloques servicioCadenaDeBloques, ServiceTransacciones servicioTransacciones) {
+    public ServiceNodo(ServiceBloques servicioCadenaDeBloques, ServiceTransacciones servicioTransacciones,
+            ServiceDifusion servicioDifusion) {
         this.servicioBloques = servicioCadenaDeBloques;
         this.servicioTransacciones = servicioTransacciones;
+        this.servicioDifusion = servicioDifusion;
     }
 
     /**
@@ -79,11 +84,15 @@ public class ServiceNodo implements ApplicationListener<WebServerInitializedEven
              */
 
         } else {
-            nodosVecinos.add(urlNodoMaster);
+            altaNodo(urlNodoMaster);
 
             // obtener lista de nodos, bloques y transacciones
             obtenerNodosVecinos(urlNodoMaster, restTemplate);
-            servicioBloques.obtenerCadenaDeBloques(urlNodoMaster, restTemplate);
+            if (Configuracion.getInstancia().getSincronizacionPorCabeceras()) {
+                servicioBloques.sincronizarPorCabeceras(urlNodoMaster, copiaNodosVecinos(), restTemplate);
+            } else {
+                servicioBloques.obtenerCadenaDeBloques(urlNodoMaster, restTemplate);
+            }
             servicioTransacciones.obtenerPoolTransacciones(urlNodoMaster, restTemplate);
 
             // dar de alta mi nodo en el resto de nodos en la red
@@ -104,6 +113,15 @@ public class ServiceNodo implements ApplicationListener<WebServerInitializedEven
         emitirPetitionDeleteNodosVecinos("nodo", miUrlNodo);
     }
 
+    /**
+     * Obtiene la URL de este nodo.
+     *
+     * @return La URL del nodo, o null si el servidor todavía no ha arrancado.
+     */
+    public URL getMiUrlNodo() {
+        return miUrlNodo;
+    }
+
     /**
      * Obtiene los nodos vecinos en la red.
      *
@@ -113,13 +131,18 @@ public class ServiceNodo implements ApplicationListener<WebServerInitializedEven
         return nodosVecinos;
     }
 
+    public synchronized boolean esNodoVecino(URL urlNodo) {
+        return nodosVecinos.contains(urlNodo);
+    }
+
     /**
-     * Añade un nodo a la lista de nodos vecinos.
+     * Añade un nodo a la lista de nodos vecinos y crea su cola de envíos.
      *
      * @param urlNodo La URL del nodo a añadir.
      */
     public synchronized void altaNodo(URL urlNodo) {
         nodosVecinos.add(urlNodo);
+        servicioDifusion.registrarNodo(urlNodo);
     }
 
     /**
@@ -129,36 +152,50 @@ public class ServiceNodo implements ApplicationListener<WebServerInitializedEven
      */
     public synchronized void bajaNodo(URL urlNodo) {
         nodosVecinos.remove(urlNodo);
+        servicioDifusion.olvidarNodo(urlNodo);
     }
 
     /**
-     * Envía una petición PUT a todos los nodos vecinos.
+     * Envía una petición PUT a todos los nodos vecinos. La petición se encola y
+     * se envía en segundo plano (ver ServiceDifusion).
      *
      * @param endpoint El endpoint para la petición.
      * @param datos    Los datos a enviar con la petición.
      */
     public void emitirPeticionPutNodosVecinos(String endpoint, Object datos) {
-        nodosVecinos.parallelStream().forEach(urlNodo -> restTemplate.put(urlNodo + "/" + endpoint, datos));
+        servicioDifusion.difundir(copiaNodosVecinos(), HttpMethod.PUT, endpoint, datos);
     }
 
     /**
-     * Envía una petición POST a todos los nodos vecinos.
+     * Envía una petición POST a todos los nodos vecinos. La petición se encola y
+     * se envía en segundo plano (ver ServiceDifusion).
      *
      * @param endpoint El endpoint para la petición.
      * @param datos    Los datos a enviar con la petición.
      */
     public void emitirPeticionPostNodosVecinos(String endpoint, Object data) {
-        nodosVecinos.parallelStream().forEach(urlNodo -> restTemplate.postForLocation(urlNodo + "/" + endpoint, data));
+        servicioDifusion.difundir(copiaNodosVecinos(), HttpMethod.POST, endpoint, data);
     }
 
     /**
-     * Envía una petición DELETE a todos los nodos vecinos.
+     * Envía una petición DELETE a todos los nodos vecinos. La petición se encola
+     * y se envía en segundo plano (ver ServiceDifusion).
      *
      * @param endpoint El endpoint para la petición.
      * @param datos    Los datos a enviar con la petición.
      */
     public void emitirPetitionDeleteNodosVecinos(String endpoint, Object data) {
-        nodosVecinos.parallelStream().forEach(urlNodo -> restTemplate.delete(urlNodo + "/" + endpoint, data));
+        servicioDifusion.difundir(copiaNodosVecinos(), HttpMethod.DELETE, endpoint, data);
+    }
+
+    /**
+     * Obtiene una copia de los nodos vecinos que se puede recorrer mientras se
+     * dan de alta o de baja otros nodos.
+     *
+     * @return Las URLs de los nodos vecinos.
+     */
+    public synchronized List<URL> copiaNodosVecinos() {
+        return new ArrayList<>(nodosVecinos);
     }
 
     /**
@@ -169,7 +206,9 @@ public class ServiceNodo implements ApplicationListener<WebServerInitializedEven
      */
     public void obtenerNodosVecinos(URL urlNodoVecino, RestTemplate restTemplate) {
         URL[] nodos = restTemplate.getForObject(urlNodoVecino + "/nodo", URL[].class);
-        Collections.addAll(nodosVecinos, nodos);
+        for (URL urlNodo : nodos) {
+            altaNodo(urlNodo);
+        }
     }
 
     /**
@@ -0,0 +1,275 @@
+package com.lfcounago.javablockchain.nodo.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.codec.binary.Base64;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.lfcounago.javablockchain.Configuracion;
+import com.lfcounago.javablockchain.commons.estructuras.Bloque;
+import com.lfcounago.javablockchain.commons.estructuras.IdHash;
+import com.lfcounago.javablockchain.commons.estructuras.PoolTransacciones;
+import com.lfcounago.javablockchain.commons.estructuras.RegistroSaldos;
+import com.lfcounago.javablockchain.commons.estructuras.Transaccion;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Prepara las plantillas de bloque para el minado. Mientras se mina una
+ * plantilla, en segundo plano se prepara la siguiente suponiendo que la actual
+ * se resuelve: con las transacciones del pool que no están en la actual y
+ * descontando a cada emisor lo que ya gasta en ella. La siguiente se vuelve a
+ * preparar cada vez que cambia el pool. Cuando se mina el bloque, la siguiente
+ * plantilla ya está lista y el minero solo tiene que comprobar que sus
+ * transacciones siguen en el pool.
+ *
+ * Si el último bloque de la cadena no es el de la plantilla actual (lo ha
+ * minado otro nodo), la plantilla se construye de nuevo, lo que cuesta en
+ * proporción al tamaño del bloque.
+ */
+@Service
+public class ServicePlantillaBloque {
+
+    private final ServiceTransacciones servicioTransacciones;
+    private final ServiceBloques servicioBloques;
+
+    // Hilo que prepara la siguiente plantilla
+    private final ExecutorService preparacion;
+    private final AtomicBoolean preparacionPendiente = new AtomicBoolean(false);
+
+    // Plantilla que se está minando y la preparada para después
+    private Plantilla actual;
+    private Plantilla siguiente;
+
+    // Contadores para las estadísticas del nodo
+    private final LongAdder plantillasPreparadas = new LongAdder();
+    private final LongAdder plantillasConstruidas = new LongAdder();
+    private volatile long ultimaEsperaNs;
+
+    @Autowired
+    public ServicePlantillaBloque(ServiceTransacciones servicioTransacciones, ServiceBloques servicioBloques) {
+        this.servicioTransacciones = servicioTransacciones;
+        this.servicioBloques = servicioBloques;
+        this.preparacion = Executors.newSingleThreadExecutor(runnable -> {
+            Thread hilo = new Thread(runnable, "plantilla");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        servicioTransacciones.getPoolTransacciones().setOyenteCambios(this::programarSiguiente);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        servicioTransacciones.getPoolTransacciones().setOyenteCambios(null);
+        preparacion.shutdownNow();
+    }
+
+    /**
+     * Obtiene la plantilla a minar sobre el último bloque de la cadena. Si ese
+     * bloque es el de la plantilla anterior se usa la ya preparada; si no, se
+     * construye.
+     *
+     * @param ultimoBloque El último bloque de la cadena, o null si está vacía.
+     * @return La plantilla.
+     */
+    public Plantilla obtenerPlantilla(Bloque ultimoBloque) {
+        long inicio = System.nanoTime();
+        Plantilla plantilla;
+        synchronized (this) {
+            Plantilla preparada = siguiente;
+            // la preparada siempre sigue a la actual: al cambiar la actual se descarta
+            if (preparada != null && ultimoBloque != null
+                    && Arrays.equals(ultimoBloque.getRaizArbolMerkle(), preparada.raizArbolMerkleAnterior)
+                    && servicioTransacciones.contieneTransacciones(preparada.sinCoinbase())) {
+                plantilla = preparada;
+                plantillasPreparadas.increment();
+            } else {
+                plantilla = construir(null);
+                plantillasConstruidas.increment();
+            }
+            actual = plantilla;
+            siguiente = null;
+        }
+        ultimaEsperaNs = System.nanoTime() - inicio;
+        programarSiguiente();
+        return plantilla;
+    }
+
+    public long getPlantillasPreparadas() {
+        return plantillasPreparadas.sum();
+    }
+
+    public long getPlantillasConstruidas() {
+        return plantillasConstruidas.sum();
+    }
+
+    /**
+     * Tiempo que tardó el minero en obtener la última plantilla.
+     *
+     * @return El tiempo en microsegundos.
+     */
+    public long getUltimaEsperaUs() {
+        return ultimaEsperaNs / 1000;
+    }
+
+    /**
+     * Programa la preparación de la siguiente plantilla, salvo que ya haya una
+     * programada.
+     */
+    private void programarSiguiente() {
+        if (preparacionPendiente.compareAndSet(false, true)) {
+            try {
+                preparacion.execute(() -> {
+                    preparacionPendiente.set(false);
+                    prepararSiguiente();
+                });
+            } catch (RuntimeException e) {
+                // el servicio se está parando
+                preparacionPendiente.set(false);
+            }
+        }
+    }
+
+    /**
+     * Prepara la plantilla que sigue a la actual. Si mientras tanto la actual ha
+     * cambiado, la preparada se descarta.
+     */
+    private void prepararSiguiente() {
+        Plantilla base;
+        synchronized (this) {
+            base = actual;
+        }
+        if (base == null) {
+            return;
+        }
+        Plantilla preparada = construir(base);
+        synchronized (this) {
+            if (actual == base) {
+                siguiente = preparada;
+            }
+        }
+    }
+
+    /**
+     * Construye una plantilla con las transacciones de más prioridad del pool que
+     * los emisores pueden pagar, y la transacción coinbase con la recompensa y
+     * las comisiones.
+     *
+     * @param anterior La plantilla a la que sigue, o null si va sobre el último
+     *                 bloque de la cadena. Sus transacciones no se incluyen y lo
+     *                 que gasta cada emisor en ella se descuenta de su saldo.
+     */
+    private Plantilla construir(Plantilla anterior) {
+        RegistroSaldos saldosActuales = servicioBloques.getCadenaDeBloques().getSaldos();
+        PoolTransacciones pool = servicioTransacciones.getPoolTransacciones();
+        Set<IdHash> excluidas = anterior != null ? anterior.ids : Collections.emptySet();
+        Map<IdHash, long[]> gastadoAnterior = anterior != null ? anterior.gastado : Collections.emptyMap();
+        Map<IdHash, long[]> gastado = new HashMap<>();
+        List<Transaccion> seleccionadas = pool.seleccionarTransacciones(
+                Configuracion.getInstancia().getMaxNumeroTransaccionesEnBloque(), excluidas,
+                transaccion -> cabeEnSaldo(transaccion, saldosActuales, gastadoAnterior, gastado));
+
+        // Añadir transacción coinbase como recompensa por resolver la prueba de trabajo,
+        // más las comisiones de las transacciones del bloque
+        long comisiones = 0;
+        Set<IdHash> ids = new HashSet<>();
+        for (Transaccion transaccion : seleccionadas) {
+            comisiones += transaccion.getComision();
+            ids.add(IdHash.de(transaccion.getHash()));
+        }
+        Transaccion txCoinbase = new Transaccion(Base64.decodeBase64(Configuracion.getInstancia().getCoinbase()));
+        txCoinbase.setCantidad(txCoinbase.getCantidad() + comisiones);
+        txCoinbase.setTimestamp(System.currentTimeMillis());
+        txCoinbase.setHash(txCoinbase.calcularHashTransaccion());
+
+        List<Transaccion> transacciones = new ArrayList<>(seleccionadas.size() + 1);
+        transacciones.add(txCoinbase);
+        transacciones.addAll(seleccionadas);
+        return new Plantilla(anterior != null ? anterior.raizArbolMerkle : null, transacciones, ids, gastado);
+    }
+
+    /**
+     * Comprueba si el emisor de una transacción tiene saldo para pagarla además
+     * de lo que ya gasta en la plantilla anterior y en las transacciones
+     * elegidas, y si es así lo apunta como gastado.
+     *
+     * @param transaccion     La transacción candidata.
+     * @param saldosActuales  Los saldos de la cadena.
+     * @param gastadoAnterior Lo que gasta cada emisor en la plantilla anterior.
+     * @param gastado         Lo que gasta cada emisor en esta plantilla.
+     * @return true si la transacción se puede incluir.
+     */
+    private static boolean cabeEnSaldo(Transaccion transaccion, RegistroSaldos saldosActuales,
+            Map<IdHash, long[]> gastadoAnterior, Map<IdHash, long[]> gastado) {
+        IdHash emisor = transaccion.getIdEmisor();
+        long[] gastadoEmisor = gastado.computeIfAbsent(emisor, cuenta -> new long[1]);
+        long[] gastadoEmisorAnterior = gastadoAnterior.get(emisor);
+        long total = gastadoEmisor[0] + transaccion.getTotalEmisor();
+        long totalConAnterior = total + (gastadoEmisorAnterior != null ? gastadoEmisorAnterior[0] : 0);
+        if (saldosActuales.existeCuenta(emisor) && total >= 0 && totalConAnterior >= 0
+                && saldosActuales.getSaldoCuenta(emisor) >= totalConAnterior) {
+            gastadoEmisor[0] = total;
+            return true;
+        }
+        // No incluir transacción si hace doble gasto
+        System.out.println("Transacción " + Base64.encodeBase64String(transaccion.getHash())
+                + " no incluida por saldo insuficiente");
+        return false;
+    }
+
+    /**
+     * Transacciones de un bloque a minar, con la coinbase en primer lugar, y su
+     * raíz de Merkle.
+     */
+    public static final class Plantilla {
+
+        // Raíz de Merkle de la plantilla a la que sigue, o null si va sobre el
+        // último bloque de la cadena. No se guarda la plantilla para no retener
+        // la cadena de todas las anteriores
+        private final byte[] raizArbolMerkleAnterior;
+        private final List<Transaccion> transacciones;
+        private final byte[] raizArbolMerkle;
+        // Hashes de las transacciones sin la coinbase
+        private final Set<IdHash> ids;
+        // Lo que gasta cada emisor en esta plantilla
+        private final Map<IdHash, long[]> gastado;
+
+        Plantilla(byte[] raizArbolMerkleAnterior, List<Transaccion> transacciones, Set<IdHash> ids,
+                Map<IdHash, long[]> gastado) {
+            this.raizArbolMerkleAnterior = raizArbolMerkleAnterior;
+            this.transacciones = Collections.unmodifiableList(transacciones);
+            this.ids = ids;
+            this.gastado = gastado;
+            Bloque bloque = new Bloque();
+            bloque.setTransactions(transacciones);
+            this.raizArbolMerkle = bloque.calcularRaizArbolMerkle();
+        }
+
+        /**
+         * Crea el bloque a minar sobre el bloque dado.
+         *
+         * @param hashBloqueAnterior El hash del último bloque de la cadena.
+         * @return El bloque con nonce 0.
+         */
+        public Bloque crearBloque(byte[] hashBloqueAnterior) {
+            return new Bloque(hashBloqueAnterior, new ArrayList<>(transacciones), raizArbolMerkle, 0,
+                    System.currentTimeMillis());
+        }
+
+        List<Transaccion> sinCoinbase() {
+            return transacciones.subList(1, transacciones.size());
+        }
+    }
+}
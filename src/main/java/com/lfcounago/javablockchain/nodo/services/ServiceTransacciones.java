@@ -2,6 +2,7 @@ package com.lfcounago.javablockchain.nodo.services;
 
 import java.net.URL;
 import java.util.Collection;
+import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -16,10 +17,13 @@ public class ServiceTransacciones {
 
     // Pool de transacciones con transacciones pendientes de ser incluidas en un
     // bloque
-    private PoolTransacciones poolTransacciones = new PoolTransacciones();
+    private final PoolTransacciones poolTransacciones = new PoolTransacciones();
+
+    private final ServiceValidacion servicioValidacion;
 
     @Autowired
-    public ServiceTransacciones() {
+    public ServiceTransacciones(ServiceValidacion servicioValidacion) {
+        this.servicioValidacion = servicioValidacion;
     }
 
     /**
@@ -41,6 +45,23 @@ public class ServiceTransacciones {
         poolTransacciones.añadirTransaccion(transaccion);
     }
 
+    /**
+     * Añade un lote de transacciones al pool validándolas en paralelo. Si alguna
+     * transacción es inválida no se añade ninguna.
+     *
+     * @param transacciones Las transacciones que se van a añadir al pool.
+     * @return Las transacciones que han entrado en el pool; no incluye las que ya
+     *         estaban ni las que no caben por los límites del pool.
+     * @throws Exception Si alguna transacción del lote no es válida, se lanza una
+     *                   excepción con el mensaje "Lote de transacciones inválido".
+     */
+    public List<Transaccion> añadirTransacciones(List<Transaccion> transacciones) throws Exception {
+        if (!servicioValidacion.validarTransacciones(transacciones)) {
+            throw new Exception("Lote de transacciones inválido");
+        }
+        return poolTransacciones.añadirTransaccionesValidadas(transacciones);
+    }
+
     /**
      * Elimina una transacción del pool de transacciones.
      *
@@ -50,6 +71,26 @@ public class ServiceTransacciones {
         poolTransacciones.eliminarTransaccion(transaccion);
     }
 
+    /**
+     * Busca una transacción del pool por su hash.
+     *
+     * @param hash El hash de la transacción.
+     * @return La transacción, o null si no está en el pool.
+     */
+    public Transaccion obtenerTransaccion(byte[] hash) {
+        return poolTransacciones.obtenerTransaccion(hash);
+    }
+
+    /**
+     * Comprueba si una transacción está en el pool.
+     *
+     * @param hash El hash de la transacción.
+     * @return true si la transacción está en el pool.
+     */
+    public boolean contieneTransaccion(byte[] hash) {
+        return poolTransacciones.contieneTransaccion(hash);
+    }
+
     /**
      * Comprueba si el pool de transacciones contiene todas las transacciones de una
      * colección dada.
@@ -64,7 +105,8 @@ public class ServiceTransacciones {
 
     /**
      * Obtiene el pool de transacciones desde un nodo remoto utilizando un objeto
-     * RestTemplate.
+     * RestTemplate. Las transacciones se añaden al pool de este nodo, que
+     * mantiene sus propios límites.
      *
      * @param urlNodo      La URL del nodo remoto del cual se va a obtener el pool
      *                     de transacciones.
@@ -74,7 +116,7 @@ public class ServiceTransacciones {
     public void obtenerPoolTransacciones(URL urlNodo, RestTemplate restTemplate) {
         PoolTransacciones poolTransacciones = restTemplate.getForObject(urlNodo + "/transaccion",
                 PoolTransacciones.class);
-        this.poolTransacciones = poolTransacciones;
+        this.poolTransacciones.añadirTransaccionesValidadas(poolTransacciones.getPool());
         System.out.println("Obtenido pool de transacciones de nodo " + urlNodo + ".\n");
     }
 }
\ No newline at end of file
@@ -0,0 +1,115 @@
+package com.lfcounago.javablockchain.nodo.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.stereotype.Service;
+
+import com.lfcounago.javablockchain.Configuracion;
+import com.lfcounago.javablockchain.commons.estructuras.Transaccion;
+
+import jakarta.annotation.PreDestroy;
+
+@Service
+public class ServiceValidacion {
+
+    // Número máximo de tareas de validación en espera
+    private static final int CAPACIDAD_COLA = 1024;
+
+    private final int numeroHilos;
+
+    // Ejecutor acotado dedicado a la validación, separado de los hilos de las
+    // peticiones y del ForkJoinPool común
+    private final ThreadPoolExecutor ejecutor;
+
+    public ServiceValidacion() {
+        this.numeroHilos = Configuracion.getInstancia().getHilosValidacion();
+        this.ejecutor = new ThreadPoolExecutor(numeroHilos, numeroHilos, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(CAPACIDAD_COLA), runnable -> {
+                    Thread hilo = new Thread(runnable, "validacion");
+                    hilo.setDaemon(true);
+                    return hilo;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Valida el hash y la firma de un lote de transacciones en paralelo. El lote
+     * se reparte en tantos tramos como hilos de validación, y en cuanto un tramo
+     * encuentra una transacción inválida se cancela el resto.
+     *
+     * @param transacciones Las transacciones a validar.
+     * @return true si todas las transacciones son válidas, false si alguna no lo
+     *         es.
+     */
+    public boolean validarTransacciones(List<Transaccion> transacciones) {
+        if (transacciones.size() <= 1) {
+            return transacciones.stream().allMatch(Transaccion::esValida);
+        }
+
+        AtomicBoolean fallo = new AtomicBoolean(false);
+        CompletionService<Boolean> completadas = new ExecutorCompletionService<>(ejecutor);
+        List<Future<Boolean>> tareas = new ArrayList<>();
+
+        int numeroTramos = Math.min(numeroHilos, transacciones.size());
+        int tamañoTramo = (transacciones.size() + numeroTramos - 1) / numeroTramos;
+        for (int inicio = 0; inicio < transacciones.size(); inicio += tamañoTramo) {
+            List<Transaccion> tramo = transacciones.subList(inicio,
+                    Math.min(inicio + tamañoTramo, transacciones.size()));
+            tareas.add(completadas.submit(() -> validarTramo(tramo, fallo)));
+        }
+
+        try {
+            for (int i = 0; i < tareas.size(); i++) {
+                if (!completadas.take().get()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        } finally {
+            fallo.set(true);
+            tareas.forEach(tarea -> tarea.cancel(false));
+        }
+    }
+
+    /**
+     * Valida un tramo de transacciones en orden, abandonando en cuanto otro tramo
+     * haya encontrado una transacción inválida.
+     *
+     * @param tramo Las transacciones del tramo.
+     * @param fallo Indicador compartido de que el lote ya es inválido.
+     * @return true si todas las transacciones del tramo son válidas.
+     */
+    private boolean validarTramo(List<Transaccion> tramo, AtomicBoolean fallo) {
+        for (Transaccion transaccion : tramo) {
+            if (fallo.get()) {
+                return false;
+            }
+            if (!transaccion.esValida()) {
+                fallo.set(true);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Detiene los hilos de validación al cerrar la aplicación.
+     */
+    @PreDestroy
+    public void shutdown() {
+        ejecutor.shutdownNow();
+    }
+}
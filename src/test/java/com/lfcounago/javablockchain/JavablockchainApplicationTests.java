@@ -2,6 +2,10 @@ package com.lfcounago.javablockchain;
 
 import org.apache.tomcat.util.codec.binary.Base64;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.net.URL;
 import java.security.KeyPair;
 import java.util.ArrayList;
@@ -20,13 +24,20 @@ import org.springframework.http.MediaType;
 
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.lfcounago.javablockchain.commons.estructuras.Bloque;
+import com.lfcounago.javablockchain.commons.estructuras.CabeceraBloque;
+import com.lfcounago.javablockchain.commons.estructuras.Inventario;
 import com.lfcounago.javablockchain.commons.estructuras.Transaccion;
+import com.lfcounago.javablockchain.commons.utilidades.CodecBinario;
 import com.lfcounago.javablockchain.commons.utilidades.UtilidadesFirma;
+import com.lfcounago.javablockchain.nodo.conversores.ConvertidorBinario;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest
@@ -135,6 +146,128 @@ class JavablockchainApplicationTests {
 	 * .contentType(MediaType.APPLICATION_JSON)).andExpect(status().isAccepted()); }
 	 */
 
+	@Test
+	public void poolTransaccionesBinario() throws Exception {
+		KeyPair claveEmisor = UtilidadesFirma.generarParClaves();
+		KeyPair claveDestinatario = UtilidadesFirma.generarParClaves();
+
+		Transaccion tx = new Transaccion();
+		tx.setEmisor(claveEmisor.getPublic().getEncoded());
+		tx.setDestinatario(claveDestinatario.getPublic().getEncoded());
+		tx.setCantidad(7);
+		tx.setTimestamp(System.currentTimeMillis());
+		tx.setFirma(UtilidadesFirma.firmar(tx.getContenidoTransaccion(), claveEmisor.getPrivate().getEncoded()));
+		tx.setHash(tx.calcularHashTransaccion());
+
+		ByteArrayOutputStream cuerpo = new ByteArrayOutputStream();
+		CodecBinario.escribirTransacciones(new DataOutputStream(cuerpo), List.of(tx));
+		mvc.perform(MockMvcRequestBuilders.post("/transaccion").content(cuerpo.toByteArray())
+				.contentType(ConvertidorBinario.TIPO_BINARIO)).andExpect(status().isAccepted());
+
+		MvcResult resultado = mvc.perform(MockMvcRequestBuilders.get("/transaccion")
+				.accept(ConvertidorBinario.TIPO_BINARIO, MediaType.APPLICATION_JSON))
+				.andExpect(content().contentType(ConvertidorBinario.TIPO_BINARIO)).andReturn();
+		List<Transaccion> pool = CodecBinario.leerTransacciones(
+				new DataInputStream(new ByteArrayInputStream(resultado.getResponse().getContentAsByteArray())));
+		assertTrue(pool.contains(tx));
+
+		// los clientes que no piden el formato binario siguen recibiendo JSON
+		mvc.perform(MockMvcRequestBuilders.get("/transaccion").accept(MediaType.ALL))
+				.andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON));
+	}
+
+	@Test
+	public void rangoBloques() throws Exception {
+		MvcResult resultado = mvc.perform(MockMvcRequestBuilders.get("/bloque/rango").param("desde", "0")
+				.accept(ConvertidorBinario.TIPO_BINARIO)).andExpect(status().isOk()).andReturn();
+		DataInputStream datos = new DataInputStream(
+				new ByteArrayInputStream(resultado.getResponse().getContentAsByteArray()));
+		int numeroBloques = CodecBinario.leerNumeroElementos(datos);
+		for (int i = 0; i < numeroBloques; i++) {
+			assertTrue(CodecBinario.leerBloque(datos) != null);
+		}
+
+		mvc.perform(MockMvcRequestBuilders.get("/bloque/rango").param("desde", "1000000"))
+				.andExpect(status().isOk()).andExpect(content().json("[]"));
+
+		// un bloque que no está en la cadena
+		mvc.perform(MockMvcRequestBuilders.get("/bloque/desde")
+				.param("hash", Base64.encodeBase64URLSafeString(new byte[32]))).andExpect(status().isNotFound());
+	}
+
+	@Test
+	public void cabecerasBloques() throws Exception {
+		MvcResult resultado = mvc.perform(MockMvcRequestBuilders.get("/bloque/cabeceras")
+				.accept(ConvertidorBinario.TIPO_BINARIO)).andExpect(status().isOk()).andReturn();
+		DataInputStream datos = new DataInputStream(
+				new ByteArrayInputStream(resultado.getResponse().getContentAsByteArray()));
+		int numeroCabeceras = CodecBinario.leerNumeroElementos(datos);
+		byte[] hashAnterior = null;
+		for (int i = 0; i < numeroCabeceras; i++) {
+			CabeceraBloque cabecera = CodecBinario.leerCabecera(datos);
+			assertTrue(cabecera.esValida());
+			assertTrue(Arrays.equals(hashAnterior, cabecera.getHashBloqueAnterior()));
+			hashAnterior = cabecera.getHash();
+		}
+
+		mvc.perform(MockMvcRequestBuilders.get("/bloque/cabeceras")
+				.param("desde", Base64.encodeBase64URLSafeString(new byte[32]))).andExpect(status().isNotFound());
+	}
+
+	@Test
+	public void transaccionesPorHash() throws Exception {
+		KeyPair claveEmisor = UtilidadesFirma.generarParClaves();
+		KeyPair claveDestinatario = UtilidadesFirma.generarParClaves();
+
+		Transaccion tx = new Transaccion();
+		tx.setEmisor(claveEmisor.getPublic().getEncoded());
+		tx.setDestinatario(claveDestinatario.getPublic().getEncoded());
+		tx.setCantidad(3);
+		tx.setTimestamp(System.currentTimeMillis());
+		tx.setFirma(UtilidadesFirma.firmar(tx.getContenidoTransaccion(), claveEmisor.getPrivate().getEncoded()));
+		tx.setHash(tx.calcularHashTransaccion());
+
+		mvc.perform(MockMvcRequestBuilders.post("/transaccion").content(asJsonString(tx))
+				.contentType(MediaType.APPLICATION_JSON)).andExpect(status().isAccepted());
+
+		mvc.perform(MockMvcRequestBuilders.get("/transaccion/" + Base64.encodeBase64URLSafeString(tx.getHash())))
+				.andExpect(status().isOk());
+		mvc.perform(MockMvcRequestBuilders.get("/transaccion/" + Base64.encodeBase64URLSafeString(new byte[32])))
+				.andExpect(status().isNotFound());
+
+		// pedido de una transacción conocida y otra que no está en el pool
+		Inventario pedido = new Inventario(new URL("http", "localhost", 8090, ""));
+		pedido.getTransacciones().add(tx.getHash());
+		pedido.getTransacciones().add(new byte[32]);
+		MvcResult resultado = mvc.perform(MockMvcRequestBuilders.post("/transaccion/buscar")
+				.content(asJsonString(pedido)).contentType(MediaType.APPLICATION_JSON)
+				.accept(ConvertidorBinario.TIPO_BINARIO)).andExpect(status().isOk()).andReturn();
+		List<Transaccion> transacciones = CodecBinario.leerTransacciones(
+				new DataInputStream(new ByteArrayInputStream(resultado.getResponse().getContentAsByteArray())));
+		assertTrue(transacciones.equals(List.of(tx)));
+
+		// los inventarios de nodos que no son vecinos se rechazan
+		URL origen = new URL("http", "localhost", 8091, "");
+		pedido.setOrigen(origen);
+		mvc.perform(MockMvcRequestBuilders.post("/inventario").content(asJsonString(pedido))
+				.contentType(MediaType.APPLICATION_JSON)).andExpect(status().isForbidden());
+
+		// un inventario con lo que ya se conoce no necesita pedir nada
+		mvc.perform(MockMvcRequestBuilders.post("/nodo").content(asJsonString(origen))
+				.contentType(MediaType.APPLICATION_JSON)).andExpect(status().isOk());
+		mvc.perform(MockMvcRequestBuilders.post("/inventario").content(asJsonString(pedido))
+				.contentType(MediaType.APPLICATION_JSON)).andExpect(status().isAccepted());
+
+		// las listas a null se tratan como vacías
+		String sinListas = "{\"origen\":\"" + origen + "\",\"bloques\":null,\"transacciones\":null}";
+		mvc.perform(MockMvcRequestBuilders.post("/inventario").content(sinListas)
+				.contentType(MediaType.APPLICATION_JSON)).andExpect(status().isAccepted());
+		mvc.perform(MockMvcRequestBuilders.post("/transaccion/buscar").content(sinListas)
+				.contentType(MediaType.APPLICATION_JSON)).andExpect(status().isOk());
+		mvc.perform(MockMvcRequestBuilders.delete("/nodo").content(asJsonString(origen))
+				.contentType(MediaType.APPLICATION_JSON)).andExpect(status().isOk());
+	}
+
 	@Test
 	public void getIpPublica() throws Exception {
 		mvc.perform(MockMvcRequestBuilders.get("/ip").contentType(MediaType.APPLICATION_JSON));
@@ -0,0 +1,127 @@
+package com.lfcounago.javablockchain.commons.almacenamiento;
+
+import static com.lfcounago.javablockchain.commons.estructuras.CadenasDePrueba.crearCadena;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.lfcounago.javablockchain.commons.estructuras.Bloque;
+import com.lfcounago.javablockchain.commons.estructuras.Transaccion;
+import com.lfcounago.javablockchain.commons.utilidades.CodecBinario;
+
+class AlmacenBloquesFicheroTests {
+
+	@TempDir
+	Path directorio;
+
+	@Test
+	public void codecConservaElBloque() throws Exception {
+		Bloque bloque = crearCadena(2, new Random(1)).get(1);
+		Bloque decodificado = CodecBinario.decodificarBloque(CodecBinario.codificarBloque(bloque));
+
+		assertArrayEquals(bloque.getHash(), decodificado.getHash());
+		assertArrayEquals(bloque.getHashBloqueAnterior(), decodificado.getHashBloqueAnterior());
+		assertEquals(bloque.getTransacciones(), decodificado.getTransacciones());
+		for (int i = 0; i < bloque.getTransacciones().size(); i++) {
+			Transaccion original = bloque.getTransacciones().get(i);
+			Transaccion copia = decodificado.getTransacciones().get(i);
+			assertArrayEquals(original.getEmisor(), copia.getEmisor());
+			assertArrayEquals(original.getDestinatario(), copia.getDestinatario());
+			assertArrayEquals(original.getFirma(), copia.getFirma());
+			assertEquals(original.getCantidad(), copia.getCantidad());
+			assertEquals(original.getEsCoinbase(), copia.getEsCoinbase());
+		}
+		assertEquals(true, decodificado.esValido());
+	}
+
+	@Test
+	public void reabrirConservaBloquesEIndices() throws Exception {
+		// más de la mitad de las ranuras iniciales del índice de hashes para que crezca
+		List<Bloque> cadena = crearCadena(1500, new Random(2));
+
+		AlmacenBloquesFichero almacen = new AlmacenBloquesFichero(directorio, 16);
+		for (Bloque bloque : cadena) {
+			almacen.añadirBloque(bloque);
+		}
+		almacen.cerrar();
+
+		almacen = new AlmacenBloquesFichero(directorio, 16);
+		assertEquals(cadena.size(), almacen.getNumeroBloques());
+		assertEquals(cadena.get(cadena.size() - 1), almacen.getUltimoBloque());
+		for (int altura = 0; altura < cadena.size(); altura += 97) {
+			assertEquals(cadena.get(altura), almacen.obtenerBloque(altura));
+			assertEquals(altura, almacen.obtenerAltura(cadena.get(altura).getHash()));
+		}
+		assertEquals(-1, almacen.obtenerAltura(new byte[32]));
+		almacen.cerrar();
+	}
+
+	@Test
+	public void descartaRegistroIncompleto() throws Exception {
+		List<Bloque> cadena = crearCadena(3, new Random(3));
+
+		AlmacenBloquesFichero almacen = new AlmacenBloquesFichero(directorio, 16);
+		for (Bloque bloque : cadena) {
+			almacen.añadirBloque(bloque);
+		}
+		almacen.cerrar();
+
+		// simular un corte en mitad de la escritura del último bloque
+		try (FileChannel canal = FileChannel.open(directorio.resolve("bloques.dat"), StandardOpenOption.WRITE)) {
+			canal.truncate(canal.size() - 10);
+		}
+
+		almacen = new AlmacenBloquesFichero(directorio, 16);
+		assertEquals(2, almacen.getNumeroBloques());
+		assertEquals(cadena.get(1), almacen.getUltimoBloque());
+		assertEquals(-1, almacen.obtenerAltura(cadena.get(2).getHash()));
+
+		almacen.añadirBloque(cadena.get(2));
+		assertEquals(cadena.get(2), almacen.obtenerBloque(2));
+
+		almacen.vaciar();
+		assertEquals(0, almacen.getNumeroBloques());
+		assertNull(almacen.getUltimoBloque());
+		almacen.cerrar();
+	}
+
+	@Test
+	public void truncarYAñadirOtraRama() throws Exception {
+		// suficientes bloques para que haya grupos en el índice de hashes
+		List<Bloque> cadena = crearCadena(1500, new Random(4));
+		List<Bloque> otraRama = crearCadena(300, new Random(5));
+
+		AlmacenBloquesFichero almacen = new AlmacenBloquesFichero(directorio, 16);
+		for (Bloque bloque : cadena) {
+			almacen.añadirBloque(bloque);
+		}
+		almacen.truncar(1200);
+		assertEquals(1200, almacen.getNumeroBloques());
+		assertEquals(cadena.get(1199), almacen.getUltimoBloque());
+		for (Bloque bloque : otraRama) {
+			almacen.añadirBloque(bloque);
+		}
+		almacen.cerrar();
+
+		almacen = new AlmacenBloquesFichero(directorio, 16);
+		assertEquals(1500, almacen.getNumeroBloques());
+		for (int altura = 0; altura < 1200; altura++) {
+			assertEquals(altura, almacen.obtenerAltura(cadena.get(altura).getHash()));
+		}
+		for (int i = 0; i < otraRama.size(); i++) {
+			assertEquals(-1, almacen.obtenerAltura(cadena.get(1200 + i).getHash()));
+			assertEquals(1200 + i, almacen.obtenerAltura(otraRama.get(i).getHash()));
+			assertEquals(otraRama.get(i), almacen.obtenerBloque(1200 + i));
+		}
+		almacen.cerrar();
+	}
+}
@@ -0,0 +1,213 @@
+package com.lfcounago.javablockchain.commons.almacenamiento;
+
+import static com.lfcounago.javablockchain.commons.estructuras.CadenasDePrueba.DESTINATARIO;
+import static com.lfcounago.javablockchain.commons.estructuras.CadenasDePrueba.MINERO;
+import static com.lfcounago.javablockchain.commons.estructuras.CadenasDePrueba.crearCadena;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.lfcounago.javablockchain.commons.estructuras.Bloque;
+import com.lfcounago.javablockchain.commons.estructuras.CadenaDeBloques;
+import com.lfcounago.javablockchain.commons.estructuras.IdHash;
+import com.lfcounago.javablockchain.commons.estructuras.IndiceTransacciones;
+import com.lfcounago.javablockchain.commons.estructuras.RegistroSaldos;
+
+class CheckpointSaldosTests {
+
+	@TempDir
+	Path directorio;
+
+	@Test
+	public void arranqueDesdeCheckpoint() throws Exception {
+		Path fichero = directorio.resolve(CheckpointSaldos.FICHERO);
+		List<Bloque> bloques = crearCadena(10, new Random(5));
+
+		CadenaDeBloques cadena = new CadenaDeBloques(new AlmacenBloquesFichero(directorio, 16), fichero, 4, 2);
+		for (Bloque bloque : bloques) {
+			cadena.añadirBloque(bloque);
+		}
+		RegistroSaldos esperados = cadena.getSaldos();
+		cadena.cerrar();
+
+		// los checkpoints quedan tantos bloques por detrás como se pueden deshacer, y
+		// se conserva el anterior
+		assertEquals(8, CheckpointSaldos.leer(fichero).getNumeroBloques());
+		assertEquals(6, CheckpointSaldos.leer(CheckpointSaldos.anterior(fichero)).getNumeroBloques());
+		assertEquals(saldosHasta(bloques, 8).getSaldos(), CheckpointSaldos.leer(fichero).getSaldos().getSaldos());
+
+		cadena = new CadenaDeBloques(new AlmacenBloquesFichero(directorio, 16), fichero, 4, 2);
+		assertEquals(esperados.getSaldos(), cadena.getSaldos().getSaldos());
+		cadena.cerrar();
+
+		// un checkpoint dañado se descarta y se usa el anterior, liquidando los
+		// bloques posteriores
+		byte[] datos = Files.readAllBytes(fichero);
+		datos[20] ^= 1;
+		Files.write(fichero, datos);
+		cadena = new CadenaDeBloques(new AlmacenBloquesFichero(directorio, 16), fichero, 4, 2);
+		assertEquals(esperados.getSaldos(), cadena.getSaldos().getSaldos());
+		cadena.cerrar();
+
+		// los saldos se toman del checkpoint y no de liquidar la cadena
+		RegistroSaldos marcados = new RegistroSaldos();
+		marcados.setSaldoCuenta(IdHash.de(new byte[32]), 7);
+		new CheckpointSaldos(10, bloques.get(9).getHash(), marcados).guardar(fichero);
+		cadena = new CadenaDeBloques(new AlmacenBloquesFichero(directorio, 16), fichero, 4, 2);
+		assertEquals(marcados.getSaldos(), cadena.getSaldos().getSaldos());
+		cadena.cerrar();
+	}
+
+	@Test
+	public void trasArrancarSeDeshaceSinRecalcular() throws Exception {
+		Path fichero = directorio.resolve(CheckpointSaldos.FICHERO);
+		List<Bloque> bloques = crearCadena(10, new Random(7));
+
+		CadenaDeBloques cadena = new CadenaDeBloques(new AlmacenBloquesFichero(directorio, 16), fichero, 4, 3);
+		for (Bloque bloque : bloques) {
+			cadena.añadirBloque(bloque);
+		}
+		cadena.cerrar();
+
+		// se marcan los saldos del checkpoint: si al deshacer se recalcularan desde
+		// el génesis, la marca desaparecería
+		CheckpointSaldos guardado = CheckpointSaldos.leer(fichero);
+		assertEquals(7, guardado.getNumeroBloques());
+		RegistroSaldos marcados = guardado.getSaldos();
+		marcados.setSaldoCuenta(IdHash.de(new byte[32]), 7);
+		new CheckpointSaldos(7, guardado.getHashUltimoBloque(), marcados, guardado.getIndiceTransacciones())
+				.guardar(fichero);
+
+		cadena = new CadenaDeBloques(new AlmacenBloquesFichero(directorio, 16), fichero, 4, 3);
+		for (int i = 0; i < 3; i++) {
+			cadena.desconectarUltimoBloque();
+		}
+		assertEquals(marcados.getSaldos(), cadena.getSaldos().getSaldos());
+		cadena.cerrar();
+	}
+
+	@Test
+	public void indiceDesdeCheckpoint() throws Exception {
+		Path fichero = directorio.resolve(CheckpointSaldos.FICHERO);
+		List<Bloque> bloques = crearCadena(10, new Random(8));
+
+		CadenaDeBloques cadena = new CadenaDeBloques(new AlmacenBloquesFichero(directorio, 16), fichero, 4, 3);
+		for (Bloque bloque : bloques) {
+			cadena.añadirBloque(bloque);
+		}
+		cadena.cerrar();
+
+		// el checkpoint solo lleva las transacciones de sus bloques
+		CheckpointSaldos guardado = CheckpointSaldos.leer(fichero);
+		assertEquals(7, guardado.getNumeroBloques());
+		assertEquals(13, guardado.getIndiceTransacciones().getNumeroTransacciones());
+		assertNull(guardado.getIndiceTransacciones().obtener(bloques.get(7).getTransacciones().get(1).getHash()));
+
+		cadena = new CadenaDeBloques(new AlmacenBloquesFichero(directorio, 16), fichero, 4, 3);
+		IndiceTransacciones.Ubicacion ubicacion = cadena.getIndiceTransacciones()
+				.obtener(bloques.get(5).getTransacciones().get(1).getHash());
+		assertEquals(5, ubicacion.getAltura());
+		assertEquals(1, ubicacion.getPosicion());
+		assertEquals(19, cadena.getIndiceTransacciones().getNumeroTransacciones());
+		cadena.cerrar();
+
+		// los bloques del checkpoint no se vuelven a indexar: con un índice vacío
+		// solo quedan las transacciones de los tres últimos
+		new CheckpointSaldos(7, guardado.getHashUltimoBloque(), guardado.getSaldos(), new IndiceTransacciones())
+				.guardar(fichero);
+		cadena = new CadenaDeBloques(new AlmacenBloquesFichero(directorio, 16), fichero, 4, 3);
+		assertEquals(6, cadena.getIndiceTransacciones().getNumeroTransacciones());
+		cadena.cerrar();
+
+		// un checkpoint sin índice hace leer toda la cadena, y al cerrar se guarda
+		// con él
+		new CheckpointSaldos(7, guardado.getHashUltimoBloque(), guardado.getSaldos()).guardar(fichero);
+		cadena = new CadenaDeBloques(new AlmacenBloquesFichero(directorio, 16), fichero, 4, 3);
+		assertEquals(19, cadena.getIndiceTransacciones().getNumeroTransacciones());
+		cadena.cerrar();
+		assertEquals(13, CheckpointSaldos.leer(fichero).getIndiceTransacciones().getNumeroTransacciones());
+	}
+
+	@Test
+	public void saldosPorClavePublica() throws Exception {
+		Path fichero = directorio.resolve(CheckpointSaldos.FICHERO);
+		List<Bloque> bloques = crearCadena(10);
+		Set<String> claves = Set.of(Base64.encodeBase64String(MINERO), Base64.encodeBase64String(DESTINATARIO));
+
+		CadenaDeBloques cadena = new CadenaDeBloques(new AlmacenBloquesFichero(directorio, 16), fichero, 4, 2);
+		for (Bloque bloque : bloques) {
+			cadena.añadirBloque(bloque);
+		}
+		assertEquals(claves, cadena.getSaldos().getSaldos().keySet());
+		cadena.cerrar();
+
+		// las claves se guardan en el checkpoint
+		assertEquals(claves, CheckpointSaldos.leer(fichero).getSaldos().getSaldos().keySet());
+		cadena = new CadenaDeBloques(new AlmacenBloquesFichero(directorio, 16), fichero, 4, 2);
+		assertEquals(claves, cadena.getSaldos().getSaldos().keySet());
+		cadena.cerrar();
+
+		// un checkpoint de la versión 2, sin claves, no se lee
+		byte[] datos = Files.readAllBytes(fichero);
+		datos[7] = 2;
+		Files.write(fichero, datos);
+		assertThrows(IOException.class, () -> CheckpointSaldos.leer(fichero));
+	}
+
+	@Test
+	public void checkpointIncompletoSeRechaza() throws Exception {
+		Path fichero = directorio.resolve(CheckpointSaldos.FICHERO);
+		List<Bloque> bloques = crearCadena(10, new Random(9));
+		IndiceTransacciones indice = new IndiceTransacciones();
+		for (int altura = 0; altura < bloques.size(); altura++) {
+			indice.añadirBloque(bloques.get(altura), altura);
+		}
+		new CheckpointSaldos(10, bloques.get(9).getHash(), saldosHasta(bloques, 10), indice).guardar(fichero);
+		byte[] datos = Files.readAllBytes(fichero);
+		assertEquals(19, CheckpointSaldos.leer(fichero).getIndiceTransacciones().getNumeroTransacciones());
+
+		// cortado por el contenido, sin el CRC o con datos de más detrás de él
+		for (int longitud : new int[] { 2, datos.length / 2, datos.length - 4, datos.length - 1, datos.length + 1 }) {
+			Files.write(fichero, Arrays.copyOf(datos, longitud));
+			assertThrows(IOException.class, () -> CheckpointSaldos.leer(fichero));
+		}
+	}
+
+	private static RegistroSaldos saldosHasta(List<Bloque> bloques, int numeroBloques) throws Exception {
+		RegistroSaldos saldos = new RegistroSaldos();
+		for (Bloque bloque : bloques.subList(0, numeroBloques)) {
+			saldos.liquidarTransacciones(bloque.getTransacciones());
+		}
+		return saldos;
+	}
+
+	@Test
+	public void checkpointDeOtraCadenaSeIgnora() throws Exception {
+		Path fichero = directorio.resolve(CheckpointSaldos.FICHERO);
+		List<Bloque> bloques = crearCadena(3, new Random(6));
+
+		CadenaDeBloques cadena = new CadenaDeBloques(new AlmacenBloquesFichero(directorio, 16), fichero, 100);
+		for (Bloque bloque : bloques) {
+			cadena.añadirBloque(bloque);
+		}
+		RegistroSaldos esperados = cadena.getSaldos();
+		cadena.cerrar();
+
+		new CheckpointSaldos(3, new byte[32], new RegistroSaldos()).guardar(fichero);
+		cadena = new CadenaDeBloques(new AlmacenBloquesFichero(directorio, 16), fichero, 100);
+		assertEquals(esperados.getSaldos(), cadena.getSaldos().getSaldos());
+		cadena.cerrar();
+	}
+}
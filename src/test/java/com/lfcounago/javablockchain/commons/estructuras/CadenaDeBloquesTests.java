@@ -0,0 +1,77 @@
+package com.lfcounago.javablockchain.commons.estructuras;
+
+import static com.lfcounago.javablockchain.commons.estructuras.CadenasDePrueba.DESTINATARIO;
+import static com.lfcounago.javablockchain.commons.estructuras.CadenasDePrueba.MINERO;
+import static com.lfcounago.javablockchain.commons.estructuras.CadenasDePrueba.crearCadena;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.lfcounago.javablockchain.commons.almacenamiento.AlmacenBloquesMemoria;
+
+class CadenaDeBloquesTests {
+
+	@Test
+	public void desconectarDeshaceLosSaldos() throws Exception {
+		List<Bloque> bloques = crearCadena(4);
+		CadenaDeBloques cadena = new CadenaDeBloques();
+		List<Map<String, Long>> saldos = new ArrayList<>();
+		saldos.add(cadena.getSaldos().getSaldos());
+		for (Bloque bloque : bloques) {
+			cadena.añadirBloque(bloque);
+			saldos.add(cadena.getSaldos().getSaldos());
+		}
+		long version = cadena.getPunta().getVersion();
+
+		for (int numero = 3; numero >= 0; numero--) {
+			assertEquals(bloques.get(numero), cadena.desconectarUltimoBloque());
+			assertEquals(saldos.get(numero), cadena.getSaldos().getSaldos());
+			assertEquals(numero, cadena.getPunta().getNumeroBloques());
+		}
+		assertNull(cadena.getUltimoBloque());
+		assertEquals(version + 4, cadena.getPunta().getVersion());
+		assertThrows(Exception.class, cadena::desconectarUltimoBloque);
+	}
+
+	@Test
+	public void desconectarSinDatosRecalculaLosSaldos() throws Exception {
+		List<Bloque> bloques = crearCadena(3);
+		AlmacenBloquesMemoria almacen = new AlmacenBloquesMemoria();
+		CadenaDeBloques cadena = new CadenaDeBloques(almacen);
+		cadena.setMaxBloquesDeshacer(1);
+		for (Bloque bloque : bloques) {
+			cadena.añadirBloque(bloque);
+		}
+		CadenaDeBloques esperada = new CadenaDeBloques();
+		esperada.añadirBloque(bloques.get(0));
+
+		cadena.desconectarUltimoBloque();
+		cadena.desconectarUltimoBloque();
+		assertEquals(esperada.getSaldos().getSaldos(), cadena.getSaldos().getSaldos());
+		assertEquals(bloques.get(0), cadena.getUltimoBloque());
+	}
+
+	@Test
+	public void bloqueSinSaldoNoCambiaNada() throws Exception {
+		List<Bloque> bloques = crearCadena(2);
+		CadenaDeBloques cadena = new CadenaDeBloques();
+		cadena.añadirBloque(bloques.get(0));
+		Map<String, Long> saldos = cadena.getSaldos().getSaldos();
+
+		// la coinbase se liquida antes de fallar la transacción sin saldo
+		List<Transaccion> transacciones = new ArrayList<>();
+		transacciones.add(new Transaccion(MINERO));
+		transacciones.add(new Transaccion(DESTINATARIO, MINERO, 1, new byte[46]));
+		Bloque sinSaldo = new Bloque(bloques.get(0).getHash(), transacciones, 2);
+
+		assertThrows(Exception.class, () -> cadena.añadirBloque(sinSaldo));
+		assertEquals(saldos, cadena.getSaldos().getSaldos());
+		assertEquals(1, cadena.getNumeroBloques());
+	}
+}
@@ -0,0 +1,79 @@
+package com.lfcounago.javablockchain.commons.estructuras;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Cadenas de bloques para las pruebas. Los bloques no se minan y las firmas no
+ * son válidas: sirven para probar la liquidación de saldos, los índices y el
+ * almacenamiento, no la validación.
+ */
+public final class CadenasDePrueba {
+
+	public static final byte[] MINERO = { 1 };
+	public static final byte[] DESTINATARIO = { 2 };
+
+	private CadenasDePrueba() {
+	}
+
+	/**
+	 * Crea una cadena entre las cuentas MINERO y DESTINATARIO.
+	 *
+	 * @see #crearCadena(int, byte[], byte[], Random)
+	 */
+	public static List<Bloque> crearCadena(int numeroBloques) {
+		return crearCadena(numeroBloques, MINERO, DESTINATARIO, null);
+	}
+
+	/**
+	 * Crea una cadena entre dos cuentas con claves aleatorias del tamaño de las
+	 * reales y con firmas aleatorias. Con semillas distintas salen cadenas sin
+	 * bloques ni transacciones en común.
+	 *
+	 * @see #crearCadena(int, byte[], byte[], Random)
+	 */
+	public static List<Bloque> crearCadena(int numeroBloques, Random random) {
+		byte[] minero = new byte[440];
+		byte[] destinatario = new byte[440];
+		random.nextBytes(minero);
+		random.nextBytes(destinatario);
+		return crearCadena(numeroBloques, minero, destinatario, random);
+	}
+
+	/**
+	 * Crea una cadena en la que cada bloque tiene una coinbase para el minero y,
+	 * a partir del segundo, una transacción del minero al destinatario de 1 +
+	 * altura unidades. Cada coinbase lleva como timestamp su altura, para que no
+	 * tengan el mismo hash aunque se creen en el mismo milisegundo.
+	 *
+	 * @param numeroBloques Número de bloques de la cadena.
+	 * @param minero        Clave pública del minero.
+	 * @param destinatario  Clave pública del destinatario de las transacciones.
+	 * @param random        Origen de las firmas, o null para firmas a cero.
+	 * @return Los bloques ordenados por altura, empezando por el génesis.
+	 */
+	public static List<Bloque> crearCadena(int numeroBloques, byte[] minero, byte[] destinatario,
+			Random random) {
+		List<Bloque> cadena = new ArrayList<>();
+		byte[] hashAnterior = null;
+		for (int i = 0; i < numeroBloques; i++) {
+			Transaccion coinbase = new Transaccion(minero);
+			coinbase.setTimestamp(i);
+			coinbase.setHash(coinbase.calcularHashTransaccion());
+			List<Transaccion> transacciones = new ArrayList<>();
+			transacciones.add(coinbase);
+			if (i > 0) {
+				byte[] firma = new byte[46];
+				if (random != null) {
+					random.nextBytes(firma);
+				}
+				transacciones.add(new Transaccion(minero, destinatario, 1 + i, firma));
+			}
+			Bloque bloque = new Bloque(hashAnterior, transacciones, i + 1);
+			cadena.add(bloque);
+			hashAnterior = bloque.getHash();
+		}
+		return cadena;
+	}
+}
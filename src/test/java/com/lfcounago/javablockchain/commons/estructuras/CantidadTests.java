@@ -0,0 +1,38 @@
+package com.lfcounago.javablockchain.commons.estructuras;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.exc.InvalidFormatException;
+
+class CantidadTests {
+
+	// como el de Spring, que ignora las propiedades calculadas como
+	// contenidoTransaccion
+	private final ObjectMapper mapper = new ObjectMapper()
+			.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+	@Test
+	public void elJsonDeLasTransaccionesVaEnMonedas() throws Exception {
+		Transaccion transaccion = mapper.readValue("{\"cantidad\":5,\"comision\":0.00000001}", Transaccion.class);
+		assertEquals(5 * Cantidad.UNIDADES_POR_MONEDA, transaccion.getCantidad());
+		assertEquals(1, transaccion.getComision());
+
+		transaccion.setCantidad(Cantidad.parsear("10.5"));
+		JsonNode json = mapper.readTree(mapper.writeValueAsString(transaccion));
+		assertEquals("10.5", json.get("cantidad").decimalValue().toPlainString());
+		assertEquals(transaccion.getCantidad(),
+				mapper.readValue(mapper.writeValueAsString(transaccion), Transaccion.class).getCantidad());
+	}
+
+	@Test
+	public void rechazaMasDeOchoDecimales() {
+		assertThrows(InvalidFormatException.class,
+				() -> mapper.readValue("{\"cantidad\":0.000000001}", Transaccion.class));
+	}
+}
@@ -0,0 +1,76 @@
+package com.lfcounago.javablockchain.commons.estructuras;
+
+import static com.lfcounago.javablockchain.commons.estructuras.CadenasDePrueba.DESTINATARIO;
+import static com.lfcounago.javablockchain.commons.estructuras.CadenasDePrueba.MINERO;
+import static com.lfcounago.javablockchain.commons.estructuras.CadenasDePrueba.crearCadena;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class IndiceTransaccionesTests {
+
+	@Test
+	public void ubicaLasTransaccionesPorHashYPorCuenta() {
+		List<Bloque> bloques = crearCadena(3);
+		IndiceTransacciones indice = new IndiceTransacciones();
+		for (int altura = 0; altura < bloques.size(); altura++) {
+			indice.añadirBloque(bloques.get(altura), altura);
+		}
+
+		Transaccion pago = bloques.get(2).getTransacciones().get(1);
+		IndiceTransacciones.Ubicacion ubicacion = indice.obtener(pago.getHash());
+		assertEquals(2, ubicacion.getAltura());
+		assertEquals(1, ubicacion.getPosicion());
+		assertEquals(5, indice.getNumeroTransacciones());
+		assertEquals(5, indice.getNumeroTransacciones(IdHash.deClavePublica(MINERO)));
+		assertEquals(2, indice.getNumeroTransacciones(IdHash.deClavePublica(DESTINATARIO)));
+
+		// de la más reciente a la más antigua
+		List<IndiceTransacciones.Ubicacion> pagina = indice.obtenerDeCuenta(IdHash.deClavePublica(MINERO), 1, 3);
+		assertEquals(3, pagina.size());
+		assertEquals(2, pagina.get(0).getAltura());
+		assertEquals(0, pagina.get(0).getPosicion());
+		assertEquals(1, pagina.get(1).getAltura());
+		assertEquals(1, pagina.get(1).getPosicion());
+		assertEquals(1, pagina.get(2).getAltura());
+		assertEquals(0, pagina.get(2).getPosicion());
+		assertEquals(1, indice.obtenerDeCuenta(IdHash.deClavePublica(MINERO), 4, 3).size());
+		assertTrue(indice.obtenerDeCuenta(IdHash.deClavePublica(MINERO), 5, 3).isEmpty());
+	}
+
+	@Test
+	public void quitarBloqueQuitaSusTransacciones() {
+		List<Bloque> bloques = crearCadena(2);
+		IndiceTransacciones indice = new IndiceTransacciones();
+		indice.añadirBloque(bloques.get(0), 0);
+		indice.añadirBloque(bloques.get(1), 1);
+
+		indice.quitarBloque(bloques.get(1), 1);
+		assertNull(indice.obtener(bloques.get(1).getTransacciones().get(1).getHash()));
+		assertEquals(1, indice.getNumeroTransacciones());
+		assertEquals(1, indice.getNumeroTransacciones(IdHash.deClavePublica(MINERO)));
+		assertEquals(0, indice.getNumeroTransacciones(IdHash.deClavePublica(DESTINATARIO)));
+	}
+
+	@Test
+	public void laCadenaMantieneElIndice() throws Exception {
+		List<Bloque> bloques = crearCadena(3);
+		CadenaDeBloques cadena = new CadenaDeBloques();
+		for (Bloque bloque : bloques) {
+			cadena.añadirBloque(bloque);
+		}
+		IndiceTransacciones indice = cadena.getIndiceTransacciones();
+		assertEquals(5, indice.getNumeroTransacciones());
+
+		cadena.desconectarUltimoBloque();
+		assertEquals(3, indice.getNumeroTransacciones());
+		assertNull(indice.obtener(bloques.get(2).getTransacciones().get(0).getHash()));
+
+		cadena.setBloques(bloques.subList(0, 1));
+		assertEquals(1, indice.getNumeroTransacciones());
+	}
+}
@@ -0,0 +1,74 @@
+package com.lfcounago.javablockchain.commons.estructuras;
+
+import static com.lfcounago.javablockchain.commons.estructuras.CadenasDePrueba.crearCadena;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class PoolHuerfanosTests {
+
+	@Test
+	public void extraeLosSiguientesDeCadaBloque() {
+		List<Bloque> bloques = crearCadena(4);
+		PoolHuerfanos huerfanos = new PoolHuerfanos(10, 60000);
+		for (int i = 3; i >= 1; i--) {
+			assertTrue(huerfanos.añadir(bloques.get(i)));
+		}
+		assertFalse(huerfanos.añadir(bloques.get(2)));
+		assertEquals(3, huerfanos.getNumeroBloques());
+
+		// al llegar el génesis se conectan en cascada
+		byte[] hash = bloques.get(0).getHash();
+		for (int i = 1; i <= 3; i++) {
+			List<Bloque> siguientes = huerfanos.extraerSiguientes(hash);
+			assertEquals(List.of(bloques.get(i)), siguientes);
+			hash = siguientes.get(0).getHash();
+		}
+		assertTrue(huerfanos.extraerSiguientes(hash).isEmpty());
+		assertEquals(0, huerfanos.getNumeroBloques());
+	}
+
+	@Test
+	public void devuelveElPrimerBloqueQueFalta() {
+		List<Bloque> bloques = crearCadena(4);
+		PoolHuerfanos huerfanos = new PoolHuerfanos(10, 60000);
+		huerfanos.añadir(bloques.get(3));
+		huerfanos.añadir(bloques.get(2));
+
+		assertArrayEquals(bloques.get(1).getHash(),
+				huerfanos.obtenerAnteriorQueFalta(bloques.get(3).getHashBloqueAnterior()));
+	}
+
+	@Test
+	public void expulsaLosMasAntiguos() {
+		List<Bloque> bloques = crearCadena(4);
+		PoolHuerfanos huerfanos = new PoolHuerfanos(2, 60000);
+		for (int i = 1; i <= 3; i++) {
+			huerfanos.añadir(bloques.get(i));
+		}
+
+		assertEquals(2, huerfanos.getNumeroBloques());
+		assertEquals(1, huerfanos.getExpulsados());
+		assertFalse(huerfanos.contiene(bloques.get(1).getHash()));
+		assertTrue(huerfanos.extraerSiguientes(bloques.get(0).getHash()).isEmpty());
+		assertTrue(huerfanos.contiene(bloques.get(3).getHash()));
+	}
+
+	@Test
+	public void descartaLosCaducados() throws InterruptedException {
+		List<Bloque> bloques = crearCadena(3);
+		PoolHuerfanos huerfanos = new PoolHuerfanos(10, 1);
+		huerfanos.añadir(bloques.get(1));
+		Thread.sleep(10);
+		huerfanos.añadir(bloques.get(2));
+
+		assertEquals(1, huerfanos.getNumeroBloques());
+		assertEquals(1, huerfanos.getCaducados());
+		assertTrue(huerfanos.extraerSiguientes(bloques.get(0).getHash()).isEmpty());
+	}
+}
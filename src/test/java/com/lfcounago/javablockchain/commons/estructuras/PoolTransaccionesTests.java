@@ -0,0 +1,132 @@
+package com.lfcounago.javablockchain.commons.estructuras;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class PoolTransaccionesTests {
+
+	private static final byte[] EMISOR_A = { 1 };
+	private static final byte[] EMISOR_B = { 2 };
+	private static final byte[] EMISOR_C = { 3 };
+	private static final byte[] DESTINATARIO = { 9 };
+
+	@Test
+	public void seleccionPorComisionYOrdenDeEmisor() {
+		// a2 paga más que nadie, pero a1 es anterior y tiene que ir antes
+		Transaccion a1 = transaccion(EMISOR_A, 1, 1);
+		Transaccion a2 = transaccion(EMISOR_A, 50, 2);
+		Transaccion b1 = transaccion(EMISOR_B, 10, 1);
+		Transaccion c1 = transaccion(EMISOR_C, 10, 1);
+		PoolTransacciones pool = new PoolTransacciones(Arrays.asList(a2, c1, b1, a1));
+
+		List<Transaccion> seleccionadas = pool.seleccionarTransacciones(10, transaccion -> true);
+		// a igual comisión va antes la que llegó antes (c1)
+		assertEquals(Arrays.asList(c1, b1, a1, a2), seleccionadas);
+
+		assertEquals(Arrays.asList(c1, b1), pool.seleccionarTransacciones(2, transaccion -> true));
+		assertSame(b1, pool.obtenerTransaccion(b1.getHash()));
+		assertEquals(4, pool.getNumeroTransacciones());
+	}
+
+	@Test
+	public void transaccionRechazadaDescartaLasPosterioresDelEmisor() {
+		Transaccion a1 = transaccion(EMISOR_A, 20, 1);
+		Transaccion a2 = transaccion(EMISOR_A, 20, 2);
+		Transaccion b1 = transaccion(EMISOR_B, 10, 1);
+		PoolTransacciones pool = new PoolTransacciones(Arrays.asList(a1, a2, b1));
+
+		List<Transaccion> seleccionadas = pool.seleccionarTransacciones(10, transaccion -> transaccion != a1);
+		assertEquals(Arrays.asList(b1), seleccionadas);
+	}
+
+	@Test
+	public void eliminarPasaALaSiguienteDelEmisor() {
+		Transaccion a1 = transaccion(EMISOR_A, 1, 1);
+		Transaccion a2 = transaccion(EMISOR_A, 30, 2);
+		Transaccion b1 = transaccion(EMISOR_B, 10, 1);
+		PoolTransacciones pool = new PoolTransacciones(Arrays.asList(a1, a2, b1));
+
+		pool.eliminarTransaccion(a1);
+		assertFalse(pool.contieneTransaccion(a1.getHash()));
+		assertEquals(Arrays.asList(a2, b1), pool.seleccionarTransacciones(10, transaccion -> true));
+
+		pool.eliminarTransaccion(a2);
+		pool.eliminarTransaccion(b1);
+		assertTrue(pool.estaVacio());
+		assertTrue(pool.seleccionarTransacciones(10, transaccion -> true).isEmpty());
+	}
+
+	@Test
+	public void limitesExpulsanLaMenorPrioridad() {
+		Transaccion a1 = transaccion(EMISOR_A, 5, 1);
+		Transaccion b1 = transaccion(EMISOR_B, 1, 1);
+		Transaccion c1 = transaccion(EMISOR_C, 9, 1);
+		PoolTransacciones pool = new PoolTransacciones(2, Long.MAX_VALUE, Long.MAX_VALUE);
+		pool.añadirTransaccionesValidadas(Arrays.asList(a1, b1, c1));
+
+		assertEquals(Arrays.asList(c1, a1), pool.seleccionarTransacciones(10, transaccion -> true));
+		assertEquals(1, pool.getExpulsadas());
+
+		// con el límite de memoria de una sola transacción queda la de más comisión
+		long bytesUna = pool.getBytes() / 2;
+		pool = new PoolTransacciones(10, bytesUna, Long.MAX_VALUE);
+		pool.añadirTransaccionesValidadas(Arrays.asList(a1, b1, c1));
+		assertEquals(Arrays.asList(c1), pool.getPool());
+		assertEquals(bytesUna, pool.getBytes());
+		assertEquals(2, pool.getExpulsadas());
+	}
+
+	@Test
+	public void loteDevuelveSoloLasAñadidas() {
+		Transaccion a1 = transaccion(EMISOR_A, 5, 1);
+		Transaccion b1 = transaccion(EMISOR_B, 1, 1);
+		Transaccion c1 = transaccion(EMISOR_C, 9, 1);
+		PoolTransacciones pool = new PoolTransacciones(2, Long.MAX_VALUE, Long.MAX_VALUE);
+		assertEquals(Arrays.asList(a1), pool.añadirTransaccionesValidadas(Arrays.asList(a1)));
+
+		// a1 ya estaba, b1 se expulsa por el límite y solo entra c1
+		assertEquals(Arrays.asList(c1), pool.añadirTransaccionesValidadas(Arrays.asList(a1, b1, c1)));
+		assertEquals(Arrays.asList(c1, a1), pool.seleccionarTransacciones(10, transaccion -> true));
+	}
+
+	@Test
+	public void transaccionesCaducadas() throws Exception {
+		PoolTransacciones pool = new PoolTransacciones(10, Long.MAX_VALUE, 5);
+		pool.añadirTransaccionesValidadas(Arrays.asList(transaccion(EMISOR_A, 1, 1), transaccion(EMISOR_B, 1, 1)));
+		Thread.sleep(20);
+
+		// un solo aviso aunque caduquen varias
+		AtomicInteger avisos = new AtomicInteger();
+		pool.setOyenteCambios(avisos::incrementAndGet);
+		Transaccion c1 = transaccion(EMISOR_C, 1, 1);
+		pool.añadirTransaccionesValidadas(Arrays.asList(c1));
+		assertEquals(Arrays.asList(c1), pool.getPool());
+		assertEquals(2, pool.getCaducadas());
+		assertEquals(1, avisos.get());
+
+		pool.añadirTransaccionesValidadas(Arrays.asList(transaccion(EMISOR_A, 1, 2)));
+		Thread.sleep(20);
+		avisos.set(0);
+		assertTrue(pool.seleccionarTransacciones(10, transaccion -> true).isEmpty());
+		assertEquals(1, avisos.get());
+	}
+
+	/**
+	 * Crea una transacción sin firma; el pool no comprueba las firmas de las
+	 * transacciones ya validadas.
+	 */
+	private static Transaccion transaccion(byte[] emisor, long comision, long timestamp) {
+		Transaccion transaccion = new Transaccion(emisor, DESTINATARIO, 100, comision, null);
+		transaccion.setTimestamp(timestamp);
+		transaccion.setHash(transaccion.calcularHashTransaccion());
+		return transaccion;
+	}
+}
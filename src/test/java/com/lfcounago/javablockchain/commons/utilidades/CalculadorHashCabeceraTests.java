@@ -0,0 +1,41 @@
+package com.lfcounago.javablockchain.commons.utilidades;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.Random;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.Test;
+
+class CalculadorHashCabeceraTests {
+
+	@Test
+	public void cabeceraCoincideConHashDelBloque() {
+		Random random = new Random(7);
+		byte[] hashAnterior = new byte[32];
+		byte[] raizMerkle = new byte[32];
+		random.nextBytes(hashAnterior);
+		random.nextBytes(raizMerkle);
+
+		byte[] cabecera = new byte[80];
+		System.arraycopy(hashAnterior, 0, cabecera, 0, 32);
+		System.arraycopy(raizMerkle, 0, cabecera, 32, 32);
+
+		CalculadorHashCabecera calculador = new CalculadorHashCabecera(hashAnterior, raizMerkle);
+		calculador.setTimestamp(1700000000000L);
+		for (long nonce = 1; nonce < 1000; nonce += 37) {
+			calculador.setNonce(nonce);
+			UtilidadesHash.escribirLong(cabecera, 64, nonce);
+			UtilidadesHash.escribirLong(cabecera, 72, 1700000000000L);
+			assertArrayEquals(DigestUtils.sha256(cabecera), calculador.calcular());
+			assertArrayEquals(DigestUtils.sha256(cabecera),
+					UtilidadesHash.hashCabecera(hashAnterior, raizMerkle, nonce, 1700000000000L));
+		}
+
+		// bloque génesis sin hash anterior
+		CalculadorHashCabecera genesis = new CalculadorHashCabecera(null, raizMerkle);
+		genesis.setNonce(3);
+		genesis.setTimestamp(5);
+		assertArrayEquals(UtilidadesHash.hashCabecera(null, raizMerkle, 3, 5), genesis.calcular());
+	}
+}
@@ -0,0 +1,85 @@
+package com.lfcounago.javablockchain.commons.utilidades;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.ArrayUtils;
+import org.junit.jupiter.api.Test;
+
+import com.lfcounago.javablockchain.commons.estructuras.ArbolMerkle;
+import com.lfcounago.javablockchain.commons.estructuras.Transaccion;
+
+class UtilidadesMerkleTests {
+
+	@Test
+	public void raizCoincideConArbolDeReferencia() {
+		Random random = new Random(11);
+		for (int n : new int[] { 1, 2, 3, 4, 5, 7, 8, 9, 31, 33, 100, UtilidadesMerkle.UMBRAL_PARALELO + 3 }) {
+			List<byte[]> hashes = new ArrayList<>();
+			byte[] hojas = new byte[n * 32];
+			for (int i = 0; i < n; i++) {
+				byte[] hash = new byte[32];
+				random.nextBytes(hash);
+				hashes.add(hash);
+				System.arraycopy(hash, 0, hojas, i * 32, 32);
+			}
+			assertArrayEquals(raizReferencia(hashes), UtilidadesMerkle.calcularRaiz(hojas, n));
+		}
+	}
+
+	@Test
+	public void raizVacia() {
+		assertNull(UtilidadesMerkle.calcularRaiz(new byte[0], 0));
+	}
+
+	@Test
+	public void pruebasDeInclusion() {
+		Random random = new Random(13);
+		for (int n : new int[] { 1, 2, 3, 6, 7, 16, 37 }) {
+			List<Transaccion> transacciones = new ArrayList<>();
+			for (int i = 0; i < n; i++) {
+				byte[] hash = new byte[32];
+				random.nextBytes(hash);
+				Transaccion transaccion = new Transaccion();
+				transaccion.setHash(hash);
+				transacciones.add(transaccion);
+			}
+			ArbolMerkle arbol = new ArbolMerkle(transacciones);
+			byte[] raiz = arbol.getRaiz();
+
+			for (int i = 0; i < n; i++) {
+				byte[] hash = transacciones.get(i).getHash();
+				assertEquals(i, arbol.indiceDe(hash));
+				assertTrue(UtilidadesMerkle.verificarPrueba(hash, i, n, arbol.getHermanos(i), raiz));
+				if (n > 1) {
+					assertFalse(UtilidadesMerkle.verificarPrueba(hash, (i + 1) % n, n, arbol.getHermanos(i), raiz));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Árbol de Merkle nivel a nivel en el que el nodo impar sube sin cambios.
+	 */
+	private static byte[] raizReferencia(List<byte[]> nivel) {
+		while (nivel.size() > 1) {
+			List<byte[]> siguiente = new ArrayList<>();
+			for (int i = 0; i + 1 < nivel.size(); i += 2) {
+				siguiente.add(DigestUtils.sha256(ArrayUtils.addAll(nivel.get(i), nivel.get(i + 1))));
+			}
+			if (nivel.size() % 2 == 1) {
+				siguiente.add(nivel.get(nivel.size() - 1));
+			}
+			nivel = siguiente;
+		}
+		return nivel.get(0);
+	}
+}
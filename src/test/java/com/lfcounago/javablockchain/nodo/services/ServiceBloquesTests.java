@@ -0,0 +1,172 @@
+package com.lfcounago.javablockchain.nodo.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.lfcounago.javablockchain.Configuracion;
+import com.lfcounago.javablockchain.commons.estructuras.Bloque;
+import com.lfcounago.javablockchain.commons.estructuras.CadenaDeBloques;
+import com.lfcounago.javablockchain.commons.estructuras.Transaccion;
+import com.lfcounago.javablockchain.commons.utilidades.UtilidadesFirma;
+
+/**
+ * Reorganizaciones de la cadena al recibir bloques de ramas laterales. Los
+ * bloques se minan con la dificultad de la configuración de las pruebas.
+ */
+class ServiceBloquesTests {
+
+	private static long timestamp = 1;
+
+	private ServiceValidacion servicioValidacion;
+	private ServiceTransacciones servicioTransacciones;
+	private ServiceBloques servicioBloques;
+	private CadenaDeBloques cadena;
+
+	private KeyPair claveMinero;
+	private byte[] minero;
+	private byte[] destinatario;
+
+	@BeforeEach
+	public void crearServicios() throws Exception {
+		servicioValidacion = new ServiceValidacion();
+		servicioTransacciones = new ServiceTransacciones(servicioValidacion);
+		servicioBloques = new ServiceBloques(servicioTransacciones, servicioValidacion, new ServiceHilos(false));
+		cadena = servicioBloques.getCadenaDeBloques();
+
+		claveMinero = UtilidadesFirma.generarParClaves();
+		minero = claveMinero.getPublic().getEncoded();
+		destinatario = UtilidadesFirma.generarParClaves().getPublic().getEncoded();
+	}
+
+	@AfterEach
+	public void cerrarServicios() {
+		servicioBloques.shutdown();
+		servicioValidacion.shutdown();
+	}
+
+	@Test
+	public void ramaMasPesadaSustituyeALaCadena() throws Exception {
+		Transaccion transaccion = transaccion(3);
+		Bloque g = minar(null);
+		Bloque a1 = minar(g);
+		servicioBloques.añadirBloque(g);
+		servicioBloques.añadirBloque(a1);
+
+		// con el mismo trabajo que la cadena se queda en una rama lateral
+		Bloque b1 = minar(g);
+		Bloque b2 = minar(b1, transaccion);
+		servicioBloques.añadirBloque(b1);
+		assertSame(a1, cadena.getUltimoBloque());
+
+		servicioBloques.añadirBloque(b2);
+		assertSame(b2, cadena.getUltimoBloque());
+		assertEquals(3, cadena.getNumeroBloques());
+		assertEquals(1, servicioBloques.getReorganizaciones());
+		assertEquals(1, servicioBloques.getBloquesDeshechos());
+		assertEquals(3, cadena.getSaldos().getSaldoCuenta(destinatario));
+		assertNotNull(servicioBloques.obtenerTransaccionConfirmada(transaccion.getHash()));
+		// el bloque deshecho pasa a una rama lateral
+		assertTrue(servicioBloques.conoceBloque(a1.getHash()));
+		assertEquals(1, servicioBloques.getBloquesRamasLaterales());
+	}
+
+	@Test
+	public void ramaInvalidaVuelveALaCadenaAnterior() throws Exception {
+		Transaccion transaccion = transaccion(3);
+		Bloque g = minar(null);
+		servicioBloques.añadirBloque(g);
+		servicioTransacciones.añadirTransaccion(transaccion);
+		Bloque a1 = minar(g, transaccion);
+		servicioBloques.añadirBloque(a1);
+
+		// b2 gasta más de lo que el minero tiene en esa rama, contando su coinbase
+		long cantidadCoinbase = Configuracion.getInstancia().getCantidadCoinbase();
+		Bloque b1 = minar(g);
+		Bloque b2 = minar(b1, transaccion(3 * cantidadCoinbase + 1));
+		servicioBloques.añadirBloque(b1);
+		assertThrows(Exception.class, () -> servicioBloques.añadirBloque(b2));
+
+		assertSame(a1, cadena.getUltimoBloque());
+		assertEquals(2, cadena.getNumeroBloques());
+		assertEquals(0, servicioBloques.getReorganizaciones());
+		assertEquals(3, cadena.getSaldos().getSaldoCuenta(destinatario));
+		assertEquals(cantidadCoinbase * 2 - 3, cadena.getSaldos().getSaldoCuenta(minero));
+		// la transacción de a1 vuelve a estar confirmada y no en el pool
+		assertNotNull(servicioBloques.obtenerTransaccionConfirmada(transaccion.getHash()));
+		assertFalse(servicioTransacciones.contieneTransaccion(transaccion.getHash()));
+		// la rama se descarta desde el bloque inválido
+		assertTrue(servicioBloques.conoceBloque(b1.getHash()));
+		assertFalse(servicioBloques.conoceBloque(b2.getHash()));
+	}
+
+	@Test
+	public void ramaQueRepiteTransaccionConfirmadaSeRechaza() throws Exception {
+		Transaccion transaccion = transaccion(3);
+		Bloque g = minar(null);
+		servicioBloques.añadirBloque(g);
+		servicioTransacciones.añadirTransaccion(transaccion);
+		Bloque a1 = minar(g, transaccion);
+		Bloque a2 = minar(a1);
+		servicioBloques.añadirBloque(a1);
+		servicioBloques.añadirBloque(a2);
+
+		// b2 vuelve a incluir la transacción confirmada en a1, antes de la
+		// bifurcación
+		Bloque b2 = minar(a1, transaccion);
+		Bloque b3 = minar(b2);
+		servicioBloques.añadirBloque(b2);
+		assertThrows(Exception.class, () -> servicioBloques.añadirBloque(b3));
+
+		assertSame(a2, cadena.getUltimoBloque());
+		assertEquals(3, cadena.getNumeroBloques());
+		assertEquals(0, servicioBloques.getReorganizaciones());
+		assertEquals(3, cadena.getSaldos().getSaldoCuenta(destinatario));
+		assertFalse(servicioBloques.conoceBloque(b2.getHash()));
+		assertFalse(servicioBloques.conoceBloque(b3.getHash()));
+	}
+
+	/**
+	 * Crea una transacción firmada del minero al destinatario.
+	 */
+	private Transaccion transaccion(long cantidad) throws Exception {
+		Transaccion transaccion = new Transaccion(minero, destinatario, cantidad, null);
+		transaccion.setTimestamp(timestamp++);
+		transaccion.setFirma(
+				UtilidadesFirma.firmar(transaccion.getContenidoTransaccion(), claveMinero.getPrivate().getEncoded()));
+		transaccion.setHash(transaccion.calcularHashTransaccion());
+		return transaccion;
+	}
+
+	/**
+	 * Mina un bloque con una coinbase para el minero y las transacciones dadas.
+	 * Cada coinbase lleva un timestamp distinto para que no tengan el mismo hash.
+	 */
+	private Bloque minar(Bloque anterior, Transaccion... transacciones) {
+		Transaccion coinbase = new Transaccion(minero);
+		coinbase.setTimestamp(timestamp++);
+		coinbase.setHash(coinbase.calcularHashTransaccion());
+		List<Transaccion> contenido = new ArrayList<>();
+		contenido.add(coinbase);
+		contenido.addAll(Arrays.asList(transacciones));
+		int dificultad = Configuracion.getInstancia().getDificultad();
+		for (long nonce = 1;; nonce++) {
+			Bloque bloque = new Bloque(anterior != null ? anterior.getHash() : null, contenido, nonce);
+			if (bloque.getNumeroDeCerosHash() >= dificultad) {
+				return bloque;
+			}
+		}
+	}
+}